@@ -0,0 +1,99 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.bench;
+
+import java.util.Random;
+
+import com.geoxp.geo.Coverage;
+import com.geoxp.geo.HHCodeHelper;
+
+/**
+ * Deterministic inputs shared by the benchmarks.
+ */
+final class BenchmarkData {
+  
+  /**
+   * Center of the area in which data are generated (Brest, France)
+   */
+  static final double LAT = 48.39;
+  static final double LON = -4.49;
+  
+  private BenchmarkData() {}
+  
+  /**
+   * Return the number of leading HHCode bits of a region containing about 4 times
+   * 'cells' cells at 'resolution', so random cells fill it at about 25%.
+   */
+  static int regionBits(int resolution, int cells) {
+    int bits = 2 * resolution;
+    
+    while (bits > 0 && (1L << (2 * resolution - bits)) < 4L * cells) {
+      bits -= 4;
+    }
+    
+    return Math.max(0, bits);
+  }
+  
+  /**
+   * Generate random HHCodes in the region around LAT/LON defined by its number of leading bits
+   */
+  static long[] hhcodes(Random rand, int n, int bits) {
+    long mask = 0 == bits ? 0L : 0xffffffffffffffffL << (64 - bits);
+    long root = HHCodeHelper.getHHCodeValue(LAT, LON) & mask;
+    long[] hhcodes = new long[n];
+    
+    for (int i = 0; i < n; i++) {
+      hhcodes[i] = root | (rand.nextLong() & ~mask);
+    }
+    
+    return hhcodes;
+  }
+  
+  /**
+   * Generate sorted geocells made of 'cells' distinct random cells at 'resolution', in
+   * the region returned by regionBits around LAT/LON
+   */
+  static long[] geocells(Random rand, int resolution, int cells) {
+    int bits = regionBits(resolution, cells);
+    Coverage c = new Coverage();
+    
+    while (c.getCellCount() < cells) {
+      c.addCell(resolution, hhcodes(rand, 1, bits)[0]);
+    }
+    
+    return c.toGeoCells(resolution);
+  }
+  
+  /**
+   * Generate a star shaped polygon with 'vertices' vertices around LAT/LON, as lat/lon pairs in degrees
+   */
+  static double[][] polygon(Random rand, int vertices) {
+    double[][] latlons = new double[vertices][];
+    
+    for (int i = 0; i < vertices; i++) {
+      double theta = 2.0D * Math.PI * i / vertices;
+      double r = 0.05D + 0.05D * rand.nextDouble();
+      latlons[i] = new double[] { LAT + r * Math.sin(theta), LON + r * Math.cos(theta) };
+    }
+    
+    return latlons;
+  }
+}
@@ -0,0 +1,106 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geoxp.geo.ConcurrentGeoBloomFilter;
+import com.geoxp.geo.GeoBloomFilter;
+
+/**
+ * Insertions and lookups shared by several threads, in a synchronized GeoBloomFilter
+ * and in a ConcurrentGeoBloomFilter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConcurrentGeoBloomFilterBenchmark {
+  
+  /**
+   * Finest resolution of the filters (2 to 30)
+   */
+  @Param({ "24" })
+  public int resolution;
+  
+  private static final int N = 1 << 16;
+  
+  private GeoBloomFilter filter;
+  private ConcurrentGeoBloomFilter concurrentFilter;
+  private long[] points;
+  
+  @State(Scope.Thread)
+  public static class Cursor {
+    private int idx = 0;
+    
+    @Setup
+    public void setup() {
+      idx = (int) (Thread.currentThread().getId() * 7919);
+    }
+    
+    int next() {
+      idx = (idx + 1) & (N - 1);
+      return idx;
+    }
+  }
+  
+  @Setup
+  public void setup() {
+    Random rand = new Random(0L);
+    
+    filter = new GeoBloomFilter(resolution >> 1, null, null, 6, true);
+    concurrentFilter = new ConcurrentGeoBloomFilter(resolution >> 1, null, null, 6, true);
+    
+    points = BenchmarkData.hhcodes(rand, N, 16);
+  }
+  
+  @Benchmark
+  public void add(Cursor cursor) {
+    filter.add(points[cursor.next()]);
+  }
+  
+  @Benchmark
+  public void concurrentAdd(Cursor cursor) {
+    concurrentFilter.add(points[cursor.next()]);
+  }
+  
+  @Benchmark
+  public boolean concurrentContains(Cursor cursor) {
+    return concurrentFilter.contains(concurrentFilter.fixCell(0xf000000000000000L | (points[cursor.next()] >>> 4)));
+  }
+}
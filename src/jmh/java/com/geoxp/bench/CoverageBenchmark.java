@@ -0,0 +1,98 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geoxp.geo.Coverage;
+import com.geoxp.geo.HHCodeHelper;
+import com.geoxp.geo.JTSHelper;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Coverage of polygons, by HHCodeHelper.coverPolygon and JTSHelper.coverGeometry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoverageBenchmark {
+  
+  @Param({ "14", "18", "22" })
+  public int resolution;
+  
+  @Param({ "16", "1024" })
+  public int vertices;
+  
+  private List<Long> verticesLat;
+  private List<Long> verticesLon;
+  private Geometry geometry;
+  
+  @Setup
+  public void setup() {
+    double[][] latlons = BenchmarkData.polygon(new Random(0L), vertices);
+    
+    verticesLat = new ArrayList<Long>();
+    verticesLon = new ArrayList<Long>();
+    Coordinate[] coords = new Coordinate[vertices + 1];
+    
+    for (int i = 0; i < vertices; i++) {
+      long[] coord = HHCodeHelper.splitHHCode(HHCodeHelper.getHHCodeValue(latlons[i][0], latlons[i][1]), HHCodeHelper.MAX_RESOLUTION);
+      verticesLat.add(coord[0]);
+      verticesLon.add(coord[1]);
+      coords[i] = new Coordinate(latlons[i][1], latlons[i][0]);
+    }
+    
+    coords[vertices] = coords[0];
+    
+    GeometryFactory factory = new GeometryFactory();
+    geometry = factory.createPolygon(factory.createLinearRing(coords), null);
+  }
+  
+  @Benchmark
+  public Coverage coverPolygon() {
+    return HHCodeHelper.coverPolygon(verticesLat, verticesLon, resolution);
+  }
+  
+  @Benchmark
+  public Coverage coverGeometry() {
+    return JTSHelper.coverGeometry(geometry, 2, resolution, false);
+  }
+}
@@ -0,0 +1,124 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.bench;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geoxp.geo.GeoBloomFilter;
+
+/**
+ * Insertions and lookups in a GeoBloomFilter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoBloomFilterBenchmark {
+  
+  /**
+   * Finest resolution of the filter (2 to 30)
+   */
+  @Param({ "16", "24" })
+  public int resolution;
+  
+  /**
+   * Number of points added to the filter before lookups
+   */
+  @Param({ "1000", "100000" })
+  public int cells;
+  
+  /**
+   * Use the blocked layout
+   */
+  @Param({ "false", "true" })
+  public boolean blocked;
+  
+  private static final int N = 1024;
+  
+  private GeoBloomFilter filter;
+  private long[] points;
+  private long[] probes;
+  private int idx = 0;
+  private BitSet out = new BitSet(N);
+  
+  @Setup
+  public void setup() {
+    Random rand = new Random(0L);
+    
+    filter = new GeoBloomFilter(resolution >> 1, null, null, 6, true, blocked);
+    
+    for (long hhcode: BenchmarkData.hhcodes(rand, cells, 16)) {
+      filter.add(hhcode);
+    }
+    
+    points = BenchmarkData.hhcodes(rand, N, 16);
+    
+    // Probe geocells at the finest resolution of the filter
+    probes = new long[N];
+    
+    for (int i = 0; i < N; i++) {
+      probes[i] = filter.fixCell(0xf000000000000000L | (points[i] >>> 4));
+    }
+  }
+  
+  @Benchmark
+  public void add() {
+    idx = (idx + 1) & (N - 1);
+    filter.add(points[idx]);
+  }
+  
+  @Benchmark
+  public boolean contains() {
+    idx = (idx + 1) & (N - 1);
+    return filter.contains(probes[idx]);
+  }
+  
+  @Benchmark
+  public boolean containsHierarchy() {
+    idx = (idx + 1) & (N - 1);
+    return filter.containsHierarchy(probes[idx]);
+  }
+  
+  /**
+   * Hierarchy checks of all N probes in one call
+   */
+  @Benchmark
+  public BitSet containsAll() {
+    filter.containsAll(probes, out);
+    return out;
+  }
+}
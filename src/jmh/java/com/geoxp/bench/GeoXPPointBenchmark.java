@@ -0,0 +1,104 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geoxp.GeoXPLib;
+import com.geoxp.geo.GeoHashHelper;
+
+/**
+ * Conversions between lat/lon, GeoXPPoints and geohashes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoXPPointBenchmark {
+  
+  private static final int N = 1024;
+  
+  private double[] lats = new double[N];
+  private double[] lons = new double[N];
+  private long[] geoxppoints = new long[N];
+  private String[] geohashes = new String[N];
+  
+  private int idx = 0;
+  
+  @Setup
+  public void setup() {
+    Random rand = new Random(0L);
+    
+    for (int i = 0; i < N; i++) {
+      lats[i] = rand.nextDouble() * 180.0D - 90.0D;
+      lons[i] = rand.nextDouble() * 360.0D - 180.0D;
+      geoxppoints[i] = GeoXPLib.toGeoXPPoint(lats[i], lons[i]);
+      geohashes[i] = GeoHashHelper.fromHHCode(geoxppoints[i], 30);
+    }
+  }
+  
+  private int next() {
+    idx = (idx + 1) & (N - 1);
+    return idx;
+  }
+  
+  @Benchmark
+  public long toGeoXPPoint() {
+    int i = next();
+    return GeoXPLib.toGeoXPPoint(lats[i], lons[i]);
+  }
+  
+  @Benchmark
+  public double[] fromGeoXPPoint() {
+    return GeoXPLib.fromGeoXPPoint(geoxppoints[next()]);
+  }
+  
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public long[] toGeoXPPoints() {
+    GeoXPLib.toGeoXPPoints(lats, lons, geoxppoints);
+    return geoxppoints;
+  }
+  
+  @Benchmark
+  public String geohashFromHHCode() {
+    return GeoHashHelper.fromHHCode(geoxppoints[next()], 30);
+  }
+  
+  @Benchmark
+  public long geohashToHHCode() {
+    return GeoHashHelper.toHHCode(geohashes[next()]);
+  }
+}
@@ -0,0 +1,95 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geoxp.GeoXPLib;
+import com.geoxp.GeoXPLib.GeoXPShape;
+import com.geoxp.geo.Coverage;
+
+/**
+ * Containment checks and set operations on GeoXPShapes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoXPShapeBenchmark {
+  
+  @Param({ "16", "20", "24" })
+  public int resolution;
+  
+  @Param({ "100", "10000" })
+  public int cells;
+  
+  private static final int N = 1024;
+  
+  private GeoXPShape a;
+  private GeoXPShape b;
+  private long[] points;
+  private int idx = 0;
+  
+  @Setup
+  public void setup() {
+    Random rand = new Random(0L);
+    a = GeoXPLib.fromCells(BenchmarkData.geocells(rand, resolution, cells), false);
+    b = GeoXPLib.fromCells(BenchmarkData.geocells(rand, resolution, cells), false);
+    points = BenchmarkData.hhcodes(rand, N, BenchmarkData.regionBits(resolution, cells));
+  }
+  
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public boolean contains() {
+    idx = (idx + 1) & (N - 1);
+    return Coverage.contains(GeoXPLib.getCells(a), points[idx]);
+  }
+  
+  @Benchmark
+  public GeoXPShape union() {
+    return GeoXPLib.union(a, b);
+  }
+  
+  @Benchmark
+  public GeoXPShape intersection() {
+    return GeoXPLib.intersection(a, b);
+  }
+  
+  @Benchmark
+  public GeoXPShape subtraction() {
+    return GeoXPLib.subtraction(a, b);
+  }
+}
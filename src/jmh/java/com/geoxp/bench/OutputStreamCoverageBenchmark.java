@@ -0,0 +1,89 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geoxp.geo.OutputStreamCoverage;
+
+/**
+ * Streamed optimization of coverages by OutputStreamCoverage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputStreamCoverageBenchmark {
+  
+  @Param({ "16", "24" })
+  public int resolution;
+  
+  @Param({ "10000", "1000000" })
+  public int cells;
+  
+  /**
+   * Cells in the text format of OutputStreamCoverage, one hex prefix per line
+   */
+  private byte[] input;
+  
+  @Setup
+  public void setup() {
+    long[] geocells = BenchmarkData.geocells(new Random(0L), resolution, cells);
+    StringBuilder sb = new StringBuilder();
+    
+    for (long geocell: geocells) {
+      String hex = Long.toHexString(geocell << 4);
+      // Pad to 16 nibbles, then keep the cell's prefix
+      while (hex.length() < 16) {
+        hex = "0" + hex;
+      }
+      sb.append(hex.substring(0, resolution >> 1));
+      sb.append('\n');
+    }
+    
+    input = sb.toString().getBytes();
+  }
+  
+  @Benchmark
+  public byte[] optimize() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
+    OutputStreamCoverage.optimize(new ByteArrayInputStream(input), out, 0L, 0);
+    return out.toByteArray();
+  }
+}
@@ -20,14 +20,25 @@
 
 package com.geoxp;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.geoxp.geo.Coverage;
 import com.geoxp.geo.CoverageHelper;
+import com.geoxp.geo.GeoCellCodec;
+import com.geoxp.geo.GeoCellHelper;
+import com.geoxp.geo.GeoCellIndex;
 import com.geoxp.geo.HHCodeHelper;
 import com.geoxp.geo.JTSHelper;
 import com.vividsolutions.jts.geom.Geometry;
@@ -49,6 +60,11 @@ public final class GeoXPLib {
   
   private static final long[] LOWER_BITS;
   
+  /**
+   * Number of points under which batch conversions are not split across a ForkJoinPool
+   */
+  private static final int BATCH_SPLIT_THRESHOLD = 1 << 16;
+  
   static {
     LOWER_BITS = new long[16];
     
@@ -60,6 +76,20 @@ public final class GeoXPLib {
     long[] geocells;
   }
   
+  /**
+   * Read-only GeoXPShape whose geocells are read in place from a buffer, typically a
+   * memory mapped file or a direct ByteBuffer holding a shape serialized by
+   * serializeGeoXPShape(GeoXPShape). Nothing is copied onto the heap, so processes
+   * mapping the same file share a single copy in the page cache.
+   */
+  public static final class GeoXPShapeView {
+    final LongBuffer geocells;
+    
+    GeoXPShapeView(LongBuffer geocells) {
+      this.geocells = geocells;
+    }
+  }
+  
   /**
    * Converts (lat,lon) coordinates into a GeoXPPoint.
    * 
@@ -105,6 +135,177 @@ public final class GeoXPLib {
 	  return HHCodeHelper.getLatLon(geoxppoint, HHCodeHelper.MAX_RESOLUTION);
 	}
 	
+	/**
+	 * Converts arrays of (lat,lon) coordinates into GeoXPPoints.
+	 * 
+	 * @param lats Latitudes in decimal degrees
+	 * @param lons Longitudes in decimal degrees
+	 * @param out Array where the GeoXPPoints will be stored, at the same index as their lat/lon
+	 */
+	public static void toGeoXPPoints(double[] lats, double[] lons, long[] out) {
+	  toGeoXPPoints(lats, lons, out, null);
+	}
+	
+	/**
+	 * Converts arrays of (lat,lon) coordinates into GeoXPPoints, splitting the work
+	 * across 'pool' for large arrays.
+	 * 
+	 * @param lats Latitudes in decimal degrees
+	 * @param lons Longitudes in decimal degrees
+	 * @param out Array where the GeoXPPoints will be stored, at the same index as their lat/lon
+	 * @param pool ForkJoinPool to use, or null to do the conversion in the calling thread
+	 */
+	public static void toGeoXPPoints(double[] lats, double[] lons, long[] out, ForkJoinPool pool) {
+	  if (lats.length != lons.length || out.length < lats.length) {
+	    throw new RuntimeException("Incompatible array lengths.");
+	  }
+	  
+	  if (null == pool || lats.length <= BATCH_SPLIT_THRESHOLD) {
+	    HHCodeHelper.getHHCodeValues(lats, lons, out, 0, lats.length);
+	  } else {
+	    pool.invoke(new BatchConversion(lats, lons, out, true, 0, lats.length));
+	  }
+	}
+	
+	/**
+	 * Converts the remaining (lat,lon) coordinates of two buffers into GeoXPPoints.
+	 * The positions of the buffers are advanced by the number of converted points.
+	 * 
+	 * @param lats Latitudes in decimal degrees
+	 * @param lons Longitudes in decimal degrees
+	 * @param out Buffer where the GeoXPPoints will be stored
+	 */
+	public static void toGeoXPPoints(DoubleBuffer lats, DoubleBuffer lons, LongBuffer out) {
+	  int n = lats.remaining();
+	  
+	  if (lons.remaining() != n || out.remaining() < n) {
+	    throw new RuntimeException("Incompatible buffer lengths.");
+	  }
+	  
+	  if (lats.hasArray() && lons.hasArray() && out.hasArray()
+	      && 0 == lats.arrayOffset() + lats.position() && 0 == lons.arrayOffset() + lons.position() && 0 == out.arrayOffset() + out.position()) {
+	    HHCodeHelper.getHHCodeValues(lats.array(), lons.array(), out.array(), 0, n);
+	  } else {
+	    int latpos = lats.position();
+	    int lonpos = lons.position();
+	    int outpos = out.position();
+	    
+	    for (int i = 0; i < n; i++) {
+	      out.put(outpos + i, HHCodeHelper.getHHCodeValue(lats.get(latpos + i), lons.get(lonpos + i)));
+	    }
+	  }
+	  
+	  lats.position(lats.position() + n);
+	  lons.position(lons.position() + n);
+	  out.position(out.position() + n);
+	}
+	
+	/**
+	 * Converts an array of GeoXPPoints into (lat,lon) coordinates.
+	 * 
+	 * @param geoxppoints GeoXPPoints to convert
+	 * @param latsOut Array where the latitudes (in decimal degrees) will be stored
+	 * @param lonsOut Array where the longitudes (in decimal degrees) will be stored
+	 */
+	public static void fromGeoXPPoints(long[] geoxppoints, double[] latsOut, double[] lonsOut) {
+	  fromGeoXPPoints(geoxppoints, latsOut, lonsOut, null);
+	}
+	
+	/**
+	 * Converts an array of GeoXPPoints into (lat,lon) coordinates, splitting the work
+	 * across 'pool' for large arrays.
+	 * 
+	 * @param geoxppoints GeoXPPoints to convert
+	 * @param latsOut Array where the latitudes (in decimal degrees) will be stored
+	 * @param lonsOut Array where the longitudes (in decimal degrees) will be stored
+	 * @param pool ForkJoinPool to use, or null to do the conversion in the calling thread
+	 */
+	public static void fromGeoXPPoints(long[] geoxppoints, double[] latsOut, double[] lonsOut, ForkJoinPool pool) {
+	  if (latsOut.length < geoxppoints.length || lonsOut.length < geoxppoints.length) {
+	    throw new RuntimeException("Incompatible array lengths.");
+	  }
+	  
+	  if (null == pool || geoxppoints.length <= BATCH_SPLIT_THRESHOLD) {
+	    HHCodeHelper.getLatLons(geoxppoints, latsOut, lonsOut, 0, geoxppoints.length);
+	  } else {
+	    pool.invoke(new BatchConversion(latsOut, lonsOut, geoxppoints, false, 0, geoxppoints.length));
+	  }
+	}
+	
+	/**
+	 * Converts the remaining GeoXPPoints of a buffer into (lat,lon) coordinates.
+	 * The positions of the buffers are advanced by the number of converted points.
+	 * 
+	 * @param geoxppoints GeoXPPoints to convert
+	 * @param latsOut Buffer where the latitudes (in decimal degrees) will be stored
+	 * @param lonsOut Buffer where the longitudes (in decimal degrees) will be stored
+	 */
+	public static void fromGeoXPPoints(LongBuffer geoxppoints, DoubleBuffer latsOut, DoubleBuffer lonsOut) {
+	  int n = geoxppoints.remaining();
+	  
+	  if (latsOut.remaining() < n || lonsOut.remaining() < n) {
+	    throw new RuntimeException("Incompatible buffer lengths.");
+	  }
+	  
+	  if (geoxppoints.hasArray() && latsOut.hasArray() && lonsOut.hasArray()
+	      && 0 == geoxppoints.arrayOffset() + geoxppoints.position() && 0 == latsOut.arrayOffset() + latsOut.position() && 0 == lonsOut.arrayOffset() + lonsOut.position()) {
+	    HHCodeHelper.getLatLons(geoxppoints.array(), latsOut.array(), lonsOut.array(), 0, n);
+	  } else {
+	    int inpos = geoxppoints.position();
+	    int latpos = latsOut.position();
+	    int lonpos = lonsOut.position();
+	    
+	    for (int i = 0; i < n; i++) {
+	      long hhcode = geoxppoints.get(inpos + i);
+	      latsOut.put(latpos + i, HHCodeHelper.splitLat(hhcode) * HHCodeHelper.DEGREES_PER_LAT_UNIT - 90.0D);
+	      lonsOut.put(lonpos + i, HHCodeHelper.splitLon(hhcode) * HHCodeHelper.DEGREES_PER_LON_UNIT - 180.0D);
+	    }
+	  }
+	  
+	  geoxppoints.position(geoxppoints.position() + n);
+	  latsOut.position(latsOut.position() + n);
+	  lonsOut.position(lonsOut.position() + n);
+	}
+	
+	/**
+	 * Task splitting a batch conversion in chunks of at most BATCH_SPLIT_THRESHOLD points.
+	 */
+	private static final class BatchConversion extends RecursiveAction {
+	  private static final long serialVersionUID = 1L;
+	  
+	  private final double[] lats;
+	  private final double[] lons;
+	  private final long[] geoxppoints;
+	  private final boolean encode;
+	  private final int from;
+	  private final int to;
+	  
+	  BatchConversion(double[] lats, double[] lons, long[] geoxppoints, boolean encode, int from, int to) {
+	    this.lats = lats;
+	    this.lons = lons;
+	    this.geoxppoints = geoxppoints;
+	    this.encode = encode;
+	    this.from = from;
+	    this.to = to;
+	  }
+	  
+	  @Override
+	  protected void compute() {
+	    if (to - from <= BATCH_SPLIT_THRESHOLD) {
+	      if (encode) {
+	        HHCodeHelper.getHHCodeValues(lats, lons, geoxppoints, from, to);
+	      } else {
+	        HHCodeHelper.getLatLons(geoxppoints, lats, lons, from, to);
+	      }
+	      return;
+	    }
+	    
+	    int mid = (from + to) >>> 1;
+	    
+	    invokeAll(new BatchConversion(lats, lons, geoxppoints, encode, from, mid), new BatchConversion(lats, lons, geoxppoints, encode, mid, to));
+	  }
+	}
+	
 	/**
 	 * Converts a GeoXPPoint to long coordinates representing latitude and longitude
 	 * 
@@ -127,16 +328,94 @@ public final class GeoXPLib {
 	}
 	
 	/**
-	 * Converts a JTS Geometry into a GeoXPShape
+	 * Determine if a GeoXPPoint is contained in a GeoXPShapeView
+	 * 
+	 * @param geoxppoint GeoXPPoint to check
+	 * @param view GeoXPShapeView to check
+	 * @return true if the view contains geoxppoint, false otherwise 
+	 */
+	public static boolean isGeoXPPointInGeoXPShape(long geoxppoint, GeoXPShapeView view) {
+	  return GeoCellHelper.contains(view.geocells, geoxppoint);
+	}
+	
+	/**
+	 * Build an index of a GeoXPShape for fast containment checks. The index is
+	 * immutable and can be shared among threads, it is not affected by later changes
+	 * to the GeoXPShape.
+	 * 
+	 * @param geoxpshape GeoXPShape to index
+	 * @return The index of the GeoXPShape
+	 */
+	public static GeoCellIndex indexGeoXPShape(GeoXPShape geoxpshape) {
+	  return new GeoCellIndex(geoxpshape.geocells);
+	}
+	
+	/**
+	 * Determine if a GeoXPPoint is contained in an indexed GeoXPShape
+	 * 
+	 * @param geoxppoint GeoXPPoint to check
+	 * @param index Index of the GeoXPShape to check, as returned by indexGeoXPShape
+	 * @return true if the indexed GeoXPShape contains geoxppoint, false otherwise 
+	 */
+	public static boolean isGeoXPPointInGeoXPShape(long geoxppoint, GeoCellIndex index) {
+	  return index.contains(geoxppoint);
+	}
+	
+	/**
+	 * Converts a JTS Geometry into a GeoXPShape in a single top down pass.
+	 * 
+	 * Cells inside the geometry are kept coarse and only boundary cells are refined, until the
+	 * error bound or the cell budget is reached, so the shape has at most 'maxcells' cells.
 	 * 
 	 * @param geometry The JTS Geometry instance to convert.
 	 * @param pctError The precision (in % of the geometry's envelope diagonal)
 	 * @param inside Should the compute coverge be completely inside the Geometry (useful when subtracting)
-	 * @param maximum number of cells
+	 * @param maxcells Maximum number of cells
 	 * 
-	 * @return the resulting GeoXPShape
+	 * @return the resulting GeoXPShape, or null if the resolution 2 cells touching the geometry exceed maxcells and inside is false
 	 */
   public static GeoXPShape toGeoXPShape(Geometry geometry, double pctError, boolean inside, int maxcells) {
+    return toGeoXPShape(geometry, pctError, inside, maxcells, null);
+  }
+  
+  public static GeoXPShape toGeoXPShape(Geometry geometry, int maxres, boolean inside, int maxcells) {
+    //
+    // Compute Coverage and return its geocells
+    //
+    
+    GeoXPShape geoxpshape = new GeoXPShape();
+    
+    Coverage c = JTSHelper.coverGeometry(geometry, 2, maxres, inside, maxcells);
+    
+    if (null == c) {
+      return null;
+    }
+    
+    c.optimize(0L);
+    geoxpshape.geocells = c.toGeoCells(maxres);  
+    
+    return geoxpshape;
+  }
+
+  public static GeoXPShape toGeoXPShape(Geometry geometry, double pctError, boolean inside) {
+    return toGeoXPShape(geometry, pctError, inside, Integer.MAX_VALUE);
+  }
+  
+  /**
+   * Converts a JTS Geometry into a GeoXPShape in a single top down pass, classifying the cells
+   * of each resolution across a ForkJoinPool. The result is the same as without a pool.
+   * 
+   * @param geometry The JTS Geometry instance to convert.
+   * @param pctError The precision (in % of the geometry's envelope diagonal)
+   * @param inside Should the computed coverage be completely inside the Geometry (useful when subtracting)
+   * @param maxcells Maximum number of cells
+   * @param pool ForkJoinPool to use, or null to do the conversion in the calling thread
+   * 
+   * @return the resulting GeoXPShape, or null if the resolution 2 cells touching the geometry exceed maxcells and inside is false
+   * 
+   * @see #toGeoXPShape(Geometry, double, boolean, int)
+   */
+  public static GeoXPShape toGeoXPShape(Geometry geometry, double pctError, boolean inside, int maxcells, ForkJoinPool pool) {
     //
     // Compute bbox of 'geometry'
     //
@@ -149,17 +428,34 @@ public final class GeoXPLib {
     
     int res = HHCodeHelper.getOptimalResolution(bbox, pctError);
 
-    return toGeoXPShape(geometry, res, inside, maxcells);
+    GeoXPShape geoxpshape = new GeoXPShape();
+    
+    Coverage c = JTSHelper.coverGeometryAdaptive(geometry, res, inside, maxcells, pool);
+    
+    if (null == c) {
+      return null;
+    }
+    
+    geoxpshape.geocells = c.toGeoCells(res);
+    
+    return geoxpshape;
   }
   
-  public static GeoXPShape toGeoXPShape(Geometry geometry, int maxres, boolean inside, int maxcells) {
-    //
-    // Compute Coverage and return its geocells
-    //
-    
+  /**
+   * Converts a JTS Geometry into a GeoXPShape with cells down to 'maxres', splitting the work across a ForkJoinPool
+   * 
+   * @param geometry The JTS Geometry instance to convert.
+   * @param maxres Finest resolution of the cells
+   * @param inside Should the computed coverage be completely inside the Geometry (useful when subtracting)
+   * @param maxcells Maximum number of cells
+   * @param pool ForkJoinPool to use, or null to do the conversion in the calling thread
+   * 
+   * @return the resulting GeoXPShape or null if it needs more than maxcells cells
+   */
+  public static GeoXPShape toGeoXPShape(Geometry geometry, int maxres, boolean inside, int maxcells, ForkJoinPool pool) {
     GeoXPShape geoxpshape = new GeoXPShape();
     
-    Coverage c = JTSHelper.coverGeometry(geometry, 2, maxres, inside, maxcells);
+    Coverage c = JTSHelper.coverGeometry(geometry, 2, maxres, inside, maxcells, pool);
     
     if (null == c) {
       return null;
@@ -170,10 +466,6 @@ public final class GeoXPLib {
     
     return geoxpshape;
   }
-
-  public static GeoXPShape toGeoXPShape(Geometry geometry, double pctError, boolean inside) {
-    return toGeoXPShape(geometry, pctError, inside, Integer.MAX_VALUE);
-  }
   
   /**
    * Converts a JTS Geometry into a GeoXPShape by using a single resolution
@@ -223,6 +515,17 @@ public final class GeoXPLib {
    * Return the bounding box of a GeoXPShape
    */
   public static double[] bbox(GeoXPShape shape) {
+    return bbox(LongBuffer.wrap(shape.geocells));
+  }
+  
+  /**
+   * Return the bounding box of a GeoXPShapeView
+   */
+  public static double[] bbox(GeoXPShapeView view) {
+    return bbox(view.geocells);
+  }
+  
+  private static double[] bbox(LongBuffer geocells) {
     long[] coords = new long[2];
     long[] bbox = new long[4];
     
@@ -231,7 +534,9 @@ public final class GeoXPLib {
     bbox[2] = Long.MIN_VALUE;
     bbox[3] = Long.MIN_VALUE;
     
-    for (long cell: shape.geocells) {
+    for (int i = geocells.position(); i < geocells.limit(); i++) {
+      long cell = geocells.get(i);
+      
       // Extract resolution
       int res = (int) (cell >>> 60);
       
@@ -272,14 +577,8 @@ public final class GeoXPLib {
 	 * @return
 	 */
 	public static GeoXPShape intersection(GeoXPShape a, GeoXPShape b) {
-	  Coverage ca = new Coverage(a.geocells);
-	  Coverage cb = new Coverage(b.geocells);
-	  
-	  Coverage c = Coverage.intersection(ca, cb, false);
-	  c.optimize(0L);
-	  
 	  GeoXPShape intersection = new GeoXPShape();
-	  intersection.geocells = c.toGeoCells(HHCodeHelper.MAX_RESOLUTION);
+	  intersection.geocells = GeoCellHelper.intersection(a.geocells, b.geocells);
 	  
 	  return intersection;
 	}
@@ -292,15 +591,8 @@ public final class GeoXPLib {
 	 * @return
 	 */
 	public static GeoXPShape union(GeoXPShape a, GeoXPShape b) {
-	  Coverage ca = new Coverage(a.geocells);
-	  Coverage cb = new Coverage(b.geocells);
-	  
-	  ca.merge(cb);
-	  ca.dedup();
-	  ca.optimize(0L);
-	  
 	  GeoXPShape union = new GeoXPShape();
-	  union.geocells = ca.toGeoCells(HHCodeHelper.MAX_RESOLUTION);
+	  union.geocells = GeoCellHelper.union(a.geocells, b.geocells);
 	  
 	  return union;
 	}
@@ -314,14 +606,39 @@ public final class GeoXPLib {
 	 * @return
 	 */
 	public static GeoXPShape subtraction(GeoXPShape a, GeoXPShape b) {
-	  Coverage ca = new Coverage(a.geocells);
-	  Coverage cb = new Coverage(b.geocells);
+	  GeoXPShape subtraction = new GeoXPShape();
+	  subtraction.geocells = GeoCellHelper.subtraction(a.geocells, b.geocells);
 	  
-	  Coverage c = Coverage.minus(ca, cb, false);
-	  c.optimize(0L);
+	  return subtraction;
+	}
+	
+	/**
+	 * Return a GeoXPShape which is the intersection of two GeoXPShapeViews
+	 */
+	public static GeoXPShape intersection(GeoXPShapeView a, GeoXPShapeView b) {
+	  GeoXPShape intersection = new GeoXPShape();
+	  intersection.geocells = GeoCellHelper.intersection(a.geocells, b.geocells);
 	  
+	  return intersection;
+	}
+	
+	/**
+	 * Return a GeoXPShape which is the union of two GeoXPShapeViews
+	 */
+	public static GeoXPShape union(GeoXPShapeView a, GeoXPShapeView b) {
+	  GeoXPShape union = new GeoXPShape();
+	  union.geocells = GeoCellHelper.union(a.geocells, b.geocells);
+	  
+	  return union;
+	}
+	
+	/**
+	 * Return a GeoXPShape which is the result of subtracting the second
+	 * GeoXPShapeView from the first one.
+	 */
+	public static GeoXPShape subtraction(GeoXPShapeView a, GeoXPShapeView b) {
 	  GeoXPShape subtraction = new GeoXPShape();
-	  subtraction.geocells = c.toGeoCells(HHCodeHelper.MAX_RESOLUTION);
+	  subtraction.geocells = GeoCellHelper.subtraction(a.geocells, b.geocells);
 	  
 	  return subtraction;
 	}
@@ -358,7 +675,103 @@ public final class GeoXPLib {
 	  }
 	  return buf;
 	}
-	
+
+	/**
+	 * Serialize a GeoXPShape using the compact encoding of GeoCellCodec, cells are grouped
+	 * by resolution and delta encoded as varints.
+	 *
+	 * @param geoxpshape Shape to serialize
+	 * @param checksum Set to true to protect each resolution block with a CRC32
+	 * @return The serialized shape
+	 */
+	public static byte[] serializeGeoXPShape(GeoXPShape geoxpshape, boolean checksum) {
+	  return GeoCellCodec.encode(geoxpshape.geocells, checksum);
+	}
+
+	/**
+	 * Deserialize a GeoXPShape serialized either by serializeGeoXPShape(GeoXPShape, boolean)
+	 * or by serializeGeoXPShape(GeoXPShape).
+	 *
+	 * @param serialized Serialized shape
+	 * @return The deserialized shape
+	 */
+	public static GeoXPShape deserializeGeoXPShape(byte[] serialized) {
+	  return deserializeGeoXPShape(ByteBuffer.wrap(serialized));
+	}
+
+	/**
+	 * Deserialize a GeoXPShape directly from a buffer (heap, direct or mapped), without copying
+	 * the serialized bytes. Compact shapes are read from the buffer's position, which is left right
+	 * after the shape. Raw shapes (8 bytes per geocell) span all the remaining bytes.
+	 *
+	 * @param bb Buffer containing the serialized shape
+	 * @return The deserialized shape
+	 */
+	public static GeoXPShape deserializeGeoXPShape(ByteBuffer bb) {
+	  GeoXPShape geoxpshape = new GeoXPShape();
+
+	  if (GeoCellCodec.isEncoded(bb)) {
+	    geoxpshape.geocells = GeoCellCodec.decode(bb);
+	    return geoxpshape;
+	  }
+
+	  if (0 != bb.remaining() % 8) {
+	    throw new RuntimeException("Invalid serialized shape length.");
+	  }
+
+	  geoxpshape.geocells = new long[bb.remaining() / 8];
+	  bb.duplicate().order(ByteOrder.BIG_ENDIAN).asLongBuffer().get(geoxpshape.geocells);
+	  bb.position(bb.limit());
+
+	  return geoxpshape;
+	}
+
+	/**
+	 * Create a GeoXPShapeView over the remaining bytes of a buffer, which must contain
+	 * sorted geocells as produced by serializeGeoXPShape(GeoXPShape). The bytes are not
+	 * copied nor checked, and the buffer's position is not modified.
+	 *
+	 * @param bb Buffer containing the serialized shape, heap, direct or mapped
+	 * @return A read-only view of the shape
+	 */
+	public static GeoXPShapeView viewGeoXPShape(ByteBuffer bb) {
+	  if (0 != bb.remaining() % 8) {
+	    throw new RuntimeException("Invalid serialized shape length.");
+	  }
+
+	  return new GeoXPShapeView(bb.slice().order(ByteOrder.BIG_ENDIAN).asLongBuffer().asReadOnlyBuffer());
+	}
+
+	/**
+	 * Create a GeoXPShapeView over the geocells of a GeoXPShape, without copying them.
+	 * This allows GeoXPShapes to be combined with views.
+	 *
+	 * @param geoxpshape Shape to view
+	 * @return A read-only view of the shape
+	 */
+	public static GeoXPShapeView viewGeoXPShape(GeoXPShape geoxpshape) {
+	  return new GeoXPShapeView(LongBuffer.wrap(geoxpshape.geocells).asReadOnlyBuffer());
+	}
+
+	/**
+	 * Map a file containing a shape serialized by serializeGeoXPShape(GeoXPShape) and
+	 * return a view over it. The mapping remains valid once the file is closed.
+	 *
+	 * @param file File to map
+	 * @return A read-only view of the shape
+	 * @throws IOException
+	 */
+	public static GeoXPShapeView mapGeoXPShape(File file) throws IOException {
+	  RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+	  try {
+	    FileChannel channel = raf.getChannel();
+	    return viewGeoXPShape(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+	  } finally {
+	    raf.close();
+	  }
+	}
+
 	public static byte[] bytesFromGeoXPPoint(long geoxppoint, int resolution) {
 	  // Ignore odd resolutions or resolution below 2 and above 32
 	  if (resolution < 2 || resolution > 32 || 0 != (resolution & 0x1)) {
@@ -399,6 +812,14 @@ public final class GeoXPLib {
 	  return shape.geocells;
 	}
 	
+	/**
+	 * Return the geocells of a GeoXPShapeView as a read-only buffer, to iterate over them
+	 * without copying them onto the heap.
+	 */
+	public static LongBuffer getCells(GeoXPShapeView view) {
+	  return view.geocells.duplicate();
+	}
+	
 	public static GeoXPShape fromCells(long[] cells, boolean copy) {
 	  GeoXPShape shape = new GeoXPShape();
 	  shape.geocells = copy ? Arrays.copyOf(cells, cells.length) : cells;
@@ -0,0 +1,374 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import gnu.trove.iterator.TLongIterator;
+
+/**
+ * Binary counterpart of OutputStreamCoverage.
+ *
+ * Cells are written as geocells in 8 bytes big endian records instead of hexadecimal
+ * lines, and the static methods process such streams on longs, sorting them with
+ * a GeoCellSorter instead of a text sort. Sorted streams are in Z-order, the order of
+ * the hexadecimal lines, so the methods behave like their text counterparts.
+ *
+ * Cells at resolution 32 cannot be represented as geocells and are ignored.
+ */
+public class BinaryOutputStreamCoverage extends Coverage {
+
+  private final GeoCellWriter writer;
+
+  /**
+   * Last geocell written, 0 if none
+   */
+  private long lastCell = 0L;
+
+  public BinaryOutputStreamCoverage(OutputStream os) {
+    this.writer = new GeoCellWriter(os);
+  }
+
+  @Override
+  public void addCell(int resolution, long lat, long lon) {
+    //
+    // Make sure lat/lon are in the 0->2**32-1 range
+    //
+
+    lat = ((lat % (1L << HHCodeHelper.MAX_RESOLUTION)) + (1L << HHCodeHelper.MAX_RESOLUTION)) % (1L << HHCodeHelper.MAX_RESOLUTION);
+    lon = ((lon % (1L << HHCodeHelper.MAX_RESOLUTION)) + (1L << HHCodeHelper.MAX_RESOLUTION)) % (1L << HHCodeHelper.MAX_RESOLUTION);
+
+    addCell(resolution, HHCodeHelper.buildHHCode(lat, lon, HHCodeHelper.MAX_RESOLUTION));
+  }
+
+  @Override
+  public void addCell(int resolution, long hhcode, long[] geocells, boolean excludeGeoCells) {
+    int r = resolution >> 1;
+
+    // Do nothing if resolution out of range
+    if (r < 1 || r > 15) {
+      return;
+    }
+
+    //
+    // If geocells is not null, check if hhcode is included/excluded
+    //
+
+    if (null != geocells) {
+      boolean ingeocells = contains(geocells, hhcode & PREFIX_MASK[r - 1], 2, resolution);
+
+      if ((ingeocells && excludeGeoCells) || (!ingeocells && !excludeGeoCells)) {
+        return;
+      }
+    }
+
+    long geocell = (((long) r) << 60) | ((hhcode & PREFIX_MASK[r - 1]) >>> 4);
+
+    //
+    // Simple optimization to avoid outputing the same cell as the previous one
+    //
+
+    if (geocell == lastCell) {
+      return;
+    }
+
+    lastCell = geocell;
+
+    try {
+      writer.write(geocell);
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+  }
+
+  @Override
+  public void merge(Coverage other) {
+    for (int r: other.getResolutions()) {
+      for (TLongIterator iter = other.cellIterator(r); iter.hasNext();) {
+        addCell(r, iter.next());
+      }
+    }
+  }
+
+  /**
+   * Flush the buffered cells and close the underlying stream.
+   */
+  public void close() throws IOException {
+    writer.close();
+  }
+
+  /**
+   * Sort a binary coverage and remove duplicate cells.
+   */
+  public static void sort(InputStream in, OutputStream out, GeoCellSorter sorter) throws IOException {
+    try {
+      sorter.sort(in, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  public static void sort(InputStream in, OutputStream out) throws IOException {
+    sort(in, out, new GeoCellSorter());
+  }
+
+  /**
+   * Concatenate two binary coverages.
+   */
+  public static void merge(InputStream in, InputStream in2, OutputStream out) throws IOException {
+    byte[] buf = new byte[65536];
+
+    try {
+      for (InputStream is: new InputStream[] { in, in2 }) {
+        while(true) {
+          int len = is.read(buf);
+
+          if (len < 0) {
+            break;
+          }
+
+          out.write(buf, 0, len);
+        }
+
+        is.close();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Prune a binary coverage, removing subcells if less than (or equal) the threshold exist in their parent cell
+   *
+   * @param in InputStream from which to read the cells
+   * @param out OutputStream where to write the result
+   * @param thresholds Thresholds to apply
+   * @param minresolution Cells at this resolution or coarser are kept as is
+   * @param sorter Sorter to use to sort the input
+   */
+  public static void prune(InputStream in, OutputStream out, long thresholds, int minresolution, GeoCellSorter sorter) throws IOException {
+    group(in, out, thresholds, minresolution, sorter, true);
+  }
+
+  public static void prune(InputStream in, OutputStream out, long thresholds, int minresolution) throws IOException {
+    prune(in, out, thresholds, minresolution, new GeoCellSorter());
+  }
+
+  /**
+   * Optimize a binary coverage, replacing subcells by their parent if at least the threshold exist in it
+   *
+   * @param in InputStream from which to read the cells
+   * @param out OutputStream where to write the result
+   * @param thresholds Thresholds to apply
+   * @param minresolution Cells at this resolution or coarser are kept as is
+   * @param sorter Sorter to use to sort the input
+   */
+  public static void optimize(InputStream in, OutputStream out, long thresholds, int minresolution, GeoCellSorter sorter) throws IOException {
+    group(in, out, thresholds, minresolution, sorter, false);
+  }
+
+  public static void optimize(InputStream in, OutputStream out, long thresholds, int minresolution) throws IOException {
+    optimize(in, out, thresholds, minresolution, new GeoCellSorter());
+  }
+
+  /**
+   * Sort the input and process consecutive cells with the same parent, either
+   * pruning or optimizing them.
+   */
+  private static void group(InputStream in, OutputStream out, long thresholds, int minresolution, GeoCellSorter sorter, boolean prune) throws IOException {
+    //
+    // Split the thresholds
+    //
+
+    int[] resthresholds = new int[16];
+
+    for (int i = 0; i < 16; i++) {
+      resthresholds[i] = (int) ((thresholds >> (60 - 4 * i)) & 0xf);
+      if (0 == resthresholds[i]) {
+        resthresholds[i] = 16;
+      }
+    }
+
+    GeoCellStream cells = sorter.sort(new GeoCellReader(in));
+    GeoCellWriter writer = new GeoCellWriter(out);
+
+    try {
+      // Cell with its last digit cleared, identifies the subcells of a parent
+      long group = 0L;
+      int subcells = 0;
+
+      while (cells.hasNext()) {
+        long geocell = cells.next();
+        int r = (int) (geocell >>> 60);
+
+        if (2 * r <= minresolution) {
+          writer.write(geocell);
+          continue;
+        }
+
+        int shift = 60 - 4 * r;
+        long key = geocell & ~(0xfL << shift);
+
+        if (0 == subcells || key != group) {
+          writeGroup(writer, group, subcells, resthresholds, prune);
+          group = key;
+          subcells = 0;
+        }
+
+        subcells |= 1 << ((geocell >>> shift) & 0xfL);
+      }
+
+      writeGroup(writer, group, subcells, resthresholds, prune);
+    } finally {
+      cells.close();
+      writer.close();
+    }
+  }
+
+  private static void writeGroup(GeoCellWriter writer, long group, int subcells, int[] resthresholds, boolean prune) throws IOException {
+    if (0 == subcells) {
+      return;
+    }
+
+    int r = (int) (group >>> 60);
+    int set = Integer.bitCount(subcells);
+    int threshold = resthresholds[r - 1];
+
+    if (prune && set <= threshold) {
+      return;
+    }
+
+    // Cells at resolution 1 have no parent geocell
+    if (!prune && set >= threshold && r > 1) {
+      writer.write((((long) (r - 1)) << 60) | (group & 0x0fffffffffffffffL));
+      return;
+    }
+
+    int shift = 60 - 4 * r;
+
+    for (int i = 0; i < 16; i++) {
+      if (0 != (subcells & (1 << i))) {
+        writer.write(group | (((long) i) << shift));
+      }
+    }
+  }
+
+  /**
+   * Remove from a binary coverage the cells which appear in another one. The output is sorted.
+   */
+  public static void minus(InputStream in, InputStream minus, OutputStream out, GeoCellSorter sorter) throws IOException {
+    combine(in, minus, out, sorter, false);
+  }
+
+  public static void minus(InputStream in, InputStream minus, OutputStream out) throws IOException {
+    minus(in, minus, out, new GeoCellSorter());
+  }
+
+  /**
+   * Keep the cells of a binary coverage which appear in another one. The output is sorted.
+   */
+  public static void intersection(InputStream in, InputStream intersect, OutputStream out, GeoCellSorter sorter) throws IOException {
+    combine(in, intersect, out, sorter, true);
+  }
+
+  public static void intersection(InputStream in, InputStream intersect, OutputStream out) throws IOException {
+    intersection(in, intersect, out, new GeoCellSorter());
+  }
+
+  /**
+   * Walk two sorted coverages and output the cells of the first one which
+   * are (intersection) or are not (minus) in the second one.
+   */
+  private static void combine(InputStream in, InputStream other, OutputStream out, GeoCellSorter sorter, boolean intersection) throws IOException {
+    GeoCellStream a = null;
+    GeoCellStream b = null;
+    GeoCellWriter writer = new GeoCellWriter(out);
+
+    try {
+      a = sorter.sort(new GeoCellReader(in));
+      b = sorter.sort(new GeoCellReader(other));
+
+      boolean hasB = b.hasNext();
+      long keyB = hasB ? GeoCellSorter.key(b.next()) : 0L;
+
+      while (a.hasNext()) {
+        long geocell = a.next();
+        long keyA = GeoCellSorter.key(geocell);
+
+        while (hasB && keyB < keyA) {
+          hasB = b.hasNext();
+          keyB = hasB ? GeoCellSorter.key(b.next()) : 0L;
+        }
+
+        if (intersection == (hasB && keyB == keyA)) {
+          writer.write(geocell);
+        }
+      }
+    } finally {
+      try {
+        if (null != a) {
+          a.close();
+        }
+        if (null != b) {
+          b.close();
+        }
+      } finally {
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Read the geocells of a binary coverage into a sorted array.
+   */
+  public static long[] toGeoCells(InputStream in) throws IOException {
+    GeoCellReader reader = new GeoCellReader(in);
+
+    long[] geocells = new long[1024];
+    int idx = 0;
+
+    try {
+      while (reader.hasNext()) {
+        long geocell = reader.next();
+
+        if (0L == (geocell & 0xf000000000000000L)) {
+          continue;
+        }
+
+        if (idx == geocells.length) {
+          geocells = Arrays.copyOf(geocells, geocells.length << 1);
+        }
+
+        geocells[idx++] = geocell;
+      }
+    } finally {
+      reader.close();
+    }
+
+    geocells = Arrays.copyOf(geocells, idx);
+    Arrays.sort(geocells);
+
+    return geocells;
+  }
+}
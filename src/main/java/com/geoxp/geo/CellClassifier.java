@@ -0,0 +1,55 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+/**
+ * Classify HHCode cells against an area.
+ *
+ * Implementations are used by the coverage engines to decide whether a cell should be
+ * discarded, added to the coverage or subdivided. They must be safe to use from several
+ * threads concurrently once constructed.
+ */
+public interface CellClassifier {
+
+  /**
+   * The cell and the area do not intersect
+   */
+  public static final int DISJOINT = 0;
+
+  /**
+   * The cell intersects the area but is not fully contained in it
+   */
+  public static final int INTERSECTS = 1;
+
+  /**
+   * The cell is fully contained in the area
+   */
+  public static final int CONTAINED = 2;
+
+  /**
+   * Classify a cell.
+   *
+   * @param hhcode HHCode of the cell, bits beyond 'resolution' are ignored
+   * @param resolution Resolution of the cell (even, 2 to 32)
+   * @return DISJOINT, INTERSECTS or CONTAINED
+   */
+  public int classify(long hhcode, int resolution);
+}
@@ -0,0 +1,157 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+/**
+ * CellClassifier for a circle on the sphere, i.e. the locations within a great circle
+ * distance of a center.
+ *
+ * A cell is disjoint from the circle if its closest point is farther than the radius
+ * from the center, and contained in the circle if its farthest point is within the
+ * radius. The closest point is on the meridian edge nearest to the center (or on a
+ * parallel edge when the center is in the cell's longitude range), the farthest one is the
+ * closest point to the antipode of the center, found the same way. Distances are
+ * computed with the haversine formula, so cells are classified exactly near the poles
+ * and across the antimeridian.
+ *
+ * Instances are immutable and can be shared among threads.
+ */
+public class CircleCellClassifier implements CellClassifier {
+
+  private static final double RADIANS_PER_LAT_UNIT = Math.PI / (1L << 32);
+  private static final double RADIANS_PER_LON_UNIT = (Math.PI + Math.PI) / (1L << 32);
+
+  /**
+   * Meters per radian of great circle, as used by HHCodeHelper.orthodromicDistance
+   */
+  private static final double METERS_PER_RADIAN = (180.0D / Math.PI) * (1852.0D * 60.0D);
+
+  private static final double HALF_PI = Math.PI / 2.0D;
+
+  /**
+   * Center in radians
+   */
+  private final double lat;
+  private final double lon;
+  private final double sinlat;
+  private final double coslat;
+
+  /**
+   * Radius in radians of great circle
+   */
+  private final double radius;
+
+  /**
+   * @param lat Latitude of the center (in long HHCode coordinates)
+   * @param lon Longitude of the center (in long HHCode coordinates)
+   * @param radius Radius in meters
+   */
+  public CircleCellClassifier(long lat, long lon, double radius) {
+    this.lat = lat * RADIANS_PER_LAT_UNIT - HALF_PI;
+    this.lon = lon * RADIANS_PER_LON_UNIT - Math.PI;
+    this.sinlat = Math.sin(this.lat);
+    this.coslat = Math.cos(this.lat);
+    this.radius = Math.abs(radius) / METERS_PER_RADIAN;
+  }
+
+  public int classify(long hhcode, int resolution) {
+    long size = 1L << (HHCodeHelper.MAX_RESOLUTION - resolution);
+    long mask = ~(size - 1L);
+
+    long cellLat = HHCodeHelper.splitLat(hhcode) & mask;
+    long cellLon = HHCodeHelper.splitLon(hhcode) & mask;
+
+    double lat0 = cellLat * RADIANS_PER_LAT_UNIT - HALF_PI;
+    double lat1 = (cellLat + size) * RADIANS_PER_LAT_UNIT - HALF_PI;
+    double lon0 = cellLon * RADIANS_PER_LON_UNIT - Math.PI;
+    double lon1 = (cellLon + size) * RADIANS_PER_LON_UNIT - Math.PI;
+
+    //
+    // Closest point of the cell
+    //
+
+    double min = minDistance(lat, lon, sinlat, coslat, lat0, lat1, lon0, lon1);
+
+    if (min > radius) {
+      return DISJOINT;
+    }
+
+    //
+    // Farthest point of the cell, i.e. the closest one to the antipode of the center
+    //
+
+    double max = Math.PI - minDistance(-lat, wrap(lon + Math.PI), -sinlat, coslat, lat0, lat1, lon0, lon1);
+
+    return max <= radius ? CONTAINED : INTERSECTS;
+  }
+
+  /**
+   * Great circle distance in radians between a point and the closest point of a cell.
+   *
+   * At a given latitude the distance grows with the longitude difference, so if the point is
+   * not in the cell's longitude range the closest point is on the nearest meridian edge.
+   */
+  private static double minDistance(double plat, double plon, double psin, double pcos, double lat0, double lat1, double lon0, double lon1) {
+    if (plon >= lon0 && plon <= lon1) {
+      return plat < lat0 ? lat0 - plat : (plat > lat1 ? plat - lat1 : 0.0D);
+    }
+
+    // Longitude difference with the nearest meridian edge
+    double dlon = Math.min(Math.abs(wrap(plon - lon0)), Math.abs(wrap(plon - lon1)));
+
+    // Latitude of the point of the great circle of the meridian closest to the point, if it
+    // is not on the edge the closest point of the edge is one of its ends
+    double closest = Math.atan2(psin, pcos * Math.cos(dlon));
+
+    if (closest >= lat0 && closest <= lat1) {
+      return distance(plat, pcos, closest, dlon);
+    }
+
+    return Math.min(distance(plat, pcos, lat0, dlon), distance(plat, pcos, lat1, dlon));
+  }
+
+  /**
+   * Great circle distance in radians between a point at latitude 'plat' and a location at
+   * latitude 'lat' and 'dlon' radians of longitude from it
+   */
+  private static double distance(double plat, double pcos, double lat, double dlon) {
+    double slat = Math.sin((plat - lat) / 2.0D);
+    double slon = Math.sin(dlon / 2.0D);
+
+    double h = slat * slat + pcos * Math.cos(lat) * slon * slon;
+
+    return 2.0D * Math.asin(Math.sqrt(Math.min(h, 1.0D)));
+  }
+
+  /**
+   * Wrap an angle into [-PI,PI]
+   */
+  private static double wrap(double angle) {
+    if (angle > Math.PI) {
+      return angle - 2.0D * Math.PI;
+    } else if (angle < -Math.PI) {
+      return angle + 2.0D * Math.PI;
+    } else {
+      return angle;
+    }
+  }
+}
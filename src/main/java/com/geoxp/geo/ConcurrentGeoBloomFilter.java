@@ -0,0 +1,371 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe variant of GeoBloomFilter which can be fed and queried concurrently
+ * without locking.
+ *
+ * Bits are stored in AtomicLongArrays and set with CAS, one array for the level 1/2
+ * bits and one per generation, allocated when the generation is reached. Cells are
+ * hashed directly from their long value, and the number of elements added to each
+ * generation is tracked in a LongAdder so concurrent writers do not contend on it.
+ *
+ * Summing a LongAdder reads all its cells, so each thread only compares the count of
+ * the current generation to its limit every CHECK_INTERVAL new elements it adds. A
+ * generation may therefore receive up to CHECK_INTERVAL - 1 elements per writing
+ * thread beyond its limit before the next one is started, slightly raising its false
+ * positive rate.
+ *
+ * The filter uses the same hash keys and the same sizing of generations as
+ * GeoBloomFilter.
+ */
+public class ConcurrentGeoBloomFilter {
+
+  /**
+   * Number of new elements a thread adds between two checks of the generation limit,
+   * MUST be a power of 2
+   */
+  static final int CHECK_INTERVAL = 64;
+
+  /**
+   * Bits for level 1 cells (16) and level 2 cells (256)
+   */
+  private final AtomicLongArray levels = new AtomicLongArray((16 + 256) / 64 + 1);
+
+  /**
+   * Bloom filter bits of each generation
+   */
+  private final AtomicReferenceArray<AtomicLongArray> bits;
+
+  /**
+   * Number of 'new' elements added to each generation
+   */
+  private final LongAdder[] counts;
+
+  /**
+   * Current generation
+   */
+  private final AtomicInteger generation = new AtomicInteger(0);
+
+  /**
+   * Number of new elements added by each thread, used to space out the generation limit checks
+   */
+  private final ThreadLocal<int[]> inserts = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  private final int[] limits;
+  private final int[] lengths;
+
+  private final int k;
+
+  /**
+   * Do we slice the output of a single computation or compute multiple hash functions
+   */
+  private final boolean slice;
+
+  private final int maxres;
+  private final long resolutionMask;
+
+  public ConcurrentGeoBloomFilter(int maxresolution, int[] n, double[] fprate, int k, boolean slice) {
+    if (maxresolution < 1 || maxresolution > 15) {
+      throw new RuntimeException("Invalid resolution, MUST be between 1 and 15, both inclusive.");
+    }
+
+    if (k > GeoBloomFilter.K) {
+      throw new RuntimeException("k cannot be greater than " + GeoBloomFilter.K);
+    }
+
+    if (k > 32 && slice) {
+      throw new RuntimeException("slicing can only be used when k <= 32.");
+    }
+
+    if (null == n || null == fprate) {
+      n = GeoBloomFilter.DEFAULT_N;
+      fprate = GeoBloomFilter.DEFAULT_FPRATE;
+    }
+
+    if (n.length != fprate.length || n.length > GeoBloomFilter.MAX_GEN) {
+      throw new RuntimeException("Invalid n/p arrays, max size is " + GeoBloomFilter.MAX_GEN);
+    }
+
+    this.maxres = maxresolution;
+    this.resolutionMask = 0xFFFFFFFFFFFFFFFL << (60 - (maxresolution * 4));
+    this.k = k;
+    this.slice = slice;
+
+    this.limits = new int[n.length];
+    this.lengths = new int[n.length];
+    this.counts = new LongAdder[n.length];
+
+    for (int i = 0; i < n.length; i++) {
+      lengths[i] = (int) Math.ceil((-n[i] * Math.log(fprate[i]) / (Math.log(2) * Math.log(2))));
+      limits[i] = n[i];
+      counts[i] = new LongAdder();
+    }
+
+    this.bits = new AtomicReferenceArray<AtomicLongArray>(n.length);
+    this.bits.set(0, new AtomicLongArray((lengths[0] + 63) >>> 6));
+  }
+
+  /**
+   * Adapt a cell so its resolution is no more than maxres
+   */
+  public long fixCell(long cell) {
+    int res = (int) ((cell >>> 60) & 0xFL);
+
+    if (res > maxres) {
+      cell = cell & 0x0FFFFFFFFFFFFFFFL;
+      cell = cell | (((maxres & 0xFL) << 60) & 0xF000000000000000L);
+      cell = cell & resolutionMask;
+    }
+
+    return cell;
+  }
+
+  /**
+   * Add the cells of a HHCode at all resolutions up to maxres. This method can be
+   * called concurrently with 'add' and 'contains'.
+   */
+  public void add(long hhcode) {
+    //
+    // Set level 1 & 2 bits
+    //
+
+    int l2bits = (int) (hhcode >>> 56);
+
+    setBit(levels, 16 + l2bits);
+    setBit(levels, (l2bits & 0xF0) >>> 4);
+
+    //
+    // If res is 1 or 2, return now
+    //
+
+    if (0L == (hhcode & 0x00FFFFFFFFFFFFFFL)) {
+      return;
+    }
+
+    int[] pending = null;
+
+    for (int res = 0; res < maxres; res++) {
+      long cell = ((long) (res + 1)) << 60;
+      cell |= (hhcode >> 4) & 0x0fffffffffffffffL;
+      cell &= (0xffffffffffffffffL ^ ((1L << (4 * (15 - (res + 1)))) - 1));
+
+      int gen = generation.get();
+      AtomicLongArray genbits = bits.get(gen);
+      int length = lengths[gen];
+
+      boolean inset = true;
+
+      if (this.slice) {
+        long initialHash = GeoBloomFilter.hash24(GeoBloomFilter.hashkeys[0], GeoBloomFilter.hashkeys[1], cell);
+
+        for (int i = 0; i < k; i++) {
+          long hash = (initialHash >>> i) & 0xFFFFFFFFL;
+          if (setBit(genbits, (int) (hash % length))) {
+            inset = false;
+          }
+        }
+      } else {
+        for (int i = 0; i < k * 2; i += 2) {
+          long hash = GeoBloomFilter.hash24(GeoBloomFilter.hashkeys[i], GeoBloomFilter.hashkeys[i + 1], cell) & 0xFFFFFFFFL;
+          if (setBit(genbits, (int) (hash % length))) {
+            inset = false;
+          }
+        }
+      }
+
+      if (!inset) {
+        counts[gen].increment();
+
+        if (gen < limits.length - 1) {
+          if (null == pending) {
+            pending = inserts.get();
+          }
+
+          if (0 == (++pending[0] & (CHECK_INTERVAL - 1)) && counts[gen].sum() >= limits[gen]) {
+            nextGeneration(gen);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Move from generation 'gen' to the next one. The bits of the next generation are
+   * published before the generation so readers never see a missing generation.
+   */
+  private void nextGeneration(int gen) {
+    if (null == bits.get(gen + 1)) {
+      bits.compareAndSet(gen + 1, null, new AtomicLongArray((lengths[gen + 1] + 63) >>> 6));
+    }
+
+    generation.compareAndSet(gen, gen + 1);
+  }
+
+  /**
+   * Check whether a geocell is in the filter. This method can be called concurrently
+   * with 'add'.
+   */
+  public boolean contains(long cell) {
+    int l2bits = (int) ((cell & 0x0FF0000000000000L) >>> 52);
+    int l1bits = (l2bits & 0xF0) >>> 4;
+
+    int res = (int) ((cell >>> 60) & 0xFL);
+
+    if (0 == res) {
+      return false;
+    }
+
+    if (!getBit(levels, l1bits)) {
+      return false;
+    }
+
+    if (1 == res) {
+      return true;
+    }
+
+    if (!getBit(levels, 16 + l2bits)) {
+      return false;
+    }
+
+    if (2 == res) {
+      return true;
+    }
+
+    //
+    // Check each generation, the cell is in the filter if all its bits are
+    // set in at least one of them
+    //
+
+    int generation = this.generation.get();
+
+    long initialHash = 0L;
+
+    if (this.slice) {
+      initialHash = GeoBloomFilter.hash24(GeoBloomFilter.hashkeys[0], GeoBloomFilter.hashkeys[1], cell);
+    }
+
+    for (int g = 0; g <= generation; g++) {
+      AtomicLongArray genbits = bits.get(g);
+      int length = lengths[g];
+
+      boolean found = true;
+
+      for (int i = 0; i < k && found; i++) {
+        long hash;
+
+        if (this.slice) {
+          hash = (initialHash >>> i) & 0xFFFFFFFFL;
+        } else {
+          hash = GeoBloomFilter.hash24(GeoBloomFilter.hashkeys[2 * i], GeoBloomFilter.hashkeys[2 * i + 1], cell) & 0xFFFFFFFFL;
+        }
+
+        found = getBit(genbits, (int) (hash % length));
+      }
+
+      if (found) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Check wether a cell and all its parents are contained in the bloom filter.
+   */
+  public boolean containsHierarchy(long cell) {
+    while(0L != cell && contains(cell)) {
+      cell = HHCodeHelper.parentGeoCell(cell);
+    }
+
+    return 0L == cell;
+  }
+
+  public long[] getKeys() {
+    return GeoBloomFilter.hashkeys;
+  }
+
+  /**
+   * Return the number of elements added to the filter
+   */
+  public long count() {
+    long count = 0L;
+
+    for (LongAdder adder: counts) {
+      count += adder.sum();
+    }
+
+    return count;
+  }
+
+  /**
+   * Return an estimated memory footprint for this index
+   */
+  public long size() {
+    long size = levels.length() * 8L;
+
+    for (int g = 0; g < lengths.length; g++) {
+      AtomicLongArray genbits = bits.get(g);
+      if (null != genbits) {
+        size += genbits.length() * 8L;
+      }
+    }
+
+    return size;
+  }
+
+  private static boolean getBit(AtomicLongArray words, int bit) {
+    return 0L != (words.get(bit >>> 6) & (1L << bit));
+  }
+
+  /**
+   * Set a bit, returning true if it was not already set. The word is read first so
+   * already set bits, the common case once a filter fills up, cost no CAS.
+   */
+  private static boolean setBit(AtomicLongArray words, int bit) {
+    int idx = bit >>> 6;
+    long mask = 1L << bit;
+
+    while (true) {
+      long word = words.get(idx);
+
+      if (0L != (word & mask)) {
+        return false;
+      }
+
+      if (words.compareAndSet(idx, word, word | mask)) {
+        return true;
+      }
+    }
+  }
+}
@@ -0,0 +1,263 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.iterator.TLongIterator;
+
+/**
+ * Thread safe counterpart of OutputStreamCoverage and BinaryOutputStreamCoverage.
+ *
+ * Each thread adding cells fills its own buffer of geocells, so producers never
+ * contend with each other. When a buffer is full it is sorted, deduplicated and spilled
+ * to a temporary file as a run. When the coverage is closed, the runs and the content
+ * of the buffers are merged into a single sorted stream of distinct cells which is
+ * written to the output, either as hexadecimal lines or as binary geocells.
+ *
+ * Threads can therefore feed the same coverage concurrently, for example through
+ * HHCodeHelper.coverPolygon or GeoParser.parseArea, and the output is the same as
+ * the sorted output of a single thread. 'close' must only be called once all producers
+ * are done. I/O errors are reported as RuntimeExceptions by 'addCell' and as
+ * IOExceptions by 'close'.
+ *
+ * Cells at resolution 32 cannot be represented as geocells and are ignored.
+ */
+public class ConcurrentOutputStreamCoverage extends Coverage {
+
+  /**
+   * Default number of geocells buffered per thread
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+  private final OutputStream os;
+  private final boolean binary;
+  private final String suffix;
+  private final int bufferSize;
+  private final GeoCellSorter sorter;
+
+  /**
+   * Buffers of all the threads which added cells
+   */
+  private final List<Buffer> buffers = new ArrayList<Buffer>();
+
+  /**
+   * Sorted runs spilled from full buffers
+   */
+  private final List<File> runs = new ArrayList<File>();
+
+  private volatile boolean closed = false;
+
+  private final ThreadLocal<Buffer> buffer = new ThreadLocal<Buffer>() {
+    protected Buffer initialValue() {
+      Buffer buf = new Buffer(Math.min(1024, bufferSize));
+      synchronized (buffers) {
+        buffers.add(buf);
+      }
+      return buf;
+    }
+  };
+
+  private static final class Buffer {
+    long[] keys;
+    int size = 0;
+
+    /**
+     * Last geocell added, 0 if none
+     */
+    long last = 0L;
+
+    Buffer(int capacity) {
+      this.keys = new long[capacity];
+    }
+  }
+
+  /**
+   * @param os Stream to write the sorted cells to when the coverage is closed
+   * @param binary Set to true to write binary geocells instead of hexadecimal lines
+   */
+  public ConcurrentOutputStreamCoverage(OutputStream os, boolean binary) {
+    this(os, binary, null, DEFAULT_BUFFER_SIZE, null);
+  }
+
+  /**
+   * @param os Stream to write the sorted cells to when the coverage is closed
+   * @param binary Set to true to write binary geocells instead of hexadecimal lines
+   * @param suffix Suffix to append to each hexadecimal line, or null
+   * @param bufferSize Number of geocells buffered by each thread before spilling a run
+   * @param tmpdir Directory where to spill runs, or null for the default temporary directory
+   */
+  public ConcurrentOutputStreamCoverage(OutputStream os, boolean binary, String suffix, int bufferSize, File tmpdir) {
+    if (bufferSize < 1) {
+      throw new RuntimeException("Invalid buffer size.");
+    }
+
+    this.os = os;
+    this.binary = binary;
+    this.suffix = suffix;
+    this.bufferSize = bufferSize;
+    this.sorter = new GeoCellSorter(bufferSize * 8L, tmpdir);
+  }
+
+  @Override
+  public void addCell(int resolution, long lat, long lon) {
+    //
+    // Make sure lat/lon are in the 0->2**32-1 range
+    //
+
+    lat = ((lat % (1L << HHCodeHelper.MAX_RESOLUTION)) + (1L << HHCodeHelper.MAX_RESOLUTION)) % (1L << HHCodeHelper.MAX_RESOLUTION);
+    lon = ((lon % (1L << HHCodeHelper.MAX_RESOLUTION)) + (1L << HHCodeHelper.MAX_RESOLUTION)) % (1L << HHCodeHelper.MAX_RESOLUTION);
+
+    addCell(resolution, HHCodeHelper.buildHHCode(lat, lon, HHCodeHelper.MAX_RESOLUTION));
+  }
+
+  @Override
+  public void addCell(int resolution, long hhcode, long[] geocells, boolean excludeGeoCells) {
+    int r = resolution >> 1;
+
+    // Do nothing if resolution out of range
+    if (r < 1 || r > 15) {
+      return;
+    }
+
+    //
+    // If geocells is not null, check if hhcode is included/excluded
+    //
+
+    if (null != geocells) {
+      boolean ingeocells = contains(geocells, hhcode & PREFIX_MASK[r - 1], 2, resolution);
+
+      if ((ingeocells && excludeGeoCells) || (!ingeocells && !excludeGeoCells)) {
+        return;
+      }
+    }
+
+    if (closed) {
+      throw new RuntimeException("Coverage is closed.");
+    }
+
+    long geocell = (((long) r) << 60) | ((hhcode & PREFIX_MASK[r - 1]) >>> 4);
+
+    Buffer buf = buffer.get();
+
+    //
+    // Simple optimization to avoid buffering the same cell as the previous one
+    //
+
+    if (geocell == buf.last) {
+      return;
+    }
+
+    buf.last = geocell;
+
+    if (buf.size == buf.keys.length) {
+      if (buf.size < bufferSize) {
+        long[] keys = new long[(int) Math.min(bufferSize, 2L * buf.size)];
+        System.arraycopy(buf.keys, 0, keys, 0, buf.size);
+        buf.keys = keys;
+      } else {
+        try {
+          File run = sorter.spill(buf.keys, buf.size);
+          synchronized (runs) {
+            runs.add(run);
+          }
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+        buf.size = 0;
+      }
+    }
+
+    buf.keys[buf.size++] = GeoCellSorter.key(geocell);
+  }
+
+  @Override
+  public void merge(Coverage other) {
+    for (int r: other.getResolutions()) {
+      for (TLongIterator iter = other.cellIterator(r); iter.hasNext();) {
+        addCell(r, iter.next());
+      }
+    }
+  }
+
+  /**
+   * Merge the cells added by all threads, write them to the output stream and close it.
+   * This must only be called once all threads are done adding cells.
+   */
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    long[][] keys;
+    int[] n;
+    List<File> spilled;
+
+    synchronized (buffers) {
+      keys = new long[buffers.size()][];
+      n = new int[buffers.size()];
+
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = buffers.get(i).keys;
+        n[i] = buffers.get(i).size;
+      }
+
+      buffers.clear();
+    }
+
+    synchronized (runs) {
+      spilled = new ArrayList<File>(runs);
+      runs.clear();
+    }
+
+    if (0 == keys.length) {
+      keys = new long[][] { new long[0] };
+      n = new int[] { 0 };
+    }
+
+    GeoCellStream sorted = sorter.merge(spilled, keys, n);
+
+    try {
+      if (binary) {
+        GeoCellWriter writer = new GeoCellWriter(os);
+        writer.write(sorted);
+        writer.flush();
+      } else {
+        TextGeoCellWriter writer = new TextGeoCellWriter(os, suffix);
+        writer.write(sorted);
+        writer.flush();
+      }
+    } finally {
+      try {
+        sorted.close();
+      } finally {
+        os.close();
+      }
+    }
+  }
+}
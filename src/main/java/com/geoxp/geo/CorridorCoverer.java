@@ -0,0 +1,289 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Coverage of a corridor, i.e. the area within a given distance of a polyline.
+ *
+ * The corridor is decomposed into one quadrilateral per segment and one piece per
+ * vertex (a disc for round joins, a mitre or bevel wedge for mitred joins). All the
+ * pieces are rasterized together by a PolygonRasterizer which unions them row by row,
+ * so cells shared by adjacent pieces are emitted once and the inner parts of wide
+ * corridors are emitted as coarse cells.
+ *
+ * Distances are converted to HHCode units using the scale at each vertex, so the
+ * pieces which meet at a vertex share their corners. As with HHCodeHelper.coverSegment
+ * the geometry is planar, corridors crossing the antimeridian are not supported.
+ */
+public class CorridorCoverer {
+
+  /**
+   * Round joins and caps
+   */
+  public static final int JOIN_ROUND = 0;
+
+  /**
+   * Mitred joins (beveled above MITRE_LIMIT) and square caps
+   */
+  public static final int JOIN_MITRE = 1;
+
+  /**
+   * Maximum ratio between the length of a mitre and the corridor half width
+   */
+  public static final double MITRE_LIMIT = 2.0D;
+
+  /**
+   * Number of sides of the polygons approximating round joins
+   */
+  private static final int ROUND_SIDES = 16;
+
+  private static final long MAX_COORD = (1L << HHCodeHelper.MAX_RESOLUTION) - 1L;
+
+  private final double distance;
+  private final int join;
+
+  /**
+   * Vertices of the pieces and end index of each piece
+   */
+  private final VertexBuffer pieces = new VertexBuffer();
+  private final TIntArrayList ends = new TIntArrayList();
+
+  private CorridorCoverer(double distance, int join) {
+    if (JOIN_ROUND != join && JOIN_MITRE != join) {
+      throw new RuntimeException("Invalid join type " + join + ".");
+    }
+
+    this.distance = distance;
+    this.join = join;
+  }
+
+  /**
+   * Cover a corridor.
+   *
+   * @param lats Latitudes of the polyline vertices (in long HHCode coordinates)
+   * @param lons Longitudes of the polyline vertices (in long HHCode coordinates)
+   * @param n Number of vertices
+   * @param distance Half width of the corridor in meters
+   * @param resolution Resolution of the finest cells. If it is <= 0, it is computed from the
+   *                   corridor width then 'resolution' is substracted from it, so 20 becomes 22 if resolution is -2
+   * @param join JOIN_ROUND or JOIN_MITRE
+   * @param coverage Coverage to add the cells to
+   * @param geocells optional array of Geocells to intersect / exclude
+   * @param excludeGeoCells if true, exclude 'geocells', otherwise intersect.
+   * @return 'coverage'
+   */
+  public static Coverage cover(long[] lats, long[] lons, int n, double distance, int resolution, int join, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    if (0 == n || distance <= 0.0D) {
+      return coverage;
+    }
+
+    if (0 >= resolution) {
+      resolution = getOptimalResolution(lats[0], lons[0], distance, resolution);
+    }
+
+    CorridorCoverer cc = new CorridorCoverer(distance, join);
+
+    cc.decompose(lats, lons, n);
+
+    return PolygonRasterizer.cover(cc.pieces.lats(), cc.pieces.lons(), cc.ends.toArray(), cc.ends.size(), resolution, coverage, geocells, excludeGeoCells);
+  }
+
+  /**
+   * Compute the resolution whose cells are just smaller than the corridor width at a given location
+   */
+  static int getOptimalResolution(long lat, long lon, double distance, int offset) {
+    long dlat = (long) (distance * HHCodeHelper.latUnitsPerMeter);
+    long dlon = (long) (distance * lonUnitsPerMeter(lat));
+
+    long[] bbox = new long[] { lat - dlat, lon - dlon, lat + dlat, lon + dlon };
+
+    return Math.max(2, HHCodeHelper.getOptimalPolygonResolution(bbox, offset));
+  }
+
+  /**
+   * Number of longitude units per meter at a latitude
+   */
+  private static double lonUnitsPerMeter(long lat) {
+    double scale = Math.cos(Math.toRadians(HHCodeHelper.toLat(lat)));
+    return HHCodeHelper.lonUnitsPerMeter / Math.max(scale, 1.0E-6D);
+  }
+
+  /**
+   * Split the corridor into pieces
+   */
+  private void decompose(long[] lats, long[] lons, int n) {
+    //
+    // Drop repeated vertices, they have no direction
+    //
+
+    VertexBuffer vertices = new VertexBuffer(n);
+
+    for (int i = 0; i < n; i++) {
+      if (0 == i || lats[i] != lats[i - 1] || lons[i] != lons[i - 1]) {
+        vertices.add(lats[i], lons[i]);
+      }
+    }
+
+    n = vertices.size();
+
+    //
+    // Unit direction (in meters, north/east) of each segment
+    //
+
+    double[] dirs = new double[2 * Math.max(n - 1, 0)];
+
+    for (int i = 0; i < n - 1; i++) {
+      long midlat = (vertices.getLat(i) + vertices.getLat(i + 1)) / 2L;
+      double north = (vertices.getLat(i + 1) - vertices.getLat(i)) / HHCodeHelper.latUnitsPerMeter;
+      double east = (vertices.getLon(i + 1) - vertices.getLon(i)) / lonUnitsPerMeter(midlat);
+      double len = Math.sqrt(north * north + east * east);
+      dirs[2 * i] = north / len;
+      dirs[2 * i + 1] = east / len;
+    }
+
+    //
+    // One piece per segment
+    //
+
+    for (int i = 0; i < n - 1; i++) {
+      double north = dirs[2 * i];
+      double east = dirs[2 * i + 1];
+
+      // Square caps extend the first and last segments
+      double back = JOIN_MITRE == join && 0 == i ? distance : 0.0D;
+      double forth = JOIN_MITRE == join && n - 2 == i ? distance : 0.0D;
+
+      long lat0 = vertices.getLat(i);
+      long lon0 = vertices.getLon(i);
+      long lat1 = vertices.getLat(i + 1);
+      long lon1 = vertices.getLon(i + 1);
+
+      // The left normal of direction (north, east) is (east, -north)
+      add(lat0, lon0, east * distance - north * back, -north * distance - east * back);
+      add(lat1, lon1, east * distance + north * forth, -north * distance + east * forth);
+      add(lat1, lon1, -east * distance + north * forth, north * distance + east * forth);
+      add(lat0, lon0, -east * distance - north * back, north * distance - east * back);
+      ends.add(pieces.size());
+    }
+
+    //
+    // One piece per vertex
+    //
+
+    if (JOIN_ROUND == join) {
+      for (int i = 0; i < n; i++) {
+        disc(vertices.getLat(i), vertices.getLon(i));
+      }
+    } else if (1 == n) {
+      long lat = vertices.getLat(0);
+      long lon = vertices.getLon(0);
+      add(lat, lon, -distance, -distance);
+      add(lat, lon, -distance, distance);
+      add(lat, lon, distance, distance);
+      add(lat, lon, distance, -distance);
+      ends.add(pieces.size());
+    } else {
+      for (int i = 1; i < n - 1; i++) {
+        mitre(vertices.getLat(i), vertices.getLon(i), dirs[2 * (i - 1)], dirs[2 * (i - 1) + 1], dirs[2 * i], dirs[2 * i + 1]);
+      }
+    }
+  }
+
+  /**
+   * Add a polygon circumscribed to the circle of radius 'distance' around a vertex
+   */
+  private void disc(long lat, long lon) {
+    double radius = distance / Math.cos(Math.PI / ROUND_SIDES);
+
+    for (int k = 0; k < ROUND_SIDES; k++) {
+      double angle = 2.0D * Math.PI * k / ROUND_SIDES;
+      add(lat, lon, radius * Math.sin(angle), radius * Math.cos(angle));
+    }
+
+    ends.add(pieces.size());
+  }
+
+  /**
+   * Add the join between an incoming segment of direction (n0,e0) and an outgoing one
+   * of direction (n1,e1) on the outer side of the turn.
+   */
+  private void mitre(long lat, long lon, double n0, double e0, double n1, double e1) {
+    double cross = e0 * n1 - n0 * e1;
+
+    //
+    // Normals on the outer side of the turn, which is the right side (-e,n) for a
+    // left turn (cross > 0) and the left side (e,-n) otherwise
+    //
+
+    double side = cross > 0.0D ? -1.0D : 1.0D;
+
+    double an = side * e0;
+    double ae = -side * n0;
+    double bn = side * e1;
+    double be = -side * n1;
+
+    double mn = an + bn;
+    double me = ae + be;
+    double mlen2 = mn * mn + me * me;
+
+    if (mlen2 < 1.0E-12D) {
+      //
+      // The polyline turns back, add a square cap to the incoming segment
+      //
+
+      add(lat, lon, an * distance, ae * distance);
+      add(lat, lon, an * distance + n0 * distance, ae * distance + e0 * distance);
+      add(lat, lon, -an * distance + n0 * distance, -ae * distance + e0 * distance);
+      add(lat, lon, -an * distance, -ae * distance);
+      ends.add(pieces.size());
+      return;
+    }
+
+    if (Math.abs(cross) < 1.0E-12D && n0 * n1 + e0 * e1 > 0.0D) {
+      // No turn
+      return;
+    }
+
+    add(lat, lon, 0.0D, 0.0D);
+    add(lat, lon, an * distance, ae * distance);
+
+    // The mitre is at 2 / |m| times the distance, in the direction of m
+    if (2.0D / Math.sqrt(mlen2) <= MITRE_LIMIT) {
+      add(lat, lon, mn * 2.0D * distance / mlen2, me * 2.0D * distance / mlen2);
+    }
+
+    add(lat, lon, bn * distance, be * distance);
+    ends.add(pieces.size());
+  }
+
+  /**
+   * Add a vertex at an offset in meters (north, east) from a location
+   */
+  private void add(long lat, long lon, double north, double east) {
+    long plat = lat + (long) (north * HHCodeHelper.latUnitsPerMeter);
+    long plon = lon + (long) (east * lonUnitsPerMeter(lat));
+
+    pieces.add(Math.min(Math.max(plat, 0L), MAX_COORD), Math.min(Math.max(plon, 0L), MAX_COORD));
+  }
+}
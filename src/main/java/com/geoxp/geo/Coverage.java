@@ -22,7 +22,6 @@ package com.geoxp.geo;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -30,6 +29,8 @@ import java.util.Map;
 import java.util.Set;
 
 import gnu.trove.decorator.TLongSetDecorator;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.procedure.TLongProcedure;
 import gnu.trove.set.hash.TLongHashSet;
 
 /**
@@ -66,6 +67,11 @@ import gnu.trove.set.hash.TLongHashSet;
  *   The most efficient CPU wise is probably autoOptimize + dedup which offers a good space optimization too
  *   The least efficient space wise is post optimize which also has a high CPU consumption
  *   
+ * Storage:
+ *   cells are stored in primitive long hash sets, one per resolution, so no boxing occurs
+ *   when adding, checking or removing cells. Use cellIterator or forEachCell to walk the cells
+ *   of a resolution without materializing a Set<Long>.
+ *   
  */
 
 public class Coverage {  
@@ -108,8 +114,7 @@ public class Coverage {
   }
 
   
-  //private Set<Long>[] coverage = new HashSet[16];
-  private Set<Long>[] coverage = new Set[16];
+  private TLongHashSet[] coverage = new TLongHashSet[16];
   
   private Set<Integer> resolutions = new HashSet<Integer>();
   
@@ -129,13 +134,6 @@ public class Coverage {
    * adding tiles
    */
   private boolean autoDedup = false;
-
-  /**
-   * Flag indicating whether we should use Trove instead of the Java Collection Framework.
-   * When autoOptimize is 'true', it has been found that the Java Collection Framework performs better
-   * than Trove.
-   */
-  private boolean useTrove = false;
   
   public Coverage() {    
   }
@@ -158,9 +156,10 @@ public class Coverage {
     for (int i = 0; i < HHCodeHelper.MAX_RESOLUTION; i++) {
       int r = (i >> 1) - 1;
       if (c.containsKey(i)) {
-        //coverage[r] = new HashSet<Long>();
         coverage[r] = allocateCellHashSet();
-        coverage[r].addAll(c.get(i));
+        for (long hhcode: c.get(i)) {
+          coverage[r].add(hhcode);
+        }
       }
     }
   }
@@ -237,6 +236,8 @@ public class Coverage {
   
   /**
    * Return the cells at a given resolution.
+   * The returned Set is a view of the underlying primitive storage, each access
+   * boxes the cells, prefer cellIterator or forEachCell.
    * 
    * @param resolution Resolution for which to return the cells (even in [2,32])
    * @return
@@ -249,7 +250,59 @@ public class Coverage {
       return null;
     }
     
-    return internalGetCells(r);
+    return new TLongSetDecorator(internalGetCells(r));
+  }
+  
+  /**
+   * Return an iterator over the cells at a given resolution.
+   * 
+   * @param resolution Resolution for which to iterate over the cells (even in [2,32])
+   * @return The iterator or null if the resolution is out of range
+   */
+  public TLongIterator cellIterator(int resolution) {
+    int r = (resolution >> 1) - 1;
+    
+    // Do nothing if resolution out of range
+    if (0 != (r & 0xfffffff0)) {
+      return null;
+    }
+    
+    return internalGetCells(r).iterator();
+  }
+  
+  /**
+   * Apply a procedure to each cell at a given resolution.
+   * 
+   * @param resolution Resolution of the cells to process (even in [2,32])
+   * @param procedure Procedure to call for each cell, iteration stops if it returns false
+   * @return false if the procedure stopped the iteration, true otherwise
+   */
+  public boolean forEachCell(int resolution, TLongProcedure procedure) {
+    int r = (resolution >> 1) - 1;
+    
+    // Do nothing if resolution out of range
+    if (0 != (r & 0xfffffff0) || null == coverage[r]) {
+      return true;
+    }
+    
+    return coverage[r].forEach(procedure);
+  }
+  
+  /**
+   * Return a copy of the cells at a given resolution as an array.
+   * 
+   * @param resolution Resolution for which to return the cells (even in [2,32])
+   * @return The array of cells, possibly empty, or null if the resolution is out of range
+   */
+  public long[] getCellArray(int resolution) {
+    int r = (resolution >> 1) - 1;
+    
+    // Do nothing if resolution out of range
+    if (0 != (r & 0xfffffff0)) {
+      return null;
+    }
+    
+    return null == coverage[r] ? new long[0] : coverage[r].toArray();
   }
   
   /**
@@ -262,20 +315,16 @@ public class Coverage {
     
     for (int r = 0; r < 16; r++) {
       if (null != coverage[r] && !coverage[r].isEmpty()) {
-        //Set<Long> rcells = new HashSet<Long>();
-        Set<Long> rcells = allocateCellHashSet();
-        rcells.addAll(coverage[r]);
-        cells.put((r + 1) << 1, rcells);
+        cells.put((r + 1) << 1, new TLongSetDecorator(new TLongHashSet(coverage[r])));
       }
     }
     
     return cells;
   }
   
-  private Set<Long> internalGetCells(int r) {
+  private TLongHashSet internalGetCells(int r) {
     // FIXME(hbs): this is not synchronized
     if (null == coverage[r]) {
-      //coverage[r] = new HashSet<Long>();
       coverage[r] = allocateCellHashSet();
     }
     
@@ -526,7 +575,7 @@ public class Coverage {
         continue;
       }
   
-      for (long hhcode: coverage[i]) {
+      for (long hhcode: sortedCells(i)) {
         
         hhsb.setLength(0);
         hhsb.append(Long.toHexString(hhcode));
@@ -552,6 +601,27 @@ public class Coverage {
     return this.toString(" ");
   }
   
+  /**
+   * Return the cells at internal resolution r sorted in ascending HHCode
+   * order, so string conversions do not depend on the hash set layout.
+   */
+  private long[] sortedCells(int r) {
+    long[] cells = coverage[r].toArray();
+    
+    // Flip the sign bit so the signed sort orders HHCodes as unsigned values
+    for (int i = 0; i < cells.length; i++) {
+      cells[i] ^= Long.MIN_VALUE;
+    }
+    
+    Arrays.sort(cells);
+    
+    for (int i = 0; i < cells.length; i++) {
+      cells[i] ^= Long.MIN_VALUE;
+    }
+    
+    return cells;
+  }
+  
   public List<String> cells() {
     List<String> cells = new ArrayList<String>();
 
@@ -562,7 +632,7 @@ public class Coverage {
         continue;
       }
   
-      for (long hhcode: coverage[i]) {
+      for (long hhcode: sortedCells(i)) {
         
         hhsb.setLength(0);
         hhsb.append(Long.toHexString(hhcode));
@@ -618,11 +688,11 @@ public class Coverage {
     
     for (int i = 0; i < finestresolution >> 1; i++) {
       if (null != coverage[i] && !coverage[i].isEmpty()) {
-        for (Long hhcode: coverage[i]) {
+        for (TLongIterator iter = coverage[i].iterator(); iter.hasNext();) {
           // INFO(hbs): we do not AND the lowest bits because they have already been cleared
           //            when building the Coverage.
           geocells[idx] = ((long) (i + 1)) << 60;
-          geocells[idx] |= (hhcode >> 4) & 0x0fffffffffffffffL;
+          geocells[idx] |= (iter.next() >> 4) & 0x0fffffffffffffffL;
           idx++;
         }
       }            
@@ -797,9 +867,8 @@ public class Coverage {
       long threshold = (thresholds >> (4 * (15 - r))) & 0xfL;
       
       // Sort the cells at resolution 'r'
-      List<Long> sortedCells = new ArrayList<Long>();
-      sortedCells.addAll(coverage[r]);
-      Collections.sort(sortedCells);
+      long[] sortedCells = coverage[r].toArray();
+      Arrays.sort(sortedCells);
       
       // Flag indicating the first cell
       boolean first = true;
@@ -812,7 +881,7 @@ public class Coverage {
       int children = 0;
       
       // Loop over the cells
-      int count = sortedCells.size();
+      int count = sortedCells.length;
 
       for (long hhcode: sortedCells) {
         
@@ -850,8 +919,7 @@ public class Coverage {
             //
             totalcells -= (0 == threshold ? 16 : (0 == count ? children : children - 1));
             
-            Set<Long> s = internalGetCells(r);
-            int cardinality = s.size();
+            TLongHashSet s = internalGetCells(r);
             
             // Remove child cells at r
             for (long offset = 0L; offset < 16L; offset++) {              
@@ -889,8 +957,7 @@ public class Coverage {
           //
           totalcells -= (0 == threshold ? 16 : (0 == count ? children : children - 1));
           
-          Set<Long> s = internalGetCells(r);
-          int cardinality = s.size();
+          TLongHashSet s = internalGetCells(r);
           
           // Remove child cells at r
           for (long offset = 0L; offset < 16L; offset++) {              
@@ -918,14 +985,14 @@ public class Coverage {
     //
     
     for (int r = 0; r < 14; r++) {
-      Set<Long> sr = internalGetCells(r);
-      Set<Long> sr2 = internalGetCells(r+2);
+      TLongHashSet sr = internalGetCells(r);
+      TLongHashSet sr2 = internalGetCells(r+2);
       
       if(sr.isEmpty() || sr2.isEmpty()) {
         continue;
       }
       
-      Long[] cells = sr2.toArray(new Long[0]);
+      long[] cells = sr2.toArray();
       
       for (long hhcode: cells) {
         if (sr.contains(hhcode & PREFIX_MASK[r])) {
@@ -950,13 +1017,16 @@ public class Coverage {
    */
   public void dedup() {
     for (int r = 15; r >= 0; r--) {
-      List<Long> cells = new ArrayList<Long>();
-      cells.addAll(internalGetCells(r));
+      if (null == coverage[r] || coverage[r].isEmpty()) {
+        continue;
+      }
+      
+      long[] cells = coverage[r].toArray();
       
       for (long cell:cells) {
         for (int rr = 0; rr < r; rr++) {
-          if (internalGetCells(rr).contains(cell & PREFIX_MASK[rr])) {
-            internalGetCells(r).remove(cell);
+          if (null != coverage[rr] && coverage[rr].contains(cell & PREFIX_MASK[rr])) {
+            coverage[r].remove(cell);
             break;
           }            
         }
@@ -995,9 +1065,8 @@ public class Coverage {
       long threshold = (thresholds >> (4 * (15 - r))) & 0xfL;
       
       // Sort the cells at resolution 'r'
-      List<Long> sortedCells = new ArrayList<Long>();
-      sortedCells.addAll(coverage[r]);
-      Collections.sort(sortedCells);
+      long[] sortedCells = coverage[r].toArray();
+      Arrays.sort(sortedCells);
       
       // Flag indicating the first cell
       boolean first = true;
@@ -1010,7 +1079,7 @@ public class Coverage {
       int children = 0;
       
       // Loop over the cells
-      int count = sortedCells.size();
+      int count = sortedCells.length;
 
       for (long hhcode: sortedCells) {
         
@@ -1039,8 +1108,7 @@ public class Coverage {
             //
             totalcells -= children;
             
-            Set<Long> s = internalGetCells(r);
-            int cardinality = s.size();
+            TLongHashSet s = internalGetCells(r);
             
             // Remove child cells at r
             for (long offset = 0L; offset < 16L; offset++) {              
@@ -1074,9 +1142,9 @@ public class Coverage {
    */
   public void merge(Coverage other) {
     for (int r = 0; r < 16; r++) {
-      Set<Long> cells = this.internalGetCells(r);
-      Set<Long> otherCells = other.internalGetCells(r);      
-      cells.addAll(otherCells);
+      if (null != other.coverage[r] && !other.coverage[r].isEmpty()) {
+        this.internalGetCells(r).addAll(other.coverage[r]);
+      }
     }
     this.resolutions.addAll(other.getResolutions());
   }
@@ -1171,12 +1239,15 @@ public class Coverage {
     
     for (int r = 0; r < resolution; r++) {
       
-      Set<Long> cells = internalGetCells(r);
+      TLongHashSet cells = internalGetCells(r);
       
       if (cells.isEmpty()) {
         continue;
       }
       
+      long[] cellarray = cells.toArray();
+      TLongHashSet target = internalGetCells(resolution);
+      
       //
       // Compute the last mask we will need to add
       //
@@ -1196,8 +1267,8 @@ public class Coverage {
         long mask = l << (4 * (15 - resolution));
 
         // Generate (grand)^(resolution-r) children cells
-        for (long hhcode: cells) {
-          internalGetCells(resolution).add((hhcode|mask) & PREFIX_MASK[resolution]);          
+        for (long hhcode: cellarray) {
+          target.add((hhcode|mask) & PREFIX_MASK[resolution]);          
         }
       }
       
@@ -1234,9 +1305,7 @@ public class Coverage {
     clone.resolutions.addAll(this.resolutions);
     for (int r = 0; r < 16; r++) {
       if (null != coverage[r] && !coverage[r].isEmpty()) {
-        //clone.coverage[r] = new HashSet<Long>();
-        clone.coverage[r] = allocateCellHashSet();
-        clone.coverage[r].addAll(coverage[r]);
+        clone.coverage[r] = new TLongHashSet(coverage[r]);
       }
     }
     
@@ -1302,8 +1371,8 @@ public class Coverage {
     a.normalize(normRes);
     b.normalize(normRes);
     
-    for (long hhcode: b.getCells(normRes)) {
-      a.removeCell(normRes, hhcode);
+    for (TLongIterator iter = b.cellIterator(normRes); iter.hasNext();) {
+      a.removeCell(normRes, iter.next());
     }
     
     return a;
@@ -1334,8 +1403,8 @@ public class Coverage {
     Coverage.normalize(a, b);
 
     for (int r = 2; r <= 32; r+=2) {
-      for (long hhcode: b.getCells(r)) {
-        a.removeCell(r, hhcode);
+      for (TLongIterator iter = b.cellIterator(r); iter.hasNext();) {
+        a.removeCell(r, iter.next());
       }
     }
     
@@ -1394,19 +1463,21 @@ public class Coverage {
     // and only keep the ones that are in both.
     //
     
-    Set<Long> cellsA = a.getCells(normRes);
-    Set<Long> cellsB = b.getCells(normRes);
+    TLongHashSet cellsA = a.internalGetCells((normRes >> 1) - 1);
+    TLongHashSet cellsB = b.internalGetCells((normRes >> 1) - 1);
     
     Coverage c = new Coverage();
     
     if (cellsA.size() < cellsB.size()) {
-      for (long hhcode: cellsA) {
+      for (TLongIterator iter = cellsA.iterator(); iter.hasNext();) {
+        long hhcode = iter.next();
         if (cellsB.contains(hhcode)) {
           c.addCell(normRes, hhcode);
         }
       }
     } else {
-      for (long hhcode: cellsB) {
+      for (TLongIterator iter = cellsB.iterator(); iter.hasNext();) {
+        long hhcode = iter.next();
         if (cellsA.contains(hhcode)) {
           c.addCell(normRes, hhcode);
         }
@@ -1465,17 +1536,19 @@ public class Coverage {
     Coverage c = new Coverage();
     
     for (int r = 2; r <= 32; r += 2) {
-      Set<Long> cellsA = a.getCells(r);
-      Set<Long> cellsB = b.getCells(r);
+      TLongHashSet cellsA = a.internalGetCells((r >> 1) - 1);
+      TLongHashSet cellsB = b.internalGetCells((r >> 1) - 1);
     
       if (cellsA.size() < cellsB.size()) {
-        for (long hhcode: cellsA) {
+        for (TLongIterator iter = cellsA.iterator(); iter.hasNext();) {
+          long hhcode = iter.next();
           if (cellsB.contains(hhcode)) {
             c.addCell(r, hhcode);
           }
         }
       } else {
-        for (long hhcode: cellsB) {
+        for (TLongIterator iter = cellsB.iterator(); iter.hasNext();) {
+          long hhcode = iter.next();
           if (cellsA.contains(hhcode)) {
             c.addCell(r, hhcode);
           }
@@ -1645,7 +1718,6 @@ public class Coverage {
     // Add 16 subcells
     
     if (null == coverage[coveredAtResolution + 1]) {
-      //coverage[coveredAtResolution + 1] = new HashSet<Long>();
       coverage[coveredAtResolution + 1] = allocateCellHashSet();
     }
     
@@ -1683,13 +1755,13 @@ public class Coverage {
     
     for (int r = 0; r < 16; r++) {      
       if (null != a.coverage[r]) {
-        for (long hhcode: a.coverage[r]) {
-          b.splitTo((r + 1) << 1, hhcode);
+        for (TLongIterator iter = a.coverage[r].iterator(); iter.hasNext();) {
+          b.splitTo((r + 1) << 1, iter.next());
         }
       }
       if (null != b.coverage[r]) {
-        for (long hhcode: b.coverage[r]) {
-          a.splitTo((r + 1) << 1, hhcode);
+        for (TLongIterator iter = b.coverage[r].iterator(); iter.hasNext();) {
+          a.splitTo((r + 1) << 1, iter.next());
         }        
       }
     }
@@ -1708,15 +1780,14 @@ public class Coverage {
     this.autoDedup = autoDedup;
   }
   
+  /**
+   * @deprecated Cells are now always stored in primitive sets, this is a no-op.
+   */
+  @Deprecated
   public void setUseTrove(boolean useTrove) {
-    this.useTrove = useTrove;
   }
   
-  private Set<Long> allocateCellHashSet() {
-    if (useTrove) {
-      return new TLongSetDecorator(new TLongHashSet());
-    } else {
-      return new HashSet<Long>();
-    }
+  private TLongHashSet allocateCellHashSet() {
+    return new TLongHashSet();
   }
 }
@@ -33,6 +33,8 @@ import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 
+import gnu.trove.iterator.TLongIterator;
+
 public class CoverageHelper {
   private static final int MIN_LOD = 256;
   private static final int MAX_LOD = -1;
@@ -88,7 +90,8 @@ public class CoverageHelper {
     boolean showpins = false;
     
     for (int res: coverage.getResolutions()) {
-      for (long cell: coverage.getCells(res)) {
+      for (TLongIterator iter = coverage.cellIterator(res); iter.hasNext();) {
+        long cell = iter.next();
         double[] bbox = HHCodeHelper.getHHCodeBBox(cell, res);
         
         writer.append("  <Placemark>\n");
@@ -0,0 +1,250 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+/**
+ * Batch computation of orthodromic (great circle) and loxodromic (rhumb line)
+ * distances, from one location to many or pairwise between two arrays of HHCodes.
+ *
+ * Distances are computed by blocks of BLOCK locations. Each step (splitting the
+ * HHCodes, computing the haversine terms, the final asin) is a simple counted loop
+ * over primitive arrays with no call other than to the math functions, so the JIT can
+ * unroll it and vectorize its arithmetic. The only allocations are the per call
+ * scratch arrays.
+ *
+ * When 'fast' is true, sin, cos and asin are replaced by polynomial approximations
+ * whose relative error on the returned distances is below FAST_MAX_RELATIVE_ERROR.
+ * Without 'fast' the distances are those of HHCodeHelper.orthodromicDistance and
+ * HHCodeHelper.loxodromicDistance.
+ */
+public class DistanceHelper {
+
+  /**
+   * Bound of the relative error of the distances computed in fast mode
+   */
+  public static final double FAST_MAX_RELATIVE_ERROR = 1.0E-6D;
+
+  /**
+   * Number of locations processed per block
+   */
+  private static final int BLOCK = 256;
+
+  private static final double RADIANS_PER_LAT_UNIT = Math.PI / (1L << 32);
+  private static final double RADIANS_PER_LON_UNIT = (Math.PI + Math.PI) / (1L << 32);
+
+  /**
+   * Meters per radian of great circle
+   */
+  private static final double METERS_PER_RADIAN = (180.0D / Math.PI) * (1852.0D * 60.0D);
+
+  private static final double HALF_PI = Math.PI / 2.0D;
+
+  /**
+   * Compute the orthodromic distances in meters from one location to others.
+   *
+   * @param from Origin
+   * @param to Destinations
+   * @param n Number of destinations to consider
+   * @param distances Array receiving the distances, at least 'n' long
+   * @param fast Use fast trigonometry
+   */
+  public static void orthodromicDistances(long from, long[] to, int n, double[] distances, boolean fast) {
+    double[] lats = new double[BLOCK];
+    double[] lons = new double[BLOCK];
+
+    double flat = HHCodeHelper.splitLat(from) * RADIANS_PER_LAT_UNIT - HALF_PI;
+    double flon = HHCodeHelper.splitLon(from) * RADIANS_PER_LON_UNIT - Math.PI;
+    double cosflat = fast ? cos(flat) : Math.cos(flat);
+
+    for (int offset = 0; offset < n; offset += BLOCK) {
+      int len = Math.min(BLOCK, n - offset);
+
+      split(to, offset, len, lats, lons);
+
+      if (fast) {
+        for (int i = 0; i < len; i++) {
+          double slat = sin((flat - lats[i]) / 2.0D);
+          double slon = sin((flon - lons[i]) / 2.0D);
+          distances[offset + i] = slat * slat + cosflat * cos(lats[i]) * slon * slon;
+        }
+      } else {
+        for (int i = 0; i < len; i++) {
+          double slat = Math.sin((flat - lats[i]) / 2.0D);
+          double slon = Math.sin((flon - lons[i]) / 2.0D);
+          distances[offset + i] = slat * slat + cosflat * Math.cos(lats[i]) * slon * slon;
+        }
+      }
+
+      haversineToMeters(distances, offset, len, fast);
+    }
+  }
+
+  /**
+   * Compute the orthodromic distances in meters between pairs of locations.
+   *
+   * @param from Origins
+   * @param to Destinations, distance i is from from[i] to to[i]
+   * @param n Number of pairs to consider
+   * @param distances Array receiving the distances, at least 'n' long
+   * @param fast Use fast trigonometry
+   */
+  public static void orthodromicDistances(long[] from, long[] to, int n, double[] distances, boolean fast) {
+    double[] flats = new double[BLOCK];
+    double[] flons = new double[BLOCK];
+    double[] tlats = new double[BLOCK];
+    double[] tlons = new double[BLOCK];
+
+    for (int offset = 0; offset < n; offset += BLOCK) {
+      int len = Math.min(BLOCK, n - offset);
+
+      split(from, offset, len, flats, flons);
+      split(to, offset, len, tlats, tlons);
+
+      if (fast) {
+        for (int i = 0; i < len; i++) {
+          double slat = sin((flats[i] - tlats[i]) / 2.0D);
+          double slon = sin((flons[i] - tlons[i]) / 2.0D);
+          distances[offset + i] = slat * slat + cos(flats[i]) * cos(tlats[i]) * slon * slon;
+        }
+      } else {
+        for (int i = 0; i < len; i++) {
+          double slat = Math.sin((flats[i] - tlats[i]) / 2.0D);
+          double slon = Math.sin((flons[i] - tlons[i]) / 2.0D);
+          distances[offset + i] = slat * slat + Math.cos(flats[i]) * Math.cos(tlats[i]) * slon * slon;
+        }
+      }
+
+      haversineToMeters(distances, offset, len, fast);
+    }
+  }
+
+  /**
+   * Compute the loxodromic distances in meters from one location to others.
+   *
+   * @see #orthodromicDistances(long, long[], int, double[], boolean)
+   */
+  public static void loxodromicDistances(long from, long[] to, int n, double[] distances, boolean fast) {
+    long flat = HHCodeHelper.splitLat(from);
+    long flon = HHCodeHelper.splitLon(from);
+
+    for (int i = 0; i < n; i++) {
+      distances[i] = loxodromic(flat, flon, HHCodeHelper.splitLat(to[i]), HHCodeHelper.splitLon(to[i]), fast);
+    }
+  }
+
+  /**
+   * Compute the loxodromic distances in meters between pairs of locations.
+   *
+   * @see #orthodromicDistances(long[], long[], int, double[], boolean)
+   */
+  public static void loxodromicDistances(long[] from, long[] to, int n, double[] distances, boolean fast) {
+    for (int i = 0; i < n; i++) {
+      distances[i] = loxodromic(HHCodeHelper.splitLat(from[i]), HHCodeHelper.splitLon(from[i]), HHCodeHelper.splitLat(to[i]), HHCodeHelper.splitLon(to[i]), fast);
+    }
+  }
+
+  /**
+   * Loxodromic distance as computed by HHCodeHelper.loxodromicDistance, i.e. using the
+   * scale at the average latitude.
+   */
+  private static double loxodromic(long flat, long flon, long tlat, long tlon, boolean fast) {
+    double lat = ((flat + tlat) / 2L) * RADIANS_PER_LAT_UNIT - HALF_PI;
+    double scale = fast ? cos(lat) : Math.cos(lat);
+
+    double deltaLat = ((double) (flat - tlat)) * HHCodeHelper.metersPerLatUnit;
+
+    long dlon = Math.abs(flon - tlon);
+    // Consider the shortest delta in longitude
+    dlon = dlon > 0x7FFFFFFFL ? 0xFFFFFFFFL - dlon : dlon;
+
+    double deltaLon = ((double) dlon) * HHCodeHelper.metersPerLonUnit * scale;
+
+    return Math.sqrt(deltaLat * deltaLat + deltaLon * deltaLon);
+  }
+
+  /**
+   * Split HHCodes into lat/lon in radians
+   */
+  private static void split(long[] hhcodes, int offset, int len, double[] lats, double[] lons) {
+    for (int i = 0; i < len; i++) {
+      long hhcode = hhcodes[offset + i];
+      lats[i] = HHCodeHelper.splitLat(hhcode) * RADIANS_PER_LAT_UNIT - HALF_PI;
+      lons[i] = HHCodeHelper.splitLon(hhcode) * RADIANS_PER_LON_UNIT - Math.PI;
+    }
+  }
+
+  /**
+   * Convert haversine terms into distances in meters, in place
+   */
+  private static void haversineToMeters(double[] h, int offset, int len, boolean fast) {
+    if (fast) {
+      for (int i = offset; i < offset + len; i++) {
+        h[i] = 2.0D * asin(Math.sqrt(Math.min(h[i], 1.0D))) * METERS_PER_RADIAN;
+      }
+    } else {
+      for (int i = offset; i < offset + len; i++) {
+        h[i] = 2.0D * Math.asin(Math.sqrt(h[i])) * METERS_PER_RADIAN;
+      }
+    }
+  }
+
+  //
+  // Polynomial approximations used in fast mode
+  //
+
+  /**
+   * Approximation of sin(x) for x in [-PI,PI], Taylor polynomial of degree 15 after folding
+   * x into [-PI/2,PI/2], where its error is below 1e-11. The haversine formula is ill
+   * conditioned for nearly antipodal locations, hence the high degree.
+   */
+  static double sin(double x) {
+    // Fold x into [-PI/2,PI/2] using sin(PI - x) = sin(x)
+    x = x > HALF_PI ? Math.PI - x : (x < -HALF_PI ? -Math.PI - x : x);
+
+    double x2 = x * x;
+
+    return x * (1.0D + x2 * (-1.0D / 6.0D + x2 * (1.0D / 120.0D + x2 * (-1.0D / 5040.0D + x2 * (1.0D / 362880.0D + x2 * (-1.0D / 39916800.0D + x2 * (1.0D / 6227020800.0D + x2 * (-1.0D / 1307674368000.0D))))))));
+  }
+
+  /**
+   * Approximation of cos(x) for x in [-PI/2,PI/2], i.e. for latitudes
+   */
+  static double cos(double x) {
+    return sin(HALF_PI - Math.abs(x));
+  }
+
+  /**
+   * Approximation of asin(x) for x in [0,1]. The Taylor series of asin up to x^15 is
+   * used below 0.5, where its relative error is below 2e-7, and asin(x) = PI/2 - 2 asin(sqrt((1-x)/2))
+   * above.
+   */
+  static double asin(double x) {
+    boolean high = x > 0.5D;
+
+    double y = high ? Math.sqrt((1.0D - x) / 2.0D) : x;
+    double y2 = y * y;
+
+    double a = y * (1.0D + y2 * (1.0D / 6.0D + y2 * (3.0D / 40.0D + y2 * (5.0D / 112.0D + y2 * (35.0D / 1152.0D + y2 * (63.0D / 2816.0D + y2 * (231.0D / 13312.0D + y2 * (143.0D / 10240.0D))))))));
+
+    return high ? HALF_PI - 2.0D * a : a;
+  }
+}
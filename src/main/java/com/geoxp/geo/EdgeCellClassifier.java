@@ -0,0 +1,413 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Allocation free CellClassifier for a JTS Geometry.
+ *
+ * The edges of the geometry are converted once into HHCode units (the lat/lon units of
+ * HHCodes at resolution 32), so cells are tested using their integer bounds as extracted
+ * from their HHCode, without building any JTS object.
+ *
+ * Edges are indexed in horizontal strips of equal height covering the geometry. A cell only
+ * needs to be tested against the edges of the strips it spans, strips whose longitude extent
+ * does not overlap the cell are skipped. When no edge crosses the interior of a cell, the
+ * crossing number of a ray cast from its center decides whether it is inside the polygonal
+ * components. All the edges which can cross such a ray are in the strip containing the center.
+ * As with JTS covers/intersects, edges along the cell boundary do not prevent the cell from
+ * being contained, and an outside cell touching the geometry intersects it.
+ *
+ * Instances are immutable and can be shared among threads.
+ */
+public class EdgeCellClassifier implements CellClassifier {
+
+  /**
+   * Locations of a segment relative to a cell
+   */
+  static final int SEGMENT_OUTSIDE = 0;
+  static final int SEGMENT_TOUCHES = 1;
+  static final int SEGMENT_CROSSES = 2;
+
+  /**
+   * Minimum length (in HHCode units) of a clipped segment to be considered as crossing a cell
+   */
+  private static final double CLIP_EPSILON = 1.0e-3D;
+
+  /**
+   * Edges as (lat0,lon0,lat1,lon1) quadruples, in HHCode units
+   */
+  private final double[] edges;
+
+  /**
+   * Flags indicating which edges belong to polygon rings (and therefore bound an area)
+   */
+  private final boolean[] ring;
+
+  /**
+   * Strip geometry, strip i covers latitudes [latmin + i * height, latmin + (i + 1) * height)
+   */
+  private final double latmin;
+  private final double height;
+  private final int nstrips;
+
+  /**
+   * Edges of strip i are stripEdges[stripStart[i]] to stripEdges[stripStart[i + 1] - 1]
+   */
+  private final int[] stripStart;
+  private final int[] stripEdges;
+
+  /**
+   * Longitude extent of each strip's edges
+   */
+  private final double[] stripLonMin;
+  private final double[] stripLonMax;
+
+  /**
+   * Envelope of the geometry, in HHCode units
+   */
+  private final double envLatMin;
+  private final double envLatMax;
+  private final double envLonMin;
+  private final double envLonMax;
+
+  public EdgeCellClassifier(Geometry geometry) {
+    List<Coordinate[]> lines = new ArrayList<Coordinate[]>();
+    List<Boolean> rings = new ArrayList<Boolean>();
+
+    extract(geometry, lines, rings);
+
+    int n = 0;
+
+    for (Coordinate[] coords: lines) {
+      n += Math.max(1, coords.length - 1);
+    }
+
+    this.edges = new double[n * 4];
+    this.ring = new boolean[n];
+
+    double elatmin = Double.POSITIVE_INFINITY;
+    double elatmax = Double.NEGATIVE_INFINITY;
+    double elonmin = Double.POSITIVE_INFINITY;
+    double elonmax = Double.NEGATIVE_INFINITY;
+
+    int e = 0;
+
+    for (int l = 0; l < lines.size(); l++) {
+      Coordinate[] coords = lines.get(l);
+      boolean isring = rings.get(l);
+
+      for (int i = 0; i < Math.max(1, coords.length - 1); i++) {
+        // Points are stored as degenerate edges
+        Coordinate from = coords[i];
+        Coordinate to = coords[Math.min(i + 1, coords.length - 1)];
+
+        edges[4 * e] = toLatUnits(from.y);
+        edges[4 * e + 1] = toLonUnits(from.x);
+        edges[4 * e + 2] = toLatUnits(to.y);
+        edges[4 * e + 3] = toLonUnits(to.x);
+        ring[e] = isring;
+
+        elatmin = Math.min(elatmin, Math.min(edges[4 * e], edges[4 * e + 2]));
+        elatmax = Math.max(elatmax, Math.max(edges[4 * e], edges[4 * e + 2]));
+        elonmin = Math.min(elonmin, Math.min(edges[4 * e + 1], edges[4 * e + 3]));
+        elonmax = Math.max(elonmax, Math.max(edges[4 * e + 1], edges[4 * e + 3]));
+
+        e++;
+      }
+    }
+
+    this.envLatMin = elatmin;
+    this.envLatMax = elatmax;
+    this.envLonMin = elonmin;
+    this.envLonMax = elonmax;
+
+    //
+    // Build the strips, about 4 edges per strip on average
+    //
+
+    this.nstrips = Math.max(1, Math.min(n / 4, 1 << 16));
+    this.latmin = 0 == n ? 0.0D : elatmin;
+    this.height = 0 == n ? 1.0D : Math.max(1.0D, (elatmax - elatmin) / nstrips);
+
+    this.stripStart = new int[nstrips + 1];
+    this.stripLonMin = new double[nstrips];
+    this.stripLonMax = new double[nstrips];
+
+    for (int s = 0; s < nstrips; s++) {
+      stripLonMin[s] = Double.POSITIVE_INFINITY;
+      stripLonMax[s] = Double.NEGATIVE_INFINITY;
+    }
+
+    // Count the edges of each strip
+    for (e = 0; e < n; e++) {
+      int first = strip(Math.min(edges[4 * e], edges[4 * e + 2]));
+      int last = strip(Math.max(edges[4 * e], edges[4 * e + 2]));
+
+      for (int s = first; s <= last; s++) {
+        stripStart[s + 1]++;
+        stripLonMin[s] = Math.min(stripLonMin[s], Math.min(edges[4 * e + 1], edges[4 * e + 3]));
+        stripLonMax[s] = Math.max(stripLonMax[s], Math.max(edges[4 * e + 1], edges[4 * e + 3]));
+      }
+    }
+
+    for (int s = 0; s < nstrips; s++) {
+      stripStart[s + 1] += stripStart[s];
+    }
+
+    this.stripEdges = new int[stripStart[nstrips]];
+    int[] fill = new int[nstrips];
+
+    for (e = 0; e < n; e++) {
+      int first = strip(Math.min(edges[4 * e], edges[4 * e + 2]));
+      int last = strip(Math.max(edges[4 * e], edges[4 * e + 2]));
+
+      for (int s = first; s <= last; s++) {
+        stripEdges[stripStart[s] + fill[s]++] = e;
+      }
+    }
+  }
+
+  private static void extract(Geometry geometry, List<Coordinate[]> lines, List<Boolean> rings) {
+    if (geometry instanceof Polygon) {
+      Polygon polygon = (Polygon) geometry;
+      lines.add(polygon.getExteriorRing().getCoordinates());
+      rings.add(Boolean.TRUE);
+      for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+        lines.add(polygon.getInteriorRingN(i).getCoordinates());
+        rings.add(Boolean.TRUE);
+      }
+    } else if (geometry instanceof LineString || geometry instanceof Point) {
+      if (!geometry.isEmpty()) {
+        lines.add(geometry.getCoordinates());
+        rings.add(Boolean.FALSE);
+      }
+    } else {
+      for (int i = 0; i < geometry.getNumGeometries(); i++) {
+        extract(geometry.getGeometryN(i), lines, rings);
+      }
+    }
+  }
+
+  private static double toLatUnits(double lat) {
+    return (lat + 90.0D) / HHCodeHelper.DEGREES_PER_LAT_UNIT;
+  }
+
+  private static double toLonUnits(double lon) {
+    return (lon + 180.0D) / HHCodeHelper.DEGREES_PER_LON_UNIT;
+  }
+
+  /**
+   * Return the index of the strip containing a latitude, clamped to the valid strips
+   */
+  private int strip(double lat) {
+    double s = (lat - latmin) / height;
+
+    if (s < 0.0D) {
+      return 0;
+    } else if (s >= nstrips) {
+      return nstrips - 1;
+    }
+
+    return (int) s;
+  }
+
+  public int classify(long hhcode, int resolution) {
+    long mask = 0xffffffffL << (32 - resolution) & 0xffffffffL;
+    double size = (double) (1L << (32 - resolution));
+
+    double minlat = (double) (HHCodeHelper.splitLat(hhcode) & mask);
+    double minlon = (double) (HHCodeHelper.splitLon(hhcode) & mask);
+    double maxlat = minlat + size;
+    double maxlon = minlon + size;
+
+    if (0 == ring.length || maxlon < envLonMin || minlon > envLonMax || maxlat < envLatMin || minlat > envLatMax) {
+      return DISJOINT;
+    }
+
+    //
+    // Check if an edge crosses the cell
+    //
+
+    int first = strip(minlat);
+    int last = strip(maxlat);
+
+    boolean touched = false;
+
+    for (int s = first; s <= last; s++) {
+      if (maxlon < stripLonMin[s] || minlon > stripLonMax[s]) {
+        continue;
+      }
+
+      for (int i = stripStart[s]; i < stripStart[s + 1]; i++) {
+        int idx = stripEdges[i];
+        int e = 4 * idx;
+
+        int location = segmentLocation(edges[e + 1], edges[e], edges[e + 3], edges[e + 2], minlon, minlat, maxlon, maxlat);
+
+        if (SEGMENT_CROSSES == location) {
+          return INTERSECTS;
+        } else if (SEGMENT_TOUCHES == location) {
+          //
+          // A line touching the cell intersects it, a ring edge running along
+          // the cell boundary leaves its interior entirely inside or outside the area
+          //
+
+          if (!ring[idx]) {
+            return INTERSECTS;
+          }
+
+          touched = true;
+        }
+      }
+    }
+
+    //
+    // No edge crosses the cell interior, count the ring edges crossed by a ray cast eastward from its center
+    //
+
+    double clat = minlat + size / 2.0D;
+    double clon = minlon + size / 2.0D;
+
+    int s = strip(clat);
+    boolean inside = false;
+
+    for (int i = stripStart[s]; i < stripStart[s + 1]; i++) {
+      int idx = stripEdges[i];
+
+      if (!ring[idx]) {
+        continue;
+      }
+
+      int e = 4 * idx;
+      double lat0 = edges[e];
+      double lon0 = edges[e + 1];
+      double lat1 = edges[e + 2];
+      double lon1 = edges[e + 3];
+
+      if ((lat0 > clat) != (lat1 > clat)) {
+        double lon = lon0 + (clat - lat0) * (lon1 - lon0) / (lat1 - lat0);
+
+        if (lon > clon) {
+          inside = !inside;
+        }
+      }
+    }
+
+    if (inside) {
+      return CONTAINED;
+    }
+
+    //
+    // An outside cell whose boundary touches the geometry still intersects it
+    //
+
+    return touched ? INTERSECTS : DISJOINT;
+  }
+
+  /**
+   * Locate segment (x0,y0)-(x1,y1) relative to the rectangle [xmin,xmax]x[ymin,ymax]
+   * using Liang-Barsky clipping.
+   *
+   * @return SEGMENT_CROSSES if part of the segment lies in the open interior of the rectangle,
+   *         SEGMENT_TOUCHES if the segment only meets its boundary, SEGMENT_OUTSIDE otherwise.
+   */
+  static int segmentLocation(double x0, double y0, double x1, double y1, double xmin, double ymin, double xmax, double ymax) {
+    double dx = x1 - x0;
+    double dy = y1 - y0;
+
+    double t0 = 0.0D;
+    double t1 = 1.0D;
+
+    boolean onSide = false;
+
+    for (int edge = 0; edge < 4; edge++) {
+      double p;
+      double q;
+
+      switch (edge) {
+        case 0:
+          p = -dx;
+          q = x0 - xmin;
+          break;
+        case 1:
+          p = dx;
+          q = xmax - x0;
+          break;
+        case 2:
+          p = -dy;
+          q = y0 - ymin;
+          break;
+        default:
+          p = dy;
+          q = ymax - y0;
+          break;
+      }
+
+      if (0.0D == p) {
+        // Segment is parallel to this edge, reject it if it is outside, note if it lies on it
+        if (q < 0.0D) {
+          return SEGMENT_OUTSIDE;
+        } else if (0.0D == q) {
+          onSide = true;
+        }
+      } else {
+        double r = q / p;
+
+        if (p < 0.0D) {
+          if (r > t1) {
+            return SEGMENT_OUTSIDE;
+          }
+          if (r > t0) {
+            t0 = r;
+          }
+        } else {
+          if (r < t0) {
+            return SEGMENT_OUTSIDE;
+          }
+          if (r < t1) {
+            t1 = r;
+          }
+        }
+      }
+    }
+
+    //
+    // A clipped segment which is not along a side of the rectangle crosses
+    // the interior unless it is reduced to a point (a vertex on the boundary or
+    // an edge through a corner). Allow for rounding errors on the clipping parameters.
+    //
+
+    if (!onSide && (t1 - t0) * Math.max(Math.abs(dx), Math.abs(dy)) > CLIP_EPSILON) {
+      return SEGMENT_CROSSES;
+    }
+
+    return SEGMENT_TOUCHES;
+  }
+}
@@ -20,6 +20,15 @@
 
 package com.geoxp.geo;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Random;
@@ -27,6 +36,32 @@ import java.util.Random;
 /**
  * A Bloom Filter specifically designed for locations
  * 
+ * The filter has two layouts. In the standard one, the k bits of a cell are spread
+ * over the whole bit field of each generation. In the blocked one, the bit field is
+ * split in 512 bits blocks (a cache line), a cell picks one block with its hash and
+ * sets its k bits in that block, in distinct 64 bits words, so checking a generation costs
+ * a single cache miss and a few mask tests. For the same memory the blocked layout
+ * has a slightly higher false positive rate.
+ * 
+ * A filter can be saved with 'write' and loaded back with 'load' or 'map', provided it
+ * was built with keys from a seed or the filter itself was loaded, as the default keys
+ * are random and change with each JVM. The format is:
+ * 
+ * <pre>
+ * 'G' 'B' 'F' VERSION MAXRES K FLAGS GENERATIONS     (bytes)
+ * GENERATION NKEYS                                   (ints)
+ * LIMIT LENGTH COUNT                                 (int, int, long for each generation)
+ * KEYS                                               (NKEYS longs)
+ * LEVELS                                             (5 longs)
+ * BITS                                               (longs of generations 0 to GENERATION)
+ * </pre>
+ * 
+ * All values are big endian and the bit fields are aligned on 8 bytes, so a mapped
+ * file is queried in place.
+ * 
+ * Cells are added under the filter's lock, 'contains' does not lock and can be called
+ * while cells are added, but may not see the cells being added. Use
+ * ConcurrentGeoBloomFilter when a filter is fed and queried concurrently.
  */
 public class GeoBloomFilter {
   
@@ -44,34 +79,34 @@ public class GeoBloomFilter {
   /**
    * Number of hash functions
    */
-  private static final int K = 100;
+  static final int K = 100;
   
-  private static final int MAX_GEN = 6;
+  static final int MAX_GEN = 6;
+
+  /**
+   * Default number of elements and false positive rate of each generation
+   */
+  static final int[] DEFAULT_N = new int[] { 1000, 10000, 100000, 1000000, 10000000, 100000000 };
+  static final double[] DEFAULT_FPRATE = new double[] { 0.01, 0.02, 0.03, 0.04, 0.05, 0.1 };
 
-  private static final int[] DEFAULT_OFFSETS = new int[MAX_GEN];
-  private static final int[] DEFAULT_LIMITS = new int[MAX_GEN];
-  private static final int[] DEFAULT_LENGTHS = new int[MAX_GEN];
+  /**
+   * Number of 64 bits words in a block of the blocked layout
+   */
+  static final int BLOCK_WORDS = 8;
+  
+  public static final int VERSION = 1;
   
-  private long known;
+  private static final int MAGIC = ('G' << 24) | ('B' << 16) | ('F' << 8) | VERSION;
+  
+  private static final int FLAG_SLICE = 0x01;
+  private static final int FLAG_BLOCKED = 0x02;
   
   /**
-   * Hash keys (2 per hash functions)
+   * Default hash keys (2 per hash functions)
    */
-  private static final long[] hashkeys;
+  static final long[] hashkeys;
 
   static {
-    int[] n = new int[] { 1000, 10000, 100000, 1000000, 10000000, 100000000 };
-    double[] p = new double[] { 0.01, 0.02, 0.03, 0.04, 0.05, 0.1 };
-    
-    int offset = 16 + 256;
-    
-    for (int i = 0; i < n.length; i++) {
-      DEFAULT_OFFSETS[i] = offset;
-      DEFAULT_LENGTHS[i] = (int) Math.ceil((-n[i] * Math.log(p[i]) / (Math.log(2) * Math.log(2))));
-      DEFAULT_LIMITS[i] = n[i];
-      offset += n[i];
-    }
-
     try {
       Random r = new Random();
             
@@ -88,29 +123,25 @@ public class GeoBloomFilter {
       throw new RuntimeException(e);
     }
   }
-  private final int[] offsets;
+  
+  /**
+   * Hash keys used by this filter
+   */
+  private final long[] keys;
+  
   private final int[] limits;
+  
+  /**
+   * Number of bits of each generation, a multiple of 512 for the blocked layout
+   */
   private final int[] lengths;
   
-  private static final sun.misc.Unsafe UNSAFE;
-  static {
-    sun.misc.Unsafe unsafe = null;
-    try {
-      java.lang.reflect.Field field = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
-      field.setAccessible(true);
-      unsafe = (sun.misc.Unsafe)field.get(null);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    UNSAFE = unsafe;
-  }
-  private static final long base = UNSAFE.arrayBaseOffset(new byte[0].getClass());
-
   /**
-   * Current generation (determines the offset)
+   * Current generation, the bits of a generation are allocated before it becomes current
+   * so readers never see a generation without its bits
    */
   
-  private int generation = 0;
+  private volatile int generation = 0;
 
   private int k = 6;
   
@@ -120,72 +151,144 @@ public class GeoBloomFilter {
   private final boolean slice;
   
   /**
-   * Initial bitset for level 1 cells (16),
-   * level 2 cells (256) and an initial bloom filter for 1k
-   * entries with 1% error (m = - n ln p / (ln 2)^2)
-   * 9587 is prime
+   * Are the k bits of a cell packed in a single block
+   */
+  private final boolean blocked;
+  
+  /**
+   * Bits for level 1 cells (16) and level 2 cells (256)
+   */
+  private final LongBuffer levels;
+  
+  /**
+   * Bit field of each generation, allocated when the generation is reached
+   * (m = - n ln p / (ln 2)^2)
    */
-  private final BitSet bits;
+  private final LongBuffer[] bits;
   
   /**
    * Number of 'new' elements added to the filter
    */
   private long[] counts = new long[] { 0 };
-    
-  private final byte[] data = new byte[8];
   
   private final int maxres;
   private final long resolutionMask;
 
-  private void init(int[] n, double[] p) {
-    if (n.length != p.length || n.length > MAX_GEN || p.length > MAX_GEN) {
-      throw new RuntimeException("Invalid n/p arrays, max size is " + MAX_GEN);
-    }
-    
-    int offset = 16 + 256;
-    
-    for (int i = 0; i < n.length; i++) {
-      offsets[i] = offset;
-      lengths[i] = (int) Math.ceil((-n[i] * Math.log(p[i]) / (Math.log(2) * Math.log(2))));
-      limits[i] = n[i];
-      offset += n[i];
-    }
+  public GeoBloomFilter(int maxresolution, int[] n, double[] fprate, int k, boolean slice) {
+    this(maxresolution, n, fprate, k, slice, false);
   }
   
-  public GeoBloomFilter(int maxresolution, int[] n, double[] fprate, int k, boolean slice) {
+  /**
+   * @param maxresolution Finest resolution (1 to 15) of the cells added to the filter
+   * @param n Number of elements of each generation, or null for the defaults
+   * @param fprate False positive rate of each generation, or null for the defaults
+   * @param k Number of bits set per cell
+   * @param slice Derive the k bits from a single hash (standard layout only)
+   * @param blocked Use the blocked layout
+   */
+  public GeoBloomFilter(int maxresolution, int[] n, double[] fprate, int k, boolean slice, boolean blocked) {
+    this(maxresolution, n, fprate, k, slice, blocked, hashkeys);
+  }
+  
+  /**
+   * Create a filter whose hash keys are derived from a seed, filters created with
+   * the same seed and parameters are compatible and can be saved and loaded.
+   * 
+   * @param seed Seed of the hash keys
+   */
+  public GeoBloomFilter(int maxresolution, int[] n, double[] fprate, int k, boolean slice, boolean blocked, long seed) {
+    this(maxresolution, n, fprate, k, slice, blocked, generateKeys(seed));
+  }
+  
+  private GeoBloomFilter(int maxresolution, int[] n, double[] fprate, int k, boolean slice, boolean blocked, long[] keys) {
     if (maxresolution < 1 || maxresolution > 15) {
       throw new RuntimeException("Invalid resolution, MUST be between 1 and 15, both inclusive.");
     }
     
-    if (k > hashkeys.length / 2) {
-      throw new RuntimeException("k cannot be greater than " + (hashkeys.length / 2));
+    if (k > K) {
+      throw new RuntimeException("k cannot be greater than " + K);
     }
         
     this.slice = slice;
+    this.blocked = blocked;
     this.k = k;
+    this.keys = keys;
     
-    if (k > 32 && slice) {
+    if (k > 32 && slice && !blocked) {
       throw new RuntimeException("slicing can only be used when k <= 32.");
     }
     
     this.maxres = maxresolution;
     this.resolutionMask = 0xFFFFFFFFFFFFFFFL << (60 - (maxresolution * 4));
     
-    if (null != n && null != fprate) {
-      offsets = new int[n.length];
-      limits = new int[n.length];
-      lengths = new int[n.length];
+    if (null == n || null == fprate) {
+      n = DEFAULT_N;
+      fprate = DEFAULT_FPRATE;
+    }
+    
+    if (n.length != fprate.length || n.length > MAX_GEN) {
+      throw new RuntimeException("Invalid n/p arrays, max size is " + MAX_GEN);
+    }
+    
+    this.limits = new int[n.length];
+    this.lengths = new int[n.length];
+    
+    for (int i = 0; i < n.length; i++) {
+      long m = (long) Math.ceil((-n[i] * Math.log(fprate[i]) / (Math.log(2) * Math.log(2))));
       
-      init(n, fprate);
-    } else {
-      offsets = DEFAULT_OFFSETS;
-      limits = DEFAULT_LIMITS;
-      lengths = DEFAULT_LENGTHS;
+      // Round up to whole blocks
+      if (blocked) {
+        m = (m + 511L) & ~511L;
+      }
+      
+      if (m > Integer.MAX_VALUE) {
+        throw new RuntimeException("Generation " + i + " is too large.");
+      }
+      
+      lengths[i] = (int) m;
+      limits[i] = n[i];
     }
-        
-    this.bits = new BitSet(16 + 256 + lengths[0]);
+    
+    this.levels = LongBuffer.wrap(new long[(16 + 256) / 64 + 1]);
+    this.bits = new LongBuffer[n.length];
+    this.bits[0] = allocate(lengths[0]);
   }
 
+  /**
+   * Create a filter from the fields of a saved one
+   */
+  private GeoBloomFilter(int maxres, int k, boolean slice, boolean blocked, long[] keys, int[] limits, int[] lengths,
+      long[] counts, int generation, LongBuffer levels, LongBuffer[] bits) {
+    this.maxres = maxres;
+    this.resolutionMask = 0xFFFFFFFFFFFFFFFL << (60 - (maxres * 4));
+    this.k = k;
+    this.slice = slice;
+    this.blocked = blocked;
+    this.keys = keys;
+    this.limits = limits;
+    this.lengths = lengths;
+    this.counts = counts;
+    this.generation = generation;
+    this.levels = levels;
+    this.bits = bits;
+  }
+  
+  private static long[] generateKeys(long seed) {
+    Random r = new Random(seed);
+    
+    long[] keys = new long[K * 2];
+    
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = r.nextLong();
+    }
+    
+    return keys;
+  }
+  
+  private static LongBuffer allocate(int length) {
+    return LongBuffer.wrap(new long[(length + 63) >>> 6]);
+  }
+  
   /**
    * Adapt a cell so its resolution is no more than maxres
    */
@@ -206,8 +309,7 @@ public class GeoBloomFilter {
   }
   
   /**
-   * This method is synchronized so we can use the 'data' field without
-   * problems
+   * This method is synchronized as it updates the generation and counts
    */
   public synchronized void add(long hhcode) {
     //
@@ -215,14 +317,14 @@ public class GeoBloomFilter {
     //
     int l2bits = (int) (hhcode >>> 56);
 
-    this.bits.set(16 + l2bits);
+    setBit(this.levels, 16 + l2bits);
     
     //
     // Extract level 1
     //
     int l1bits = (l2bits & 0xF0) >>> 4;
     
-    this.bits.set(l1bits);
+    setBit(this.levels, l1bits);
     
     //
     // If res is 1 or 2, return now
@@ -247,47 +349,45 @@ public class GeoBloomFilter {
       // Trim HHCode to resolution
       cell &= (0xffffffffffffffffL ^ ((1L << (4 * (15 - (res + 1)))) - 1)); 
 
-      for (int i = 0; i < 8; i++) {
-        data[7 - i] = (byte) (cell & 0xFFL);
-        cell = cell >>> 8;
-      }
+      LongBuffer genbits = bits[generation];
+      int length = lengths[generation];
       
       boolean inset = true;
 
-      if (this.slice) {
-        long initialHash = hash24(hashkeys[0], hashkeys[1], data, 0, data.length);
+      if (this.blocked) {
+        long hash = hash24(keys[0], keys[1], cell);
+        int block = block(hash, length);
         
         for (int i = 0; i < k; i++) {
-          // Compute kth hash by shifting 'initialHash' k bits to the right.
-          long hash = (initialHash >>> i) & 0xFFFFFFFFL;
-          
-          // If 'inset' is true, check if the bit was set, if so, skip modifying the bitset
+          int idx = block + blockWord(hash, i);
+          long mask = blockMask(hash, i);
+          long word = genbits.get(idx);
           
-          if (inset && this.bits.get(offsets[generation] + (int) (hash % lengths[generation]))) {
-            //known++;
+          if (0L != (word & mask)) {
             continue;
           }
           
-          // Set the bit to '1'
-          this.bits.set(offsets[generation] + (int) (hash % lengths[generation]));
-          
+          genbits.put(idx, word | mask);
           inset = false;
         }
+      } else if (this.slice) {
+        long initialHash = hash24(keys[0], keys[1], cell);
+        
+        for (int i = 0; i < k; i++) {
+          // Compute kth hash by shifting 'initialHash' k bits to the right.
+          long hash = (initialHash >>> i) & 0xFFFFFFFFL;
+          
+          if (setBit(genbits, (int) (hash % length))) {
+            inset = false;
+          }
+        }
       } else {
         for (int i = 0; i < k * 2; i += 2) {
-          long hash = hash24(hashkeys[i], hashkeys[i + 1], data, 0, data.length) & 0xFFFFFFFFL;
+          long hash = hash24(keys[i], keys[i + 1], cell) & 0xFFFFFFFFL;
           
-          // If 'inset' is true, check if the bit was set, if so, skip modifying the bitset
-          
-          if (inset && this.bits.get(offsets[generation] + (int) (hash % lengths[generation]))) {
-            //known++;
-            continue;
+          if (setBit(genbits, (int) (hash % length))) {
+            inset = false;
           }
-          
-          // Set the bit to '1'
-          this.bits.set(offsets[generation] + (int) (hash % lengths[generation]));
-          
-          inset = false;
         }        
       }
 
@@ -299,7 +399,8 @@ public class GeoBloomFilter {
         //
               
         if (counts[generation] >= limits[generation]) {        
-          if (generation < MAX_GEN - 1) {          
+          if (generation < lengths.length - 1) {          
+            bits[generation + 1] = allocate(lengths[generation + 1]);
             generation++;
             counts = Arrays.copyOf(counts, counts.length + 1);
           }
@@ -326,7 +427,7 @@ public class GeoBloomFilter {
     // Check levels 1 and 2
     //
     
-    if (!this.bits.get(l1bits)) {
+    if (!getBit(this.levels, l1bits)) {
       return false;
     }
 
@@ -334,7 +435,7 @@ public class GeoBloomFilter {
       return true;
     }
     
-    if (!this.bits.get(16 + l2bits)) {
+    if (!getBit(this.levels, 16 + l2bits)) {
       return false;
     }
         
@@ -343,57 +444,61 @@ public class GeoBloomFilter {
     }
         
     //
-    // Hash cell
+    // Hash cell, it is in the filter if all its bits are set in at least one generation
     //
     
-    byte[] data = new byte[8];
-    for (int i = 0; i < 8; i++) {
-      data[7 - i] = (byte) (cell & 0xFFL);
-      cell = cell >>> 8;
+    int generation = this.generation;
+    
+    long initialHash = 0L;
+    
+    if (this.blocked || this.slice) {
+      initialHash = hash24(keys[0], keys[1], cell);
     }
     
-    long gens = (1L << (generation + 1)) - 1L;
+    for (int g = 0; g <= generation; g++) {
+      if (containsBits(bits[g], lengths[g], initialHash, cell)) {
+        return true;
+      }
+    }
     
-    if (this.slice) {
-      long initialHash = hash24(hashkeys[0], hashkeys[1], data, 0, data.length);
+    return false;
+  }
+  
+  /**
+   * Check whether the bits of a cell are all set in a generation
+   * 
+   * @param genbits Bits of the generation
+   * @param length Number of bits of the generation
+   * @param initialHash Hash of the cell with the first hash keys, for the blocked and sliced modes
+   * @param cell Cell to check
+   */
+  private boolean containsBits(LongBuffer genbits, int length, long initialHash, long cell) {
+    if (this.blocked) {
+      int block = block(initialHash, length);
       
+      for (int i = 0; i < k; i++) {
+        long mask = blockMask(initialHash, i);
+        if (mask != (genbits.get(block + blockWord(initialHash, i)) & mask)) {
+          return false;
+        }
+      }
+    } else if (this.slice) {
       for (int i = 0; i < k; i++) {
         long hash = (initialHash >>> i) & 0xFFFFFFFFL;
-        
-        for (int g = 0; g <= generation; g++) {
-          if (!this.bits.get(offsets[g] + (int) ((hash & 0xFFFFFFFFL) % lengths[g]))) {
-            // Set the 'g' bit to 0 to indicate at least one bit was not set in the associated bit field
-            gens = gens & (0xFFFFFFFFFFFFFFFFL ^ (1L << g));
-            // Return early if gens is already 0
-            if (0 == gens) {
-              return false;
-            }
-          }        
+        if (!getBit(genbits, (int) (hash % length))) {
+          return false;
         }
       }
     } else {
       for (int i = 0; i < k * 2; i += 2) {
-        long hash = hash24(hashkeys[i], hashkeys[i + 1], data, 0, data.length);
-        
-        for (int g = 0; g <= generation; g++) {
-          if (!this.bits.get(offsets[g] + (int) ((hash & 0xFFFFFFFFL) % lengths[g]))) {
-            // Set the 'g' bit to 0 to indicate at least one bit was not set in the associated bit field
-            gens = gens & (0xFFFFFFFFFFFFFFFFL ^ (1L << g));
-            // Return early if gens is already 0
-            if (0 == gens) {
-              return false;
-            }
-          }        
+        long hash = hash24(keys[i], keys[i + 1], cell) & 0xFFFFFFFFL;
+        if (!getBit(genbits, (int) (hash % length))) {
+          return false;
         }
       }      
     }
-
-    //
-    // If at least one bit of gens is set then this means the location was found
-    // in at least one bitset
-    //
     
-    return 0 != gens;
+    return true;
   }
   
   /**
@@ -401,109 +506,417 @@ public class GeoBloomFilter {
    * This mitigates the false positive probability by ensuring that the whole
    * family of cells are indeed in the set.
    * 
+   * Ancestors are checked from the coarsest one, in a single pass, stopping at the
+   * first missing one.
+   * 
    * @param cell
    * @return
    */
   public boolean containsHierarchy(long cell) {
-    while(0L != cell && contains(cell)) {
-      cell = HHCodeHelper.parentGeoCell(cell);
+    return containsHierarchy(cell, null);
+  }
+  
+  /**
+   * Check the hierarchy of several cells. Consecutive cells usually share most of
+   * their ancestors, those are only checked once.
+   * 
+   * @param cells Cells to check
+   * @param out Bit i is set if cells[i] and all its parents are in the filter, cleared otherwise
+   */
+  public void containsAll(long[] cells, BitSet out) {
+    // Ancestor known to be present (0->15) or missing (16->31) at each resolution
+    long[] known = new long[32];
+    
+    for (int i = 0; i < cells.length; i++) {
+      out.set(i, containsHierarchy(cells[i], known));
+    }
+  }
+  
+  private boolean containsHierarchy(long cell, long[] known) {
+    if (0L == cell) {
+      return true;
+    }
+    
+    int res = (int) ((cell >>> 60) & 0xFL);
+    
+    if (0 == res) {
+      return false;
+    }
+    
+    //
+    // Check levels 1 and 2
+    //
+    
+    int l2bits = (int) ((cell & 0x0FF0000000000000L) >>> 52);
+    
+    if (!getBit(this.levels, (l2bits & 0xF0) >>> 4)) {
+      return false;
+    }
+    
+    if (res >= 2 && !getBit(this.levels, 16 + l2bits)) {
+      return false;
+    }
+    
+    //
+    // Check finer ancestors, from coarse to fine
+    //
+    
+    int generation = this.generation;
+    
+    for (int r = 3; r <= res; r++) {
+      long ancestor = (((long) r) << 60) | (cell & 0x0FFFFFFFFFFFFFFFL & (0xFFFFFFFFFFFFFFFFL << (64 - 4 * (r + 1))));
+      
+      if (null != known) {
+        if (ancestor == known[r]) {
+          continue;
+        }
+        if (ancestor == known[16 + r]) {
+          return false;
+        }
+      }
+      
+      long initialHash = 0L;
+      
+      if (this.blocked || this.slice) {
+        initialHash = hash24(keys[0], keys[1], ancestor);
+      }
+      
+      boolean found = false;
+      
+      for (int g = 0; g <= generation && !found; g++) {
+        found = containsBits(bits[g], lengths[g], initialHash, ancestor);
+      }
+      
+      if (null != known) {
+        known[found ? r : 16 + r] = ancestor;
+      }
+      
+      if (!found) {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Check whether another filter has the same parameters and hash keys as this one,
+   * i.e. whether both set the same bits for a given cell.
+   */
+  public boolean isCompatible(GeoBloomFilter other) {
+    if (this.maxres != other.maxres || this.k != other.k || this.slice != other.slice || this.blocked != other.blocked
+        || !Arrays.equals(this.limits, other.limits) || !Arrays.equals(this.lengths, other.lengths)) {
+      return false;
+    }
+    
+    int nkeys = (this.blocked || this.slice) ? 2 : 2 * k;
+    
+    for (int i = 0; i < nkeys; i++) {
+      if (this.keys[i] != other.keys[i]) {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Add all the cells of another filter to this one by ORing their bits generation
+   * by generation. The other filter must be compatible (see 'isCompatible') and must
+   * not be modified during the merge.
+   * 
+   * Counts are summed, they overestimate the number of elements when both filters
+   * share some, and a generation may end up holding up to twice its limit, which
+   * raises its false positive rate accordingly.
+   */
+  public synchronized void merge(GeoBloomFilter other) {
+    if (!isCompatible(other)) {
+      throw new RuntimeException("Incompatible GeoBloomFilter.");
+    }
+    
+    or(this.levels, other.levels);
+    
+    int othergen = other.generation;
+    
+    for (int g = 0; g <= othergen; g++) {
+      if (null == bits[g]) {
+        bits[g] = allocate(lengths[g]);
+      }
+      
+      or(bits[g], other.bits[g]);
+    }
+    
+    if (othergen > generation) {
+      counts = Arrays.copyOf(counts, othergen + 1);
+      generation = othergen;
+    }
+    
+    for (int g = 0; g <= othergen; g++) {
+      counts[g] += other.counts[g];
     }
     
-    return 0L == cell;
+    //
+    // Move to the next generation if the current one is now full
+    //
+    
+    if (counts[generation] >= limits[generation] && generation < lengths.length - 1) {
+      bits[generation + 1] = allocate(lengths[generation + 1]);
+      generation++;
+      counts = Arrays.copyOf(counts, counts.length + 1);
+    }
+  }
+  
+  private static void or(LongBuffer words, LongBuffer other) {
+    for (int i = 0; i < words.capacity(); i++) {
+      long word = other.get(i);
+      
+      if (0L != word) {
+        words.put(i, words.get(i) | word);
+      }
+    }
   }
   
   public long[] getKeys() {
-    return this.hashkeys;
+    return this.keys;
   }
   
   /**
    * Return an estimated memory footprint for this index
    */
   public long size() {
-    return bits.size() / 8;
+    long size = levels.capacity() * 8L;
+    
+    for (LongBuffer genbits: bits) {
+      if (null != genbits) {
+        size += genbits.capacity() * 8L;
+      }
+    }
+    
+    return size;
+  }
+  
+  /**
+   * Save the filter. Filters using the default hash keys cannot be loaded back
+   * in another JVM.
+   * 
+   * @param out Stream to write the filter to, it is not closed
+   */
+  public synchronized void write(OutputStream out) throws IOException {
+    int nkeys = (this.blocked || this.slice) ? 2 : 2 * k;
+    
+    DataOutputStream dos = new DataOutputStream(out);
+    
+    dos.writeInt(MAGIC);
+    dos.writeByte(maxres);
+    dos.writeByte(k);
+    dos.writeByte((this.slice ? FLAG_SLICE : 0) | (this.blocked ? FLAG_BLOCKED : 0));
+    dos.writeByte(lengths.length);
+    dos.writeInt(generation);
+    dos.writeInt(nkeys);
+    
+    for (int g = 0; g < lengths.length; g++) {
+      dos.writeInt(limits[g]);
+      dos.writeInt(lengths[g]);
+      dos.writeLong(g <= generation ? counts[g] : 0L);
+    }
+    
+    for (int i = 0; i < nkeys; i++) {
+      dos.writeLong(keys[i]);
+    }
+    
+    for (int i = 0; i < levels.capacity(); i++) {
+      dos.writeLong(levels.get(i));
+    }
+    
+    for (int g = 0; g <= generation; g++) {
+      for (int i = 0; i < bits[g].capacity(); i++) {
+        dos.writeLong(bits[g].get(i));
+      }
+    }
+    
+    dos.flush();
+  }
+  
+  /**
+   * Load a filter saved by 'write'. The bit fields are views over 'bb', which is
+   * read from its position and must not be modified afterwards. If 'bb' is read only
+   * so is the filter, 'add' will then throw a ReadOnlyBufferException.
+   * 
+   * @param bb Buffer containing the saved filter
+   */
+  public static GeoBloomFilter load(ByteBuffer bb) {
+    bb = bb.slice().order(ByteOrder.BIG_ENDIAN);
+    
+    if (bb.remaining() < 16 || MAGIC != bb.getInt()) {
+      throw new RuntimeException("Invalid GeoBloomFilter header.");
+    }
+    
+    int maxres = bb.get();
+    int k = bb.get();
+    int flags = bb.get();
+    int ngens = bb.get();
+    int generation = bb.getInt();
+    int nkeys = bb.getInt();
+    
+    boolean slice = 0 != (flags & FLAG_SLICE);
+    boolean blocked = 0 != (flags & FLAG_BLOCKED);
+    
+    if (maxres < 1 || maxres > 15 || k < 1 || k > K || ngens < 1 || ngens > MAX_GEN || generation < 0 || generation >= ngens
+        || nkeys != ((blocked || slice) ? 2 : 2 * k)) {
+      throw new RuntimeException("Invalid GeoBloomFilter header.");
+    }
+    
+    int[] limits = new int[ngens];
+    int[] lengths = new int[ngens];
+    long[] counts = new long[generation + 1];
+    
+    for (int g = 0; g < ngens; g++) {
+      limits[g] = bb.getInt();
+      lengths[g] = bb.getInt();
+      long count = bb.getLong();
+      
+      if (lengths[g] <= 0 || (blocked && 0 != (lengths[g] & 511))) {
+        throw new RuntimeException("Invalid GeoBloomFilter generation " + g + ".");
+      }
+      
+      if (g <= generation) {
+        counts[g] = count;
+      }
+    }
+    
+    long[] keys = new long[K * 2];
+    
+    for (int i = 0; i < nkeys; i++) {
+      keys[i] = bb.getLong();
+    }
+    
+    LongBuffer levels = view(bb, (16 + 256) / 64 + 1);
+    
+    LongBuffer[] bits = new LongBuffer[ngens];
+    
+    for (int g = 0; g <= generation; g++) {
+      bits[g] = view(bb, (lengths[g] + 63) >>> 6);
+    }
+    
+    return new GeoBloomFilter(maxres, k, slice, blocked, keys, limits, lengths, counts, generation, levels, bits);
+  }
+  
+  /**
+   * Map a file containing a filter saved by 'write'. The filter is read only and
+   * 'contains' reads the mapped bits directly.
+   */
+  public static GeoBloomFilter map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    
+    try {
+      FileChannel channel = raf.getChannel();
+      return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+  
+  /**
+   * Return a view of the next 'words' longs of a buffer and skip them
+   */
+  private static LongBuffer view(ByteBuffer bb, int words) {
+    if (bb.remaining() < words * 8L) {
+      throw new RuntimeException("Truncated GeoBloomFilter.");
+    }
+    
+    ByteBuffer slice = bb.slice().order(ByteOrder.BIG_ENDIAN);
+    slice.limit(words * 8);
+    bb.position(bb.position() + words * 8);
+    
+    return slice.asLongBuffer();
+  }
+  
+  /**
+   * Return the index of the first word of the block of a cell, the upper 32 bits
+   * of the hash are mapped onto the blocks by a multiplication.
+   */
+  private static int block(long hash, int length) {
+    return (int) (((hash >>> 32) * (length >>> 9)) >>> 32) * BLOCK_WORDS;
+  }
+  
+  /**
+   * Return the index in its block of the word of the ith bit of a cell, successive
+   * bits go to successive words from a word picked by the hash, so all words of a
+   * block are used even when k is less than 8.
+   */
+  private static int blockWord(long hash, int i) {
+    return ((int) (hash >>> 32) + i) & (BLOCK_WORDS - 1);
+  }
+  
+  /**
+   * Return the mask of the ith bit of a cell in its block, bit positions are
+   * derived from the lower 32 bits of the hash by double hashing.
+   */
+  private static long blockMask(long hash, int i) {
+    int h1 = (int) hash;
+    int h2 = ((int) hash >>> 16) | 1;
+    return 1L << (h1 + i * h2);
+  }
+  
+  private static boolean getBit(LongBuffer words, int bit) {
+    return 0L != (words.get(bit >>> 6) & (1L << bit));
+  }
+  
+  /**
+   * Set a bit, returning true if it was not already set
+   */
+  private static boolean setBit(LongBuffer words, int bit) {
+    int idx = bit >>> 6;
+    long word = words.get(idx);
+    long mask = 1L << bit;
+    
+    if (0L != (word & mask)) {
+      return false;
+    }
+    
+    words.put(idx, word | mask);
+    
+    return true;
   }
   
-  private static long hash24(long k0, long k1, byte[] data, int offset, int len) {
+  /**
+   * Compute the SipHash 2-4 of the 8 bytes of a cell in big endian order.
+   */
+  static long hash24(long k0, long k1, long cell) {
+    // SipHash reads its input as little endian longs
+    long m = Long.reverseBytes(cell);
+
     long v0 = 0x736f6d6570736575L ^ k0;
     long v1 = 0x646f72616e646f6dL ^ k1;
     long v2 = 0x6c7967656e657261L ^ k0;
     long v3 = 0x7465646279746573L ^ k1;
-    long m;
-    int last = len / 8 * 8;
-    
-    int i = 0;
 
-    // processing 8 bytes blocks in data
-    while (i < last) {
-      
-      m = UNSAFE.getLong(data, base + offset + i);
-      
-      i += 8;
-      
-      // MSGROUND {
+    // Message block, then the final block with only the length (8) in the top byte
+    for (int b = 0; b < 2; b++) {
       v3 ^= m;
+      for (int r = 0; r < 2; r++) {
+        v0 += v1;
+        v2 += v3;
+        v1 = (v1 << 13) | v1 >>> 51;
+        v3 = (v3 << 16) | v3 >>> 48;
+        v1 ^= v0;
+        v3 ^= v2;
+        v0 = (v0 << 32) | v0 >>> 32;
+        v2 += v1;
+        v0 += v3;
+        v1 = (v1 << 17) | v1 >>> 47;
+        v3 = (v3 << 21) | v3 >>> 43;
+        v1 ^= v2;
+        v3 ^= v0;
+        v2 = (v2 << 32) | v2 >>> 32;
+      }
+      v0 ^= m;
+      m = 8L << 56;
+    }
 
-      /*
-       * SIPROUND wih hand reordering
-       * 
-       * SIPROUND in siphash24.c:
-       * A: v0 += v1;
-       * B: v1=ROTL(v1,13);
-       * C: v1 ^= v0;
-       * D: v0=ROTL(v0,32);
-       * E: v2 += v3;
-       * F: v3=ROTL(v3,16);
-       * G: v3 ^= v2;
-       * H: v0 += v3;
-       * I: v3=ROTL(v3,21);
-       * J: v3 ^= v0;
-       * K: v2 += v1;
-       * L: v1=ROTL(v1,17);
-       * M: v1 ^= v2;
-       * N: v2=ROTL(v2,32);
-       * 
-       * Each dependency:
-       * B -> A
-       * C -> A, B
-       * D -> C
-       * F -> E
-       * G -> E, F
-       * H -> D, G
-       * I -> H
-       * J -> H, I
-       * K -> C, G
-       * L -> K
-       * M -> K, L
-       * N -> M
-       * 
-       * Dependency graph:
-       * D -> C -> B -> A
-       * G -> F -> E
-       * J -> I -> H -> D, G
-       * N -> M -> L -> K -> C, G
-       * 
-       * Resulting parallel friendly execution order:
-       * -> ABCDHIJ
-       * -> EFGKLMN
-       */
-
-      // SIPROUND {
-      v0 += v1;
-      v2 += v3;
-      v1 = (v1 << 13) | v1 >>> 51;
-      v3 = (v3 << 16) | v3 >>> 48;
-      v1 ^= v0;
-      v3 ^= v2;
-      v0 = (v0 << 32) | v0 >>> 32;
-      v2 += v1;
-      v0 += v3;
-      v1 = (v1 << 17) | v1 >>> 47;
-      v3 = (v3 << 21) | v3 >>> 43;
-      v1 ^= v2;
-      v3 ^= v0;
-      v2 = (v2 << 32) | v2 >>> 32;
-      // }
-      // SIPROUND {
+    // finishing...
+    v2 ^= 0xff;
+    for (int r = 0; r < 4; r++) {
       v0 += v1;
       v2 += v3;
       v1 = (v1 << 13) | v1 >>> 51;
@@ -518,124 +931,8 @@ public class GeoBloomFilter {
       v1 ^= v2;
       v3 ^= v0;
       v2 = (v2 << 32) | v2 >>> 32;
-      // }
-      v0 ^= m;
-      // }
     }
 
-    // packing the last block to long, as LE 0-7 bytes + the length in the top
-    // byte
-    m = 0;
-    for (i = len - 1; i >= last; --i) {
-      m <<= 8;
-      m |= data[offset + i] & 0xffL;
-    }
-    m |= (long) len << 56;
-    
-    // MSGROUND {
-    v3 ^= m;
-    // SIPROUND {
-    v0 += v1;
-    v2 += v3;
-    v1 = (v1 << 13) | v1 >>> 51;
-    v3 = (v3 << 16) | v3 >>> 48;
-    v1 ^= v0;
-    v3 ^= v2;
-    v0 = (v0 << 32) | v0 >>> 32;
-    v2 += v1;
-    v0 += v3;
-    v1 = (v1 << 17) | v1 >>> 47;
-    v3 = (v3 << 21) | v3 >>> 43;
-    v1 ^= v2;
-    v3 ^= v0;
-    v2 = (v2 << 32) | v2 >>> 32;
-    // }
-    // SIPROUND {
-    v0 += v1;
-    v2 += v3;
-    v1 = (v1 << 13) | v1 >>> 51;
-    v3 = (v3 << 16) | v3 >>> 48;
-    v1 ^= v0;
-    v3 ^= v2;
-    v0 = (v0 << 32) | v0 >>> 32;
-    v2 += v1;
-    v0 += v3;
-    v1 = (v1 << 17) | v1 >>> 47;
-    v3 = (v3 << 21) | v3 >>> 43;
-    v1 ^= v2;
-    v3 ^= v0;
-    v2 = (v2 << 32) | v2 >>> 32;
-    // }
-    v0 ^= m;
-    // }
-
-    // finishing...
-    v2 ^= 0xff;
-    // SIPROUND {
-    v0 += v1;
-    v2 += v3;
-    v1 = (v1 << 13) | v1 >>> 51;
-    v3 = (v3 << 16) | v3 >>> 48;
-    v1 ^= v0;
-    v3 ^= v2;
-    v0 = (v0 << 32) | v0 >>> 32;
-    v2 += v1;
-    v0 += v3;
-    v1 = (v1 << 17) | v1 >>> 47;
-    v3 = (v3 << 21) | v3 >>> 43;
-    v1 ^= v2;
-    v3 ^= v0;
-    v2 = (v2 << 32) | v2 >>> 32;
-    // }
-    // SIPROUND {
-    v0 += v1;
-    v2 += v3;
-    v1 = (v1 << 13) | v1 >>> 51;
-    v3 = (v3 << 16) | v3 >>> 48;
-    v1 ^= v0;
-    v3 ^= v2;
-    v0 = (v0 << 32) | v0 >>> 32;
-    v2 += v1;
-    v0 += v3;
-    v1 = (v1 << 17) | v1 >>> 47;
-    v3 = (v3 << 21) | v3 >>> 43;
-    v1 ^= v2;
-    v3 ^= v0;
-    v2 = (v2 << 32) | v2 >>> 32;
-    // }
-    // SIPROUND {
-    v0 += v1;
-    v2 += v3;
-    v1 = (v1 << 13) | v1 >>> 51;
-    v3 = (v3 << 16) | v3 >>> 48;
-    v1 ^= v0;
-    v3 ^= v2;
-    v0 = (v0 << 32) | v0 >>> 32;
-    v2 += v1;
-    v0 += v3;
-    v1 = (v1 << 17) | v1 >>> 47;
-    v3 = (v3 << 21) | v3 >>> 43;
-    v1 ^= v2;
-    v3 ^= v0;
-    v2 = (v2 << 32) | v2 >>> 32;
-    // }
-    // SIPROUND {
-    v0 += v1;
-    v2 += v3;
-    v1 = (v1 << 13) | v1 >>> 51;
-    v3 = (v3 << 16) | v3 >>> 48;
-    v1 ^= v0;
-    v3 ^= v2;
-    v0 = (v0 << 32) | v0 >>> 32;
-    v2 += v1;
-    v0 += v3;
-    v1 = (v1 << 17) | v1 >>> 47;
-    v3 = (v3 << 21) | v3 >>> 43;
-    v1 ^= v2;
-    v3 ^= v0;
-    v2 = (v2 << 32) | v2 >>> 32;
-    // }
     return v0 ^ v1 ^ v2 ^ v3;
   }
-
 }
@@ -0,0 +1,327 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary encoding of sorted arrays of geocells.
+ *
+ * The encoding is made of a header followed by one block per resolution:
+ *
+ * <pre>
+ * header: 0x00 VERSION FLAGS varint(number of blocks)
+ * block:  RESOLUTION varint(number of cells) varint(cell) varint(delta) ... [CRC32]
+ * </pre>
+ *
+ * RESOLUTION is the geocell resolution (1->15, i.e. R/2). Within a block, cells are
+ * the HHCode prefixes of the geocells right aligned (the first 2*R bits of the HHCode),
+ * the first one is written as is and the following ones as the difference with their
+ * predecessor, so dense shapes need about one byte per cell.
+ *
+ * When FLAG_CHECKSUM is set, each block is followed by the CRC32 of its bytes (big endian).
+ *
+ * The leading 0x00 distinguishes this encoding from the raw encoding of 8 bytes per geocell,
+ * whose first byte always has a non zero resolution in its 4 MSBs.
+ */
+public class GeoCellCodec {
+
+  public static final int VERSION = 1;
+
+  /**
+   * Flag indicating that each block is followed by its CRC32
+   */
+  public static final int FLAG_CHECKSUM = 0x01;
+
+  /**
+   * Encode sorted geocells.
+   *
+   * @param geocells Geocells sorted in ascending order, as in GeoXPShapes
+   * @param checksum Set to true to append a CRC32 to each resolution block
+   * @return The encoded geocells
+   */
+  public static byte[] encode(long[] geocells, boolean checksum) {
+    //
+    // Count cells per resolution
+    //
+
+    int[] counts = new int[16];
+
+    for (long geocell: geocells) {
+      counts[(int) (geocell >>> 60)]++;
+    }
+
+    if (counts[0] > 0) {
+      throw new RuntimeException("Invalid geocell resolution.");
+    }
+
+    int blocks = 0;
+
+    for (int r = 1; r < 16; r++) {
+      if (counts[r] > 0) {
+        blocks++;
+      }
+    }
+
+    //
+    // Compute the encoded size so we allocate the output only once
+    //
+
+    int size = 3 + varintLength(blocks);
+
+    boolean[] seen = new boolean[16];
+
+    for (int i = 0; i < geocells.length; i++) {
+      int r = (int) (geocells[i] >>> 60);
+
+      if (0 == i || r != (int) (geocells[i - 1] >>> 60)) {
+        // Cells of a given resolution must be contiguous
+        if (seen[r]) {
+          throw new RuntimeException("Geocells are not sorted.");
+        }
+        seen[r] = true;
+        size += 1 + varintLength(counts[r]) + (checksum ? 4 : 0);
+        size += varintLength(cell(geocells[i]));
+      } else {
+        long delta = cell(geocells[i]) - cell(geocells[i - 1]);
+
+        if (delta <= 0) {
+          throw new RuntimeException("Geocells are not sorted or contain duplicates.");
+        }
+
+        size += varintLength(delta);
+      }
+    }
+
+    ByteBuffer bb = ByteBuffer.wrap(new byte[size]);
+
+    bb.put((byte) 0x00);
+    bb.put((byte) VERSION);
+    bb.put((byte) (checksum ? FLAG_CHECKSUM : 0));
+    putVarint(bb, blocks);
+
+    CRC32 crc = checksum ? new CRC32() : null;
+
+    int i = 0;
+
+    while (i < geocells.length) {
+      int r = (int) (geocells[i] >>> 60);
+      int start = bb.position();
+
+      bb.put((byte) r);
+      putVarint(bb, counts[r]);
+
+      long prev = 0L;
+
+      for (int j = 0; j < counts[r]; j++) {
+        long cell = cell(geocells[i + j]);
+        putVarint(bb, cell - prev);
+        prev = cell;
+      }
+
+      i += counts[r];
+
+      if (checksum) {
+        crc.reset();
+        crc.update(bb.array(), start, bb.position() - start);
+        bb.putInt((int) crc.getValue());
+      }
+    }
+
+    return bb.array();
+  }
+
+  /**
+   * Decode geocells encoded by 'encode'.
+   *
+   * @param encoded Encoded geocells
+   * @return The sorted geocells
+   */
+  public static long[] decode(byte[] encoded) {
+    return decode(ByteBuffer.wrap(encoded));
+  }
+
+  /**
+   * Decode geocells encoded by 'encode' directly from a buffer (heap, direct or mapped).
+   * Decoding starts at the buffer's position, which is left right after the encoded
+   * geocells, so several encoded shapes can be read in sequence.
+   *
+   * @param bb Buffer containing the encoded geocells
+   * @return The sorted geocells
+   */
+  public static long[] decode(ByteBuffer bb) {
+    if (bb.remaining() < 4 || 0x00 != bb.get()) {
+      throw new RuntimeException("Invalid encoded geocells header.");
+    }
+
+    int version = bb.get() & 0xff;
+
+    if (VERSION != version) {
+      throw new RuntimeException("Unsupported encoded geocells version " + version + ".");
+    }
+
+    boolean checksum = 0 != (bb.get() & FLAG_CHECKSUM);
+
+    int blocks = (int) getVarint(bb);
+
+    if (blocks < 0 || blocks > 15) {
+      throw new RuntimeException("Invalid number of resolution blocks.");
+    }
+
+    //
+    // Decode blocks in a per resolution array, as blocks could be written in any order
+    //
+
+    long[][] cells = new long[16][];
+    int total = 0;
+
+    CRC32 crc = checksum ? new CRC32() : null;
+
+    for (int b = 0; b < blocks; b++) {
+      int start = bb.position();
+
+      int r = bb.get() & 0xff;
+
+      if (r < 1 || r > 15 || null != cells[r]) {
+        throw new RuntimeException("Invalid resolution block.");
+      }
+
+      long count = getVarint(bb);
+
+      // Each cell needs at least one byte
+      if (count < 0 || count > bb.remaining()) {
+        throw new RuntimeException("Invalid cell count.");
+      }
+
+      long[] geocells = new long[(int) count];
+      long prefix = ((long) r) << 60;
+      int shift = 60 - 4 * r;
+      long max = 0xffffffffffffffffL >>> (64 - 4 * r);
+      long cell = 0L;
+
+      for (int i = 0; i < geocells.length; i++) {
+        long delta = getVarint(bb);
+
+        if (i > 0 && delta <= 0) {
+          throw new RuntimeException("Invalid cell delta.");
+        }
+
+        cell += delta;
+
+        if (cell < 0 || cell > max) {
+          throw new RuntimeException("Invalid cell.");
+        }
+
+        geocells[i] = prefix | (cell << shift);
+      }
+
+      if (checksum) {
+        int end = bb.position();
+        crc.reset();
+        ByteBuffer block = bb.duplicate();
+        block.position(start);
+        block.limit(end);
+        crc.update(block);
+
+        if (bb.getInt() != (int) crc.getValue()) {
+          throw new RuntimeException("Checksum mismatch for resolution block " + r + ".");
+        }
+      }
+
+      cells[r] = geocells;
+      total += geocells.length;
+    }
+
+    //
+    // Concatenate the blocks, resolutions 8 to 15 (negative geocells) first
+    //
+
+    long[] geocells = new long[total];
+    int offset = 0;
+
+    for (int k = 0; k < 15; k++) {
+      int r = k < 8 ? k + 8 : k - 7;
+
+      if (null != cells[r]) {
+        System.arraycopy(cells[r], 0, geocells, offset, cells[r].length);
+        offset += cells[r].length;
+      }
+    }
+
+    return geocells;
+  }
+
+  /**
+   * Check whether some bytes start with an encoding produced by 'encode', as opposed
+   * to raw geocells.
+   *
+   * @param bb Buffer to check, its position is not modified
+   */
+  public static boolean isEncoded(ByteBuffer bb) {
+    return bb.remaining() > 0 && 0x00 == bb.get(bb.position());
+  }
+
+  /**
+   * Return the right aligned HHCode prefix of a geocell
+   */
+  private static long cell(long geocell) {
+    int r = (int) (geocell >>> 60);
+    return (geocell & 0x0fffffffffffffffL) >>> (60 - 4 * r);
+  }
+
+  private static int varintLength(long value) {
+    int len = 1;
+
+    while (0L != (value >>>= 7)) {
+      len++;
+    }
+
+    return len;
+  }
+
+  private static void putVarint(ByteBuffer bb, long value) {
+    while (0L != (value & ~0x7fL)) {
+      bb.put((byte) ((value & 0x7fL) | 0x80L));
+      value >>>= 7;
+    }
+
+    bb.put((byte) value);
+  }
+
+  private static long getVarint(ByteBuffer bb) {
+    long value = 0L;
+    int shift = 0;
+
+    while (shift < 64) {
+      byte b = bb.get();
+      value |= ((long) (b & 0x7f)) << shift;
+
+      if (0 == (b & 0x80)) {
+        return value;
+      }
+
+      shift += 7;
+    }
+
+    throw new RuntimeException("Invalid varint.");
+  }
+}
@@ -0,0 +1,468 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Set operations on sorted arrays of geocells.
+ *
+ * Geocells sorted as longs are grouped by resolution (resolutions 16 to 30 first as
+ * their geocells are negative, then 2 to 14). The operations below walk the cells of
+ * each operand in Z-order instead, by merging those per resolution runs on the fly.
+ * In Z-order a cell comes right before the cells it contains and disjoint cells
+ * come in the order of the HHCodes they cover, so union, intersection and subtraction
+ * can be computed in a single pass over both operands, deciding on prefix containment,
+ * without normalizing cells to a common resolution or building any hash set.
+ *
+ * Results are canonical: cells are disjoint, groups of 16 sibling cells are replaced by
+ * their parent, and geocells are sorted as GeoXPShapes expect them.
+ *
+ * Internally cells are handled as 'zcells', i.e. the HHCode prefix of the cell with the
+ * resolution (1->15, as in geocells) in the 4 LSBs. Comparing zcells as unsigned values
+ * gives the Z-order, ancestors first.
+ */
+public class GeoCellHelper {
+
+  /**
+   * Compute the union of two sorted arrays of geocells.
+   *
+   * @param a Sorted geocells
+   * @param b Sorted geocells
+   * @return The sorted geocells of the union
+   */
+  public static long[] union(long[] a, long[] b) {
+    return union(LongBuffer.wrap(a), LongBuffer.wrap(b));
+  }
+
+  /**
+   * Compute the intersection of two sorted arrays of geocells.
+   *
+   * @param a Sorted geocells
+   * @param b Sorted geocells
+   * @return The sorted geocells of the intersection
+   */
+  public static long[] intersection(long[] a, long[] b) {
+    return intersection(LongBuffer.wrap(a), LongBuffer.wrap(b));
+  }
+
+  /**
+   * Compute the subtraction a - b of two sorted arrays of geocells.
+   *
+   * @param a Sorted geocells
+   * @param b Sorted geocells to remove from a
+   * @return The sorted geocells of the subtraction
+   */
+  public static long[] subtraction(long[] a, long[] b) {
+    return subtraction(LongBuffer.wrap(a), LongBuffer.wrap(b));
+  }
+
+  /**
+   * Compute the union of two sorted buffers of geocells. The buffers' remaining
+   * geocells are read using absolute gets, their positions are not modified.
+   */
+  public static long[] union(LongBuffer a, LongBuffer b) {
+    ZCursor ca = new ZCursor(a);
+    ZCursor cb = new ZCursor(b);
+    ZBuilder builder = new ZBuilder();
+
+    while (ca.valid() || cb.valid()) {
+      long z;
+
+      if (!ca.valid()) {
+        z = cb.zcell;
+        cb.next();
+      } else if (!cb.valid() || ca.key <= cb.key) {
+        z = ca.zcell;
+        ca.next();
+      } else {
+        z = cb.zcell;
+        cb.next();
+      }
+
+      // The builder ignores cells contained in the last one it received
+      builder.add(z);
+    }
+
+    return builder.toGeoCells();
+  }
+
+  /**
+   * Compute the intersection of two sorted buffers of geocells. The buffers' remaining
+   * geocells are read using absolute gets, their positions are not modified.
+   */
+  public static long[] intersection(LongBuffer a, LongBuffer b) {
+    ZCursor ca = new ZCursor(a);
+    ZCursor cb = new ZCursor(b);
+    ZBuilder builder = new ZBuilder();
+
+    while (ca.valid() && cb.valid()) {
+      if (ca.last < cb.key) {
+        // a is before b
+        ca.next();
+      } else if (cb.last < ca.key) {
+        // b is before a
+        cb.next();
+      } else if ((ca.zcell & 0xfL) <= (cb.zcell & 0xfL)) {
+        // a contains b
+        builder.add(cb.zcell);
+        cb.next();
+      } else {
+        // b contains a
+        builder.add(ca.zcell);
+        ca.next();
+      }
+    }
+
+    return builder.toGeoCells();
+  }
+
+  /**
+   * Compute the subtraction a - b of two sorted buffers of geocells. The buffers' remaining
+   * geocells are read using absolute gets, their positions are not modified.
+   */
+  public static long[] subtraction(LongBuffer a, LongBuffer b) {
+    ZCursor ca = new ZCursor(a);
+    ZCursor cb = new ZCursor(b);
+    ZBuilder builder = new ZBuilder();
+
+    while (ca.valid()) {
+      subtract(ca.zcell, cb, builder);
+      ca.next();
+    }
+
+    return builder.toGeoCells();
+  }
+
+  /**
+   * Check whether a buffer of sorted geocells contains a HHCode. The buffer's remaining
+   * geocells are read using absolute gets, its position is not modified.
+   *
+   * @param geocells Sorted geocells
+   * @param hhcode HHCode to check
+   * @return true if one of the geocells contains 'hhcode'
+   */
+  public static boolean contains(LongBuffer geocells, long hhcode) {
+    int from = geocells.position();
+    int to = geocells.limit();
+
+    for (int r = 1; r < 16; r++) {
+      long key = (((long) r) << 60) | ((hhcode & Coverage.PREFIX_MASK[r - 1]) >>> 4);
+      int idx = firstIndexAtLeast(geocells, from, to, key);
+
+      if (idx < to && key == geocells.get(idx)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Add to 'builder' the part of zcell 'z' which is not covered by the cells of 'cb'.
+   * Cells of 'cb' which are before 'z' are skipped.
+   */
+  private static void subtract(long z, ZCursor cb, ZBuilder builder) {
+    long key = z ^ Long.MIN_VALUE;
+    long last = lastKey(z);
+
+    while (cb.valid() && cb.last < key) {
+      cb.next();
+    }
+
+    if (!cb.valid() || cb.key > last) {
+      // No cell of b intersects z
+      builder.add(z);
+      return;
+    }
+
+    int r = (int) (z & 0xfL);
+
+    if ((cb.zcell & 0xfL) <= r) {
+      // z is covered by the current cell of b
+      return;
+    }
+
+    //
+    // The current cell of b is strictly inside z, split z into its 16 children
+    // and subtract b from each of them
+    //
+
+    long prefix = z & 0xfffffffffffffff0L;
+    int shift = 60 - 4 * r;
+
+    for (long i = 0; i < 16; i++) {
+      subtract(prefix | (i << shift) | (r + 1), cb, builder);
+    }
+  }
+
+  /**
+   * Convert a geocell into a zcell.
+   */
+  static long toZCell(long geocell) {
+    long r = geocell >>> 60;
+    return ((geocell << 4) & Coverage.PREFIX_MASK[(int) (r - 1) & 0xf]) | r;
+  }
+
+  /**
+   * Convert a zcell into a geocell.
+   */
+  static long toGeoCell(long zcell) {
+    return ((zcell & 0xfL) << 60) | ((zcell & 0xfffffffffffffff0L) >>> 4);
+  }
+
+  /**
+   * Return the last HHCode covered by a zcell, with its sign bit flipped so it
+   * can be compared to other keys using signed comparisons.
+   */
+  static long lastKey(long zcell) {
+    return ((zcell & 0xfffffffffffffff0L) | (0xffffffffffffffffL >>> (4 * (zcell & 0xfL)))) ^ Long.MIN_VALUE;
+  }
+
+  /**
+   * Iterate over a buffer of sorted geocells in Z-order.
+   *
+   * The buffer is made of at most 15 runs of geocells, one per resolution, each run
+   * being sorted by HHCode. The cursor merges those runs, it also skips duplicate cells
+   * and cells contained in a cell it already returned, so the cells it returns are disjoint.
+   */
+  static final class ZCursor {
+
+    private final LongBuffer geocells;
+
+    /**
+     * Current and end indices of each resolution run, indexed by resolution (1->15)
+     */
+    private final int[] pos = new int[16];
+    private final int[] end = new int[16];
+
+    /**
+     * Current zcell
+     */
+    long zcell;
+
+    /**
+     * Current zcell with its sign flipped, and last HHCode it covers (sign flipped too)
+     */
+    long key;
+    long last;
+
+    private boolean valid;
+    
+    private boolean started = false;
+
+    ZCursor(LongBuffer geocells) {
+      this.geocells = geocells;
+
+      int from = geocells.position();
+      int to = geocells.limit();
+
+      for (int r = 1; r < 16; r++) {
+        long lo = ((long) r) << 60;
+        long hi = lo | 0x0fffffffffffffffL;
+        pos[r] = firstIndexAtLeast(geocells, from, to, lo);
+        end[r] = firstIndexAtLeast(geocells, pos[r], to, hi);
+        
+        // Include cells equal to 'hi'
+        while (end[r] < to && hi == geocells.get(end[r])) {
+          end[r]++;
+        }
+      }
+
+      this.valid = true;
+      next();
+    }
+
+    boolean valid() {
+      return valid;
+    }
+
+    /**
+     * Move to the next cell in Z-order.
+     */
+    void next() {
+      while (true) {
+        int best = -1;
+        long bestkey = Long.MAX_VALUE;
+        long bestz = 0L;
+
+        for (int r = 1; r < 16; r++) {
+          if (pos[r] < end[r]) {
+            long z = toZCell(geocells.get(pos[r]));
+            long k = z ^ Long.MIN_VALUE;
+            if (-1 == best || k < bestkey) {
+              best = r;
+              bestkey = k;
+              bestz = z;
+            }
+          }
+        }
+
+        if (-1 == best) {
+          valid = false;
+          return;
+        }
+
+        pos[best]++;
+
+        // Skip cells which are covered by the previous one, ancestors come first in Z-order
+        if (started && bestkey <= this.last) {
+          continue;
+        }
+
+        this.started = true;
+        this.zcell = bestz;
+        this.key = bestkey;
+        this.last = lastKey(bestz);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Return the index of the first element greater than or equal to 'key' in the
+   * sorted range [from,to) of a buffer.
+   */
+  static int firstIndexAtLeast(LongBuffer buffer, int from, int to, long key) {
+    int lo = from;
+    int hi = to;
+
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (buffer.get(mid) < key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+
+    return lo;
+  }
+
+  /**
+   * Accumulate zcells received in Z-order and produce canonical geocells.
+   *
+   * Cells contained in the last added cell are ignored, and as soon as the 16 children
+   * of a cell have been added they are replaced by their parent.
+   */
+  static final class ZBuilder {
+
+    private long[] stack = new long[64];
+    private int size = 0;
+
+    /**
+     * Last HHCode covered so far (sign flipped)
+     */
+    private long last = Long.MIN_VALUE;
+    private boolean empty = true;
+
+    void add(long zcell) {
+      long key = (zcell & 0xfffffffffffffff0L) ^ Long.MIN_VALUE;
+
+      if (!empty && key <= last) {
+        return;
+      }
+
+      empty = false;
+      last = lastKey(zcell);
+
+      if (size == stack.length) {
+        stack = Arrays.copyOf(stack, size << 1);
+      }
+
+      stack[size++] = zcell;
+
+      //
+      // Replace complete sets of siblings by their parent
+      //
+
+      while (size >= 16) {
+        long z = stack[size - 1];
+        int r = (int) (z & 0xfL);
+
+        if (r < 2) {
+          break;
+        }
+
+        int shift = 64 - 4 * r;
+
+        // The last cell must be the 16th child of its parent
+        if (0xfL != ((z >>> shift) & 0xfL)) {
+          break;
+        }
+
+        long parent = z & Coverage.PREFIX_MASK[r - 2];
+
+        // The 15 previous cells must be its siblings, since cells are disjoint and
+        // in Z-order, they are then the children 0 to 14.
+        boolean complete = true;
+
+        for (int i = size - 16; i < size - 1; i++) {
+          if ((stack[i] & 0xfL) != r || (stack[i] & Coverage.PREFIX_MASK[r - 2]) != parent) {
+            complete = false;
+            break;
+          }
+        }
+
+        if (!complete) {
+          break;
+        }
+
+        size -= 16;
+        stack[size++] = parent | (r - 1);
+      }
+    }
+
+    /**
+     * Return the accumulated cells as geocells, sorted in ascending order.
+     */
+    long[] toGeoCells() {
+      //
+      // Cells are in Z-order, so cells of a given resolution are sorted. We only need
+      // to group them by resolution, resolutions 8 to 15 (negative geocells) first.
+      //
+
+      int[] offsets = new int[16];
+
+      for (int i = 0; i < size; i++) {
+        offsets[(int) (stack[i] & 0xfL)]++;
+      }
+
+      int offset = 0;
+
+      for (int k = 0; k < 15; k++) {
+        int r = k < 8 ? k + 8 : k - 7;
+        int count = offsets[r];
+        offsets[r] = offset;
+        offset += count;
+      }
+
+      long[] geocells = new long[size];
+
+      for (int i = 0; i < size; i++) {
+        geocells[offsets[(int) (stack[i] & 0xfL)]++] = toGeoCell(stack[i]);
+      }
+
+      return geocells;
+    }
+  }
+}
@@ -0,0 +1,168 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.util.Arrays;
+
+/**
+ * Immutable containment index over an array of geocells.
+ *
+ * Each geocell covers a contiguous range of HHCodes along the Z-order curve, from its
+ * prefix with all lower bits cleared to its prefix with all lower bits set. The index
+ * stores those ranges sorted and merged (overlapping or adjacent ranges are coalesced),
+ * so checking whether a HHCode lies in the geocells is a single binary search, whatever
+ * the number of resolutions involved.
+ *
+ * Instances are built once and never modified, they can be shared across threads.
+ */
+public final class GeoCellIndex {
+
+  //
+  // Bounds are stored with their sign bit flipped so signed comparisons
+  // order them as unsigned HHCodes.
+  //
+
+  /**
+   * Lower bounds (inclusive) of the ranges, sorted
+   */
+  private final long[] lower;
+
+  /**
+   * Upper bounds (inclusive) of the ranges
+   */
+  private final long[] upper;
+
+  /**
+   * Build an index from an array of geocells. The array is left untouched and
+   * need not be sorted or deduplicated.
+   *
+   * @param geocells Geocells to index
+   */
+  public GeoCellIndex(long[] geocells) {
+    //
+    // Compute the range of each cell
+    //
+
+    long[] ranges = new long[geocells.length];
+
+    for (int i = 0; i < geocells.length; i++) {
+      ranges[i] = lowerBound(geocells[i]) ^ Long.MIN_VALUE;
+    }
+
+    //
+    // Sort the ranges by lower bound, this only sorts the lower bounds as the
+    // upper bound can be recomputed from the lower one and the resolution, which
+    // we keep in the 4 LSBs of the lower bound (which are always 0 for geocells).
+    //
+
+    for (int i = 0; i < geocells.length; i++) {
+      ranges[i] |= (geocells[i] >>> 60) & 0xfL;
+    }
+
+    Arrays.sort(ranges);
+
+    //
+    // Merge overlapping/adjacent ranges
+    //
+
+    long[] lo = new long[ranges.length];
+    long[] hi = new long[ranges.length];
+    int n = 0;
+
+    for (int i = 0; i < ranges.length; i++) {
+      int r = (int) (ranges[i] & 0xfL);
+
+      // Skip invalid resolutions
+      if (0 == r) {
+        continue;
+      }
+
+      long start = ranges[i] & 0xfffffffffffffff0L;
+      long end = start + (0xffffffffffffffffL >>> (4 * r));
+
+      if (n > 0 && (start <= hi[n - 1] || start == hi[n - 1] + 1)) {
+        if (end > hi[n - 1]) {
+          hi[n - 1] = end;
+        }
+      } else {
+        lo[n] = start;
+        hi[n] = end;
+        n++;
+      }
+    }
+
+    this.lower = Arrays.copyOf(lo, n);
+    this.upper = Arrays.copyOf(hi, n);
+  }
+
+  /**
+   * Check whether a HHCode lies in one of the indexed geocells.
+   *
+   * @param hhcode HHCode to check
+   * @return true if one of the geocells contains 'hhcode'
+   */
+  public boolean contains(long hhcode) {
+    long key = hhcode ^ Long.MIN_VALUE;
+
+    //
+    // Find the last range whose lower bound is <= key
+    //
+
+    int idx = Arrays.binarySearch(lower, key);
+
+    if (idx >= 0) {
+      return true;
+    }
+
+    idx = -idx - 2;
+
+    return idx >= 0 && key <= upper[idx];
+  }
+
+  /**
+   * Return the number of disjoint ranges in the index.
+   */
+  public int size() {
+    return lower.length;
+  }
+
+  /**
+   * Return the first HHCode covered by a geocell.
+   *
+   * @param geocell Geocell
+   * @return The HHCode of the cell's lower left corner
+   */
+  static long lowerBound(long geocell) {
+    int r = (int) (geocell >>> 60);
+    return (geocell << 4) & Coverage.PREFIX_MASK[(r - 1) & 0xf];
+  }
+
+  /**
+   * Return the last HHCode covered by a geocell.
+   *
+   * @param geocell Geocell
+   * @return The HHCode of the cell's upper right corner
+   */
+  static long upperBound(long geocell) {
+    int r = (int) (geocell >>> 60);
+    return lowerBound(geocell) | (0xffffffffffffffffL >>> (4 * r));
+  }
+}
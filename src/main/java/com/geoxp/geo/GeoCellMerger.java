@@ -0,0 +1,443 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Single pass merge of any number of sorted coverage streams.
+ *
+ * The inputs, hexadecimal lines as produced by OutputStreamCoverage or binary geocells
+ * as produced by BinaryOutputStreamCoverage, must each be sorted (see GeoCellSorter).
+ * They are read through buffers of bounded size and merged with a heap, so merging
+ * N streams of a total of C cells takes O(C log N) time and O(N) memory.
+ *
+ * While being merged, duplicate cells are removed, cells with an ancestor in any input
+ * are dropped and, if thresholds are given, the cells of a parent cell are replaced by
+ * the parent if at least the threshold of its subcells are present. Cells inside a
+ * parent are held until that decision can be made, i.e. until the threshold is reached
+ * or can no longer be reached.
+ */
+public class GeoCellMerger {
+
+  /**
+   * Default read buffer size of each input
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+  /**
+   * Threshold which can never be reached, used for resolutions which are not optimized
+   */
+  private static final int NEVER = 17;
+
+  /**
+   * Merge sorted coverages, removing duplicates and cells with an ancestor.
+   *
+   * @param in Sorted coverages, they are closed
+   * @param binary Set to true if the inputs are binary geocells, false for hexadecimal lines
+   * @param out Where to write the merged coverage, it is closed
+   * @param binaryOut Set to true to output binary geocells, false for hexadecimal lines
+   */
+  public static void merge(InputStream[] in, boolean binary, OutputStream out, boolean binaryOut) throws IOException {
+    merge(in, binary, out, binaryOut, null, 0, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Merge and optimize sorted coverages, replacing subcells by their parent if at least
+   * the threshold exist in it.
+   *
+   * @param in Sorted coverages, they are closed
+   * @param binary Set to true if the inputs are binary geocells, false for hexadecimal lines
+   * @param out Where to write the merged coverage, it is closed
+   * @param binaryOut Set to true to output binary geocells, false for hexadecimal lines
+   * @param thresholds Thresholds to apply, one nibble per resolution as in OutputStreamCoverage.optimize
+   * @param minresolution Cells at this resolution or coarser are not replaced by their parent
+   */
+  public static void merge(InputStream[] in, boolean binary, OutputStream out, boolean binaryOut, long thresholds, int minresolution) throws IOException {
+    merge(in, binary, out, binaryOut, thresholds, minresolution, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param thresholds Thresholds to apply, or null not to optimize
+   * @param bufferSize Read buffer size of each input
+   */
+  public static void merge(InputStream[] in, boolean binary, OutputStream out, boolean binaryOut, Long thresholds, int minresolution, int bufferSize) throws IOException {
+    GeoCellStream[] sources = new GeoCellStream[in.length];
+
+    for (int i = 0; i < in.length; i++) {
+      sources[i] = binary ? new GeoCellReader(in[i], bufferSize) : new TextGeoCellReader(in[i], bufferSize);
+    }
+
+    GeoCellStream merged = merge(sources);
+
+    if (null != thresholds) {
+      merged = optimize(merged, thresholds, minresolution);
+    }
+
+    try {
+      if (binaryOut) {
+        GeoCellWriter writer = new GeoCellWriter(out);
+        writer.write(merged);
+        writer.flush();
+      } else {
+        TextGeoCellWriter writer = new TextGeoCellWriter(out);
+        writer.write(merged);
+        writer.flush();
+      }
+    } finally {
+      try {
+        merged.close();
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * Merge sorted streams of geocells into a sorted stream without duplicates nor
+   * cells with an ancestor. Closing the returned stream closes the sources.
+   */
+  public static GeoCellStream merge(GeoCellStream[] sources) throws IOException {
+    GeoCellStream[] keys = new GeoCellStream[sources.length];
+
+    for (int i = 0; i < sources.length; i++) {
+      keys[i] = new KeySource(sources[i]);
+    }
+
+    return new AncestorFilter(new GeoCellSorter.MergeStream(keys, new ArrayList<File>()));
+  }
+
+  /**
+   * Optimize a sorted stream of geocells without cells with an ancestor, as returned
+   * by 'merge', replacing subcells by their parent if at least the threshold exist in it.
+   *
+   * @param thresholds Thresholds to apply, one nibble per resolution, 0 meaning 16
+   * @param minresolution Cells at this resolution or coarser are not replaced by their parent
+   */
+  public static GeoCellStream optimize(GeoCellStream sorted, long thresholds, int minresolution) {
+    //
+    // Split the thresholds, thresholds[p] applies to the subcells of cells at resolution p
+    //
+
+    int[] resthresholds = new int[16];
+
+    resthresholds[0] = NEVER;
+
+    for (int p = 1; p < 16; p++) {
+      int r = p + 1;
+      resthresholds[p] = (int) ((thresholds >> (60 - 4 * (r - 1))) & 0xf);
+
+      if (0 == resthresholds[p]) {
+        resthresholds[p] = 16;
+      }
+
+      if (r > 15 || 2 * r <= minresolution) {
+        resthresholds[p] = NEVER;
+      }
+    }
+
+    return new Optimizer(sorted, resthresholds);
+  }
+
+  /**
+   * Return the mask of the cell bits of a geocell at resolution r
+   */
+  private static long mask(int r) {
+    return (0xffffffffffffffffL << (60 - 4 * r)) & 0x0fffffffffffffffL;
+  }
+
+  /**
+   * Convert a sorted stream of geocells into a stream of sort keys, checking it is sorted
+   */
+  private static final class KeySource implements GeoCellStream {
+    private final GeoCellStream source;
+
+    private boolean hasLast = false;
+    private long last;
+    private boolean hasCurrent = false;
+
+    KeySource(GeoCellStream source) {
+      this.source = source;
+    }
+
+    public boolean hasNext() throws IOException {
+      if (hasCurrent) {
+        return true;
+      }
+
+      while (source.hasNext()) {
+        long geocell = source.next();
+
+        if (0L == (geocell & 0xf000000000000000L)) {
+          continue;
+        }
+
+        long key = GeoCellSorter.key(geocell);
+
+        if (hasLast && key < last) {
+          throw new IOException("Unsorted geocell stream.");
+        }
+
+        hasLast = true;
+        last = key;
+        hasCurrent = true;
+        return true;
+      }
+
+      return false;
+    }
+
+    public long next() {
+      hasCurrent = false;
+      return last;
+    }
+
+    public void close() throws IOException {
+      source.close();
+    }
+  }
+
+  /**
+   * Drop the cells of a sorted stream which have an ancestor in it. In Z-order a cell
+   * comes right before its descendants, so only the last cell kept needs to be checked.
+   */
+  private static final class AncestorFilter implements GeoCellStream {
+    private final GeoCellStream source;
+
+    private long kept = 0L;
+    private long mask = 0L;
+    private boolean hasCurrent = false;
+
+    AncestorFilter(GeoCellStream source) {
+      this.source = source;
+    }
+
+    public boolean hasNext() throws IOException {
+      if (hasCurrent) {
+        return true;
+      }
+
+      while (source.hasNext()) {
+        long geocell = source.next();
+
+        if (0L != kept && (geocell >>> 60) > (kept >>> 60) && (geocell & mask) == (kept & mask)) {
+          continue;
+        }
+
+        kept = geocell;
+        mask = mask((int) (geocell >>> 60));
+        hasCurrent = true;
+        return true;
+      }
+
+      return false;
+    }
+
+    public long next() {
+      hasCurrent = false;
+      return kept;
+    }
+
+    public void close() throws IOException {
+      source.close();
+    }
+  }
+
+  /**
+   * Replace subcells by their parent when enough of them are present.
+   *
+   * A frame is open for each ancestor of the current cell. It counts the subcells of
+   * the ancestor which were found and holds the cells inside it until it is decided
+   * whether the ancestor replaces them or not.
+   */
+  private static final class Optimizer implements GeoCellStream {
+
+    private static final int UNDECIDED = 0;
+    private static final int REPLACED = 1;
+    private static final int FLUSHED = 2;
+
+    private final GeoCellStream source;
+    private final int[] thresholds;
+
+    /**
+     * Frames, indexed by the resolution of the ancestor, 1 to depth are open
+     */
+    private final long[] parents = new long[16];
+    private final int[] counts = new int[16];
+    private final int[] states = new int[16];
+    private final TLongArrayList[] pending = new TLongArrayList[16];
+    private int depth = 0;
+
+    /**
+     * Cells ready to be returned
+     */
+    private final TLongArrayList output = new TLongArrayList();
+    private int idx = 0;
+    private long current;
+    private boolean hasCurrent = false;
+
+    private boolean done = false;
+
+    Optimizer(GeoCellStream source, int[] thresholds) {
+      this.source = source;
+      this.thresholds = thresholds;
+
+      for (int p = 1; p < 16; p++) {
+        pending[p] = new TLongArrayList();
+      }
+    }
+
+    public boolean hasNext() throws IOException {
+      if (hasCurrent) {
+        return true;
+      }
+
+      while (idx == output.size()) {
+        output.resetQuick();
+        idx = 0;
+
+        if (done) {
+          return false;
+        }
+
+        if (source.hasNext()) {
+          add(source.next());
+        } else {
+          while (depth > 0) {
+            closeFrame();
+          }
+          done = true;
+        }
+      }
+
+      current = output.get(idx++);
+      hasCurrent = true;
+      return true;
+    }
+
+    public long next() {
+      hasCurrent = false;
+      return current;
+    }
+
+    private void add(long geocell) {
+      int r = (int) (geocell >>> 60);
+
+      //
+      // Close the frames which do not contain the cell
+      //
+
+      while (depth > 0 && (depth >= r || (geocell & mask(depth)) != (parents[depth] & 0x0fffffffffffffffL))) {
+        closeFrame();
+      }
+
+      //
+      // Open frames for the other ancestors of the cell
+      //
+
+      while (depth < r - 1) {
+        depth++;
+        parents[depth] = (((long) depth) << 60) | (geocell & mask(depth));
+        counts[depth] = 0;
+        states[depth] = NEVER == thresholds[depth] ? FLUSHED : UNDECIDED;
+      }
+
+      emit(geocell, r - 1);
+
+      if (r > 1) {
+        counts[r - 1]++;
+      }
+
+      //
+      // Decide the frames whose threshold was reached or can no longer be
+      //
+
+      for (int p = depth; p >= 1; p--) {
+        if (UNDECIDED != states[p]) {
+          continue;
+        }
+
+        // Index of the subcell containing the current cell
+        int sub = (int) ((geocell >>> (56 - 4 * p)) & 0xfL);
+
+        if (counts[p] >= thresholds[p]) {
+          states[p] = REPLACED;
+          pending[p].resetQuick();
+        } else if (counts[p] + 15 - sub < thresholds[p]) {
+          states[p] = FLUSHED;
+          release(p);
+        }
+      }
+    }
+
+    private void closeFrame() {
+      int p = depth--;
+
+      if (REPLACED == states[p]) {
+        emit(parents[p], p - 1);
+      } else if (UNDECIDED == states[p]) {
+        release(p);
+      }
+    }
+
+    /**
+     * Pass the cells held by a frame to the enclosing frames
+     */
+    private void release(int p) {
+      TLongArrayList cells = pending[p];
+
+      for (int i = 0; i < cells.size(); i++) {
+        emit(cells.get(i), p - 1);
+      }
+
+      cells.resetQuick();
+    }
+
+    /**
+     * Emit a cell from the frame at resolution p, it is held by the first enclosing
+     * frame which is undecided, dropped if one was replaced by its parent, or output
+     */
+    private void emit(long geocell, int p) {
+      while (p >= 1) {
+        if (UNDECIDED == states[p]) {
+          pending[p].add(geocell);
+          return;
+        } else if (REPLACED == states[p]) {
+          return;
+        }
+        p--;
+      }
+
+      output.add(geocell);
+    }
+
+    public void close() throws IOException {
+      source.close();
+    }
+  }
+}
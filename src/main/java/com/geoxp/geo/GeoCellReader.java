@@ -0,0 +1,104 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read geocells stored as 8 bytes big endian records from an InputStream.
+ */
+public class GeoCellReader implements GeoCellStream {
+
+  private final InputStream in;
+  private final byte[] buf;
+
+  private int pos = 0;
+  private int limit = 0;
+  private boolean eof = false;
+
+  public GeoCellReader(InputStream in) {
+    this(in, 65536);
+  }
+
+  /**
+   * @param in Stream to read from
+   * @param bufferSize Size of the read buffer, rounded down to a multiple of 8 bytes
+   */
+  public GeoCellReader(InputStream in, int bufferSize) {
+    this.in = in;
+    this.buf = new byte[Math.max(8, bufferSize & ~7)];
+  }
+
+  public boolean hasNext() throws IOException {
+    if (limit - pos >= 8) {
+      return true;
+    }
+
+    if (eof) {
+      return false;
+    }
+
+    //
+    // Move the partial record to the start of the buffer and refill it
+    //
+
+    int remaining = limit - pos;
+    System.arraycopy(buf, pos, buf, 0, remaining);
+    pos = 0;
+    limit = remaining;
+
+    while (limit < 8) {
+      int len = in.read(buf, limit, buf.length - limit);
+
+      if (len < 0) {
+        eof = true;
+        if (limit > 0) {
+          throw new IOException("Truncated geocell record.");
+        }
+        return false;
+      }
+
+      limit += len;
+    }
+
+    return true;
+  }
+
+  public long next() {
+    long value = ((long) (buf[pos] & 0xff) << 56)
+        | ((long) (buf[pos + 1] & 0xff) << 48)
+        | ((long) (buf[pos + 2] & 0xff) << 40)
+        | ((long) (buf[pos + 3] & 0xff) << 32)
+        | ((long) (buf[pos + 4] & 0xff) << 24)
+        | ((long) (buf[pos + 5] & 0xff) << 16)
+        | ((long) (buf[pos + 6] & 0xff) << 8)
+        | ((long) (buf[pos + 7] & 0xff));
+
+    pos += 8;
+
+    return value;
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,419 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * External sort of geocell streams.
+ *
+ * Geocells are sorted in Z-order, which is the order of their hexadecimal representation
+ * used by OutputStreamCoverage: a cell comes right before its descendants. Duplicates and
+ * geocells with an invalid resolution of 0 are removed.
+ *
+ * Geocells are read into a long[] of at most 'maxMemory' bytes, which is sorted and spilled
+ * to a temporary file when full. The sorted runs are then merged with a heap while the
+ * result is being read.
+ */
+public class GeoCellSorter {
+
+  public static final long DEFAULT_MAX_MEMORY = 64L * 1024L * 1024L;
+
+  /**
+   * Size of the read buffer of each run when merging
+   */
+  private static final int RUN_BUFFER_SIZE = 65536;
+
+  private final long maxMemory;
+  private final File tmpdir;
+
+  public GeoCellSorter() {
+    this(DEFAULT_MAX_MEMORY, null);
+  }
+
+  /**
+   * @param maxMemory Maximum number of bytes of geocells to sort in memory
+   * @param tmpdir Directory where to spill sorted runs, or null for the default temporary directory
+   */
+  public GeoCellSorter(long maxMemory, File tmpdir) {
+    this.maxMemory = maxMemory;
+    this.tmpdir = tmpdir;
+  }
+
+  /**
+   * Sort the geocells of a binary stream (8 bytes big endian records) into another one.
+   * The input stream is closed, the output one is flushed but not closed.
+   */
+  public void sort(InputStream in, OutputStream out) throws IOException {
+    GeoCellStream sorted = sort(new GeoCellReader(in));
+
+    try {
+      GeoCellWriter writer = new GeoCellWriter(out);
+      writer.write(sorted);
+      writer.flush();
+    } finally {
+      sorted.close();
+    }
+  }
+
+  /**
+   * Sort a stream of geocells. The input stream is consumed and closed, the sorted
+   * geocells are produced as the returned stream is read, it must be closed to
+   * release its temporary files.
+   */
+  public GeoCellStream sort(GeoCellStream in) throws IOException {
+    int capacity = (int) Math.max(1024L, Math.min(maxMemory / 8L, Integer.MAX_VALUE - 8));
+
+    long[] keys = new long[1024];
+    int n = 0;
+
+    List<File> runs = new ArrayList<File>();
+
+    try {
+      while (in.hasNext()) {
+        long geocell = in.next();
+
+        if (0L == (geocell & 0xf000000000000000L)) {
+          continue;
+        }
+
+        if (n == keys.length) {
+          if (n < capacity) {
+            keys = Arrays.copyOf(keys, (int) Math.min(capacity, 2L * n));
+          } else {
+            runs.add(spill(keys, n));
+            n = 0;
+          }
+        }
+
+        keys[n++] = key(geocell);
+      }
+    } catch (IOException ioe) {
+      delete(runs);
+      throw ioe;
+    } finally {
+      in.close();
+    }
+
+    return merge(runs, keys, n);
+  }
+
+  /**
+   * Merge sorted runs and in memory keys into a stream of distinct geocells. The runs
+   * are deleted when the returned stream is closed.
+   *
+   * @param runs Runs written by 'spill'
+   * @param keys Keys which were not spilled, they are sorted in place
+   * @param n Number of keys
+   */
+  GeoCellStream merge(List<File> runs, long[] keys, int n) throws IOException {
+    return merge(runs, new long[][] { keys }, new int[] { n });
+  }
+
+  /**
+   * Merge sorted runs and several arrays of in memory keys into a stream of distinct
+   * geocells. The runs are deleted when the returned stream is closed.
+   *
+   * @param runs Runs written by 'spill'
+   * @param keys Arrays of keys which were not spilled, they are sorted in place
+   * @param n Number of keys in each array
+   */
+  GeoCellStream merge(List<File> runs, long[][] keys, int[] n) throws IOException {
+    if (runs.isEmpty() && 1 == keys.length) {
+      return new ArrayStream(keys[0], sortUnique(keys[0], n[0]));
+    }
+
+    //
+    // The keys held in memory are merged as more runs
+    //
+
+    GeoCellStream[] sources = new GeoCellStream[runs.size() + keys.length];
+
+    try {
+      for (int i = 0; i < runs.size(); i++) {
+        sources[i] = new GeoCellReader(new FileInputStream(runs.get(i)), RUN_BUFFER_SIZE);
+      }
+    } catch (IOException ioe) {
+      for (GeoCellStream source: sources) {
+        if (null != source) {
+          source.close();
+        }
+      }
+      delete(runs);
+      throw ioe;
+    }
+
+    for (int i = 0; i < keys.length; i++) {
+      sources[runs.size() + i] = new KeyStream(keys[i], sortUnique(keys[i], n[i]));
+    }
+
+    return new MergeStream(sources, runs);
+  }
+
+  /**
+   * Sort and spill keys to a temporary file
+   *
+   * @param keys Sort keys, as returned by 'key'
+   * @param n Number of keys
+   * @return The file containing the sorted distinct keys
+   */
+  File spill(long[] keys, int n) throws IOException {
+    n = sortUnique(keys, n);
+
+    File run = File.createTempFile("GeoCellSorter", "", tmpdir);
+    run.deleteOnExit();
+
+    GeoCellWriter writer = new GeoCellWriter(new FileOutputStream(run), RUN_BUFFER_SIZE);
+
+    try {
+      for (int i = 0; i < n; i++) {
+        writer.write(keys[i]);
+      }
+    } finally {
+      writer.close();
+    }
+
+    return run;
+  }
+
+  /**
+   * Sort keys and remove duplicates, return the number of distinct keys
+   */
+  private static int sortUnique(long[] keys, int n) {
+    Arrays.sort(keys, 0, n);
+
+    if (0 == n) {
+      return 0;
+    }
+
+    int m = 1;
+
+    for (int i = 1; i < n; i++) {
+      if (keys[i] != keys[m - 1]) {
+        keys[m++] = keys[i];
+      }
+    }
+
+    return m;
+  }
+
+  /**
+   * Return the sort key of a geocell, its zcell with the sign bit flipped so
+   * signed comparisons give the Z-order
+   */
+  static long key(long geocell) {
+    return GeoCellHelper.toZCell(geocell) ^ Long.MIN_VALUE;
+  }
+
+  static void delete(List<File> files) {
+    for (File file: files) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Convert a sort key back to a geocell
+   */
+  private static long toGeoCell(long key) {
+    return GeoCellHelper.toGeoCell(key ^ Long.MIN_VALUE);
+  }
+
+  /**
+   * Stream of sorted keys held in memory, returned as geocells
+   */
+  private static final class ArrayStream implements GeoCellStream {
+    private final long[] keys;
+    private final int n;
+    private int idx = 0;
+
+    ArrayStream(long[] keys, int n) {
+      this.keys = keys;
+      this.n = n;
+    }
+
+    public boolean hasNext() {
+      return idx < n;
+    }
+
+    public long next() {
+      return toGeoCell(keys[idx++]);
+    }
+
+    public void close() {
+    }
+  }
+
+  /**
+   * Stream of sorted keys held in memory, returned as keys
+   */
+  private static final class KeyStream implements GeoCellStream {
+    private final long[] keys;
+    private final int n;
+    private int idx = 0;
+
+    KeyStream(long[] keys, int n) {
+      this.keys = keys;
+      this.n = n;
+    }
+
+    public boolean hasNext() {
+      return idx < n;
+    }
+
+    public long next() {
+      return keys[idx++];
+    }
+
+    public void close() {
+    }
+  }
+
+  /**
+   * Merge sorted streams of keys, returning distinct geocells
+   */
+  static final class MergeStream implements GeoCellStream {
+    private final GeoCellStream[] sources;
+    private final List<File> runs;
+
+    /**
+     * Binary min heap of the current key of each source which is not exhausted
+     */
+    private final long[] heapKeys;
+    private final int[] heapSources;
+    private int size = 0;
+
+    private boolean hasLast = false;
+    private long last;
+
+    MergeStream(GeoCellStream[] sources, List<File> runs) throws IOException {
+      this.sources = sources;
+      this.runs = runs;
+      this.heapKeys = new long[sources.length];
+      this.heapSources = new int[sources.length];
+
+      for (int i = 0; i < sources.length; i++) {
+        if (sources[i].hasNext()) {
+          heapKeys[size] = sources[i].next();
+          heapSources[size] = i;
+          siftUp(size++);
+        }
+      }
+    }
+
+    /**
+     * The smallest key stays at the root of the heap until it is returned by 'next', the
+     * root is only replaced here so this can be called several times
+     */
+    public boolean hasNext() throws IOException {
+      // Skip the key returned by 'next' and its duplicates
+      while (size > 0 && hasLast && heapKeys[0] == last) {
+        advance();
+      }
+
+      return size > 0;
+    }
+
+    public long next() {
+      hasLast = true;
+      last = heapKeys[0];
+
+      return toGeoCell(last);
+    }
+
+    /**
+     * Replace the root with the next key of its source
+     */
+    private void advance() throws IOException {
+      int source = heapSources[0];
+
+      if (sources[source].hasNext()) {
+        heapKeys[0] = sources[source].next();
+      } else {
+        size--;
+        heapKeys[0] = heapKeys[size];
+        heapSources[0] = heapSources[size];
+      }
+
+      siftDown(0);
+    }
+
+    private void siftUp(int i) {
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+
+        if (heapKeys[parent] <= heapKeys[i]) {
+          break;
+        }
+
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void siftDown(int i) {
+      while (true) {
+        int child = 2 * i + 1;
+
+        if (child >= size) {
+          break;
+        }
+
+        if (child + 1 < size && heapKeys[child + 1] < heapKeys[child]) {
+          child++;
+        }
+
+        if (heapKeys[i] <= heapKeys[child]) {
+          break;
+        }
+
+        swap(i, child);
+        i = child;
+      }
+    }
+
+    private void swap(int i, int j) {
+      long key = heapKeys[i];
+      heapKeys[i] = heapKeys[j];
+      heapKeys[j] = key;
+      int source = heapSources[i];
+      heapSources[i] = heapSources[j];
+      heapSources[j] = source;
+    }
+
+    public void close() throws IOException {
+      try {
+        for (GeoCellStream source: sources) {
+          source.close();
+        }
+      } finally {
+        delete(runs);
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequence of geocells read one at a time, without boxing.
+ *
+ * <pre>
+ * while (stream.hasNext()) {
+ *   long geocell = stream.next();
+ * }
+ * </pre>
+ */
+public interface GeoCellStream extends Closeable {
+  /**
+   * Check whether a geocell is available, reading more input if needed.
+   */
+  public boolean hasNext() throws IOException;
+
+  /**
+   * Return the next geocell, only valid after 'hasNext' returned true.
+   */
+  public long next();
+}
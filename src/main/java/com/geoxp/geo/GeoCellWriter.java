@@ -0,0 +1,97 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Write geocells as 8 bytes big endian records to an OutputStream, through a buffer.
+ * Instances are not thread safe.
+ */
+public class GeoCellWriter implements Closeable {
+
+  private final OutputStream out;
+  private final byte[] buf;
+
+  private int pos = 0;
+
+  public GeoCellWriter(OutputStream out) {
+    this(out, 65536);
+  }
+
+  /**
+   * @param out Stream to write to
+   * @param bufferSize Size of the write buffer, rounded down to a multiple of 8 bytes
+   */
+  public GeoCellWriter(OutputStream out, int bufferSize) {
+    this.out = out;
+    this.buf = new byte[Math.max(8, bufferSize & ~7)];
+  }
+
+  public void write(long value) throws IOException {
+    if (pos == buf.length) {
+      out.write(buf, 0, pos);
+      pos = 0;
+    }
+
+    buf[pos] = (byte) (value >>> 56);
+    buf[pos + 1] = (byte) (value >>> 48);
+    buf[pos + 2] = (byte) (value >>> 40);
+    buf[pos + 3] = (byte) (value >>> 32);
+    buf[pos + 4] = (byte) (value >>> 24);
+    buf[pos + 5] = (byte) (value >>> 16);
+    buf[pos + 6] = (byte) (value >>> 8);
+    buf[pos + 7] = (byte) value;
+
+    pos += 8;
+  }
+
+  /**
+   * Write all the geocells of a stream.
+   */
+  public void write(GeoCellStream stream) throws IOException {
+    while (stream.hasNext()) {
+      write(stream.next());
+    }
+  }
+
+  /**
+   * Write the buffered records to the underlying stream and flush it.
+   */
+  public void flush() throws IOException {
+    if (pos > 0) {
+      out.write(buf, 0, pos);
+      pos = 0;
+    }
+
+    out.flush();
+  }
+
+  /**
+   * Flush the buffered records and close the underlying stream.
+   */
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+}
@@ -29,11 +29,6 @@ import java.util.List;
  */
 public class GeoParser {
   
-  /**
-   * Number of sides on each quadrant of the polygon approximation of a circle.
-   */
-  private static final int QUADRANT_POLYGON_APPROX_SIDES = 16;
-  
   /**
    * Parse a textual representation of a polygon into a coverage.
    * The format of the polygon is:
@@ -177,7 +172,8 @@ public class GeoParser {
    * Parse a center/radius String and return a coverage covering it
    * at the specified resolution.
    * 
-   * Format is lat:lon:radius with a radius in meters.
+   * Format is lat:lon:radius with a radius in meters, the circle is made of the
+   * locations within 'radius' meters (great circle distance) of the center.
    * 
    * @param circle
    * @param resolution
@@ -200,54 +196,7 @@ public class GeoParser {
       double lon = Double.valueOf(tokens[1]);
       double radius = Math.abs(Double.valueOf(tokens[2]));
    
-      long[] centercoords = new long[2];
-      
-      centercoords[0] = HHCodeHelper.toLongLat(lat);
-      centercoords[1] = HHCodeHelper.toLongLon(lon);
-      
-      //
-      // Build a polygon approximation with 12 sides
-      //
-      
-      List<Long> verticesLat = new ArrayList<Long>(4 * QUADRANT_POLYGON_APPROX_SIDES);
-      List<Long> verticesLon = new ArrayList<Long>(4 * QUADRANT_POLYGON_APPROX_SIDES);
-      
-      // Populate the list
-      for (int i = 0; i < 4 * QUADRANT_POLYGON_APPROX_SIDES; i++) {
-        verticesLat.add(0L);
-        verticesLon.add(0L);
-      }
-      
-      // Compute scale at center latitude
-      double scale = Math.cos(Math.toRadians(lat));
-      
-      long latradius = Math.round(radius * HHCodeHelper.latUnitsPerMeter);
-      long lonradius = Math.round(radius * HHCodeHelper.lonUnitsPerMeter / scale);
-
-      double sideangle = Math.PI * 2.0 / (4.0 * QUADRANT_POLYGON_APPROX_SIDES);
-      
-      // Build a polygon approximation of the circle. Only loop through
-      // one quadrant to speed up computations.
-      
-      for (int i = 0; i < QUADRANT_POLYGON_APPROX_SIDES; i++) {
-        double a = i * sideangle;
-        double c = Math.cos(a);
-        double s = Math.sin(a);
-      
-        verticesLat.set(i, (long) (centercoords[0] + s * latradius));
-        verticesLon.set(i, (long) (centercoords[1] + c * lonradius));
-        
-        verticesLat.set(i + QUADRANT_POLYGON_APPROX_SIDES, (long) (centercoords[0] + c * latradius));
-        verticesLon.set(i + QUADRANT_POLYGON_APPROX_SIDES, (long) (centercoords[1] - s * lonradius));
-        
-        verticesLat.set(i + 2 * QUADRANT_POLYGON_APPROX_SIDES, (long) (centercoords[0] - s * latradius));
-        verticesLon.set(i + 2 * QUADRANT_POLYGON_APPROX_SIDES, (long) (centercoords[1] - c * lonradius));
-        
-        verticesLat.set(i + 3 * QUADRANT_POLYGON_APPROX_SIDES, (long) (centercoords[0] - c * latradius));
-        verticesLon.set(i + 3 * QUADRANT_POLYGON_APPROX_SIDES, (long) (centercoords[1] + s * lonradius));        
-      }
-            
-      return HHCodeHelper.coverPolygon(verticesLat, verticesLon, resolution, coverage);     
+      return HHCodeHelper.coverCircle(HHCodeHelper.toLongLat(lat), HHCodeHelper.toLongLon(lon), radius, resolution, coverage);
     } catch (NumberFormatException e) {
       // Return an empty coverage
       return coverage;
@@ -338,17 +287,24 @@ public class GeoParser {
    * @see http://code.google.com/apis/maps/documentation/utilities/polylinealgorithm.html
    * @see http://jeffreysambells.com/posts/2010/05/27/decoding-polylines-from-google-maps-direction-api-with-java/
    * 
-   * @return a List of HHCodes.
+   * @return an array of two lists, the latitudes and the longitudes of the vertices.
    */
   public static List<Long>[] parseEncodedPolyline(String polyline) {
+    return parseEncodedPolyline(polyline, new VertexBuffer()).toLists();
+  }
+  
+  /**
+   * Parse a Google Maps encoded polyline, appending its vertices to a VertexBuffer.
+   * 
+   * @return 'vertices'
+   */
+  public static VertexBuffer parseEncodedPolyline(String polyline, VertexBuffer vertices) {
     
     int index = 0;
     int len = polyline.length();
     int lat = 0;
     int lng = 0;
 
-    List<Long> verticesLat = new ArrayList<Long>();
-    List<Long> verticesLon = new ArrayList<Long>();
     
     while (index < len) {
       int b;
@@ -378,18 +334,12 @@ public class GeoParser {
         lng += dlng;        
       }
 
-      verticesLat.add(HHCodeHelper.toLongLat((double) lat / 1E5));
-      verticesLon.add(HHCodeHelper.toLongLon((double) lng / 1E5));
+      vertices.add(HHCodeHelper.toLongLat((double) lat / 1E5), HHCodeHelper.toLongLon((double) lng / 1E5));
       
       //hhcodes.add(HHCodeHelper.getHHCodeValue((double) lat / 1E5, (double) lng / 1E5)); 
     }
    
-    List<Long>[] coords = new List[2];
-    
-    coords[0] = verticesLat;
-    coords[1] = verticesLon;
-    
-    return coords;
+    return vertices;
   }
   
   /**
@@ -427,13 +377,9 @@ public class GeoParser {
       
       try {
         double dist = Double.valueOf(def.substring(9,9+idx));
-        List<Long>[] hhcoords = parseEncodedPolyline(def.substring(9 + idx + 1));
+        VertexBuffer vertices = parseEncodedPolyline(def.substring(9 + idx + 1), new VertexBuffer());
         
-        for (int i = 0; i < hhcoords[0].size() - 1; i++) {
-          HHCodeHelper.coverSegment(hhcoords[0].get(i), hhcoords[1].get(i), hhcoords[0].get(i+1), hhcoords[1].get(i + 1), dist, resolution, cover);
-        }
-        
-        return cover;
+        return HHCodeHelper.coverCorridor(vertices, dist, resolution, CorridorCoverer.JOIN_MITRE, cover);
       } catch (NumberFormatException nfe) {
         return cover;
       }
@@ -133,17 +133,48 @@ public final class HHCodeHelper {
     lat += 90.0;
     lon += 180.0;
     
-    long[] coords = new long[2];
-    
     //
     // We use floor because we want to know the slot in which lies 'lat' or 'lon',
     // not the slot after (which might be returned if we called round).
     //
     
-    coords[0] = (long) Math.floor(lat / DEGREES_PER_LAT_UNIT);
-    coords[1] = (long) Math.floor(lon / DEGREES_PER_LON_UNIT);
-    
-    return buildHHCode(coords[0], coords[1]);
+    return buildHHCode((long) Math.floor(lat / DEGREES_PER_LAT_UNIT), (long) Math.floor(lon / DEGREES_PER_LON_UNIT));
+  }
+  
+  /**
+   * Compute the HHCode values of the lat/lon pairs between indices 'from' (inclusive)
+   * and 'to' (exclusive). Each value is identical to what getHHCodeValue returns.
+   * 
+   * The loop does not allocate and has no data dependent branch.
+   * 
+   * @param lats Latitudes of points (-90.0/90.0)
+   * @param lons Longitudes of points (-180.0/180.0)
+   * @param out Array where the HHCodes will be stored, at the same indices
+   * @param from First index to convert
+   * @param to Index after the last one to convert
+   */
+  public static final void getHHCodeValues(double[] lats, double[] lons, long[] out, int from, int to) {
+    for (int i = from; i < to; i++) {
+      out[i] = buildHHCode((long) Math.floor((lats[i] + 90.0) / DEGREES_PER_LAT_UNIT), (long) Math.floor((lons[i] + 180.0) / DEGREES_PER_LON_UNIT), MAX_RESOLUTION);
+    }
+  }
+  
+  /**
+   * Convert the HHCodes between indices 'from' (inclusive) and 'to' (exclusive)
+   * into lat/lon pairs, as getLatLon(hhcode, MAX_RESOLUTION) would.
+   * 
+   * @param hhcodes HHCodes to convert
+   * @param lats Array where the latitudes will be stored
+   * @param lons Array where the longitudes will be stored
+   * @param from First index to convert
+   * @param to Index after the last one to convert
+   */
+  public static final void getLatLons(long[] hhcodes, double[] lats, double[] lons, int from, int to) {
+    for (int i = from; i < to; i++) {
+      long hhcode = hhcodes[i];
+      lats[i] = splitLat(hhcode) * DEGREES_PER_LAT_UNIT - 90.0D;
+      lons[i] = splitLon(hhcode) * DEGREES_PER_LON_UNIT - 180.0D;
+    }
   }
   
   /**
@@ -158,19 +189,20 @@ public final class HHCodeHelper {
     // Split hhcode into lat/lon
     //
       
-    long[] coords = splitHHCode(hhcode);
+    long lat = splitLat(hhcode);
+    long lon = splitLon(hhcode);
     
     //
     // Add 1**(32 - resolution) to the lat
     //
     
-    coords[0] = (coords[0] + (1 << (32 - resolution)));
+    lat = (lat + (1 << (32 - resolution)));
     
     //
     // Rebuild HHCode
     //
     
-    return buildHHCode(coords[0], coords[1]);
+    return buildHHCode(lat, lon);
   }
 
   /**
@@ -185,19 +217,20 @@ public final class HHCodeHelper {
     // Split hhcode into lat/lon
     //
       
-    long[] coords = splitHHCode(hhcode);
+    long lat = splitLat(hhcode);
+    long lon = splitLon(hhcode);
     
     //
     // Add 1**(32 - resolution) to the lat
     //
     
-    coords[0] = (coords[0] - (1 << (32 - resolution)));
+    lat = (lat - (1 << (32 - resolution)));
     
     //
     // Rebuild HHCode
     //
     
-    return buildHHCode(coords[0], coords[1]);
+    return buildHHCode(lat, lon);
   }
 
   /**
@@ -212,19 +245,20 @@ public final class HHCodeHelper {
     // Split hhcode into lat/lon
     //
       
-    long[] coords = splitHHCode(hhcode);
+    long lat = splitLat(hhcode);
+    long lon = splitLon(hhcode);
     
     //
     // Add 1**(32 - resolution) to the lon
     //
     
-    coords[1] = (coords[1] + (1 << (32 - resolution)));
+    lon = (lon + (1 << (32 - resolution)));
 
     //
     // Rebuild HHCode
     //
     
-    return buildHHCode(coords[0], coords[1]);
+    return buildHHCode(lat, lon);
   }
 
   /**
@@ -239,19 +273,20 @@ public final class HHCodeHelper {
     // Split hhcode into lat/lon
     //
       
-    long[] coords = splitHHCode(hhcode);
+    long lat = splitLat(hhcode);
+    long lon = splitLon(hhcode);
     
     //
     // Subtract 1**(32 - resolution) to the lon
     //
     
-    coords[1] = (coords[1] - (1 << (32 - resolution)));
+    lon = (lon - (1 << (32 - resolution)));
 
     //
     // Rebuild HHCode
     //
     
-    return buildHHCode(coords[0], coords[1]);
+    return buildHHCode(lat, lon);
   }
 
   public static final long northEastHHCode(long hhcode, int resolution) {
@@ -259,20 +294,21 @@ public final class HHCodeHelper {
     // Split hhcode into lat/lon
     //
       
-    long[] coords = splitHHCode(hhcode);
+    long lat = splitLat(hhcode);
+    long lon = splitLon(hhcode);
     
     //
     // add delta to lat/lon
     //
     
-    coords[0] = (coords[0] + (1 << (32 - resolution)));
-    coords[1] = (coords[1] + (1 << (32 - resolution)));
+    lat = (lat + (1 << (32 - resolution)));
+    lon = (lon + (1 << (32 - resolution)));
 
     //
     // Rebuild HHCode
     //
     
-    return buildHHCode(coords[0], coords[1]);    
+    return buildHHCode(lat, lon);    
   }
 
   public static final long southEastHHCode(long hhcode, int resolution) {
@@ -280,20 +316,21 @@ public final class HHCodeHelper {
     // Split hhcode into lat/lon
     //
       
-    long[] coords = splitHHCode(hhcode);
+    long lat = splitLat(hhcode);
+    long lon = splitLon(hhcode);
     
     //
     // substract/add delta to lat/lon
     //
     
-    coords[0] = (coords[0] - (1 << (32 - resolution)));
-    coords[1] = (coords[1] + (1 << (32 - resolution)));
+    lat = (lat - (1 << (32 - resolution)));
+    lon = (lon + (1 << (32 - resolution)));
 
     //
     // Rebuild HHCode
     //
     
-    return buildHHCode(coords[0], coords[1]);    
+    return buildHHCode(lat, lon);    
   }
 
   public static final long southWestHHCode(long hhcode, int resolution) {
@@ -301,20 +338,21 @@ public final class HHCodeHelper {
     // Split hhcode into lat/lon
     //
       
-    long[] coords = splitHHCode(hhcode);
+    long lat = splitLat(hhcode);
+    long lon = splitLon(hhcode);
     
     //
     // substract delta to lat/lon
     //
     
-    coords[0] = (coords[0] - (1 << (32 - resolution)));
-    coords[1] = (coords[1] - (1 << (32 - resolution)));
+    lat = (lat - (1 << (32 - resolution)));
+    lon = (lon - (1 << (32 - resolution)));
 
     //
     // Rebuild HHCode
     //
     
-    return buildHHCode(coords[0], coords[1]);    
+    return buildHHCode(lat, lon);    
   }
 
   public static final long northWestHHCode(long hhcode, int resolution) {
@@ -322,20 +360,21 @@ public final class HHCodeHelper {
     // Split hhcode into lat/lon
     //
       
-    long[] coords = splitHHCode(hhcode);
+    long lat = splitLat(hhcode);
+    long lon = splitLon(hhcode);
     
     //
     // substract/add delta to lat/lon
     //
     
-    coords[0] = (coords[0] + (1 << (32 - resolution)));
-    coords[1] = (coords[1] - (1 << (32 - resolution)));
+    lat = (lat + (1 << (32 - resolution)));
+    lon = (lon - (1 << (32 - resolution)));
 
     //
     // Rebuild HHCode
     //
     
-    return buildHHCode(coords[0], coords[1]);    
+    return buildHHCode(lat, lon);    
   }
 
   public static final long deltaHHCode(long hhcode, int resolution, int latdelta, int londelta) {
@@ -343,20 +382,21 @@ public final class HHCodeHelper {
     // Split HHCode into lat/lon
     //
     
-    long[] coords = splitHHCode(hhcode);
+    long lat = splitLat(hhcode);
+    long lon = splitLon(hhcode);
     
     //
     // Apply delta at the given resolution
     //
     
-    coords[0] = (coords[0] + latdelta * (1 << (32 - resolution)));
-    coords[1] = (coords[1] + londelta * (1 << (32 - resolution)));
+    lat = (lat + latdelta * (1 << (32 - resolution)));
+    lon = (lon + londelta * (1 << (32 - resolution)));
     
     //
     // Rebuild HHCode
     //
     
-    return buildHHCode(coords[0], coords[1]);
+    return buildHHCode(lat, lon);
   }
   
   /**
@@ -368,23 +408,10 @@ public final class HHCodeHelper {
    * @param coords an array to be filled by two longs (lat/long)
    */
   public static final void stableSplitHHCode(final long hhcode, final int resolution, final long[] coords) {
-    long c0 = 0L;
-    long c1 = 0L;
-    
-    for (int i = 32 - 1; i >= 32 - resolution; i--) {
-      c0 <<= 1;
-      c0 |= 0x1L & (hhcode >> (1 + (i << 1)));
-      c1 <<= 1;
-      c1 |= 0x1L & (hhcode >> (i << 1));
-    }
-
-    if (32 != resolution) {
-      c0 <<= 32 - resolution;
-      c1 <<= 32 - resolution;
-    }
+    long mask = resolutionMask(resolution);
     
-    coords[0] = c0;
-    coords[1] = c1;
+    coords[0] = splitLat(hhcode) & mask;
+    coords[1] = splitLon(hhcode) & mask;
   }
  
   /**
@@ -395,31 +422,72 @@ public final class HHCodeHelper {
    */
   public static final long[] splitHHCode(long hhcode, int resolution) {
     long[] coords = new long[2];
-
-    long c0 = 0L;
-    long c1 = 0L;
-    
-    for (int i = 32 - 1; i >= 32 - resolution; i--) {
-      c0 <<= 1;
-      c0 |= 0x1L & (hhcode >> (1 + (i << 1)));
-      c1 <<= 1;
-      c1 |= 0x1L & (hhcode >> (i << 1));
-    }
-
-    if (32 != resolution) {
-      c0 <<= 32 - resolution;
-      c1 <<= 32 - resolution;
-    }
-    
-    coords[0] = c0;
-    coords[1] = c1;
-    
+    stableSplitHHCode(hhcode, resolution, coords);
     return coords;
   }
   
   private static final long[] splitHHCode(long hhcode) {
     return splitHHCode(hhcode, 32);
   }
+
+  /**
+   * Extract the latitude component of a HHCode, at full resolution.
+   * 
+   * @param hhcode HHCode value to split
+   * @return The latitude as a 32 bits unsigned value
+   */
+  public static final long splitLat(long hhcode) {
+    return compactBits(hhcode >>> 1);
+  }
+
+  /**
+   * Extract the longitude component of a HHCode, at full resolution.
+   * 
+   * @param hhcode HHCode value to split
+   * @return The longitude as a 32 bits unsigned value
+   */
+  public static final long splitLon(long hhcode) {
+    return compactBits(hhcode);
+  }
+  
+  //
+  // Bit interleaving is done using the classical 'magic numbers' technique, spreading
+  // (resp. compacting) the bits of a 32 bits value in 5 shift/mask steps instead of
+  // looping over each bit. Lat bits end up at odd positions, lon bits at even ones.
+  //
+  
+  /**
+   * Spread the lower 32 bits of 'v' so bit i ends up at position 2*i.
+   */
+  private static final long spreadBits(long v) {
+    v &= 0xffffffffL;
+    v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+    v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+    v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+    v = (v | (v << 2)) & 0x3333333333333333L;
+    v = (v | (v << 1)) & 0x5555555555555555L;
+    return v;
+  }
+  
+  /**
+   * Gather the bits at even positions of 'v' into its lower 32 bits, reverse of spreadBits.
+   */
+  private static final long compactBits(long v) {
+    v &= 0x5555555555555555L;
+    v = (v | (v >>> 1)) & 0x3333333333333333L;
+    v = (v | (v >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+    v = (v | (v >>> 4)) & 0x00ff00ff00ff00ffL;
+    v = (v | (v >>> 8)) & 0x0000ffff0000ffffL;
+    v = (v | (v >>> 16)) & 0x00000000ffffffffL;
+    return v;
+  }
+  
+  /**
+   * Return the mask retaining the 'resolution' upper bits of a 32 bits lat/lon.
+   */
+  private static final long resolutionMask(int resolution) {
+    return (0xffffffffL << (32 - resolution)) & 0xffffffffL;
+  }
   
   public static final double[] getLatLon(long hhcode, int resolution) {
     double[] latlon = new double[2];
@@ -467,9 +535,9 @@ public final class HHCodeHelper {
   }
   
   public static final void stableGetLatLon(long hhcode, int resolution, double[] target, int offset) {
-    long[] coords = splitHHCode(hhcode, resolution);
-    target[offset] = coords[0] * DEGREES_PER_LAT_UNIT - 90.0D;
-    target[offset + 1] = coords[1] * DEGREES_PER_LON_UNIT - 180.0D;    
+    long mask = resolutionMask(resolution);
+    target[offset] = (splitLat(hhcode) & mask) * DEGREES_PER_LAT_UNIT - 90.0D;
+    target[offset + 1] = (splitLon(hhcode) & mask) * DEGREES_PER_LON_UNIT - 180.0D;    
   }
   
   /**
@@ -481,8 +549,6 @@ public final class HHCodeHelper {
    * @return the HHCode value
    */
   public static final long buildHHCode(long lat, long lon, int resolution) {
-    long hhcode = 0L;
-
     //
     //
     // The wrapping of the HHCode planisphere is as follow:
@@ -523,12 +589,13 @@ public final class HHCodeHelper {
     //
 
 
-    if (0L != (lat & 0x100000000L)) {
-      lat ^= 0xffffffffL;
-      // Shifting lat by 2**31 can be done by adding 2**31 or simply flipping the 31st bit
-      // since we only retain the lowest 32
-      lon ^= 0x80000000L;
-    }
+    // 'wrap' is all ones if bit 32 of lat is set, 0 otherwise, this avoids a branch
+    long wrap = -((lat >>> 32) & 0x1L);
+    
+    lat ^= wrap & 0xffffffffL;
+    // Shifting lat by 2**31 can be done by adding 2**31 or simply flipping the 31st bit
+    // since we only retain the lowest 32
+    lon ^= wrap & 0x80000000L;
 
     //
     // Keep lower 32 bits
@@ -537,18 +604,16 @@ public final class HHCodeHelper {
     lat &= 0xffffffffL;    
     lon &= 0xffffffffL;
 
-    for (int i = 32 - 1; i >= 32 - resolution; i--) {
-         hhcode <<= 1;
-         hhcode |= (lat & (1L << i)) >> i;
-         hhcode <<= 1;
-         hhcode |= (lon & (1L << i)) >> i;
-    }
-
-    if (32 != resolution) {
-      hhcode <<= 32 - resolution;
-    }
+    //
+    // Only retain the 'resolution' upper bits of lat/lon and interleave them.
+    // For resolutions below 32, the interleaved bits end up shifted by 32 - resolution only.
+    //
     
-    return hhcode;
+    long mask = resolutionMask(resolution);
+    
+    long hhcode = (spreadBits(lat & mask) << 1) | spreadBits(lon & mask);
+    
+    return hhcode >>> (32 - resolution);
   }
 
   private static final long buildHHCode(long lat, long lon) {
@@ -997,6 +1062,45 @@ public final class HHCodeHelper {
     return bbox;    
   }
   
+  /**
+   * Return the bounding box of the first 'n' vertices of a polyline or polygon.
+   * 
+   * @param lats Vertices latitudes (in long HHCode coordinates)
+   * @param lons Vertices longitudes (in long HHCode coordinates)
+   * @param n Number of vertices to consider
+   * @return an array of 4 long (SW lat, SW lon, NE lat, NE lon)
+   */
+  public static final long[] getBoundingBox(long[] lats, long[] lons, int n) {
+    return getBoundingBox(lats, lons, 0, n, new long[4]);
+  }
+
+  /**
+   * Compute the bounding box of vertices 'from' (inclusive) to 'to' (exclusive) into 'bbox'
+   */
+  private static final long[] getBoundingBox(long[] lats, long[] lons, int from, int to, long[] bbox) {
+    bbox[0] = Long.MAX_VALUE; // SW lat
+    bbox[1] = Long.MAX_VALUE; // SW lon
+    bbox[2] = Long.MIN_VALUE; // NE lat
+    bbox[3] = Long.MIN_VALUE; // NE lon
+
+    for (int i = from; i < to; i++) {
+      if (lats[i] < bbox[0]) {
+        bbox[0] = lats[i];
+      }
+      if (lats[i] > bbox[2]) {
+        bbox[2] = lats[i];
+      }
+      if (lons[i] > bbox[3]) {
+        bbox[3] = lons[i];
+      }
+      if (lons[i] < bbox[1]) {
+        bbox[1] = lons[i];
+      }
+    }
+
+    return bbox;
+  }
+
   /**
    * Return the bounding box of the list of nodes.
    * 
@@ -1071,7 +1175,7 @@ public final class HHCodeHelper {
       double tlat = latspan / 2.0D;
       double tlon = lonspan;
       
-      double diagonal = 2.0D * Math.asin(Math.sqrt(Math.pow(Math.sin((flat-tlat)/2.0D), 2.0D) + Math.cos(flat)*Math.cos(tlat)*Math.pow(Math.sin((flon-tlon)/2.0D),2.0D)));
+      double diagonal = greatCircleAngle(flat, flon, tlat, tlon);
       // Convert diagonal in meters
       diagonal = diagonal * (180.0D / Math.PI) * (1852.0D * 60.0D);
       
@@ -1233,6 +1337,7 @@ public final class HHCodeHelper {
   
   /**
    * Determine a list of zones covering a polygon. Polygon need not be closed (i.e. last vertex can be != from first vertex).
+   * Areas fully inside the polygon are covered by coarser cells (@see PolygonRasterizer).
    * 
    * @param verticesLat Vertices latitudes (in long HHCode coordinates) of the polygon.
    * @param verticesLon Vertices longitudes (in long HHCode coordinates) of the polygon.
@@ -1247,235 +1352,42 @@ public final class HHCodeHelper {
   public static final Coverage coverPolygon(List<Long> verticesLat, List<Long> verticesLon, int resolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
     
     //
-    // Sanitize the data, making sure we have the same number of lat and lon,
-    // silently ignoring extra data.
+    // Copy vertices lat/lon in arrays for faster access, silently ignoring extra data.
     //
     
-    int size = Math.min(verticesLat.size(), verticesLon.size());
+    VertexBuffer vertices = new VertexBuffer(verticesLat, verticesLon);
     
-    verticesLat = verticesLat.subList(0, size);
-    verticesLon = verticesLon.subList(0, size);
+    return coverPolygon(vertices.lats(), vertices.lons(), vertices.size(), resolution, coverage, geocells, excludeGeoCells);
+  }
 
-    int nvertices = verticesLat.size();
-    
-    //
-    // Copy vertices lat/lon in arrays for faster access
-    //
-    
-    long[] verticesLatArray = new long[size];
-    long[] verticesLonArray = new long[size];
-    
-    for (int i = 0; i < size; i++) {
-      verticesLatArray[i] = verticesLat.get(i);
-      verticesLonArray[i] = verticesLon.get(i);
-    }
-        
-    //
-    // Determine bounding box of the polygon
-    //
-    
-    long[] bbox = getBoundingBox(verticesLat, verticesLon);
+  public static final Coverage coverPolygon(VertexBuffer vertices, int resolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    return coverPolygon(vertices.lats(), vertices.lons(), vertices.size(), resolution, coverage, geocells, excludeGeoCells);
+  }
+
+  /**
+   * Determine a list of zones covering a polygon whose vertices are stored in arrays.
+   * 
+   * @param verticesLat Vertices latitudes (in long HHCode coordinates) of the polygon.
+   * @param verticesLon Vertices longitudes (in long HHCode coordinates) of the polygon.
+   * @param n Number of vertices, only the first 'n' elements of the arrays are considered
+   * 
+   * @see #coverPolygon(List, List, int, Coverage, long[], boolean)
+   */
+  public static final Coverage coverPolygon(long[] verticesLat, long[] verticesLon, int n, int resolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
     
-    long topLat = bbox[2];
-    long leftLon = bbox[1];
-    long rightLon = bbox[3];
-    long bottomLat = bbox[0];
-        
     //
-    // Determine the optimal resolution
+    // Determine the optimal resolution from the bounding box of the polygon
     //
     
     if (0 >= resolution) {
-      resolution = getOptimalPolygonResolution(bbox, resolution);
+      resolution = getOptimalPolygonResolution(getBoundingBox(verticesLat, verticesLon, n), resolution);
     }
     
-    long resolutionprefixmask = 0xffffffffffffffffL ^ ((1L << (32 - resolution)) - 1);
-    long resolutionoffsetmask = (1L << (32 - resolution)) - 1;
-    
-    // Normalize bbox according to resolution, basically replace vertices with sw corner of enclosing zone
-    
-    // Force toplat to be at the top of its cell by forcing lower bits to 1
-    topLat = topLat | resolutionoffsetmask;
-    
-    // Force bottomLat to be at the bottom of its cell by forcing lower bits to 0
-    bottomLat = bottomLat & resolutionprefixmask;
-    
-    // Force leftLong to the left of its enclosing cell by forcing lower bits to 0
-    leftLon = leftLon & resolutionprefixmask;
-    
-    // Force rightLon to be at the far right of its cell by forcing lower bits to 1
-    rightLon = rightLon | resolutionoffsetmask;
-    
-    //
-    // @see http://alienryderflex.com/polygon_fill/
     //
-    
-    //
-    // Loop from topLat to bottomLat, meeting all vertices lat on the way
+    // Rasterize the polygon, emitting areas fully inside it as coarse cells
     //
 
-    final long[] icoords = new long[2];
-    final long[] jcoords = new long[2];
- 
-    //List<Long> nodeLon = new ArrayList<Long>(40); 
-    //List<Long> nodeLat = new ArrayList<Long>();  
-    
-    Set<Long> allLons = new HashSet<Long>();
-    Set<Long> allLats = new HashSet<Long>();
-    
-    //
-    // Add bottom of each cell from bottomLat to topLat
-    //
-
-    allLats.addAll(verticesLat);
-    
-    for (long lat = bottomLat; lat <= topLat; lat += 1L << (32 - resolution)) {
-      allLats.add(lat & resolutionprefixmask);
-    }
-
-    // Store all lats, removing duplicates
-    //nodeLat.addAll(allLats);
-    
-    long[] nodeLatArray = new long[allLats.size()];
-    int idx = 0;
-    for (long lat: allLats) {
-      nodeLatArray[idx++] = lat;
-    }
-    
-    allLats.clear();
-    
-    long[] nodeLonArray = new long[nvertices];
-    
-    // Sort lats from bottom to top
-    //Collections.sort(nodeLat);
-    Arrays.sort(nodeLatArray);
-    
-    // Loop over each cell bottom
-    //for (long lat: nodeLat) {
-    for (int latidx = 0; latidx < nodeLatArray.length; latidx++) {
-      long lat = nodeLatArray[latidx];
-      
-      //
-      // Scan the vertices
-      //
-
-      // Close the path by referencing the last vertex
-      //int j = verticesLat.size() - 1;
-      int j = nvertices - 1;
-      
-      // Clear the intersections
-      //nodeLon.clear();
-      int lonidx = 0;
-      
-      // Clear the set of all Longitudes considered.
-      // This is necessary because we might otherwise have odd number of lons because a node intersects the lat at a Lon which is at the end of a group of lons already considered
-      allLons.clear();
-      
-      for (int i = 0; i < nvertices; i++) {
-        //icoords[0] = verticesLat.get(i);
-        icoords[0] = verticesLatArray[i];
-        //icoords[1] = verticesLon.get(i);
-        icoords[1] = verticesLonArray[i];
-        
-        //jcoords[0] = verticesLat.get(j);
-        jcoords[0] = verticesLatArray[j];
-        //jcoords[1] = verticesLon.get(j);
-        jcoords[1] = verticesLonArray[j];
-
-        //
-        // Only consider a segment if it crosses 'lat', otherwise rounding errors will produce weird artefacts
-        //
-        
-        if (icoords[0] != jcoords[0]
-            && ((icoords[0] >= lat && jcoords[0] <= lat || jcoords[0] >= lat && icoords[0] <= lat))) { // edge crosses the bottom of the cell row
-
-          // Determine the lon of the cells at which the top and bottom lats intersect the edge
-          
-          // We MUST use a double to compute the slope as otherwise the computation on doubles might
-          // wrap around and lead to incorrect results (when crossing the IDL and having lons > 2**32).
-          
-          double slope = ((double) (jcoords[1] - icoords[1])) / ((double) (jcoords[0] - icoords[0]));
-          long bottomIntersection = icoords[1] + (long)((lat - icoords[0]) * slope);
-          long topIntersection = icoords[1] + (long)(((lat|resolutionoffsetmask) - icoords[0]) * slope);
-                    
-          // Add all lons between top/bottom intersection as long as they contain the edge
-
-          long startLng = topIntersection & resolutionprefixmask;
-          long stopLng = bottomIntersection & resolutionprefixmask;
-
-          if (startLng > stopLng) {
-            startLng = bottomIntersection & resolutionprefixmask;
-            stopLng = topIntersection & resolutionprefixmask;
-          }
-
-          long midlon = 0;
-          
-          long lowLon = Long.MAX_VALUE;
-          long highLon = Long.MIN_VALUE;
-
-          for (long lng = startLng; lng <= stopLng; lng += (1L << (32 - resolution))) {
-            if ((lng >= (icoords[1] & resolutionprefixmask) && lng <= (jcoords[1] | resolutionoffsetmask))
-                || (lng >= (jcoords[1] & resolutionprefixmask) && lng <= (icoords[1] | resolutionoffsetmask))) {
-              coverage.addCell(resolution, lat, lng, geocells, excludeGeoCells);
-              // Record low and high bounds of cell slice we just added.
-              if ((lng & resolutionprefixmask) < lowLon) {
-                lowLon = lng&resolutionprefixmask;
-                midlon = lng;
-              }
-              if ((lng & resolutionprefixmask) > highLon) {
-                highLon = lng&resolutionprefixmask;
-              }
-            }
-          }
-
-          
-          //
-          // If lat is the latitude of the start vertex of the current segment, then add the longitude ONLY if the vertex is a local
-          // top/down extremum (the adjacent segments lie on the same side of the horizontal line passing through the vertex).
-          //
-          if (lat != icoords[0]
-              //|| (lat == icoords[0] && (verticesLat.get(i + 1 < verticesLat.size() ? i + 1 : 0) - icoords[0]) * (jcoords[0] - icoords[0]) > 0.0)) { // check > 0.0 so we exclude horizontal segments
-              || (lat == icoords[0] && (verticesLatArray[i + 1 < verticesLat.size() ? i + 1 : 0] - icoords[0]) * (jcoords[0] - icoords[0]) > 0.0)) { // check > 0.0 so we exclude horizontal segments
-            //nodeLon.add(midlon);
-            nodeLonArray[lonidx++] = midlon;
-          }         
-        } else if(icoords[0] == jcoords[0] && (lat & resolutionprefixmask) == (icoords[0] & resolutionprefixmask)) {
-          // Handle the case where the polygon edge is horizontal, we add the cells on the edge to the coverage
-          for (long lon = Math.min(icoords[1],jcoords[1]); lon <= Math.max(icoords[1], jcoords[1]); lon += (1L << (32 - resolution))) {
-            coverage.addCell(resolution, lat, lon, geocells, excludeGeoCells);
-          }
-        }
-
-        j = i;
-      }
-
-      // Sort nodeLon
-      //Collections.sort(nodeLon);
-      Arrays.sort(nodeLonArray, 0, lonidx);
-      
-      // Add the zones between node pairs, removing duplicates
-
-      //int nnodes = nodeLon.size();
-      int nnodes = lonidx;
-      
-      if (nnodes > 1) {
-        for (int i = 0; i < nnodes; i += 2) {
-          // Check for bounds if the user specified some weird polygon (with wrapping around the pole for example, as in circle:48:-4.5:50000000)
-          if (i < nnodes - 1) {
-            //for (long lon = nodeLon.get(i) & resolutionprefixmask; lon <= (nodeLon.get(i + 1) | resolutionoffsetmask); lon += (1L << (32 - resolution))) {
-            for (long lon = nodeLonArray[i] & resolutionprefixmask; lon <= (nodeLonArray[i + 1] | resolutionoffsetmask); lon += (1L << (32 - resolution))) {
-              // Add the cell
-              coverage.addCell(resolution, lat, lon, geocells, excludeGeoCells);
-            }
-          }
-        }        
-      }
-    }
-
-    // FIME(hbs): we could compute the bbox area and the coverage area, if it differs and the resolution was initially set to 0
-    // i.e. we were asked to guess, then we could increase it and try again so as to have a better area ratio.
-        
-    return coverage;
+    return PolygonRasterizer.cover(verticesLat, verticesLon, n, resolution, coverage, geocells, excludeGeoCells);
   }
 
   public static final Coverage coverPolygon(List<Long> verticesLat, List<Long> verticesLon, int resolution, Coverage coverage) {
@@ -1701,46 +1613,46 @@ public final class HHCodeHelper {
   }
   
   public static final Coverage coverPolyline(List<Long> lat, List<Long> lon, int resolution, boolean perSegmentResolution, boolean useBresenham, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    VertexBuffer vertices = new VertexBuffer(lat, lon);
+    return coverPolyline(vertices.lats(), vertices.lons(), vertices.size(), resolution, perSegmentResolution, useBresenham, coverage, geocells, excludeGeoCells);
+  }
+
+  public static final Coverage coverPolyline(VertexBuffer vertices, int resolution, boolean perSegmentResolution, boolean useBresenham, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    return coverPolyline(vertices.lats(), vertices.lons(), vertices.size(), resolution, perSegmentResolution, useBresenham, coverage, geocells, excludeGeoCells);
+  }
+
+  /**
+   * Cover a polyline whose vertices are stored in arrays.
+   * 
+   * @param lat Vertices latitudes (in long HHCode coordinates)
+   * @param lon Vertices longitudes (in long HHCode coordinates)
+   * @param n Number of vertices, only the first 'n' elements of the arrays are considered
+   */
+  public static final Coverage coverPolyline(long[] lat, long[] lon, int n, int resolution, boolean perSegmentResolution, boolean useBresenham, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
     
     int resoffset = resolution;
         
     if (useBresenham) {
-      coverPolylineBresenham(lat, lon, resolution, perSegmentResolution, coverage, geocells, excludeGeoCells);
+      coverPolylineBresenham(lat, lon, n, resolution, perSegmentResolution, coverage, geocells, excludeGeoCells);
     } else {
       //
       // Determine global resolution
       //
       
       if (resoffset <= 0 && !perSegmentResolution) {
-        long[] bbox = getBoundingBox(lat, lon);
+        long[] bbox = getBoundingBox(lat, lon, n);
         resolution = getOptimalPolylineResolution(bbox, resoffset);
       }
       
-      List<Long> segmentLat = new ArrayList<Long>();
-      List<Long> segmentLon = new ArrayList<Long>();
-      
-      segmentLat.add(lat.get(0));
-      segmentLat.add(lat.get(0));
-      segmentLon.add(lon.get(0));
-      segmentLon.add(lon.get(0));
+      long[] bbox = new long[4];
       
-      for (int i = 0; i <= Math.min(lat.size(),lon.size()) - 2; i++) {
-        //
-        // Shift vertex
-        //
-        
-        segmentLat.remove(0);
-        segmentLon.remove(0);
-        
-        segmentLat.add(lat.get(i + 1));
-        segmentLon.add(lon.get(i+1));
-        
+      for (int i = 0; i <= n - 2; i++) {
         if (perSegmentResolution) {
-          long[] bbox = getBoundingBox(segmentLat, segmentLon);
+          getBoundingBox(lat, lon, i, i + 2, bbox);
           resolution = getOptimalPolylineResolution(bbox, resoffset);          
         }
         
-        coverLine(segmentLat.get(0), segmentLon.get(0), segmentLat.get(1), segmentLon.get(1), coverage, resolution, geocells, excludeGeoCells);
+        coverLine(lat[i], lon[i], lat[i + 1], lon[i + 1], coverage, resolution, geocells, excludeGeoCells);
       }
     }
     
@@ -1751,7 +1663,33 @@ public final class HHCodeHelper {
     return coverPolyline(lat, lon, resolution, perSegmentResolution, useBresenham, coverage, null, false);
   }
   
-  private static void coverPolylineBresenham(List<Long> lats, List<Long> lons, int resolution, boolean perSegmentResolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+  private static void coverPolylineBresenham(long[] lats, long[] lons, int n, int resolution, boolean perSegmentResolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    
+    int resoffset = resolution;
+    
+    long[] bbox = new long[4];
+    
+    if (resoffset <= 0 && !perSegmentResolution) {
+      getBoundingBox(lats, lons, 0, n, bbox);
+      resolution = getOptimalPolylineResolution(bbox, resoffset);
+    }
+    
+    for (int i = 0; i <= n - 2; i++) {
+
+      if (perSegmentResolution) {
+        getBoundingBox(lats, lons, i, i + 2, bbox);
+        resolution = getOptimalPolylineResolution(bbox, resoffset);          
+      }
+
+      coverSegmentBresenham(lats[i], lons[i], lats[i + 1], lons[i + 1], resolution, coverage, geocells, excludeGeoCells);
+    }
+  }
+  
+  /**
+   * Cover a segment using Bresenham's algorithm.
+   * Adapted from http://en.wikipedia.org/wiki/Bresenham%27s_line_algorithm
+   */
+  static void coverSegmentBresenham(long fromLat, long fromLon, long toLat, long toLon, int resolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
     
     //
     // Compute offset for lat/lon
@@ -1759,151 +1697,102 @@ public final class HHCodeHelper {
   
     long offset = 1L << (32 - resolution);
   
-    //
-    // Loop over the edges and apply the Bresenham's algorithm for each one
-    // Adapted from http://en.wikipedia.org/wiki/Bresenham%27s_line_algorithm
-    //
-
     long[] from = new long[2];
     long[] to = new long[2];
+
+    from[0] = fromLat;
+    from[1] = fromLon;
+    to[0] = toLat;
+    to[1] = toLon;
+      
+    //
+    // Determine if line is steep, i.e. its delta in lat is > than its delta in lon
+    //
   
-    int resoffset = resolution;
-    
-    if (resoffset <= 0 && !perSegmentResolution) {
-      long[] bbox = getBoundingBox(lats, lons);
-      resolution = getOptimalPolylineResolution(bbox, resoffset);
+    boolean steep = Math.abs(to[0] - from[0]) > Math.abs(to[1] - from[1]);
+  
+    //
+    // If the line is steep, exchange lat/lon
+    //
+  
+    if (steep) {
+      long t = from[1];
+      from[1] = from[0];
+      from[0] = t;
+      
+      t = to[1];
+      to[1] = to[0];
+      to[0] = t;
     }
-    
-    List<Long> segmentLat = null;
-    List<Long> segmentLon = null;
-    
-    if (perSegmentResolution) {
-      segmentLat = new ArrayList<Long>();
-      segmentLon = new ArrayList<Long>();
+  
+    // If end point is on the right of the starting point, swap them
+  
+    if (from[1] > to[1]) {
+      long t = from[1];
+      from[1] = to[1];
+      to[1] = t;
       
-      // The following is not an error, it is just to have two elements in
-      // each array, the loop will shift them anyway.
-      segmentLat.add(lats.get(0));
-      segmentLat.add(lats.get(0));
-      segmentLon.add(lons.get(0));
-      segmentLon.add(lons.get(0));
+      t = from[0];
+      from[0] = to[0];
+      to[0] = t;        
     }
 
-    for (int i = 0; i <= Math.min(lats.size(), lons.size()) - 2; i++) {
-
-      if (perSegmentResolution) {
-        //
-        // Shift vertex
-        //
-        
-        segmentLat.remove(0);
-        segmentLon.remove(0);
-        
-        segmentLat.add(lats.get(i + 1));
-        segmentLon.add(lons.get(i+1));
-        
-        long[] bbox = getBoundingBox(segmentLat, segmentLon);
-        resolution = getOptimalPolylineResolution(bbox, resoffset);          
-      }
+    long deltalat = Math.abs(to[0] - from[0]);
+    long deltalon = to[1] - from[1];
+  
+    long error = deltalon >> 2; // was 1
 
-      from[0] = lats.get(i);
-      from[1] = lons.get(i);
-      to[0] = lats.get(i+1);
-      to[1] = lons.get(i+1);
-      
-      //
-      // Determine if line is steep, i.e. its delta in lat is > than its delta in lon
-      //
-    
-      boolean steep = Math.abs(to[0] - from[0]) > Math.abs(to[1] - from[1]);
-    
-      //
-      // If the line is steep, exchange lat/lon
-      //
+    long lat = from[0];
+  
+    long latstep = (from[0] < to[0]) ? offset : -offset;
+  
+    long lon = from[1];
+  
+    long prefixmask = 0xffffffffffffffffL ^ (offset - 1);
+  
+    while ((lon & prefixmask) <= to[1]) {
     
       if (steep) {
-        long t = from[1];
-        from[1] = from[0];
-        from[0] = t;
-        
-        t = to[1];
-        to[1] = to[0];
-        to[0] = t;
+        // We have swapped lat and lon, so swap them back
+        coverage.addCell(resolution, lon, lat, geocells, excludeGeoCells);
+      
+        // Add 8 cells around
+        /*
+        coverage.get(resolution).add(buildHHCode(lon + offset, lat,32));
+        coverage.get(resolution).add(buildHHCode(lon - offset, lat,32));
+        coverage.get(resolution).add(buildHHCode(lon, lat + offset,32));
+        coverage.get(resolution).add(buildHHCode(lon, lat - offset,32));
+        coverage.get(resolution).add(buildHHCode(lon + offset, lat + offset,32));
+        coverage.get(resolution).add(buildHHCode(lon + offset, lat - offset,32));
+        coverage.get(resolution).add(buildHHCode(lon - offset, lat + offset,32));
+        coverage.get(resolution).add(buildHHCode(lon - offset, lat - offset,32));
+         */
+      } else {
+        coverage.addCell(resolution, lat,lon, geocells, excludeGeoCells);
+
+      /*
+      coverage.get(resolution).add(buildHHCode(lat + offset, lon,32));
+      coverage.get(resolution).add(buildHHCode(lat - offset, lon,32));
+      coverage.get(resolution).add(buildHHCode(lat, lon + offset,32));
+      coverage.get(resolution).add(buildHHCode(lat, lon - offset,32));
+      coverage.get(resolution).add(buildHHCode(lat + offset, lon + offset,32));
+      coverage.get(resolution).add(buildHHCode(lat + offset, lon - offset,32));
+      coverage.get(resolution).add(buildHHCode(lat - offset, lon + offset,32));
+      coverage.get(resolution).add(buildHHCode(lat - offset, lon - offset,32));
+      */
       }
     
-      // If end point is on the right of the starting point, swap them
+      error = error - deltalat;
     
-      if (from[1] > to[1]) {
-        long t = from[1];
-        from[1] = to[1];
-        to[1] = t;
-        
-        t = from[0];
-        from[0] = to[0];
-        to[0] = t;        
+      if (error < 0) {
+        lat = lat + latstep;
+        error = error + deltalon;
       }
-
-      long deltalat = Math.abs(to[0] - from[0]);
-      long deltalon = to[1] - from[1];
-    
-      long error = deltalon >> 2; // was 1
-  
-      long lat = from[0];
-    
-      long latstep = (from[0] < to[0]) ? offset : -offset;
-    
-      long lon = from[1];
-    
-      long prefixmask = 0xffffffffffffffffL ^ (offset - 1);
     
-      while ((lon & prefixmask) <= to[1]) {
-      
-        if (steep) {
-          // We have swapped lat and lon, so swap them back
-          coverage.addCell(resolution, lon, lat, geocells, excludeGeoCells);
-        
-          // Add 8 cells around
-          /*
-          coverage.get(resolution).add(buildHHCode(lon + offset, lat,32));
-          coverage.get(resolution).add(buildHHCode(lon - offset, lat,32));
-          coverage.get(resolution).add(buildHHCode(lon, lat + offset,32));
-          coverage.get(resolution).add(buildHHCode(lon, lat - offset,32));
-          coverage.get(resolution).add(buildHHCode(lon + offset, lat + offset,32));
-          coverage.get(resolution).add(buildHHCode(lon + offset, lat - offset,32));
-          coverage.get(resolution).add(buildHHCode(lon - offset, lat + offset,32));
-          coverage.get(resolution).add(buildHHCode(lon - offset, lat - offset,32));
-           */
-        } else {
-          coverage.addCell(resolution, lat,lon, geocells, excludeGeoCells);
-
-        /*
-        coverage.get(resolution).add(buildHHCode(lat + offset, lon,32));
-        coverage.get(resolution).add(buildHHCode(lat - offset, lon,32));
-        coverage.get(resolution).add(buildHHCode(lat, lon + offset,32));
-        coverage.get(resolution).add(buildHHCode(lat, lon - offset,32));
-        coverage.get(resolution).add(buildHHCode(lat + offset, lon + offset,32));
-        coverage.get(resolution).add(buildHHCode(lat + offset, lon - offset,32));
-        coverage.get(resolution).add(buildHHCode(lat - offset, lon + offset,32));
-        coverage.get(resolution).add(buildHHCode(lat - offset, lon - offset,32));
-        */
-        }
-      
-        error = error - deltalat;
-      
-        if (error < 0) {
-          lat = lat + latstep;
-          error = error + deltalon;
-        }
-      
-        lon += offset;
-      }
+      lon += offset;
     }
   }
   
-  private static void coverPolylineBresenham(List<Long> lats, List<Long> lons, int resolution, boolean perSegmentResolution, Coverage coverage) {
-    coverPolylineBresenham(lats, lons, resolution, perSegmentResolution, coverage, null, false);
-  }
-  
   private static final void mergeCoverages(Map<Integer,List<Long>> a, Map<Integer,List<Long>> b) {
     //
     // For each resolution, add zones of b to those of a
@@ -2033,23 +1922,90 @@ public final class HHCodeHelper {
    */
   public static final List<Long> resamplePolyline(List<Long> nodes, int resolution) {
     
-    List<Long> resampled = new ArrayList<Long>();
+    long[] resampled = new long[nodes.size()];
+    
+    int i = 0;
+    
+    for (long node: nodes) {
+      resampled[i++] = node;
+    }
+    
+    int n = resamplePolyline(resampled, resampled.length, resolution, resampled);
+    
+    List<Long> result = new ArrayList<Long>(n);
     
-    long resolutionmask = (0xffffffffffffffffL ^ ((1L << (2 * (32 - resolution)) - 1)));
+    for (i = 0; i < n; i++) {
+      result.add(resampled[i]);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Resample a polyline given as HHCodes stored in an array.
+   * 
+   * @param nodes Nodes to resample
+   * @param n Number of nodes, only the first 'n' elements of 'nodes' are considered
+   * @param resolution Resolution to resample at
+   * @param resampled Array receiving the resampled nodes, at least 'n' long. It can be 'nodes' itself.
+   * @return The number of resampled nodes
+   */
+  public static final int resamplePolyline(long[] nodes, int n, int resolution, long[] resampled) {
+    long resolutionmask = (0xffffffffffffffffL ^ ((1L << (2 * (32 - resolution))) - 1));
     
     // Mask to OR with node to center it in the cell (only valid for resolutions < 32)
     long centermask = 32 == resolution ? 0L : 0xcL << (2 * (32 - 2 - resolution));
     long lastnode = 0L;
     
-    boolean first = true;
+    int count = 0;
     
-    for (long node: nodes) {
-      if (!first && (node & resolutionmask) == lastnode) {
+    for (int i = 0; i < n; i++) {
+      long node = nodes[i] & resolutionmask;
+      
+      if (count > 0 && node == lastnode) {
         continue;
       }
-      first = false;
-      resampled.add((node & resolutionmask) | centermask);
-      lastnode = node & resolutionmask;
+      
+      resampled[count++] = node | centermask;
+      lastnode = node;
+    }
+    
+    return count;
+  }
+
+  /**
+   * Resample a polyline given as lat/lon vertices, merging adjacent vertices that map
+   * to the same cell at the given resolution.
+   * 
+   * @param vertices Vertices to resample
+   * @param resolution Resolution to resample at
+   * @param resampled Buffer receiving the resampled vertices (it is cleared first). It can be 'vertices' itself.
+   * @return 'resampled'
+   */
+  public static final VertexBuffer resamplePolyline(VertexBuffer vertices, int resolution, VertexBuffer resampled) {
+    long resolutionmask = 0xffffffffL ^ ((1L << (32 - resolution)) - 1);
+    long centermask = 32 == resolution ? 0L : 1L << (32 - 1 - resolution);
+    
+    long lastlat = 0L;
+    long lastlon = 0L;
+    
+    int n = vertices.size();
+    long[] lats = vertices.lats();
+    long[] lons = vertices.lons();
+    
+    resampled.clear();
+    
+    for (int i = 0; i < n; i++) {
+      long lat = lats[i] & resolutionmask;
+      long lon = lons[i] & resolutionmask;
+      
+      if (resampled.size() > 0 && lat == lastlat && lon == lastlon) {
+        continue;
+      }
+      
+      resampled.add(lat | centermask, lon | centermask);
+      lastlat = lat;
+      lastlon = lon;
     }
     
     return resampled;
@@ -2226,11 +2182,8 @@ public final class HHCodeHelper {
    * @return The squared distance in meters between the two points.
    */
   public static double getSquaredDistance(long from, long to, long[] scales) {
-    long[] f = HHCodeHelper.splitHHCode(from);
-    long[] t = HHCodeHelper.splitHHCode(to);
-    
-    double deltaLat = Math.abs(((double) (f[0] - t[0])) / scales[0]);
-    double deltaLon = Math.abs(((double) (f[1] - t[1])) / scales[1]);
+    double deltaLat = Math.abs(((double) (splitLat(from) - splitLat(to))) / scales[0]);
+    double deltaLon = Math.abs(((double) (splitLon(from) - splitLon(to))) / scales[1]);
     
     return deltaLat*deltaLat + deltaLon*deltaLon;
   }
@@ -2382,8 +2335,13 @@ public final class HHCodeHelper {
     // average latitude and using cartesian geometry, not trigonometric.
     //
         
-    double ftlen = Math.sqrt(Math.pow(ftvector[0] / latUnitsPerMeter, 2.0) + Math.pow(ftvector[1] / scales[1], 2.0));
-    double oftlen = Math.sqrt(Math.pow(oftvector[0] / latUnitsPerMeter, 2.0) + Math.pow(oftvector[1] / scales[1], 2.0));
+    double ftlat = ftvector[0] / latUnitsPerMeter;
+    double ftlon = ftvector[1] / scales[1];
+    double oftlat = oftvector[0] / latUnitsPerMeter;
+    double oftlon = oftvector[1] / scales[1];
+    
+    double ftlen = Math.sqrt(ftlat * ftlat + ftlon * ftlon);
+    double oftlen = Math.sqrt(oftlat * oftlat + oftlon * oftlon);
 
     List<Long> verticesLat = new ArrayList<Long>(4);
     List<Long> verticesLon = new ArrayList<Long>(4);
@@ -2437,6 +2395,80 @@ public final class HHCodeHelper {
     return coverSegment(fromLat, fromLon, toLat, toLon, distance, resolution, coverage, null, false);
   }
 
+  /**
+   * Cover the locations within a great circle distance of a center.
+   * 
+   * Cells are classified against the circle on the sphere (@see CircleCellClassifier), cells fully
+   * inside the circle are emitted at the coarsest resolution possible and only the cells crossing
+   * the circle are refined down to 'resolution'.
+   * 
+   * @param lat Latitude of the center (in long HHCode coordinates)
+   * @param lon Longitude of the center (in long HHCode coordinates)
+   * @param radius Radius in meters
+   * @param resolution Finest resolution. If resolution is <= 0, compute it from the bbox of the circle then substract 'resolution'
+   * @param coverage Coverage to add the cells to
+   * @param geocells optional array of Geocells to intersect / exclude, cells are then all emitted at 'resolution'
+   * @param excludeGeoCells if true, exclude 'geocells', otherwise intersect.
+   */
+  public static Coverage coverCircle(long lat, long lon, double radius, int resolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    radius = Math.abs(radius);
+    
+    if (0 >= resolution) {
+      double scale = Math.max(Math.cos(Math.toRadians(toLat(lat))), 1.0E-6D);
+      
+      long latradius = Math.round(radius * latUnitsPerMeter);
+      long lonradius = Math.round(Math.min(radius * lonUnitsPerMeter / scale, (double) (1L << 31)));
+      
+      long[] bbox = new long[] { lat - latradius, lon - lonradius, lat + latradius, lon + lonradius };
+      
+      resolution = getOptimalPolygonResolution(bbox, resolution);
+    }
+    
+    resolution = Math.max(2, Math.min(MAX_RESOLUTION, resolution));
+    
+    //
+    // Coverage.addCell keeps or drops each cell as a whole depending on the geocells filter,
+    // which misses filter cells finer than the added cell, so when a filter is given the
+    // circle is only covered with cells at 'resolution', as PolygonRasterizer does
+    //
+    
+    int minresolution = null == geocells ? 2 : resolution;
+    
+    Coverage cells = JTSHelper.coverCells(new CircleCellClassifier(lat, lon, radius), minresolution, resolution, false, Integer.MAX_VALUE, null);
+    
+    for (int r = 2; r <= MAX_RESOLUTION; r += 2) {
+      for (long hhcode: cells.getCellArray(r)) {
+        coverage.addCell(r, hhcode, geocells, excludeGeoCells);
+      }
+    }
+    
+    return coverage;
+  }
+  
+  public static Coverage coverCircle(long lat, long lon, double radius, int resolution, Coverage coverage) {
+    return coverCircle(lat, lon, radius, resolution, coverage, null, false);
+  }
+  
+  /**
+   * Cover the corridor of width 2 * 'distance' along a polyline in a single pass.
+   * Unlike calling coverSegment for each segment, cells are emitted once and the
+   * inner parts of the corridor are covered by coarser cells.
+   * 
+   * @param vertices Vertices of the polyline
+   * @param distance Half width of the corridor in meters
+   * @param resolution The resolution at which to do the covering. If resolution is <= 0, compute it from the corridor width then substract 'resolution'
+   * @param join CorridorCoverer.JOIN_ROUND or CorridorCoverer.JOIN_MITRE
+   * 
+   * @see CorridorCoverer
+   */
+  public static Coverage coverCorridor(VertexBuffer vertices, double distance, int resolution, int join, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    return CorridorCoverer.cover(vertices.lats(), vertices.lons(), vertices.size(), distance, resolution, join, coverage, geocells, excludeGeoCells);
+  }
+
+  public static Coverage coverCorridor(VertexBuffer vertices, double distance, int resolution, int join, Coverage coverage) {
+    return coverCorridor(vertices, distance, resolution, join, coverage, null, false);
+  }
+
   /**
    * Compute loxodromic (rhumb line) distance in meters between two locations.
    */
@@ -2445,18 +2477,18 @@ public final class HHCodeHelper {
     // Split HHCodes
     //
     
-    long[] f = splitHHCode(from, MAX_RESOLUTION);
-    long[] t = splitHHCode(to, MAX_RESOLUTION);
+    long flat = splitLat(from);
+    long tlat = splitLat(to);
     
     //
     // Compute average scale
     //
     
-    double scale = getLatScale((f[0] + t[0]) / 2);
+    double scale = getLatScale((flat + tlat) / 2);
         
-    double deltaLat = ((double) (f[0] - t[0])) * metersPerLatUnit;
+    double deltaLat = ((double) (flat - tlat)) * metersPerLatUnit;
     
-    long dlon = Math.abs(f[1] - t[1]);
+    long dlon = Math.abs(splitLon(from) - splitLon(to));
     // Consider the shortest delta in longitude
     if (dlon > 0x7FFFFFFFL) {
       dlon = 0xFFFFFFFFL - dlon;
@@ -2470,10 +2502,7 @@ public final class HHCodeHelper {
    * Compute orthodromic (great circle) distance in meters between two locations.
    */
   public static double orthodromicDistance(long from, long to) {
-    long[] fromcoords = splitHHCode(from, MAX_RESOLUTION);
-    long[] tocoords = splitHHCode(to, MAX_RESOLUTION);
-    
-    return orthodromicDistance(fromcoords[0], fromcoords[1], tocoords[0], tocoords[1]);
+    return orthodromicDistance(splitLat(from), splitLon(from), splitLat(to), splitLon(to));
   }
   
   /**
@@ -2491,12 +2520,25 @@ public final class HHCodeHelper {
     double tlon = toLon * RADIANS_PER_LON_UNIT - Math.PI;
     
     // Compute great circle distance in radians
-    double d = 2.0D * Math.asin(Math.sqrt(Math.pow(Math.sin((flat-tlat)/2.0D), 2.0D) + Math.cos(flat)*Math.cos(tlat)*Math.pow(Math.sin((flon-tlon)/2.0D),2.0D)));
+    double d = greatCircleAngle(flat, flon, tlat, tlon);
     
     // Return result in meters
     return d * (180.0D / Math.PI) * (1852.0D * 60.0D);
   }
   
+  /**
+   * Compute the great circle distance in radians between two locations given in radians
+   * (haversine formula).
+   * 
+   * @see DistanceHelper for batch computations
+   */
+  private static double greatCircleAngle(double flat, double flon, double tlat, double tlon) {
+    double slat = Math.sin((flat - tlat) / 2.0D);
+    double slon = Math.sin((flon - tlon) / 2.0D);
+    
+    return 2.0D * Math.asin(Math.sqrt(slat * slat + Math.cos(flat) * Math.cos(tlat) * slon * slon));
+  }
+  
   /**
    * Return intermediate point on the great circle from 'from' to 'to'
    * 
@@ -2574,7 +2616,7 @@ public final class HHCodeHelper {
     double tlat = toLat * RADIANS_PER_LAT_UNIT - Math.PI  / 2.0D;
     double tlon = toLon * RADIANS_PER_LON_UNIT - Math.PI;
     
-    double d = 2.0D * Math.asin(Math.sqrt(Math.pow(Math.sin((flat-tlat)/2.0D), 2.0D) + Math.cos(flat)*Math.cos(tlat)*Math.pow(Math.sin((flon-tlon)/2.0D),2.0D)));
+    double d = greatCircleAngle(flat, flon, tlat, tlon);
     
     //System.out.println("OFFSET=" + lonoffset + " " + Math.toDegrees(flat) + "," + Math.toDegrees(flon) + "  " + Math.toDegrees(tlat) + "," + Math.toDegrees(tlon));
     //System.out.println("D=" + d);
@@ -2661,24 +2703,28 @@ public final class HHCodeHelper {
    * @return
    */
   public static List<Long> orthodromize(long fromLat, long fromLon, long toLat, long toLon, double delta) {
+    VertexBuffer vertices = orthodromize(fromLat, fromLon, toLat, toLon, delta, new VertexBuffer());
     
-    //
-    // Create a list that will hold the orthodromized segment
-    //
+    List<Long> result = new ArrayList<Long>(vertices.size() * 2);
     
-    List<Long> result = new ArrayList<Long>();
-
-    result.add(fromLat);
-    result.add(fromLon);
-    result.add(toLat);
-    result.add(toLon);
-
-    long[] coords = new long[4];
+    for (int i = 0; i < vertices.size(); i++) {
+      result.add(vertices.getLat(i));
+      result.add(vertices.getLon(i));
+    }
     
-    coords[0] = fromLat;
-    coords[1] = fromLon;
-    coords[2] = toLat;
-    coords[3] = toLon;
+    return result;
+  }
+  
+  /**
+   * Orthodromize a segment, appending its vertices (both endpoints included) to 'result'.
+   * 
+   * @see #orthodromize(long, long, long, long, double)
+   * 
+   * @return 'result'
+   */
+  public static VertexBuffer orthodromize(long fromLat, long fromLon, long toLat, long toLon, double delta, VertexBuffer result) {
+    
+    result.add(fromLat, fromLon);
     
     //
     // Don't orthodromize if any lat is not in [-90,90]
@@ -2686,46 +2732,44 @@ public final class HHCodeHelper {
     
     if ((fromLat < 0 || fromLat > (1L << 32))
         || (toLat < 0 || toLat > (1L << 32))) {
+      result.add(toLat, toLon);
       return result; 
     }
     
-    int i = 0;
-    
     //
-    // Iterate over the result list.
+    // Endpoints of the segments still to process, the next one on top.
+    // The current segment goes from the last vertex of 'result' to the top of the stack.
     //
     
-    while (i < result.size() - 2) {
+    VertexBuffer pending = new VertexBuffer();
+    pending.add(toLat, toLon);
+    
+    while (pending.size() > 0) {
+      int top = pending.size() - 1;
+      
+      long lat0 = result.getLat(result.size() - 1);
+      long lon0 = result.getLon(result.size() - 1);
+      long lat1 = pending.getLat(top);
+      long lon1 = pending.getLon(top);
+      
       //
       // If lon span is more than 180 degrees then proceed
       // with splitting the segment by inserting a point
       //
       
-      long dlon = Math.abs(result.get(i + 1) - result.get(i + 3));
+      long dlon = Math.abs(lon0 - lon1);
       
       if (dlon > ((1L << 31) -1)) {
         //
-        // Insert an intermediate point at 179.9999 degrees of lon
-        // and orthodromize both
-        //
-        
-        double ratio = ((1L << 31) - 100) / (1L << 31);
-        long interLat = (long)(result.get(i) * (1.0D - ratio) + ratio * result.get(i + 2));
-        long interLon = (long)(result.get(i + 1) * (1.0D - ratio) + ratio * result.get(i + 3));
-        
-        //
-        // Add intermediate point
+        // Insert an intermediate point so the first part spans just under 180 degrees
+        // of lon and orthodromize both
         //
         
-        result.add(i + 2, interLon);
-        result.add(i + 2, interLat);
+        double ratio = ((1L << 31) - 100) / (double) dlon;
+        long interLat = (long)(lat0 * (1.0D - ratio) + ratio * lat1);
+        long interLon = (long)(lon0 * (1.0D - ratio) + ratio * lon1);
         
-        //
-        // Continue iteration without shifting current point
-        //
-
-        //System.out.println("SPLIT " + i + ":" + result.size() + " ::= " + result.get(i) + "," + result.get(i + 1) + " >>> " + result.get(i + 2) + "," + result.get(i + 3) + " >>> " + result.get(i + 4) + "," + result.get(i + 5));
-
+        pending.add(interLat, interLon);
         continue;
       }
       
@@ -2738,12 +2782,12 @@ public final class HHCodeHelper {
       // @see http://williams.best.vwh.net/avform.htm#Dist
       //
       
-      double flat = result.get(i) * RADIANS_PER_LAT_UNIT - Math.PI / 2.0D;
-      double flon = result.get(i + 1) * RADIANS_PER_LON_UNIT - Math.PI;
-      double tlat = result.get(i + 2) * RADIANS_PER_LAT_UNIT - Math.PI  / 2.0D;
-      double tlon = result.get(i + 3) * RADIANS_PER_LON_UNIT - Math.PI;
+      double flat = lat0 * RADIANS_PER_LAT_UNIT - Math.PI / 2.0D;
+      double flon = lon0 * RADIANS_PER_LON_UNIT - Math.PI;
+      double tlat = lat1 * RADIANS_PER_LAT_UNIT - Math.PI  / 2.0D;
+      double tlon = lon1 * RADIANS_PER_LON_UNIT - Math.PI;
       
-      double gcd = 2.0D * Math.asin(Math.sqrt(Math.pow(Math.sin((flat-tlat)/2.0D), 2.0D) + Math.cos(flat)*Math.cos(tlat)*Math.pow(Math.sin((flon-tlon)/2.0D),2.0D)));
+      double gcd = greatCircleAngle(flat, flon, tlat, tlon);
 
       //
       // Compute rhumb line distance
@@ -2760,15 +2804,13 @@ public final class HHCodeHelper {
       double rld= Math.sqrt((tlat-flat)*(tlat-flat) + (q*q)*(tlon-flon)*(tlon-flon));
       
       //
-      // If the rhumb line distance is less than delta * orthodromic distance do nothing
-      // to the current segment
+      // If the rhumb line distance is less than delta * orthodromic distance (or the
+      // segment is degenerate) do nothing to the current segment
       //
       
-      double ratio = rld / gcd;
-      
-      if (ratio < delta) {
-        //System.out.println("RATIO = " + ratio + " -> OK");
-        i += 2;
+      if (0.0D == gcd || rld / gcd < delta) {
+        result.add(lat1, lon1);
+        pending.truncate(top);
         continue;
       }
       
@@ -2776,16 +2818,9 @@ public final class HHCodeHelper {
       // Insert the midpoint on the orthodromy
       //
       
-      long[] midpoint = gcIntermediate(result.get(i), result.get(i + 1), result.get(i + 2), result.get(i + 3), 0.5D);
-
-      result.add(i + 2, midpoint[1]);
-      result.add(i + 2, midpoint[0]);
+      long[] midpoint = gcIntermediate(lat0, lon0, lat1, lon1, 0.5D);
 
-      //System.out.println(i + ":" + result.size() + " ::= " + result.get(i) + "," + result.get(i + 1) + " >>> " + result.get(i + 2) + "," + result.get(i + 3) + " >>> " + result.get(i + 4) + "," + result.get(i + 5));
-      
-      //
-      // Continue iterating
-      //
+      pending.add(midpoint[0], midpoint[1]);
     }
     
     return result;
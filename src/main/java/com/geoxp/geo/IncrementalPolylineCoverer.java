@@ -0,0 +1,166 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Append only coverage of a polyline, typically a live track growing one fix at a time.
+ *
+ * The coverer keeps the last node and the coverage built so far, each appended fix
+ * only covers the segment from the previous node, so the cost of an append is
+ * proportional to the number of cells of that segment instead of to the whole track,
+ * and the cells which were not yet in the coverage are reported.
+ *
+ * Cells are all at a fixed resolution as the extent of the track is not known in
+ * advance. Segments are covered like HHCodeHelper.coverPolyline does, using coverLine
+ * or Bresenham's algorithm.
+ *
+ * Instances are not thread safe.
+ */
+public class IncrementalPolylineCoverer {
+
+  private final int resolution;
+  private final boolean useBresenham;
+
+  /**
+   * Coverage of the track, MUST not be auto optimized as new cells are detected by
+   * looking them up at 'resolution'
+   */
+  private final Coverage coverage;
+
+  private final long[] geocells;
+  private final boolean excludeGeoCells;
+
+  /**
+   * Cells of the last segment
+   */
+  private final Coverage segment = new Coverage();
+
+  private long lastLat;
+  private long lastLon;
+  private long nodes = 0L;
+
+  public IncrementalPolylineCoverer(int resolution, boolean useBresenham) {
+    this(resolution, useBresenham, new Coverage(), null, false);
+  }
+
+  /**
+   * @param resolution Resolution of the cells (even, 2 to 32)
+   * @param useBresenham Cover segments using Bresenham's algorithm instead of coverLine
+   * @param coverage Coverage to extend, it can already contain cells
+   * @param geocells optional array of Geocells to intersect / exclude
+   * @param excludeGeoCells if true, exclude 'geocells', otherwise intersect.
+   */
+  public IncrementalPolylineCoverer(int resolution, boolean useBresenham, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    if (resolution < 2 || resolution > 32 || 0 != (resolution & 1)) {
+      throw new RuntimeException("Invalid resolution, MUST be even and between 2 and 32, both inclusive.");
+    }
+
+    this.resolution = resolution;
+    this.useBresenham = useBresenham;
+    this.coverage = coverage;
+    this.geocells = geocells;
+    this.excludeGeoCells = excludeGeoCells;
+  }
+
+  /**
+   * Append a node to the polyline.
+   *
+   * @param lat Latitude of the node (in long HHCode coordinates)
+   * @param lon Longitude of the node (in long HHCode coordinates)
+   * @param added If not null, the HHCodes of the cells added to the coverage are appended to it
+   * @return The number of cells added to the coverage
+   */
+  public int append(long lat, long lon, TLongArrayList added) {
+    segment.clear();
+
+    if (0L == nodes) {
+      segment.addCell(resolution, lat, lon, geocells, excludeGeoCells);
+    } else if (lat != lastLat || lon != lastLon) {
+      if (useBresenham) {
+        HHCodeHelper.coverSegmentBresenham(lastLat, lastLon, lat, lon, resolution, segment, geocells, excludeGeoCells);
+      } else {
+        HHCodeHelper.coverLine(lastLat, lastLon, lat, lon, segment, resolution, geocells, excludeGeoCells);
+      }
+    }
+
+    lastLat = lat;
+    lastLon = lon;
+    nodes++;
+
+    int count = 0;
+
+    for (long cell: segment.getCellArray(resolution)) {
+      if (!coverage.contains(resolution, cell)) {
+        coverage.addCell(resolution, cell);
+        count++;
+
+        if (null != added) {
+          added.add(cell);
+        }
+      }
+    }
+
+    return count;
+  }
+
+  public int append(long lat, long lon) {
+    return append(lat, lon, null);
+  }
+
+  /**
+   * Append a node given as a HHCode
+   *
+   * @see #append(long, long, TLongArrayList)
+   */
+  public int append(long hhcode, TLongArrayList added) {
+    long[] coords = HHCodeHelper.splitHHCode(hhcode, HHCodeHelper.MAX_RESOLUTION);
+    return append(coords[0], coords[1], added);
+  }
+
+  /**
+   * Return the coverage of the nodes appended so far
+   */
+  public Coverage getCoverage() {
+    return coverage;
+  }
+
+  public int getResolution() {
+    return resolution;
+  }
+
+  /**
+   * Return the number of nodes appended so far
+   */
+  public long getNodeCount() {
+    return nodes;
+  }
+
+  public long getLastLat() {
+    return lastLat;
+  }
+
+  public long getLastLon() {
+    return lastLon;
+  }
+}
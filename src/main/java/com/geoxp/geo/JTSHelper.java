@@ -20,12 +20,18 @@
 
 package com.geoxp.geo;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gnu.trove.list.array.TLongArrayList;
+
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LinearRing;
-import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.operation.predicate.RectangleIntersects;
 
 public class JTSHelper {
   
@@ -106,9 +112,7 @@ public class JTSHelper {
     
     Coverage c = new Coverage();
     
-    LinearRing[] empty = new LinearRing[0];
-    
-    GeometryFactory factory = new GeometryFactory();
+    CellClassifier classifier = new EdgeCellClassifier(geometry);
     
     int cellcount = 0;
     int ngeocells = idx;
@@ -117,7 +121,7 @@ public class JTSHelper {
     //while (0 != geocells.size() && cellcount < maxcells) {
     while (0 != ngeocells && cellcount < maxcells) {
       //
-      // Create the rectangle of the first geocell
+      // Classify the first geocell
       //
 
       //long geocell = geocells.removeAt(0);
@@ -126,15 +130,13 @@ public class JTSHelper {
 
       int cellres = ((int) (((geocell & 0xf000000000000000L) >> 60) & 0xf)) << 1;
 
-      //ystem.out.println(maxresolution + " >>> " + cellres + " >>> count=" + cellcount + " >>> " + ngeocells);
-      //Polygon cellgeo = new Polygon(JTSHelper.hhcodeToLinearRing(geocell << 4, cellres), empty, factoryCache.get());
-      Polygon cellgeo = new Polygon(JTSHelper.hhcodeToLinearRing(geocell << 4, cellres), empty, factory);
+      int location = classifier.classify(geocell << 4, cellres);
 
       //
       // If the current cell does not intersect 'geometry', ignore the cell and continue
       //
       
-      if (!RectangleIntersects.intersects(cellgeo, geometry)) {
+      if (CellClassifier.DISJOINT == location) {
         continue;
       }
       
@@ -153,7 +155,7 @@ public class JTSHelper {
       // If the cell is fully contained in 'geometry', add it to the coverage
       //
       
-      if (geometry.covers(cellgeo) && cellres >= minresolution) {
+      if (CellClassifier.CONTAINED == location && cellres >= minresolution) {
         if (maxresolution < 0) {
           maxresolution = cellres - maxresolution;
         }
@@ -180,8 +182,8 @@ public class JTSHelper {
         long[] subcells = HHCodeHelper.getSubGeoCells(geocell);
         
         for (long hhcode: subcells) {
-          LinearRing lr = JTSHelper.hhcodeToLinearRing(hhcode, HHCodeHelper.MAX_RESOLUTION);
-          if (geometry.intersects(lr) && !containedOnly || geometry.covers(lr)) {
+          int sublocation = classifier.classify(hhcode, HHCodeHelper.MAX_RESOLUTION);
+          if (CellClassifier.INTERSECTS == sublocation && !containedOnly || CellClassifier.CONTAINED == sublocation) {
             c.addCell(HHCodeHelper.MAX_RESOLUTION, hhcode);
             cellcount++;
           }
@@ -221,4 +223,414 @@ public class JTSHelper {
   public static Coverage coverGeometry(Geometry geometry, int minresolution, int maxresolution, boolean containedOnly) {
     return coverGeometry(geometry, minresolution, maxresolution, containedOnly, Integer.MAX_VALUE);
   }
+  
+  /**
+   * Number of tasks queued by a worker above which cells are no longer split into new tasks
+   */
+  private static final int MAX_SURPLUS_TASKS = 3;
+  
+  /**
+   * Cover a geometry using the cells of its 16 resolution 2 subtrees, splitting the work across a ForkJoinPool.
+   * 
+   * The geometry is prepared once in an EdgeCellClassifier instead of being tested against a new
+   * Polygon for each cell.
+   * 
+   * @param geometry Geometry to cover
+   * @param minresolution Coarsest resolution to use for coverage
+   * @param maxresolution Finest resolution to use for coverage, if negative, will be the coarsest resolution encountered + maxresolution,
+   *                      this mode depends on the order in which cells are visited and is delegated to the sequential version.
+   * @param containedOnly Only consider finest resolution cells which are fully contained, useful when subtracting a coverage.
+   * @param maxcells Maximum number of cells in the coverage. If the coverage needs more cells, return null.
+   * @param pool ForkJoinPool to use, or null to compute the coverage in the calling thread
+   * @return The computed coverage or null if the coverage needs more than maxcells cells.
+   */
+  public static Coverage coverGeometry(Geometry geometry, int minresolution, int maxresolution, boolean containedOnly, int maxcells, ForkJoinPool pool) {
+    if (maxresolution < 0) {
+      return coverGeometry(geometry, minresolution, maxresolution, containedOnly, maxcells);
+    }
+    
+    return coverCells(new EdgeCellClassifier(geometry), minresolution, maxresolution, containedOnly, maxcells, pool);
+  }
+  
+  /**
+   * Cover the area described by a CellClassifier, splitting the work across a ForkJoinPool.
+   * 
+   * Cells are subdivided down to 'maxresolution' when they intersect the area. Cells contained in the area are
+   * added as soon as they are at 'minresolution' or finer. Cells at 'maxresolution' which intersect the area are
+   * added unless 'containedOnly' is true.
+   * 
+   * @param classifier Classifier describing the area to cover
+   * @param minresolution Coarsest resolution to use for coverage
+   * @param maxresolution Finest resolution to use for coverage
+   * @param containedOnly Only consider finest resolution cells which are fully contained
+   * @param maxcells Maximum number of cells in the coverage. If the coverage needs more cells, return null.
+   * @param pool ForkJoinPool to use, or null to compute the coverage in the calling thread
+   * @return The computed coverage or null if the coverage needs more than maxcells cells.
+   */
+  public static Coverage coverCells(CellClassifier classifier, int minresolution, int maxresolution, boolean containedOnly, int maxcells, ForkJoinPool pool) {
+    if (maxresolution < 2 || maxresolution > 32) {
+      throw new RuntimeException("Invalid maximum resolution.");
+    }
+    
+    CoverContext context = new CoverContext(classifier, minresolution, maxresolution, containedOnly, maxcells, null != pool);
+    CoverTask task = new CoverTask(context, level2GeoCells);
+    
+    if (null == pool) {
+      task.compute();
+    } else {
+      pool.invoke(task);
+    }
+    
+    if (context.cellcount.get() > maxcells) {
+      return null;
+    }
+    
+    return task.coverage;
+  }
+  
+  /**
+   * Cover a geometry with at most 'maxcells' cells, refining its boundary top down.
+   *
+   * @see #coverCellsAdaptive(CellClassifier, int, boolean, int, ForkJoinPool)
+   */
+  public static Coverage coverGeometryAdaptive(Geometry geometry, int maxresolution, boolean containedOnly, int maxcells) {
+    return coverCellsAdaptive(new EdgeCellClassifier(geometry), maxresolution, containedOnly, maxcells, null);
+  }
+
+  /**
+   * Cover a geometry with at most 'maxcells' cells, refining its boundary top down and classifying
+   * the cells of each resolution across a ForkJoinPool.
+   *
+   * @see #coverCellsAdaptive(CellClassifier, int, boolean, int, ForkJoinPool)
+   */
+  public static Coverage coverGeometryAdaptive(Geometry geometry, int maxresolution, boolean containedOnly, int maxcells, ForkJoinPool pool) {
+    return coverCellsAdaptive(new EdgeCellClassifier(geometry), maxresolution, containedOnly, maxcells, pool);
+  }
+
+  public static Coverage coverCellsAdaptive(CellClassifier classifier, int maxresolution, boolean containedOnly, int maxcells) {
+    return coverCellsAdaptive(classifier, maxresolution, containedOnly, maxcells, null);
+  }
+
+  /**
+   * Cover the area described by a CellClassifier with a budget of cells, in a single top down pass.
+   *
+   * Cells are visited one resolution at a time, coarsest first. Cells contained in the area are added as is,
+   * only cells on the boundary of the area are subdivided. Subdivision stops when the boundary cells reach
+   * 'maxresolution', which bounds the error, or when subdividing the next boundary cell would bring the number
+   * of cells of the coverage above 'maxcells'. The remaining boundary cells are then added as is, or dropped if
+   * 'containedOnly' is true. Cells whose 16 subcells would all be added are added instead of their subcells, so the
+   * coverage needs no further optimization.
+   *
+   * Unlike coverCells(CellClassifier, int, int, boolean, int, ForkJoinPool), the error of the coverage depends on
+   * the budget instead of the coverage failing when the budget is exceeded. The only exception is when 'containedOnly'
+   * is false and the area touches more than 'maxcells' resolution 2 cells, which cannot be merged into coarser cells.
+   *
+   * When a pool is given, the subcells of the boundary cells of each resolution are classified across it before
+   * the budget is applied, so the coverage is the same as without a pool.
+   *
+   * @param classifier Classifier describing the area to cover, it must be thread safe if a pool is given
+   * @param maxresolution Finest resolution to use for coverage
+   * @param containedOnly Only consider cells which are fully contained
+   * @param maxcells Maximum number of cells in the coverage
+   * @param pool ForkJoinPool to use, or null to compute the coverage in the calling thread
+   * @return The computed coverage, or null if the resolution 2 cells touching the area exceed 'maxcells' and 'containedOnly' is false
+   */
+  public static Coverage coverCellsAdaptive(CellClassifier classifier, int maxresolution, boolean containedOnly, int maxcells, ForkJoinPool pool) {
+    if (maxresolution < 2 || maxresolution > 32) {
+      throw new RuntimeException("Invalid maximum resolution.");
+    }
+
+    Coverage c = new Coverage();
+
+    // Number of cells added to 'c'
+    int count = 0;
+
+    //
+    // Boundary cells of the current resolution, as HHCodes, start with the 16 cells at resolution 2
+    //
+
+    TLongArrayList boundary = new TLongArrayList();
+
+    for (long geocell: level2GeoCells) {
+      long hhcode = geocell << 4;
+      int location = classifier.classify(hhcode, 2);
+
+      if (CellClassifier.CONTAINED == location || (CellClassifier.INTERSECTS == location && 2 == maxresolution && !containedOnly)) {
+        // Contained cells beyond the budget are dropped when the coverage only needs to be inside the area
+        if (!containedOnly || count < maxcells) {
+          c.addCell(2, hhcode);
+          count++;
+        }
+      } else if (CellClassifier.INTERSECTS == location && 2 < maxresolution) {
+        boundary.add(hhcode);
+      }
+    }
+
+    //
+    // Resolution 2 cells cannot be merged, if they exceed the budget the area cannot be covered
+    //
+
+    if (!containedOnly && count + boundary.size() > maxcells) {
+      return null;
+    }
+
+    TLongArrayList next = new TLongArrayList();
+    long[] children = new long[16];
+    int[] locations = new int[16];
+
+    boolean exhausted = false;
+
+    for (int res = 2; res < maxresolution && !boundary.isEmpty(); res += 2) {
+      int subres = res + 2;
+      int shift = 60 - 2 * res;
+
+      next.resetQuick();
+
+      int[] classified = null;
+
+      if (null != pool && boundary.size() >= CLASSIFY_TASK_CELLS) {
+        classified = new int[16 * boundary.size()];
+        pool.invoke(new ClassifyTask(classifier, boundary.toArray(), 0, boundary.size(), shift, subres, classified));
+      }
+
+      for (int i = 0; i < boundary.size(); i++) {
+        long hhcode = boundary.get(i);
+
+        if (exhausted) {
+          if (!containedOnly) {
+            c.addCell(res, hhcode);
+            count++;
+          }
+          continue;
+        }
+
+        //
+        // Classify the subcells, those on the boundary at 'maxresolution' are final
+        //
+
+        int kept = 0;
+        int contained = 0;
+        int finals = 0;
+
+        for (int sub = 0; sub < 16; sub++) {
+          long subhhcode = hhcode | (((long) sub) << shift);
+          int location = null != classified ? classified[16 * i + sub] : classifier.classify(subhhcode, subres);
+
+          if (CellClassifier.DISJOINT == location) {
+            continue;
+          }
+
+          children[kept] = subhhcode;
+          locations[kept++] = location;
+
+          if (CellClassifier.CONTAINED == location) {
+            contained++;
+            finals++;
+          } else if (subres == maxresolution && !containedOnly) {
+            finals++;
+          }
+        }
+
+        if (16 == finals) {
+          // When covering, the cell is already accounted for as a pending boundary cell
+          if (containedOnly && count >= maxcells) {
+            exhausted = true;
+            continue;
+          }
+
+          c.addCell(res, hhcode);
+          count++;
+          continue;
+        }
+
+        //
+        // Number of cells of the coverage once this cell is subdivided, the pending boundary cells
+        // count unless they are to be dropped
+        //
+
+        int subdivided = containedOnly ? count + contained : count + (boundary.size() - i) + next.size() - 1 + kept;
+
+        if (subdivided > maxcells) {
+          exhausted = true;
+          i--;
+          continue;
+        }
+
+        for (int k = 0; k < kept; k++) {
+          if (CellClassifier.CONTAINED == locations[k] || (subres == maxresolution && !containedOnly)) {
+            c.addCell(subres, children[k]);
+            count++;
+          } else if (subres < maxresolution) {
+            next.add(children[k]);
+          }
+        }
+      }
+
+      TLongArrayList tmp = boundary;
+      boundary = next;
+      next = tmp;
+    }
+
+    return c;
+  }
+
+  /**
+   * Number of boundary cells below which the subcells are classified in a single task
+   */
+  private static final int CLASSIFY_TASK_CELLS = 64;
+
+  /**
+   * Classify the 16 subcells of a range of boundary cells, splitting the range in halves
+   */
+  private static final class ClassifyTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final CellClassifier classifier;
+    private final long[] hhcodes;
+    private final int from;
+    private final int to;
+    private final int shift;
+    private final int subres;
+    private final int[] locations;
+
+    ClassifyTask(CellClassifier classifier, long[] hhcodes, int from, int to, int shift, int subres, int[] locations) {
+      this.classifier = classifier;
+      this.hhcodes = hhcodes;
+      this.from = from;
+      this.to = to;
+      this.shift = shift;
+      this.subres = subres;
+      this.locations = locations;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > CLASSIFY_TASK_CELLS) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new ClassifyTask(classifier, hhcodes, from, mid, shift, subres, locations), new ClassifyTask(classifier, hhcodes, mid, to, shift, subres, locations));
+        return;
+      }
+
+      for (int i = from; i < to; i++) {
+        for (int sub = 0; sub < 16; sub++) {
+          locations[16 * i + sub] = classifier.classify(hhcodes[i] | (((long) sub) << shift), subres);
+        }
+      }
+    }
+  }
+
+  private static final class CoverContext {
+    final CellClassifier classifier;
+    final int minresolution;
+    final int maxresolution;
+    final boolean containedOnly;
+    final int maxcells;
+    final boolean parallel;
+    
+    /**
+     * Number of cells added so far by all tasks
+     */
+    final AtomicInteger cellcount = new AtomicInteger();
+    
+    CoverContext(CellClassifier classifier, int minresolution, int maxresolution, boolean containedOnly, int maxcells, boolean parallel) {
+      this.classifier = classifier;
+      this.minresolution = minresolution;
+      this.maxresolution = maxresolution;
+      this.containedOnly = containedOnly;
+      this.maxcells = maxcells;
+      this.parallel = parallel;
+    }
+  }
+  
+  /**
+   * Cover a set of geocells depth first. Subtrees are handed to new tasks while the
+   * worker has few queued tasks, so idle workers can steal them.
+   */
+  private static final class CoverTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    private final CoverContext context;
+    private final long[] geocells;
+    
+    private final Coverage coverage = new Coverage();
+    private final List<CoverTask> forked = new ArrayList<CoverTask>();
+    
+    CoverTask(CoverContext context, long[] geocells) {
+      this.context = context;
+      this.geocells = geocells;
+    }
+    
+    @Override
+    protected void compute() {
+      for (long geocell: geocells) {
+        cover(geocell);
+      }
+      
+      for (CoverTask task: forked) {
+        task.join();
+        coverage.merge(task.coverage);
+      }
+    }
+    
+    private void cover(long geocell) {
+      // Stop as soon as the coverage has too many cells
+      if (context.cellcount.get() > context.maxcells) {
+        return;
+      }
+      
+      int cellres = ((int) (geocell >>> 60)) << 1;
+      long hhcode = geocell << 4;
+      
+      int location = context.classifier.classify(hhcode, cellres);
+      
+      if (CellClassifier.DISJOINT == location) {
+        return;
+      }
+      
+      if (context.maxresolution == cellres && !context.containedOnly) {
+        add(cellres, hhcode);
+        return;
+      }
+      
+      if (CellClassifier.CONTAINED == location && cellres >= context.minresolution) {
+        add(cellres, hhcode);
+        return;
+      }
+      
+      if (context.maxresolution == cellres) {
+        return;
+      }
+      
+      long[] subcells = HHCodeHelper.getSubGeoCells(geocell);
+      
+      //
+      // Children of cells at resolution 30 cannot be represented as geocells, check them here
+      //
+      
+      if (30 == cellres) {
+        for (long subhhcode: subcells) {
+          int sublocation = context.classifier.classify(subhhcode, HHCodeHelper.MAX_RESOLUTION);
+          if (CellClassifier.CONTAINED == sublocation || (CellClassifier.INTERSECTS == sublocation && !context.containedOnly)) {
+            add(HHCodeHelper.MAX_RESOLUTION, subhhcode);
+          }
+        }
+        return;
+      }
+      
+      if (context.parallel && getSurplusQueuedTaskCount() < MAX_SURPLUS_TASKS) {
+        CoverTask task = new CoverTask(context, subcells);
+        task.fork();
+        forked.add(task);
+      } else {
+        for (long subcell: subcells) {
+          cover(subcell);
+        }
+      }
+    }
+    
+    private void add(int resolution, long hhcode) {
+      coverage.addCell(resolution, hhcode);
+      context.cellcount.incrementAndGet();
+    }
+  }
 }
@@ -35,12 +35,12 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import com.fasterxml.sort.SortConfig;
 import com.fasterxml.sort.std.TextFileSorter;
 
+import gnu.trove.iterator.TLongIterator;
+
 public class OutputStreamCoverage extends Coverage {
   
   private final OutputStream os;
@@ -94,7 +94,7 @@ public class OutputStreamCoverage extends Coverage {
   }
   
   @Override
-  public void addCell(int resolution, long hhcode) {
+  public void addCell(int resolution, long hhcode, long[] geocells, boolean excludeGeoCells) {
     int r = (resolution >> 1) - 1;
     
     // Do nothing if resolution out of range
@@ -102,11 +102,23 @@ public class OutputStreamCoverage extends Coverage {
       return;
     }
 
+    hhcode = hhcode & RESOLUTION_MASKS[r];
+    
     //
-    // Simple optimization to avoid outputing the same cell as the previous one
+    // If geocells is not null, check if hhcode is included/excluded
     //
     
-    hhcode = hhcode & RESOLUTION_MASKS[r];
+    if (null != geocells) {
+      boolean ingeocells = contains(geocells, hhcode, 2, resolution);
+      
+      if ((ingeocells && excludeGeoCells) || (!ingeocells && !excludeGeoCells)) {
+        return;
+      }
+    }
+    
+    //
+    // Simple optimization to avoid outputing the same cell as the previous one
+    //
     
     if (null != lastCell.get() && lastCell.get().equals(hhcode)) {
       return;
@@ -126,12 +138,10 @@ public class OutputStreamCoverage extends Coverage {
   
   @Override
   public void merge(Coverage other) {
-    Map<Integer, Set<Long>> cells = other.getAllCells();
-    
-    for (int r: cells.keySet()) {
-      for (long hhcode: cells.get(r)) {
+    for (int r: other.getResolutions()) {
+      for (TLongIterator iter = other.cellIterator(r); iter.hasNext();) {
         try {
-          os.write(HHCodeHelper.toString(hhcode, r).getBytes());
+          os.write(HHCodeHelper.toString(iter.next(), r).getBytes());
           os.write('\n');
         } catch (IOException ioe) {      
         }            
@@ -715,12 +725,10 @@ public class OutputStreamCoverage extends Coverage {
         
         try {
           double dist = Double.valueOf(areadef.substring(9,idx));
-          List<Long>[] hhcoords = GeoParser.parseEncodedPolyline(areadef.substring(9 + idx + 1));
+          VertexBuffer vertices = GeoParser.parseEncodedPolyline(areadef.substring(9 + idx + 1), new VertexBuffer());
           
           OutputStreamCoverage c = new OutputStreamCoverage(new FileOutputStream(file));
-          for (int k = 0; k < hhcoords[0].size() - 1; k++) {
-            HHCodeHelper.coverSegment(hhcoords[0].get(k), hhcoords[1].get(k), hhcoords[0].get(k+1), hhcoords[1].get(k + 1), dist, resolution, c);
-          }
+          HHCodeHelper.coverCorridor(vertices, dist, resolution, CorridorCoverer.JOIN_MITRE, c);
           c.close();
         } catch (NumberFormatException nfe) {
           continue;
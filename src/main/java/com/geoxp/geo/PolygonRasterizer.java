@@ -0,0 +1,561 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Scanline rasterization of polygons into coverages.
+ *
+ * The polygon is scanned one row of cells at a time, bottom to top. An active edge
+ * table holds the edges which span the current row, edges being sorted by their bottom
+ * latitude so each edge enters and leaves the table once. For each row, the cells
+ * crossed by an active edge and the cells between pairs of edge crossings at the middle
+ * of the row (even-odd rule) are gathered as horizontal runs of cells.
+ *
+ * Runs are not emitted cell by cell right away. Four consecutive rows aligned on a row
+ * of coarser cells are intersected, and the parts of the intersection which are aligned
+ * on coarser cells are passed on as a row of coarser cells, recursively. Areas fully
+ * inside the polygon are therefore emitted as the coarsest cells which fit, without
+ * emitting their subcells first nor having to optimize the coverage afterwards.
+ *
+ * A polygon can be made of several rings. The even-odd rule then applies within each
+ * ring and the rings are unioned, which is how CorridorCoverer covers the overlapping
+ * pieces of a corridor in a single pass.
+ *
+ * Instances are not thread safe.
+ */
+public class PolygonRasterizer {
+
+  /**
+   * Edges sorted by bottom latitude, as lat0, lon0, lat1, lon1 with lat0 <= lat1
+   */
+  private final long[] edges;
+  private final int nedges;
+
+  /**
+   * Ring of each edge, in the order of 'edges'
+   */
+  private final int[] edgeRings;
+  private final int nrings;
+
+  private final int resolution;
+  private final int maxlevel;
+
+  private final Coverage coverage;
+  private final long[] geocells;
+  private final boolean excludeGeoCells;
+
+  /**
+   * Row index and runs of the rows pending at each level, 4 rows per level
+   */
+  private final long[][] rows;
+  private final TLongArrayList[][] runs;
+
+  /**
+   * Scratch lists
+   */
+  private final TLongArrayList intervals = new TLongArrayList();
+  private final TLongArrayList parent = new TLongArrayList();
+  private final TLongArrayList remainder = new TLongArrayList();
+  private double[] crossings = new double[16];
+  private int[] crossingRings = new int[16];
+  private double[] grouped = new double[16];
+  private long[] keys = new long[16];
+  private long[] starts = new long[16];
+  private long[] ends = new long[16];
+
+  /**
+   * @param lats Latitudes of the vertices (in long HHCode coordinates)
+   * @param lons Longitudes of the vertices (in long HHCode coordinates)
+   * @param nvertices Number of vertices, the polygon need not be closed
+   * @param resolution Resolution of the finest cells (even, 2 to 32)
+   * @param coverage Coverage to add the cells to
+   * @param geocells Optional geocells to intersect / exclude, cells are then all emitted at 'resolution'
+   * @param excludeGeoCells If true, exclude 'geocells', otherwise intersect
+   */
+  public PolygonRasterizer(long[] lats, long[] lons, int nvertices, int resolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    this(lats, lons, new int[] { nvertices }, 1, resolution, coverage, geocells, excludeGeoCells);
+  }
+
+  /**
+   * @param lats Latitudes of the vertices of all rings (in long HHCode coordinates)
+   * @param lons Longitudes of the vertices of all rings (in long HHCode coordinates)
+   * @param rings End index (exclusive) of the vertices of each ring, rings need not be closed
+   * @param nrings Number of rings
+   *
+   * @see #PolygonRasterizer(long[], long[], int, int, Coverage, long[], boolean)
+   */
+  public PolygonRasterizer(long[] lats, long[] lons, int[] rings, int nrings, int resolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    if (resolution < 2 || resolution > 32 || 0 != (resolution & 1)) {
+      throw new RuntimeException("Invalid resolution, MUST be even and between 2 and 32, both inclusive.");
+    }
+
+    this.resolution = resolution;
+    this.coverage = coverage;
+    this.geocells = geocells;
+    this.excludeGeoCells = excludeGeoCells;
+
+    // Coarser cells may not honor the geocells filter the same way as their subcells
+    this.maxlevel = null == geocells ? (resolution - 2) / 2 : 0;
+
+    this.rows = new long[maxlevel + 1][4];
+    this.runs = new TLongArrayList[maxlevel + 1][4];
+
+    for (int level = 0; level <= maxlevel; level++) {
+      Arrays.fill(rows[level], -1L);
+      for (int i = 0; i < 4; i++) {
+        runs[level][i] = new TLongArrayList();
+      }
+    }
+
+    //
+    // Build the edge table, edge i goes from vertex i - 1 to vertex i of the same ring
+    //
+
+    int nvertices = nrings > 0 ? rings[nrings - 1] : 0;
+
+    final long[] edges = new long[4 * nvertices];
+    int[] ringOf = new int[nvertices];
+    Integer[] order = new Integer[nvertices];
+
+    int ring = 0;
+    int first = 0;
+
+    for (int i = 0; i < nvertices; i++) {
+      while (i >= rings[ring]) {
+        first = rings[ring];
+        ring++;
+      }
+
+      int j = first == i ? rings[ring] - 1 : i - 1;
+      ringOf[i] = ring;
+
+      if (lats[i] <= lats[j]) {
+        edges[4 * i] = lats[i];
+        edges[4 * i + 1] = lons[i];
+        edges[4 * i + 2] = lats[j];
+        edges[4 * i + 3] = lons[j];
+      } else {
+        edges[4 * i] = lats[j];
+        edges[4 * i + 1] = lons[j];
+        edges[4 * i + 2] = lats[i];
+        edges[4 * i + 3] = lons[i];
+      }
+
+      order[i] = i;
+    }
+
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        long la = edges[4 * a];
+        long lb = edges[4 * b];
+        return la < lb ? -1 : (la > lb ? 1 : 0);
+      }
+    });
+
+    this.edges = new long[4 * nvertices];
+    this.edgeRings = new int[nvertices];
+
+    for (int i = 0; i < nvertices; i++) {
+      System.arraycopy(edges, 4 * order[i], this.edges, 4 * i, 4);
+      this.edgeRings[i] = ringOf[order[i]];
+    }
+
+    this.nedges = nvertices;
+    this.nrings = nrings;
+  }
+
+  /**
+   * Cover a polygon, adding its cells to a coverage.
+   *
+   * @see #PolygonRasterizer(long[], long[], int, int, Coverage, long[], boolean)
+   */
+  public static Coverage cover(long[] lats, long[] lons, int nvertices, int resolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    if (nvertices > 0) {
+      new PolygonRasterizer(lats, lons, nvertices, resolution, coverage, geocells, excludeGeoCells).rasterize();
+    }
+
+    return coverage;
+  }
+
+  /**
+   * Cover the union of several rings, adding its cells to a coverage.
+   *
+   * @see #PolygonRasterizer(long[], long[], int[], int, int, Coverage, long[], boolean)
+   */
+  public static Coverage cover(long[] lats, long[] lons, int[] rings, int nrings, int resolution, Coverage coverage, long[] geocells, boolean excludeGeoCells) {
+    if (nrings > 0 && rings[nrings - 1] > 0) {
+      new PolygonRasterizer(lats, lons, rings, nrings, resolution, coverage, geocells, excludeGeoCells).rasterize();
+    }
+
+    return coverage;
+  }
+
+  /**
+   * Scan the polygon and add its cells to the coverage
+   */
+  public void rasterize() {
+    if (0 == nedges) {
+      return;
+    }
+
+    int shift = 32 - resolution;
+    long size = 1L << shift;
+
+    long bottom = Long.MAX_VALUE;
+    long top = Long.MIN_VALUE;
+
+    for (int i = 0; i < nedges; i++) {
+      bottom = Math.min(bottom, edges[4 * i]);
+      top = Math.max(top, edges[4 * i + 2]);
+    }
+
+    // Indices of the active edges
+    int[] active = new int[nedges];
+    int nactive = 0;
+    int next = 0;
+
+    for (long row = bottom >> shift; row <= top >> shift; row++) {
+      long y0 = row << shift;
+      long y1 = y0 + size - 1;
+
+      //
+      // Update the active edge table
+      //
+
+      while (next < nedges && edges[4 * next] <= y1) {
+        active[nactive++] = next++;
+      }
+
+      int n = 0;
+
+      for (int i = 0; i < nactive; i++) {
+        if (edges[4 * active[i] + 2] >= y0) {
+          active[n++] = active[i];
+        }
+      }
+
+      nactive = n;
+
+      //
+      // Cells crossed by the edges
+      //
+
+      intervals.resetQuick();
+
+      // Middle of the row, never the latitude of a vertex
+      double ymid = y0 + (size - 1) / 2.0;
+      int ncrossings = 0;
+
+      for (int i = 0; i < nactive; i++) {
+        int e = 4 * active[i];
+
+        long lat0 = edges[e];
+        long lon0 = edges[e + 1];
+        long lat1 = edges[e + 2];
+        long lon1 = edges[e + 3];
+
+        if (lat0 == lat1) {
+          intervals.add(Math.min(lon0, lon1) >> shift);
+          intervals.add(Math.max(lon0, lon1) >> shift);
+          continue;
+        }
+
+        // We MUST use doubles as the slope could otherwise wrap around
+        double slope = ((double) (lon1 - lon0)) / ((double) (lat1 - lat0));
+
+        long x0 = lon0 + (long) Math.floor((Math.max(y0, lat0) - lat0) * slope);
+        long x1 = lon0 + (long) Math.floor((Math.min(y1, lat1) - lat0) * slope);
+
+        intervals.add(Math.min(x0, x1) >> shift);
+        intervals.add(Math.max(x0, x1) >> shift);
+
+        if (lat0 < ymid && ymid < lat1) {
+          if (ncrossings == crossings.length) {
+            crossings = Arrays.copyOf(crossings, 2 * ncrossings);
+            crossingRings = Arrays.copyOf(crossingRings, 2 * ncrossings);
+          }
+          crossingRings[ncrossings] = edgeRings[active[i]];
+          crossings[ncrossings++] = lon0 + (ymid - lat0) * slope;
+        }
+      }
+
+      //
+      // Cells between pairs of crossings are inside the polygon
+      //
+
+      if (1 == nrings) {
+        Arrays.sort(crossings, 0, ncrossings);
+        inside(crossings, 0, ncrossings, shift);
+      } else {
+        group(ncrossings);
+
+        int start = 0;
+
+        for (int i = 1; i <= ncrossings; i++) {
+          if (i == ncrossings || crossingRings[(int) keys[i]] != crossingRings[(int) keys[start]]) {
+            Arrays.sort(grouped, start, i);
+            inside(grouped, start, i, shift);
+            start = i;
+          }
+        }
+      }
+
+      if (intervals.isEmpty()) {
+        continue;
+      }
+
+      TLongArrayList rowruns = slot(0, row);
+      union(intervals, rowruns);
+      complete(0, row);
+    }
+
+    for (int level = 0; level <= maxlevel; level++) {
+      flush(level);
+    }
+  }
+
+  /**
+   * Add the cells between pairs of sorted crossings to the intervals of the row
+   */
+  private void inside(double[] crossings, int from, int to, int shift) {
+    for (int i = from; i + 1 < to; i += 2) {
+      intervals.add(((long) Math.floor(crossings[i])) >> shift);
+      intervals.add(((long) Math.floor(crossings[i + 1])) >> shift);
+    }
+  }
+
+  /**
+   * Group the crossings by ring into 'grouped', 'keys' holding the index of each
+   * grouped crossing in its low 32 bits.
+   */
+  private void group(int ncrossings) {
+    if (keys.length < ncrossings) {
+      keys = new long[crossings.length];
+      grouped = new double[crossings.length];
+    }
+
+    for (int i = 0; i < ncrossings; i++) {
+      keys[i] = (((long) crossingRings[i]) << 32) | i;
+    }
+
+    Arrays.sort(keys, 0, ncrossings);
+
+    for (int i = 0; i < ncrossings; i++) {
+      grouped[i] = crossings[(int) keys[i]];
+    }
+  }
+
+  /**
+   * Return the runs of a row at a level, flushing the pending rows of another group
+   */
+  private TLongArrayList slot(int level, long row) {
+    int i = (int) (row & 3L);
+
+    for (int j = 0; j < 4; j++) {
+      if (rows[level][j] >= 0 && (rows[level][j] >> 2) != (row >> 2)) {
+        flush(level);
+        break;
+      }
+    }
+
+    rows[level][i] = row;
+    runs[level][i].resetQuick();
+
+    return runs[level][i];
+  }
+
+  /**
+   * Called once the runs of a row are set, pass the runs of a complete group of four
+   * rows on to the next level.
+   */
+  private void complete(int level, long row) {
+    if (3L != (row & 3L) || level == maxlevel) {
+      return;
+    }
+
+    for (int i = 0; i < 4; i++) {
+      if (rows[level][i] < 0) {
+        return;
+      }
+    }
+
+    //
+    // Intersect the four rows and keep the parts aligned on coarser cells
+    //
+
+    intersect(runs[level][0], runs[level][1], remainder);
+    intersect(remainder, runs[level][2], parent);
+    intersect(parent, runs[level][3], remainder);
+
+    parent.resetQuick();
+
+    for (int i = 0; i < remainder.size(); i += 2) {
+      long start = (remainder.get(i) + 3L) >> 2;
+      long end = ((remainder.get(i + 1) + 1L) >> 2) - 1L;
+
+      if (start <= end) {
+        parent.add(start);
+        parent.add(end);
+      }
+    }
+
+    if (parent.isEmpty()) {
+      flush(level);
+      return;
+    }
+
+    //
+    // Emit what is left of each row at this level
+    //
+
+    for (int i = 0; i < 4; i++) {
+      subtract(runs[level][i], parent, remainder);
+      emit(level, rows[level][i], remainder);
+      rows[level][i] = -1L;
+    }
+
+    TLongArrayList coarse = slot(level + 1, row >> 2);
+    coarse.addAll(parent);
+    complete(level + 1, row >> 2);
+  }
+
+  /**
+   * Emit the pending rows of a level
+   */
+  private void flush(int level) {
+    for (int i = 0; i < 4; i++) {
+      if (rows[level][i] >= 0) {
+        emit(level, rows[level][i], runs[level][i]);
+        rows[level][i] = -1L;
+      }
+    }
+  }
+
+  private void emit(int level, long row, TLongArrayList runs) {
+    int res = resolution - 2 * level;
+    int shift = 32 - res;
+
+    for (int i = 0; i < runs.size(); i += 2) {
+      for (long col = runs.get(i); col <= runs.get(i + 1); col++) {
+        coverage.addCell(res, row << shift, col << shift, geocells, excludeGeoCells);
+      }
+    }
+  }
+
+  /**
+   * Merge overlapping or adjacent intervals. Sorting starts and ends separately is
+   * enough to compute the union of the intervals.
+   */
+  private void union(TLongArrayList intervals, TLongArrayList out) {
+    int n = intervals.size() / 2;
+
+    if (starts.length < n) {
+      starts = new long[Math.max(n, 2 * starts.length)];
+      ends = new long[starts.length];
+    }
+
+    for (int i = 0; i < n; i++) {
+      starts[i] = intervals.get(2 * i);
+      ends[i] = intervals.get(2 * i + 1);
+    }
+
+    Arrays.sort(starts, 0, n);
+    Arrays.sort(ends, 0, n);
+
+    out.add(starts[0]);
+
+    for (int i = 0; i < n - 1; i++) {
+      if (starts[i + 1] > ends[i] + 1L) {
+        out.add(ends[i]);
+        out.add(starts[i + 1]);
+      }
+    }
+
+    out.add(ends[n - 1]);
+  }
+
+  private static void intersect(TLongArrayList a, TLongArrayList b, TLongArrayList out) {
+    out.resetQuick();
+
+    int i = 0;
+    int j = 0;
+
+    while (i < a.size() && j < b.size()) {
+      long start = Math.max(a.get(i), b.get(j));
+      long end = Math.min(a.get(i + 1), b.get(j + 1));
+
+      if (start <= end) {
+        out.add(start);
+        out.add(end);
+      }
+
+      if (a.get(i + 1) < b.get(j + 1)) {
+        i += 2;
+      } else {
+        j += 2;
+      }
+    }
+  }
+
+  /**
+   * Remove from runs the cells of the coarser runs (four cells per coarse cell)
+   */
+  private static void subtract(TLongArrayList runs, TLongArrayList coarse, TLongArrayList out) {
+    out.resetQuick();
+
+    int j = 0;
+
+    for (int i = 0; i < runs.size(); i += 2) {
+      long start = runs.get(i);
+      long end = runs.get(i + 1);
+
+      while (j < coarse.size() && (coarse.get(j + 1) << 2) + 3L < start) {
+        j += 2;
+      }
+
+      int k = j;
+
+      while (start <= end && k < coarse.size() && coarse.get(k) << 2 <= end) {
+        long cstart = coarse.get(k) << 2;
+        long cend = (coarse.get(k + 1) << 2) + 3L;
+
+        if (cstart > start) {
+          out.add(start);
+          out.add(cstart - 1L);
+        }
+
+        start = Math.max(start, cend + 1L);
+        k += 2;
+      }
+
+      if (start <= end) {
+        out.add(start);
+        out.add(end);
+      }
+    }
+  }
+}
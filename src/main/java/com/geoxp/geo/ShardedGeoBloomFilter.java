@@ -0,0 +1,293 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * GeoBloomFilter partitioned by level 2 cell (the first byte of HHCodes), following
+ * the GeoSharding scheme (etc/GeoSharding).
+ *
+ * Each of the 256 level 2 cells has its own GeoBloomFilter, created when its first
+ * point is added, so shards fill and switch generations independently and can be
+ * built in parallel, saved, loaded and merged one at a time. All shards share the same
+ * parameters and seeded hash keys, so shards built on different workers for the same
+ * level 2 cell can be merged.
+ */
+public class ShardedGeoBloomFilter {
+
+  public static final int SHARDS = 256;
+
+  private final AtomicReferenceArray<GeoBloomFilter> shards = new AtomicReferenceArray<GeoBloomFilter>(SHARDS);
+
+  private final int maxres;
+  private final int[] n;
+  private final double[] fprate;
+  private final int k;
+  private final boolean slice;
+  private final boolean blocked;
+  private final long seed;
+
+  /**
+   * Empty shard used to check the compatibility of shards set from outside
+   */
+  private final GeoBloomFilter prototype;
+
+  /**
+   * @param n Number of elements of each generation of each shard, or null for the defaults
+   * @param fprate False positive rate of each generation of each shard, or null for the defaults
+   * @param seed Seed of the hash keys of the shards
+   *
+   * @see GeoBloomFilter#GeoBloomFilter(int, int[], double[], int, boolean, boolean, long)
+   */
+  public ShardedGeoBloomFilter(int maxresolution, int[] n, double[] fprate, int k, boolean slice, boolean blocked, long seed) {
+    this.maxres = maxresolution;
+    this.n = n;
+    this.fprate = fprate;
+    this.k = k;
+    this.slice = slice;
+    this.blocked = blocked;
+    this.seed = seed;
+
+    this.prototype = newShard();
+  }
+
+  private GeoBloomFilter newShard() {
+    return new GeoBloomFilter(maxres, n, fprate, k, slice, blocked, seed);
+  }
+
+  /**
+   * Return the shard of a HHCode, i.e. its level 2 cell
+   */
+  public static int shard(long hhcode) {
+    return (int) (hhcode >>> 56);
+  }
+
+  /**
+   * Return the shard for a level 2 cell, or null if no point was added to it
+   */
+  public GeoBloomFilter getShard(int shard) {
+    return shards.get(shard);
+  }
+
+  /**
+   * Return the shard for a level 2 cell, creating it if needed
+   */
+  private GeoBloomFilter getOrCreateShard(int shard) {
+    GeoBloomFilter gbf = shards.get(shard);
+
+    if (null == gbf) {
+      shards.compareAndSet(shard, null, newShard());
+      gbf = shards.get(shard);
+    }
+
+    return gbf;
+  }
+
+  /**
+   * Set the shard of a level 2 cell, typically one built on another worker and loaded
+   * with GeoBloomFilter.load or GeoBloomFilter.map.
+   *
+   * @param shard Level 2 cell
+   * @param gbf Filter for that cell, compatible with this filter's shards
+   */
+  public void setShard(int shard, GeoBloomFilter gbf) {
+    if (!prototype.isCompatible(gbf)) {
+      throw new RuntimeException("Incompatible GeoBloomFilter.");
+    }
+
+    shards.set(shard, gbf);
+  }
+
+  /**
+   * Merge the shards of another sharded filter with the same parameters into this one.
+   */
+  public void merge(ShardedGeoBloomFilter other) {
+    for (int shard = 0; shard < SHARDS; shard++) {
+      GeoBloomFilter gbf = other.shards.get(shard);
+
+      if (null != gbf) {
+        getOrCreateShard(shard).merge(gbf);
+      }
+    }
+  }
+
+  public void add(long hhcode) {
+    getOrCreateShard(shard(hhcode)).add(hhcode);
+  }
+
+  /**
+   * Add points, each shard being fed by its own task. Points are first grouped by
+   * shard so each shard is only touched by one thread.
+   *
+   * @param hhcodes Points to add
+   * @param pool ForkJoinPool to use, or null to add the points in the calling thread
+   */
+  public void addAll(long[] hhcodes, ForkJoinPool pool) {
+    if (null == pool) {
+      for (long hhcode: hhcodes) {
+        add(hhcode);
+      }
+      return;
+    }
+
+    //
+    // Group points by shard (counting sort)
+    //
+
+    int[] starts = new int[SHARDS + 1];
+
+    for (long hhcode: hhcodes) {
+      starts[shard(hhcode) + 1]++;
+    }
+
+    for (int shard = 0; shard < SHARDS; shard++) {
+      starts[shard + 1] += starts[shard];
+    }
+
+    long[] sorted = new long[hhcodes.length];
+    int[] pos = starts.clone();
+
+    for (long hhcode: hhcodes) {
+      sorted[pos[shard(hhcode)]++] = hhcode;
+    }
+
+    final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+
+    for (int shard = 0; shard < SHARDS; shard++) {
+      if (starts[shard] < starts[shard + 1]) {
+        tasks.add(new ShardTask(getOrCreateShard(shard), sorted, starts[shard], starts[shard + 1]));
+      }
+    }
+
+    pool.invoke(new RecursiveAction() {
+      private static final long serialVersionUID = 1L;
+
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+  }
+
+  private static final class ShardTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final GeoBloomFilter gbf;
+    private final long[] hhcodes;
+    private final int from;
+    private final int to;
+
+    ShardTask(GeoBloomFilter gbf, long[] hhcodes, int from, int to) {
+      this.gbf = gbf;
+      this.hhcodes = hhcodes;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      for (int i = from; i < to; i++) {
+        gbf.add(hhcodes[i]);
+      }
+    }
+  }
+
+  /**
+   * Check whether a geocell is in the filter. Cells at resolution 2 and finer are
+   * checked in their shard only, cells at resolution 1 in the 16 shards they span.
+   */
+  public boolean contains(long cell) {
+    int res = (int) ((cell >>> 60) & 0xFL);
+
+    if (0 == res) {
+      return false;
+    }
+
+    int l2bits = (int) ((cell & 0x0FF0000000000000L) >>> 52);
+
+    if (1 == res) {
+      for (int shard = l2bits & 0xF0; shard <= (l2bits | 0x0F); shard++) {
+        GeoBloomFilter gbf = shards.get(shard);
+
+        if (null != gbf && gbf.contains(cell)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    GeoBloomFilter gbf = shards.get(l2bits);
+
+    return null != gbf && gbf.contains(cell);
+  }
+
+  /**
+   * Check wether a cell and all its parents are contained in the bloom filter.
+   */
+  public boolean containsHierarchy(long cell) {
+    int res = (int) ((cell >>> 60) & 0xFL);
+
+    if (res < 2) {
+      return 0L == cell || contains(cell);
+    }
+
+    // The level 1 parent of a cell is in the same shard as the cell
+    GeoBloomFilter gbf = shards.get((int) ((cell & 0x0FF0000000000000L) >>> 52));
+
+    return null != gbf && gbf.containsHierarchy(cell);
+  }
+
+  /**
+   * Adapt a cell so its resolution is no more than maxres
+   */
+  public long fixCell(long cell) {
+    int res = (int) ((cell >>> 60) & 0xFL);
+
+    if (res > maxres) {
+      cell = cell & 0x0FFFFFFFFFFFFFFFL;
+      cell = cell | (((maxres & 0xFL) << 60) & 0xF000000000000000L);
+      cell = cell & (0xFFFFFFFFFFFFFFFL << (60 - (maxres * 4)));
+    }
+
+    return cell;
+  }
+
+  /**
+   * Return an estimated memory footprint for this index
+   */
+  public long size() {
+    long size = 0L;
+
+    for (int shard = 0; shard < SHARDS; shard++) {
+      GeoBloomFilter gbf = shards.get(shard);
+
+      if (null != gbf) {
+        size += gbf.size();
+      }
+    }
+
+    return size;
+  }
+}
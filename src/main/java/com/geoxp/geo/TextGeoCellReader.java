@@ -0,0 +1,134 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read geocells from the hexadecimal lines produced by OutputStreamCoverage.
+ *
+ * The resolution of each cell is given by the number of hexadecimal digits at the
+ * start of its line, anything after them (a suffix, a '\r') is ignored. Empty lines
+ * and cells at resolution 32, which cannot be represented as geocells, are skipped.
+ */
+public class TextGeoCellReader implements GeoCellStream {
+
+  private final InputStream in;
+  private final byte[] buf;
+
+  private int pos = 0;
+  private int limit = 0;
+
+  private boolean hasCurrent = false;
+  private long current;
+
+  public TextGeoCellReader(InputStream in) {
+    this(in, 65536);
+  }
+
+  /**
+   * @param in Stream to read from
+   * @param bufferSize Size of the read buffer
+   */
+  public TextGeoCellReader(InputStream in, int bufferSize) {
+    this.in = in;
+    this.buf = new byte[Math.max(64, bufferSize)];
+  }
+
+  public boolean hasNext() throws IOException {
+    if (hasCurrent) {
+      return true;
+    }
+
+    while (true) {
+      int b = read();
+
+      if (b < 0) {
+        return false;
+      }
+
+      long cell = 0L;
+      int digits = 0;
+      boolean hex = true;
+
+      while (b >= 0 && '\n' != b) {
+        int digit = digit(b);
+
+        if (hex && digit >= 0) {
+          if (digits < 15) {
+            cell |= ((long) digit) << (56 - 4 * digits);
+          }
+          digits++;
+        } else {
+          if (0 == digits && '\r' != b) {
+            throw new IOException("Invalid geocell line.");
+          }
+          hex = false;
+        }
+
+        b = read();
+      }
+
+      if (digits > 0 && digits < 16) {
+        current = (((long) digits) << 60) | cell;
+        hasCurrent = true;
+        return true;
+      }
+    }
+  }
+
+  public long next() {
+    hasCurrent = false;
+    return current;
+  }
+
+  private int read() throws IOException {
+    if (pos == limit) {
+      limit = in.read(buf, 0, buf.length);
+      pos = 0;
+
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+
+    return buf[pos++] & 0xff;
+  }
+
+  private static int digit(int b) {
+    if (b >= '0' && b <= '9') {
+      return b - '0';
+    } else if (b >= 'a' && b <= 'f') {
+      return b - 'a' + 10;
+    } else if (b >= 'A' && b <= 'F') {
+      return b - 'A' + 10;
+    }
+
+    return -1;
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+}
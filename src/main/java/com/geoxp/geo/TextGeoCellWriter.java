@@ -0,0 +1,105 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Write geocells as the hexadecimal lines produced by OutputStreamCoverage, through
+ * a buffer. Instances are not thread safe.
+ */
+public class TextGeoCellWriter implements Closeable {
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+  private final OutputStream out;
+  private final byte[] suffix;
+  private final byte[] buf;
+
+  private int pos = 0;
+
+  public TextGeoCellWriter(OutputStream out) {
+    this(out, null);
+  }
+
+  /**
+   * @param out Stream to write to
+   * @param suffix Suffix to append to each line, or null
+   */
+  public TextGeoCellWriter(OutputStream out, String suffix) {
+    this.out = out;
+    this.suffix = null == suffix ? null : suffix.getBytes();
+    this.buf = new byte[Math.max(65536, 2 * (16 + (null == this.suffix ? 0 : this.suffix.length)))];
+  }
+
+  public void write(long geocell) throws IOException {
+    int r = (int) (geocell >>> 60);
+    int suffixlen = null == suffix ? 0 : suffix.length;
+
+    if (pos + r + suffixlen + 1 > buf.length) {
+      out.write(buf, 0, pos);
+      pos = 0;
+    }
+
+    for (int i = 0; i < r; i++) {
+      buf[pos++] = HEX[(int) ((geocell >>> (56 - 4 * i)) & 0xFL)];
+    }
+
+    if (null != suffix) {
+      System.arraycopy(suffix, 0, buf, pos, suffixlen);
+      pos += suffixlen;
+    }
+
+    buf[pos++] = '\n';
+  }
+
+  /**
+   * Write all the geocells of a stream.
+   */
+  public void write(GeoCellStream stream) throws IOException {
+    while (stream.hasNext()) {
+      write(stream.next());
+    }
+  }
+
+  /**
+   * Write the buffered lines to the underlying stream and flush it.
+   */
+  public void flush() throws IOException {
+    if (pos > 0) {
+      out.write(buf, 0, pos);
+      pos = 0;
+    }
+
+    out.flush();
+  }
+
+  /**
+   * Flush the buffered lines and close the underlying stream.
+   */
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+}
@@ -0,0 +1,174 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Growable buffer of vertices (lat/lon in long HHCode coordinates) stored in two
+ * parallel long arrays.
+ *
+ * The buffer is meant to be reused, 'clear' keeps the allocated arrays, so the
+ * polyline and polygon methods of HHCodeHelper taking a VertexBuffer do not allocate
+ * per vertex as the ones taking Lists of Longs do.
+ */
+public class VertexBuffer {
+
+  private long[] lats;
+  private long[] lons;
+  private int size = 0;
+
+  public VertexBuffer() {
+    this(16);
+  }
+
+  public VertexBuffer(int capacity) {
+    this.lats = new long[Math.max(capacity, 1)];
+    this.lons = new long[Math.max(capacity, 1)];
+  }
+
+  /**
+   * Create a buffer with the vertices of two lists, silently ignoring extra
+   * lats or lons.
+   */
+  public VertexBuffer(List<Long> lats, List<Long> lons) {
+    this(Math.min(lats.size(), lons.size()));
+
+    int n = Math.min(lats.size(), lons.size());
+
+    for (int i = 0; i < n; i++) {
+      add(lats.get(i), lons.get(i));
+    }
+  }
+
+  public void add(long lat, long lon) {
+    if (size == lats.length) {
+      ensureCapacity(size + 1);
+    }
+
+    lats[size] = lat;
+    lons[size] = lon;
+    size++;
+  }
+
+  public void set(int idx, long lat, long lon) {
+    if (idx >= size) {
+      throw new RuntimeException("Invalid vertex index " + idx + ".");
+    }
+
+    lats[idx] = lat;
+    lons[idx] = lon;
+  }
+
+  public long getLat(int idx) {
+    return lats[idx];
+  }
+
+  public long getLon(int idx) {
+    return lons[idx];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Drop the vertices past 'size'
+   */
+  public void truncate(int size) {
+    if (size < this.size) {
+      this.size = Math.max(size, 0);
+    }
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > lats.length) {
+      int newcapacity = Math.max(capacity, lats.length + (lats.length >> 1) + 1);
+      long[] newlats = new long[newcapacity];
+      long[] newlons = new long[newcapacity];
+      System.arraycopy(lats, 0, newlats, 0, size);
+      System.arraycopy(lons, 0, newlons, 0, size);
+      lats = newlats;
+      lons = newlons;
+    }
+  }
+
+  /**
+   * Return the backing array of latitudes, only the first 'size()' elements are valid.
+   * The array is replaced when the buffer grows.
+   */
+  public long[] lats() {
+    return lats;
+  }
+
+  /**
+   * Return the backing array of longitudes, only the first 'size()' elements are valid.
+   * The array is replaced when the buffer grows.
+   */
+  public long[] lons() {
+    return lons;
+  }
+
+  /**
+   * Return a trimmed copy of the latitudes
+   */
+  public long[] toLatArray() {
+    long[] copy = new long[size];
+    System.arraycopy(lats, 0, copy, 0, size);
+    return copy;
+  }
+
+  /**
+   * Return a trimmed copy of the longitudes
+   */
+  public long[] toLonArray() {
+    long[] copy = new long[size];
+    System.arraycopy(lons, 0, copy, 0, size);
+    return copy;
+  }
+
+  /**
+   * Return the vertices as two lists (lats, lons), as returned by GeoParser.parseEncodedPolyline
+   */
+  @SuppressWarnings("unchecked")
+  public List<Long>[] toLists() {
+    List<Long> verticesLat = new ArrayList<Long>(size);
+    List<Long> verticesLon = new ArrayList<Long>(size);
+
+    for (int i = 0; i < size; i++) {
+      verticesLat.add(lats[i]);
+      verticesLon.add(lons[i]);
+    }
+
+    List<Long>[] coords = new List[2];
+
+    coords[0] = verticesLat;
+    coords[1] = verticesLon;
+
+    return coords;
+  }
+}
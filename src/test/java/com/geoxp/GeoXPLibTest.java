@@ -20,9 +20,16 @@
 
 package com.geoxp;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 
 import org.junit.Assert;
@@ -273,4 +280,149 @@ public class GeoXPLibTest {
       }
     }
   }
+  
+  @Test
+  public void testToGeoXPShapePool() throws Exception {
+    WKTReader reader = new WKTReader();
+    Geometry geometry = reader.read("POLYGON((10.689 -25.092, 34.595 -20.170, 38.814 -35.639, 13.502 -39.155, 10.689 -25.092))");
+    ForkJoinPool pool = new ForkJoinPool(4);
+    
+    // Using a pool does not change the shape, even when the budget is reached
+    for (boolean inside: new boolean[] { false, true }) {
+      for (int maxcells: new int[] { 100, 1000, Integer.MAX_VALUE }) {
+        GeoXPShape shape = GeoXPLib.toGeoXPShape(geometry, 0.01, inside, maxcells);
+        GeoXPShape fjshape = GeoXPLib.toGeoXPShape(geometry, 0.01, inside, maxcells, pool);
+        
+        Assert.assertTrue(shape.geocells.length <= maxcells);
+        Assert.assertArrayEquals(shape.geocells, fjshape.geocells);
+      }
+    }
+  }
+  
+  @Test
+  public void testBatchConversions() {
+    Random rand = new Random(42L);
+    int n = 200000;
+    
+    double[] lats = new double[n];
+    double[] lons = new double[n];
+    
+    for (int i = 0; i < n; i++) {
+      lats[i] = -90.0D + 180.0D * rand.nextDouble();
+      lons[i] = -180.0D + 360.0D * rand.nextDouble();
+    }
+    
+    long[] points = new long[n];
+    GeoXPLib.toGeoXPPoints(lats, lons, points);
+    
+    long[] fjpoints = new long[n];
+    GeoXPLib.toGeoXPPoints(lats, lons, fjpoints, new ForkJoinPool(4));
+
+    for (int i = 0; i < n; i++) {
+      Assert.assertEquals(GeoXPLib.toGeoXPPoint(lats[i], lons[i]), points[i]);
+    }
+    Assert.assertArrayEquals(points, fjpoints);
+    
+    double[] dlats = new double[n];
+    double[] dlons = new double[n];
+    GeoXPLib.fromGeoXPPoints(points, dlats, dlons, new ForkJoinPool(4));
+    
+    for (int i = 0; i < n; i++) {
+      double[] latlon = GeoXPLib.fromGeoXPPoint(points[i]);
+      Assert.assertEquals(latlon[0], dlats[i], 0.0D);
+      Assert.assertEquals(latlon[1], dlons[i], 0.0D);
+    }
+    
+    //
+    // Direct buffers
+    //
+    
+    DoubleBuffer blats = ByteBuffer.allocateDirect(n * 8).asDoubleBuffer();
+    DoubleBuffer blons = ByteBuffer.allocateDirect(n * 8).asDoubleBuffer();
+    LongBuffer bpoints = ByteBuffer.allocateDirect(n * 8).asLongBuffer();
+    
+    blats.put(lats).flip();
+    blons.put(lons).flip();
+    
+    GeoXPLib.toGeoXPPoints(blats, blons, bpoints);
+    
+    Assert.assertEquals(0, blats.remaining());
+    bpoints.flip();
+    
+    for (int i = 0; i < n; i++) {
+      Assert.assertEquals(points[i], bpoints.get(i));
+    }
+    
+    blats.clear();
+    blons.clear();
+    GeoXPLib.fromGeoXPPoints(bpoints, blats, blons);
+    
+    for (int i = 0; i < n; i++) {
+      Assert.assertEquals(dlats[i], blats.get(i), 0.0D);
+      Assert.assertEquals(dlons[i], blons.get(i), 0.0D);
+    }
+    
+    //
+    // Heap buffers
+    //
+    
+    LongBuffer hpoints = LongBuffer.allocate(n);
+    GeoXPLib.toGeoXPPoints(DoubleBuffer.wrap(lats), DoubleBuffer.wrap(lons), hpoints);
+    Assert.assertArrayEquals(points, hpoints.array());
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    WKTReader reader = new WKTReader();
+    Geometry geometry = reader.read("POLYGON((-4.5 48.3,-4.3 48.3,-4.3 48.5,-4.6 48.4,-4.5 48.3))");
+    GeoXPShape shape = GeoXPLib.toGeoXPShape(geometry, 0.01, false);
+    
+    byte[] compact = GeoXPLib.serializeGeoXPShape(shape, true);
+    byte[] raw = GeoXPLib.serializeGeoXPShape(shape);
+    
+    Assert.assertTrue(compact.length < raw.length);
+    Assert.assertArrayEquals(shape.geocells, GeoXPLib.deserializeGeoXPShape(compact).geocells);
+    Assert.assertArrayEquals(shape.geocells, GeoXPLib.deserializeGeoXPShape(raw).geocells);
+    Assert.assertArrayEquals(shape.geocells, GeoXPLib.deserializeGeoXPShape(ByteBuffer.wrap(compact)).geocells);
+  }
+
+  @Test
+  public void testGeoXPShapeView() throws Exception {
+    WKTReader reader = new WKTReader();
+    GeoXPShape a = GeoXPLib.toGeoXPShape(reader.read("POLYGON((-4.5 48.3,-4.3 48.3,-4.3 48.5,-4.6 48.4,-4.5 48.3))"), 0.01, false);
+    GeoXPShape b = GeoXPLib.toGeoXPShape(reader.read("POLYGON((-4.4 48.2,-4.1 48.2,-4.1 48.4,-4.4 48.4,-4.4 48.2))"), 0.01, false);
+    
+    File file = File.createTempFile("geoxpshape", ".bin");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(GeoXPLib.serializeGeoXPShape(a));
+    out.close();
+    
+    GeoXPLib.GeoXPShapeView va = GeoXPLib.mapGeoXPShape(file);
+    
+    byte[] serialized = GeoXPLib.serializeGeoXPShape(b);
+    ByteBuffer direct = ByteBuffer.allocateDirect(serialized.length);
+    direct.put(serialized);
+    direct.flip();
+    GeoXPLib.GeoXPShapeView vb = GeoXPLib.viewGeoXPShape(direct);
+    
+    Assert.assertArrayEquals(GeoXPLib.bbox(a), GeoXPLib.bbox(va), 0.0D);
+    
+    LongBuffer cells = GeoXPLib.getCells(va);
+    Assert.assertEquals(a.geocells.length, cells.remaining());
+    for (int i = 0; i < a.geocells.length; i++) {
+      Assert.assertEquals(a.geocells[i], cells.get());
+    }
+    
+    Random rand = new Random(0L);
+    for (int i = 0; i < 10000; i++) {
+      long point = GeoXPLib.toGeoXPPoint(48.1 + rand.nextDouble() * 0.5, -4.7 + rand.nextDouble() * 0.7);
+      Assert.assertEquals(GeoXPLib.isGeoXPPointInGeoXPShape(point, a), GeoXPLib.isGeoXPPointInGeoXPShape(point, va));
+      Assert.assertEquals(GeoXPLib.isGeoXPPointInGeoXPShape(point, b), GeoXPLib.isGeoXPPointInGeoXPShape(point, vb));
+    }
+    
+    Assert.assertArrayEquals(GeoXPLib.union(a, b).geocells, GeoXPLib.union(va, vb).geocells);
+    Assert.assertArrayEquals(GeoXPLib.intersection(a, b).geocells, GeoXPLib.intersection(va, GeoXPLib.viewGeoXPShape(b)).geocells);
+    Assert.assertArrayEquals(GeoXPLib.subtraction(a, b).geocells, GeoXPLib.subtraction(va, vb).geocells);
+  }
 }
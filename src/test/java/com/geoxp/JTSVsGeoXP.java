@@ -24,18 +24,27 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Random;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import com.geoxp.GeoXPLib.GeoXPShape;
+import com.geoxp.geo.CellClassifier;
 import com.geoxp.geo.Coverage;
+import com.geoxp.geo.EdgeCellClassifier;
 import com.geoxp.geo.GeoParser;
 import com.geoxp.geo.HHCodeHelper;
+import com.geoxp.geo.JTSHelper;
 import com.geoxp.geo.OutputStreamCoverage;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.io.WKTReader;
+import com.vividsolutions.jts.operation.predicate.RectangleIntersects;
 
 public class JTSVsGeoXP {
   
@@ -92,6 +101,57 @@ public class JTSVsGeoXP {
     System.out.println(nano / 1000000.0);
   }
   
+  @Test
+  public void testCellClassification() throws Exception {
+    Geometry geom = new WKTReader().read(WKT);
+    Envelope env = geom.getEnvelopeInternal();
+    
+    //
+    // Classify cells at resolutions 16 to 30 around the polygon
+    //
+    
+    int n = 100000;
+    long[] hhcodes = new long[n];
+    int[] resolutions = new int[n];
+    Random rand = new Random(0L);
+    
+    for (int i = 0; i < n; i++) {
+      double x = env.getMinX() + (rand.nextDouble() * 1.2 - 0.1) * env.getWidth();
+      double y = env.getMinY() + (rand.nextDouble() * 1.2 - 0.1) * env.getHeight();
+      hhcodes[i] = HHCodeHelper.getHHCodeValue(y, x);
+      resolutions[i] = 16 + 2 * rand.nextInt(8);
+    }
+    
+    LinearRing[] empty = new LinearRing[0];
+    GeometryFactory factory = new GeometryFactory();
+    
+    int[] classes = new int[n];
+    
+    long nano = System.nanoTime();
+    
+    for (int i = 0; i < n; i++) {
+      Polygon cellgeo = new Polygon(JTSHelper.hhcodeToLinearRing(hhcodes[i], resolutions[i]), empty, factory);
+      if (!RectangleIntersects.intersects(cellgeo, geom)) {
+        classes[i] = CellClassifier.DISJOINT;
+      } else {
+        classes[i] = geom.covers(cellgeo) ? CellClassifier.CONTAINED : CellClassifier.INTERSECTS;
+      }
+    }
+    
+    nano = System.nanoTime() - nano;
+    System.out.println(n + " cells via JTS in " + (nano / 1000000.0D) + " ms.");
+    
+    nano = System.nanoTime();
+    CellClassifier classifier = new EdgeCellClassifier(geom);
+    
+    for (int i = 0; i < n; i++) {
+      Assert.assertEquals(classes[i], classifier.classify(hhcodes[i], resolutions[i]));
+    }
+    
+    nano = System.nanoTime() - nano;
+    System.out.println(n + " cells via EdgeCellClassifier in " + (nano / 1000000.0D) + " ms.");
+  }
+  
   @Test
   public void testPerf() throws Exception {
     Geometry geom = new WKTReader().read(WKT);
@@ -0,0 +1,158 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryOutputStreamCoverageTestCase {
+  
+  /**
+   * Small sorter so tests spill several runs
+   */
+  private static final GeoCellSorter SORTER = new GeoCellSorter(8 * 1024, null);
+  
+  private static byte[][] circle(String def, int resolution) throws IOException {
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    
+    OutputStreamCoverage c = new OutputStreamCoverage(text);
+    GeoParser.parseCircle(def, resolution, c);
+    c.close();
+
+    BinaryOutputStreamCoverage bc = new BinaryOutputStreamCoverage(binary);
+    GeoParser.parseCircle(def, resolution, bc);
+    bc.close();
+    
+    return new byte[][] { text.toByteArray(), binary.toByteArray() };
+  }
+  
+  private static long[] text(byte[] bytes) throws IOException {
+    return OutputStreamCoverage.toGeoCells(new ByteArrayInputStream(bytes));
+  }
+  
+  private static long[] binary(byte[] bytes) throws IOException {
+    return BinaryOutputStreamCoverage.toGeoCells(new ByteArrayInputStream(bytes));
+  }
+  
+  @Test
+  public void testSorter() throws Exception {
+    Random rand = new Random(42L);
+    
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GeoCellWriter writer = new GeoCellWriter(out);
+    TreeSet<String> expected = new TreeSet<String>();
+    
+    for (int i = 0; i < 50000; i++) {
+      int r = 1 + rand.nextInt(4);
+      long hhcode = rand.nextLong();
+      long geocell = (((long) r) << 60) | ((hhcode & Coverage.PREFIX_MASK[r - 1]) >>> 4);
+      writer.write(geocell);
+      expected.add(HHCodeHelper.toString(hhcode, 2 * r));
+    }
+    
+    writer.close();
+    
+    ByteArrayOutputStream sorted = new ByteArrayOutputStream();
+    SORTER.sort(new ByteArrayInputStream(out.toByteArray()), sorted);
+    
+    // Geocells come out in the order of their hex representation, without duplicates
+    GeoCellReader reader = new GeoCellReader(new ByteArrayInputStream(sorted.toByteArray()));
+    
+    for (String cell: expected) {
+      Assert.assertTrue(reader.hasNext());
+      long geocell = reader.next();
+      int r = (int) (geocell >>> 60);
+      Assert.assertEquals(cell, HHCodeHelper.toString(geocell << 4, 2 * r));
+    }
+    
+    Assert.assertFalse(reader.hasNext());
+  }
+  
+  @Test
+  public void testOptimize() throws Exception {
+    byte[][] c = circle("48.0:-4.5:5000", 18);
+    
+    Assert.assertArrayEquals(text(c[0]), binary(c[1]));
+    Assert.assertTrue(text(c[0]).length > 500);
+    
+    for (long thresholds: new long[] { 0L, 0x8888888888888888L }) {
+      ByteArrayOutputStream text = new ByteArrayOutputStream();
+      ByteArrayOutputStream binary = new ByteArrayOutputStream();
+      
+      OutputStreamCoverage.optimize(new ByteArrayInputStream(c[0]), text, thresholds, 0);
+      BinaryOutputStreamCoverage.optimize(new ByteArrayInputStream(c[1]), binary, thresholds, 0, SORTER);
+      
+      Assert.assertArrayEquals(text(text.toByteArray()), binary(binary.toByteArray()));
+      
+      text.reset();
+      binary.reset();
+      
+      OutputStreamCoverage.prune(new ByteArrayInputStream(c[0]), text, thresholds, 0);
+      BinaryOutputStreamCoverage.prune(new ByteArrayInputStream(c[1]), binary, thresholds, 0, SORTER);
+      
+      Assert.assertArrayEquals(text(text.toByteArray()), binary(binary.toByteArray()));
+    }
+  }
+  
+  @Test
+  public void testMinusIntersection() throws Exception {
+    byte[][] a = circle("48.0:-4.5:5000", 18);
+    byte[][] b = circle("48.02:-4.47:3000", 18);
+    
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    
+    OutputStreamCoverage.minus(new ByteArrayInputStream(a[0]), new ByteArrayInputStream(b[0]), text);
+    BinaryOutputStreamCoverage.minus(new ByteArrayInputStream(a[1]), new ByteArrayInputStream(b[1]), binary, SORTER);
+    
+    long[] minus = binary(binary.toByteArray());
+    Assert.assertArrayEquals(text(text.toByteArray()), minus);
+    
+    text.reset();
+    binary.reset();
+    
+    OutputStreamCoverage.intersection(new ByteArrayInputStream(a[0]), new ByteArrayInputStream(b[0]), text);
+    BinaryOutputStreamCoverage.intersection(new ByteArrayInputStream(a[1]), new ByteArrayInputStream(b[1]), binary, SORTER);
+    
+    long[] intersection = binary(binary.toByteArray());
+    Assert.assertArrayEquals(text(text.toByteArray()), intersection);
+    
+    Assert.assertTrue(minus.length > 0 && intersection.length > 0);
+    
+    // Both parts make up the whole first coverage
+    long[] all = new long[minus.length + intersection.length];
+    System.arraycopy(minus, 0, all, 0, minus.length);
+    System.arraycopy(intersection, 0, all, minus.length, intersection.length);
+    Arrays.sort(all);
+    
+    ByteArrayOutputStream sorted = new ByteArrayOutputStream();
+    BinaryOutputStreamCoverage.sort(new ByteArrayInputStream(a[1]), sorted, SORTER);
+    Assert.assertArrayEquals(binary(sorted.toByteArray()), all);
+  }
+}
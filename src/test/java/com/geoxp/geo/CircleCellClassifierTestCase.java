@@ -0,0 +1,142 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircleCellClassifierTestCase {
+
+  private static long[] cover(double lat, double lon, double radius, int resolution) {
+    Coverage coverage = HHCodeHelper.coverCircle(HHCodeHelper.toLongLat(lat), HHCodeHelper.toLongLon(lon), radius, resolution, new Coverage());
+    long[] geocells = coverage.toGeoCells(32);
+    Arrays.sort(geocells);
+    return geocells;
+  }
+
+  /**
+   * Check that random locations around a circle are in its coverage if and only if they are
+   * within its radius, allowing for the diagonal of the finest cells.
+   */
+  private static void check(double lat, double lon, double radius, int resolution) {
+    long[] geocells = cover(lat, lon, radius, resolution);
+
+    long center = HHCodeHelper.getHHCodeValue(lat, lon);
+
+    // Diagonal of the finest cells, at most
+    double diagonal = Math.sqrt(2.0D) * 2.0D * Math.PI * 6366707.0D / (1L << resolution);
+
+    Random rand = new Random(42L);
+
+    double span = 2.0D * radius / (1852.0D * 60.0D);
+
+    for (int i = 0; i < 20000; i++) {
+      double plat = Math.max(-90.0D, Math.min(89.999999D, lat + (rand.nextDouble() - 0.5D) * 2.0D * span));
+      double plon = lon + (rand.nextDouble() - 0.5D) * 2.0D * span / Math.max(Math.cos(Math.toRadians(plat)), 0.01D);
+      plon = plon >= 180.0D ? plon - 360.0D : (plon < -180.0D ? plon + 360.0D : plon);
+
+      long hhcode = HHCodeHelper.getHHCodeValue(plat, plon);
+      double distance = HHCodeHelper.orthodromicDistance(center, hhcode);
+
+      if (distance <= radius) {
+        Assert.assertTrue(Coverage.contains(geocells, hhcode));
+      } else if (distance > radius + diagonal) {
+        Assert.assertFalse(Coverage.contains(geocells, hhcode));
+      }
+    }
+  }
+
+  @Test
+  public void testCircle() {
+    check(48.0D, -4.5D, 5000.0D, 20);
+  }
+
+  @Test
+  public void testPole() {
+    check(89.9D, 10.0D, 50000.0D, 18);
+
+    // Location on the other side of the pole
+    long[] geocells = cover(89.9D, 10.0D, 50000.0D, 18);
+    Assert.assertTrue(Coverage.contains(geocells, HHCodeHelper.getHHCodeValue(89.8D, -170.0D)));
+  }
+
+  @Test
+  public void testPastPole() {
+    // Radius of about 40.34 degrees, the circle extends 22.24 degrees past the pole
+    double radius = 40.34D * 60.0D * 1852.0D;
+
+    CircleCellClassifier classifier = new CircleCellClassifier(HHCodeHelper.toLongLat(72.10D), HHCodeHelper.toLongLon(-8.06D), radius);
+
+    // Cell 67.5/78.75 157.5/180 contains the antimeridian of the center but not its antipode,
+    // its farthest point (67.5,171.94) is not a corner and is 40.4 degrees away
+    Assert.assertEquals(CellClassifier.INTERSECTS, classifier.classify(HHCodeHelper.getHHCodeValue(70.0D, 170.0D), 4));
+
+    long[] geocells = cover(72.10D, -8.06D, radius, 10);
+
+    long center = HHCodeHelper.getHHCodeValue(72.10D, -8.06D);
+    double diagonal = Math.sqrt(2.0D) * 2.0D * Math.PI * 6366707.0D / (1L << 10);
+
+    Random rand = new Random(42L);
+
+    for (int i = 0; i < 20000; i++) {
+      double plat = 20.0D + rand.nextDouble() * 69.999999D;
+      double plon = -180.0D + rand.nextDouble() * 360.0D;
+
+      long hhcode = HHCodeHelper.getHHCodeValue(plat, plon);
+      double distance = HHCodeHelper.orthodromicDistance(center, hhcode);
+
+      if (distance <= radius) {
+        Assert.assertTrue(Coverage.contains(geocells, hhcode));
+      } else if (distance > radius + diagonal) {
+        Assert.assertFalse(Coverage.contains(geocells, hhcode));
+      }
+    }
+  }
+
+  @Test
+  public void testAntimeridian() {
+    check(0.0D, 179.99D, 5000.0D, 20);
+
+    long[] geocells = cover(0.0D, 179.99D, 5000.0D, 20);
+    Assert.assertTrue(Coverage.contains(geocells, HHCodeHelper.getHHCodeValue(0.0D, -179.99D)));
+  }
+
+  @Test
+  public void testMultiResolution() {
+    Coverage coverage = GeoParser.parseCircle("48.0:-4.5:5000", 20);
+
+    Assert.assertTrue(coverage.getResolutions().size() > 2);
+
+    // Cells inside the circle are coarser than the finest ones
+    long hhcode = HHCodeHelper.getHHCodeValue(48.0D, -4.5D);
+    Assert.assertFalse(coverage.contains(20, hhcode));
+
+    CircleCellClassifier classifier = new CircleCellClassifier(HHCodeHelper.toLongLat(48.0D), HHCodeHelper.toLongLon(-4.5D), 5000.0D);
+
+    Assert.assertEquals(CellClassifier.INTERSECTS, classifier.classify(hhcode, 2));
+    Assert.assertEquals(CellClassifier.CONTAINED, classifier.classify(hhcode, 16));
+    Assert.assertEquals(CellClassifier.DISJOINT, classifier.classify(HHCodeHelper.getHHCodeValue(48.1D, -4.5D), 16));
+  }
+}
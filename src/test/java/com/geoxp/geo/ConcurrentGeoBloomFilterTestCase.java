@@ -0,0 +1,131 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.geoxp.GeoXPLib;
+
+public class ConcurrentGeoBloomFilterTestCase {
+  
+  @Test
+  public void testSameAsGeoBloomFilter() {
+    // A single generation large enough so both filters use identical bit positions
+    for (boolean slice: new boolean[] { true, false }) {
+      int[] n = new int[] { 1000000 };
+      double[] p = new double[] { 0.01 };
+      
+      GeoBloomFilter gbf = new GeoBloomFilter(10, n, p, 6, slice);
+      ConcurrentGeoBloomFilter cgbf = new ConcurrentGeoBloomFilter(10, n, p, 6, slice);
+      
+      Random rand = new Random(42L);
+      
+      for (int i = 0; i < 10000; i++) {
+        long hhcode = GeoXPLib.toGeoXPPoint(48.0 + rand.nextDouble(), -4.55 + rand.nextDouble());
+        gbf.add(hhcode);
+        cgbf.add(hhcode);
+      }
+      
+      for (int i = 0; i < 100000; i++) {
+        long hhcode = GeoXPLib.toGeoXPPoint(47.5 + 2.0 * rand.nextDouble(), -5.0 + 2.0 * rand.nextDouble());
+        for (long cell: GeoXPLib.indexable(hhcode)) {
+          cell = gbf.fixCell(cell);
+          Assert.assertEquals(gbf.contains(cell), cgbf.contains(cell));
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testGenerationLimit() {
+    ConcurrentGeoBloomFilter cgbf = new ConcurrentGeoBloomFilter(10, new int[] { 1000, 100000 }, new double[] { 0.01, 0.01 }, 6, true);
+    
+    Random rand = new Random(42L);
+    long size = cgbf.size();
+    
+    while (size == cgbf.size()) {
+      cgbf.add(GeoXPLib.toGeoXPPoint(-90.0 + 180.0 * rand.nextDouble(), -180.0 + 360.0 * rand.nextDouble()));
+    }
+    
+    // The limit is checked every CHECK_INTERVAL new elements, a single add inserts up to 10 cells
+    Assert.assertTrue(cgbf.count() >= 1000);
+    Assert.assertTrue(cgbf.count() < 1000 + ConcurrentGeoBloomFilter.CHECK_INTERVAL + 10);
+  }
+  
+  @Test
+  public void testConcurrentAdd() throws Exception {
+    final ConcurrentGeoBloomFilter cgbf = new ConcurrentGeoBloomFilter(10, null, null, 6, true);
+    final long[][] hhcodes = new long[4][50000];
+    
+    Random rand = new Random(42L);
+    
+    for (long[] codes: hhcodes) {
+      for (int i = 0; i < codes.length; i++) {
+        codes[i] = GeoXPLib.toGeoXPPoint(-90.0 + 180.0 * rand.nextDouble(), -180.0 + 360.0 * rand.nextDouble());
+      }
+    }
+    
+    Thread[] threads = new Thread[hhcodes.length];
+    
+    for (int t = 0; t < threads.length; t++) {
+      final long[] codes = hhcodes[t];
+      threads[t] = new Thread() {
+        public void run() {
+          for (long hhcode: codes) {
+            cgbf.add(hhcode);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    
+    for (Thread thread: threads) {
+      thread.join();
+    }
+    
+    // Generations were switched while adding, no element may have been lost
+    Assert.assertTrue(cgbf.count() > 100000);
+    
+    for (long[] codes: hhcodes) {
+      for (long hhcode: codes) {
+        for (long cell: GeoXPLib.indexable(hhcode)) {
+          Assert.assertTrue(cgbf.containsHierarchy(cgbf.fixCell(cell)));
+        }
+      }
+    }
+    
+    // Cells not added should mostly be rejected, false positive rates of the
+    // filled generations (1% to 5%) add up
+    int fp = 0;
+    
+    for (int i = 0; i < 10000; i++) {
+      long cell = 0xa000000000000000L | (rand.nextLong() & 0x0ffffffffff00000L);
+      if (cgbf.contains(cell)) {
+        fp++;
+      }
+    }
+    
+    Assert.assertTrue(fp < 2500);
+  }
+}
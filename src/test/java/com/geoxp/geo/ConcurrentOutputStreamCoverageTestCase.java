@@ -0,0 +1,124 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentOutputStreamCoverageTestCase {
+  
+  private static final String[] CIRCLES = {
+    "48.0:-4.5:5000",
+    "48.02:-4.47:3000",
+    "47.98:-4.52:4000",
+    "48.05:-4.4:2000",
+  };
+  
+  /**
+   * Cover the circles from one thread each
+   */
+  private static void cover(final Coverage c) throws Exception {
+    List<Thread> threads = new ArrayList<Thread>();
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    
+    for (final String circle: CIRCLES) {
+      Thread t = new Thread() {
+        public void run() {
+          try {
+            GeoParser.parseCircle(circle, 18, c);
+          } catch (Throwable th) {
+            synchronized (errors) {
+              errors.add(th);
+            }
+          }
+        }
+      };
+      threads.add(t);
+      t.start();
+    }
+    
+    for (Thread t: threads) {
+      t.join();
+    }
+    
+    Assert.assertTrue(errors.isEmpty());
+  }
+  
+  @Test
+  public void testText() throws Exception {
+    TreeSet<String> expected = new TreeSet<String>();
+    
+    for (String circle: CIRCLES) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      OutputStreamCoverage c = new OutputStreamCoverage(out);
+      GeoParser.parseCircle(circle, 18, c);
+      c.close();
+      expected.addAll(Arrays.asList(new String(out.toByteArray()).split("\n")));
+    }
+    
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // Small buffers so each thread spills several runs
+    ConcurrentOutputStreamCoverage c = new ConcurrentOutputStreamCoverage(out, false, null, 1024, null);
+    cover(c);
+    c.close();
+    
+    // Lines come out sorted and without duplicates
+    List<String> lines = Arrays.asList(new String(out.toByteArray()).split("\n"));
+    Assert.assertTrue(lines.size() > 2000);
+    Assert.assertEquals(new ArrayList<String>(expected), lines);
+  }
+  
+  @Test
+  public void testBinary() throws Exception {
+    ByteArrayOutputStream all = new ByteArrayOutputStream();
+    BinaryOutputStreamCoverage bc = new BinaryOutputStreamCoverage(all);
+    
+    for (String circle: CIRCLES) {
+      GeoParser.parseCircle(circle, 18, bc);
+    }
+    
+    bc.close();
+    
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    BinaryOutputStreamCoverage.sort(new ByteArrayInputStream(all.toByteArray()), expected);
+    
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ConcurrentOutputStreamCoverage c = new ConcurrentOutputStreamCoverage(out, true, null, 1024, null);
+    cover(c);
+    c.close();
+    
+    Assert.assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    
+    try {
+      c.addCell(18, 0L);
+      Assert.fail();
+    } catch (RuntimeException re) {
+    }
+  }
+}
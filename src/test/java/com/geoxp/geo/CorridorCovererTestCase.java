@@ -0,0 +1,146 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CorridorCovererTestCase {
+
+  private static final double METERS_PER_DEGREE = 1852.0D * 60.0D;
+
+  private static long[] cover(VertexBuffer vertices, double distance, int resolution, int join) {
+    Coverage coverage = HHCodeHelper.coverCorridor(vertices, distance, resolution, join, new Coverage());
+    long[] geocells = coverage.toGeoCells(32);
+    Arrays.sort(geocells);
+    return geocells;
+  }
+
+  /**
+   * Return the HHCode at an offset in meters from a location
+   */
+  private static long offset(double lat, double lon, double north, double east) {
+    return HHCodeHelper.getHHCodeValue(lat + north / METERS_PER_DEGREE, lon + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat))));
+  }
+
+  @Test
+  public void testStraight() {
+    VertexBuffer vertices = new VertexBuffer();
+    vertices.add(HHCodeHelper.toLongLat(48.0), HHCodeHelper.toLongLon(-4.5));
+    vertices.add(HHCodeHelper.toLongLat(48.0), HHCodeHelper.toLongLon(-4.0));
+
+    for (int join: new int[] { CorridorCoverer.JOIN_ROUND, CorridorCoverer.JOIN_MITRE }) {
+      long[] geocells = cover(vertices, 1000.0D, 20, join);
+
+      Assert.assertTrue(Coverage.contains(geocells, offset(48.0, -4.25, 0.0, 0.0)));
+      Assert.assertTrue(Coverage.contains(geocells, offset(48.0, -4.25, 950.0, 0.0)));
+      Assert.assertTrue(Coverage.contains(geocells, offset(48.0, -4.25, -950.0, 0.0)));
+      Assert.assertFalse(Coverage.contains(geocells, offset(48.0, -4.25, 1100.0, 0.0)));
+      Assert.assertFalse(Coverage.contains(geocells, offset(48.0, -4.25, -1100.0, 0.0)));
+
+      // Caps
+      Assert.assertTrue(Coverage.contains(geocells, offset(48.0, -4.5, 0.0, -950.0)));
+      Assert.assertFalse(Coverage.contains(geocells, offset(48.0, -4.5, 0.0, -1100.0)));
+      Assert.assertEquals(CorridorCoverer.JOIN_MITRE == join, Coverage.contains(geocells, offset(48.0, -4.0, 900.0, 900.0)));
+    }
+  }
+
+  @Test
+  public void testJoins() {
+    //
+    // Polyline going east then north
+    //
+
+    VertexBuffer vertices = new VertexBuffer();
+    vertices.add(HHCodeHelper.toLongLat(48.0), HHCodeHelper.toLongLon(-4.5));
+    vertices.add(HHCodeHelper.toLongLat(48.0), HHCodeHelper.toLongLon(-4.0));
+    vertices.add(HHCodeHelper.toLongLat(48.5), HHCodeHelper.toLongLon(-4.0));
+
+    long[] round = cover(vertices, 1000.0D, 20, CorridorCoverer.JOIN_ROUND);
+    long[] mitre = cover(vertices, 1000.0D, 20, CorridorCoverer.JOIN_MITRE);
+
+    // Outer corner of the turn, 1.27 km from the vertex
+    long corner = offset(48.0, -4.0, -900.0, 900.0);
+
+    Assert.assertFalse(Coverage.contains(round, corner));
+    Assert.assertTrue(Coverage.contains(mitre, corner));
+
+    // Point on the outer side of the turn within the distance of the vertex
+    long outer = offset(48.0, -4.0, -600.0, 600.0);
+
+    Assert.assertTrue(Coverage.contains(round, outer));
+    Assert.assertTrue(Coverage.contains(mitre, outer));
+
+    // Inner side
+    Assert.assertTrue(Coverage.contains(round, offset(48.0, -4.0, 900.0, -900.0)));
+    Assert.assertTrue(Coverage.contains(mitre, offset(48.0, -4.0, 900.0, -900.0)));
+  }
+
+  @Test
+  public void testSingleEmission() {
+    //
+    // A zigzag route with a wide corridor, the overlapping pieces of the corridor
+    // MUST not lead to overlapping cells
+    //
+
+    VertexBuffer vertices = new VertexBuffer();
+
+    for (int i = 0; i < 50; i++) {
+      vertices.add(HHCodeHelper.toLongLat(45.0 + 0.1 * (i & 1)), HHCodeHelper.toLongLon(i * 0.05));
+    }
+
+    Coverage coverage = HHCodeHelper.coverCorridor(vertices, 5000.0D, 22, CorridorCoverer.JOIN_ROUND, new Coverage());
+
+    // Inner parts are covered by coarser cells
+    Assert.assertTrue(coverage.getResolutions().size() > 1);
+
+    long[] geocells = coverage.toGeoCells(32);
+    Arrays.sort(geocells);
+
+    for (long geocell: geocells) {
+      long parent = HHCodeHelper.parentGeoCell(geocell);
+
+      while (0L != parent) {
+        Assert.assertTrue(Arrays.binarySearch(geocells, parent) < 0);
+        parent = HHCodeHelper.parentGeoCell(parent);
+      }
+    }
+
+    //
+    // Covering the segments one by one re-covers the overlaps at the joints
+    //
+
+    Coverage segments = new Coverage();
+
+    for (int i = 0; i < vertices.size() - 1; i++) {
+      HHCodeHelper.coverSegment(vertices.getLat(i), vertices.getLon(i), vertices.getLat(i + 1), vertices.getLon(i + 1), 5000.0D, 22, segments);
+    }
+
+    Assert.assertTrue(coverage.getCellCount() < segments.getCellCount());
+
+    for (int i = 0; i < vertices.size(); i++) {
+      Assert.assertTrue(Coverage.contains(geocells, HHCodeHelper.buildHHCode(vertices.getLat(i), vertices.getLon(i), 32)));
+    }
+  }
+}
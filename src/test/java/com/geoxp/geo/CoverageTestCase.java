@@ -31,6 +31,9 @@ import java.util.List;
 
 import org.junit.Test;
 
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.procedure.TLongProcedure;
+
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
@@ -338,7 +341,7 @@ public class CoverageTestCase extends TestCase {
     
     assertEquals(1, coverage.getResolutions().size());
     assertTrue(coverage.getResolutions().contains(4));
-    assertEquals("f3 f0 f1 f2 f4 f5 f6 f7 f8 f9 fa fb fc fd fe ff", coverage.toString());
+    assertEquals("f0 f1 f2 f3 f4 f5 f6 f7 f8 f9 fa fb fc fd fe ff", coverage.toString());
   }
 
   @Test
@@ -353,7 +356,7 @@ public class CoverageTestCase extends TestCase {
     
     assertEquals(1, coverage.getResolutions().size());
     assertTrue(coverage.getResolutions().contains(4));
-    assertEquals("f3 f0 f1 f2 f4 f5 f6 f7 f8 f9 fa fb fc fd fe ff", coverage.toString());
+    assertEquals("f0 f1 f2 f3 f4 f5 f6 f7 f8 f9 fa fb fc fd fe ff", coverage.toString());
   }
 
   @Test
@@ -392,7 +395,7 @@ public class CoverageTestCase extends TestCase {
     Assert.assertEquals(hca, a.hashCode());
     Assert.assertEquals(hcb, b.hashCode());
     
-    Assert.assertEquals("07 03 01 02 04 05 06 08 09 0a 0b 0c 0d 0e 0f", c.toString());
+    Assert.assertEquals("01 02 03 04 05 06 07 08 09 0a 0b 0c 0d 0e 0f", c.toString());
 
     b = new Coverage();
     b.addCell(12, 0);
@@ -424,7 +427,7 @@ public class CoverageTestCase extends TestCase {
     Assert.assertEquals(hca, a.hashCode());
     Assert.assertEquals(hcb, b.hashCode());
     
-    Assert.assertEquals("07 03 01 02 04 05 06 08 09 0a 0b 0c 0d 0e 0f", c.toString());
+    Assert.assertEquals("01 02 03 04 05 06 07 08 09 0a 0b 0c 0d 0e 0f", c.toString());
 
     b = new Coverage();
     b.addCell(12, 0);
@@ -662,6 +665,52 @@ public class CoverageTestCase extends TestCase {
     }
   }
   
+  @Test
+  public void testPrimitiveIteration() {
+    Coverage c = new Coverage();
+    
+    // Cell 0 must be storable as any other cell
+    c.addCell(2, 0x0L);
+    c.addCell(2, 0xf000000000000000L);
+    c.addCell(4, 0x1200000000000000L);
+    c.addCell(4, 0x1300000000000000L);
+    
+    Assert.assertTrue(c.contains(2, 0x0123456789abcdefL));
+    Assert.assertEquals(2, c.getCellCount(2));
+    
+    long[] cells = c.getCellArray(4);
+    Arrays.sort(cells);
+    Assert.assertEquals(2, cells.length);
+    Assert.assertEquals(0x1200000000000000L, cells[0]);
+    Assert.assertEquals(0x1300000000000000L, cells[1]);
+    
+    long sum = 0L;
+    int count = 0;
+    for (TLongIterator iter = c.cellIterator(4); iter.hasNext();) {
+      sum += iter.next();
+      count++;
+    }
+    Assert.assertEquals(2, count);
+    Assert.assertEquals(0x2500000000000000L, sum);
+    
+    final long[] found = new long[1];
+    Assert.assertTrue(c.forEachCell(2, new TLongProcedure() {
+      public boolean execute(long value) {
+        found[0] |= value;
+        return true;
+      }
+    }));
+    Assert.assertEquals(0xf000000000000000L, found[0]);
+    
+    // getCells is a live view
+    c.getCells(4).remove(0x1200000000000000L);
+    Assert.assertFalse(c.contains(4, 0x1200000000000000L));
+    
+    c.removeCell(2, 0x0L);
+    Assert.assertEquals(1, c.getCellCount(2));
+    Assert.assertEquals(0, c.getCellArray(6).length);
+  }
+  
   @Test
   public void testEnvelope() throws Exception {
     
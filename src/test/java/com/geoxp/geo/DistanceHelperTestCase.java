@@ -0,0 +1,101 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistanceHelperTestCase {
+
+  private static final int N = 100000;
+
+  private static long[] random(Random rand, int n, double latspan, double lonspan) {
+    long[] hhcodes = new long[n];
+
+    for (int i = 0; i < n; i++) {
+      hhcodes[i] = HHCodeHelper.getHHCodeValue((rand.nextDouble() - 0.5) * latspan, (rand.nextDouble() - 0.5) * lonspan);
+    }
+
+    return hhcodes;
+  }
+
+  @Test
+  public void testOrthodromic() {
+    Random rand = new Random(42L);
+
+    // Worldwide and local destinations
+    for (double span: new double[] { 1.0D, 0.01D }) {
+      long[] from = random(rand, N, 179.0D * span, 359.0D * span);
+      long[] to = random(rand, N, 179.0D * span, 359.0D * span);
+
+      double[] exact = new double[N];
+      double[] fast = new double[N];
+
+      DistanceHelper.orthodromicDistances(from, to, N, exact, false);
+      DistanceHelper.orthodromicDistances(from, to, N, fast, true);
+
+      for (int i = 0; i < N; i++) {
+        double expected = HHCodeHelper.orthodromicDistance(from[i], to[i]);
+        Assert.assertEquals(expected, exact[i], expected * 1.0E-12D);
+        Assert.assertEquals(expected, fast[i], expected * DistanceHelper.FAST_MAX_RELATIVE_ERROR);
+      }
+
+      DistanceHelper.orthodromicDistances(from[0], to, N, exact, false);
+      DistanceHelper.orthodromicDistances(from[0], to, N, fast, true);
+
+      for (int i = 0; i < N; i++) {
+        double expected = HHCodeHelper.orthodromicDistance(from[0], to[i]);
+        Assert.assertEquals(expected, exact[i], expected * 1.0E-12D);
+        Assert.assertEquals(expected, fast[i], expected * DistanceHelper.FAST_MAX_RELATIVE_ERROR);
+      }
+    }
+  }
+
+  @Test
+  public void testLoxodromic() {
+    Random rand = new Random(42L);
+
+    long[] from = random(rand, N, 179.0D, 359.0D);
+    long[] to = random(rand, N, 179.0D, 359.0D);
+
+    double[] exact = new double[N];
+    double[] fast = new double[N];
+
+    DistanceHelper.loxodromicDistances(from, to, N, exact, false);
+    DistanceHelper.loxodromicDistances(from, to, N, fast, true);
+
+    for (int i = 0; i < N; i++) {
+      double expected = HHCodeHelper.loxodromicDistance(from[i], to[i]);
+      Assert.assertEquals(expected, exact[i], expected * 1.0E-12D);
+      Assert.assertEquals(expected, fast[i], expected * DistanceHelper.FAST_MAX_RELATIVE_ERROR);
+    }
+
+    DistanceHelper.loxodromicDistances(from[0], to, N, exact, false);
+
+    for (int i = 0; i < N; i++) {
+      double expected = HHCodeHelper.loxodromicDistance(from[0], to[i]);
+      Assert.assertEquals(expected, exact[i], expected * 1.0E-12D);
+    }
+  }
+}
@@ -20,6 +20,15 @@
 
 package com.geoxp.geo;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -54,4 +63,245 @@ public class GeoBloomFilterTest {
     
     System.out.println(nano / 1000000.0D);
   }
+  
+  /**
+   * Add 'count' random points around Brest and return the false positive rate
+   * of cells at the finest resolution in a disjoint area
+   */
+  private static double check(GeoBloomFilter gbf, int count) {
+    Random rand = new Random(42L);
+    
+    for (int i = 0; i < count; i++) {
+      gbf.add(GeoXPLib.toGeoXPPoint(48.0 + rand.nextDouble(), -4.55 + rand.nextDouble()));
+    }
+    
+    rand = new Random(42L);
+    
+    for (int i = 0; i < count; i++) {
+      long hhcode = GeoXPLib.toGeoXPPoint(48.0 + rand.nextDouble(), -4.55 + rand.nextDouble());
+      for (long cell: GeoXPLib.indexable(hhcode)) {
+        Assert.assertTrue(gbf.containsHierarchy(gbf.fixCell(cell)));
+      }
+    }
+    
+    int fp = 0;
+    int n = 100000;
+    
+    for (int i = 0; i < n; i++) {
+      long hhcode = GeoXPLib.toGeoXPPoint(47.0 + rand.nextDouble(), -4.55 + rand.nextDouble());
+      if (gbf.contains(gbf.fixCell(0xf000000000000000L | (hhcode >>> 4)))) {
+        fp++;
+      }
+    }
+    
+    return fp / (double) n;
+  }
+  
+  @Test
+  public void testBlocked() {
+    int[] n = new int[] { 100000 };
+    double[] p = new double[] { 0.01 };
+    
+    double standard = check(new GeoBloomFilter(10, n, p, 6, true), 10000);
+    double blocked = check(new GeoBloomFilter(10, n, p, 6, true, true), 10000);
+    
+    // 10000 points add 100000 cells (10 resolutions), the filters are full
+    Assert.assertTrue(standard < 0.02);
+    Assert.assertTrue(blocked < 2.0 * standard + 0.005);
+  }
+  
+  @Test
+  public void testGenerations() {
+    for (boolean blocked: new boolean[] { false, true }) {
+      GeoBloomFilter gbf = new GeoBloomFilter(10, null, null, 6, false, blocked);
+      Assert.assertTrue(check(gbf, 20000) < 0.15);
+      // Generations 0 to 2 were allocated
+      Assert.assertTrue(gbf.size() > 730000 / 8);
+    }
+  }
+  
+  @Test
+  public void testPersistence() throws Exception {
+    for (int mode = 0; mode < 3; mode++) {
+      boolean slice = 1 == mode;
+      boolean blocked = 2 == mode;
+      
+      GeoBloomFilter gbf = new GeoBloomFilter(10, null, null, 6, slice, blocked, 42L);
+      GeoBloomFilter other = new GeoBloomFilter(10, null, null, 6, slice, blocked, 42L);
+      check(gbf, 5000);
+      check(other, 5000);
+      
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      gbf.write(out);
+      byte[] bytes = out.toByteArray();
+      
+      // Filters built from the same seed and data are identical
+      out.reset();
+      other.write(out);
+      Assert.assertArrayEquals(bytes, out.toByteArray());
+      
+      File file = File.createTempFile("gbf", ".bin");
+      file.deleteOnExit();
+      FileOutputStream fos = new FileOutputStream(file);
+      fos.write(bytes);
+      fos.close();
+      
+      GeoBloomFilter loaded = GeoBloomFilter.load(ByteBuffer.wrap(bytes));
+      GeoBloomFilter mapped = GeoBloomFilter.map(file);
+      
+      Assert.assertEquals(gbf.size(), mapped.size());
+      
+      Random rand = new Random(0L);
+      
+      for (int i = 0; i < 100000; i++) {
+        long hhcode = GeoXPLib.toGeoXPPoint(47.5 + 2.0 * rand.nextDouble(), -5.0 + 2.0 * rand.nextDouble());
+        for (long cell: GeoXPLib.indexable(hhcode)) {
+          cell = gbf.fixCell(cell);
+          boolean expected = gbf.contains(cell);
+          Assert.assertEquals(expected, loaded.contains(cell));
+          Assert.assertEquals(expected, mapped.contains(cell));
+        }
+      }
+      
+      // A loaded filter can still be fed, a mapped one cannot
+      long hhcode = GeoXPLib.toGeoXPPoint(10.0, 10.0);
+      loaded.add(hhcode);
+      Assert.assertTrue(loaded.containsHierarchy(loaded.fixCell(0xf000000000000000L | (hhcode >>> 4))));
+      
+      try {
+        mapped.add(hhcode);
+        Assert.fail();
+      } catch (ReadOnlyBufferException robe) {
+      }
+    }
+    
+    try {
+      GeoBloomFilter.load(ByteBuffer.wrap(new byte[64]));
+      Assert.fail();
+    } catch (RuntimeException re) {
+    }
+  }
+  
+  @Test
+  public void testMerge() {
+    GeoBloomFilter a = new GeoBloomFilter(10, null, null, 6, true, false, 42L);
+    GeoBloomFilter b = new GeoBloomFilter(10, null, null, 6, true, false, 42L);
+    
+    Random rand = new Random(0L);
+    long[] hhcodes = new long[20000];
+    
+    for (int i = 0; i < hhcodes.length; i++) {
+      hhcodes[i] = GeoXPLib.toGeoXPPoint(-90.0 + 180.0 * rand.nextDouble(), -180.0 + 360.0 * rand.nextDouble());
+      // Feed 'a' with far fewer points so it stays a few generations behind 'b'
+      if (0 == i % 10) {
+        a.add(hhcodes[i]);
+      } else {
+        b.add(hhcodes[i]);
+      }
+    }
+    
+    a.merge(b);
+    
+    for (long hhcode: hhcodes) {
+      Assert.assertTrue(a.containsHierarchy(a.fixCell(0xf000000000000000L | (hhcode >>> 4))));
+    }
+    
+    try {
+      a.merge(new GeoBloomFilter(10, null, null, 6, true, false, 43L));
+      Assert.fail();
+    } catch (RuntimeException re) {
+    }
+  }
+  
+  @Test
+  public void testSharded() {
+    int[] n = new int[] { 100000, 1000000 };
+    double[] p = new double[] { 0.01, 0.01 };
+    ShardedGeoBloomFilter sharded = new ShardedGeoBloomFilter(10, n, p, 6, true, true, 42L);
+    ShardedGeoBloomFilter other = new ShardedGeoBloomFilter(10, n, p, 6, true, true, 42L);
+    
+    Random rand = new Random(0L);
+    long[] hhcodes = new long[50000];
+    
+    for (int i = 0; i < hhcodes.length; i++) {
+      hhcodes[i] = GeoXPLib.toGeoXPPoint(40.0 + 20.0 * rand.nextDouble(), -10.0 + 20.0 * rand.nextDouble());
+    }
+    
+    long[] half = new long[hhcodes.length / 2];
+    System.arraycopy(hhcodes, 0, half, 0, half.length);
+    long[] rest = new long[hhcodes.length - half.length];
+    System.arraycopy(hhcodes, half.length, rest, 0, rest.length);
+    
+    ForkJoinPool pool = new ForkJoinPool(4);
+    sharded.addAll(half, pool);
+    other.addAll(rest, null);
+    pool.shutdown();
+    
+    sharded.merge(other);
+    
+    for (long hhcode: hhcodes) {
+      for (long cell: GeoXPLib.indexable(hhcode)) {
+        Assert.assertTrue(sharded.containsHierarchy(sharded.fixCell(cell)));
+      }
+      Assert.assertNotNull(sharded.getShard(ShardedGeoBloomFilter.shard(hhcode)));
+    }
+    
+    // Cells in shards that received no point
+    Assert.assertNull(sharded.getShard(0x00));
+    Assert.assertFalse(sharded.contains(0x2000000000000000L));
+    Assert.assertFalse(sharded.contains(0x1000000000000000L));
+    
+    int fp = 0;
+    
+    for (int i = 0; i < 10000; i++) {
+      long hhcode = GeoXPLib.toGeoXPPoint(40.0 + 20.0 * rand.nextDouble(), -10.0 + 20.0 * rand.nextDouble());
+      if (sharded.contains(sharded.fixCell(0xf000000000000000L | (hhcode >>> 4)))) {
+        fp++;
+      }
+    }
+    
+    Assert.assertTrue(fp < 500);
+  }
+  
+  @Test
+  public void testContainsHierarchy() {
+    for (int mode = 0; mode < 3; mode++) {
+      // Small generations so there are false positives at every resolution
+      GeoBloomFilter gbf = new GeoBloomFilter(10, new int[] { 2000, 20000 }, new double[] { 0.2, 0.2 }, 4, 1 == mode, 2 == mode, 42L);
+      check(gbf, 5000);
+      
+      Random rand = new Random(0L);
+      long[] cells = new long[200000];
+      
+      for (int i = 0; i < cells.length; i++) {
+        long hhcode = GeoXPLib.toGeoXPPoint(47.0 + 2.0 * rand.nextDouble(), -5.0 + 2.0 * rand.nextDouble());
+        cells[i] = gbf.fixCell((((long) (1 + rand.nextInt(15))) << 60) | (hhcode >>> 4));
+        cells[i] = cells[i] & (0xFFFFFFFFFFFFFFFFL << (60 - 4 * (int) (cells[i] >>> 60)));
+      }
+      
+      BitSet out = new BitSet();
+      out.set(0, cells.length);
+      gbf.containsAll(cells, out);
+      
+      int found = 0;
+      
+      for (int i = 0; i < cells.length; i++) {
+        // Walk up the hierarchy one cell at a time
+        long cell = cells[i];
+        while(0L != cell && gbf.contains(cell)) {
+          cell = HHCodeHelper.parentGeoCell(cell);
+        }
+        boolean expected = 0L == cell;
+        
+        Assert.assertEquals(expected, gbf.containsHierarchy(cells[i]));
+        Assert.assertEquals(expected, out.get(i));
+        
+        if (expected) {
+          found++;
+        }
+      }
+      
+      Assert.assertTrue(found > 0 && found < cells.length);
+    }
+  }
 }
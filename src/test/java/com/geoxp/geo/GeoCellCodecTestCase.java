@@ -0,0 +1,95 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GeoCellCodecTestCase {
+  
+  @Test
+  public void testRoundTrip() {
+    Coverage c = GeoParser.parseArea("circle:48.0:-4.5:5000", 24);
+    c.dedup();
+    long[] geocells = c.toGeoCells(30);
+    
+    for (boolean checksum: new boolean[] { false, true }) {
+      byte[] encoded = GeoCellCodec.encode(geocells, checksum);
+      
+      Assert.assertArrayEquals(geocells, GeoCellCodec.decode(encoded));
+      
+      // Dense shapes need much less than 8 bytes per cell
+      Assert.assertTrue(encoded.length < geocells.length * 3);
+      
+      // Decode from a direct buffer with other shapes around
+      ByteBuffer bb = ByteBuffer.allocateDirect(2 * encoded.length + 1);
+      bb.put((byte) 0x42);
+      bb.put(encoded);
+      bb.put(encoded);
+      bb.flip();
+      bb.get();
+      Assert.assertArrayEquals(geocells, GeoCellCodec.decode(bb));
+      Assert.assertEquals(encoded.length + 1, bb.position());
+      Assert.assertArrayEquals(geocells, GeoCellCodec.decode(bb));
+      Assert.assertEquals(0, bb.remaining());
+    }
+  }
+  
+  @Test
+  public void testEdges() {
+    long[] empty = new long[0];
+    Assert.assertArrayEquals(empty, GeoCellCodec.decode(GeoCellCodec.encode(empty, true)));
+    
+    long[] geocells = new long[] { 0x8ffffffff0000000L, 0xf000000000000000L, 0xffffffffffffffffL, 0x1000000000000000L, 0x1f00000000000000L, 0x70ffffff00000000L };
+    Assert.assertArrayEquals(geocells, GeoCellCodec.decode(GeoCellCodec.encode(geocells, false)));
+  }
+  
+  @Test
+  public void testErrors() {
+    Coverage c = GeoParser.parseArea("circle:48.0:-4.5:5000", 20);
+    long[] geocells = c.toGeoCells(30);
+    byte[] encoded = GeoCellCodec.encode(geocells, true);
+    
+    // Corrupt a cell
+    encoded[encoded.length - 6] ^= 0x01;
+    
+    try {
+      GeoCellCodec.decode(encoded);
+      Assert.fail();
+    } catch (RuntimeException re) {
+    }
+    
+    // Unsorted geocells
+    try {
+      GeoCellCodec.encode(new long[] { 0x1200000000000000L, 0x1100000000000000L }, false);
+      Assert.fail();
+    } catch (RuntimeException re) {
+    }
+    
+    try {
+      GeoCellCodec.encode(new long[] { 0x1200000000000000L, 0x2110000000000000L, 0x1300000000000000L }, false);
+      Assert.fail();
+    } catch (RuntimeException re) {
+    }
+  }
+}
@@ -0,0 +1,176 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GeoCellHelperTestCase {
+  
+  private static long[] shape(String def, int resolution) {
+    Coverage c = GeoParser.parseArea(def, resolution);
+    c.dedup();
+    c.optimize(0L);
+    return c.toGeoCells(30);
+  }
+  
+  /**
+   * Generate a random canonical set of geocells under a random cell at resolution 4
+   */
+  private static long[] randomShape(Random rand, long root, int maxres) {
+    Coverage c = new Coverage();
+    
+    int n = 1 + rand.nextInt(2000);
+    
+    for (int i = 0; i < n; i++) {
+      int res = 6 + 2 * rand.nextInt((maxres - 4) / 2);
+      long hhcode = (root & Coverage.PREFIX_MASK[1]) | (rand.nextLong() & ~Coverage.PREFIX_MASK[1]);
+      c.addCell(res, hhcode);
+    }
+    
+    c.dedup();
+    c.optimize(0L);
+    return c.toGeoCells(30);
+  }
+  
+  /**
+   * Check that 'result' covers exactly the HHCodes for which 'op' holds and is canonical.
+   *
+   * Coverage only changes at the bounds of the cells involved, so checking
+   * those bounds and their neighbours is exhaustive.
+   */
+  private static void check(long[] a, long[] b, long[] result, int op) {
+    GeoCellIndex ia = new GeoCellIndex(a);
+    GeoCellIndex ib = new GeoCellIndex(b);
+    GeoCellIndex ir = new GeoCellIndex(result);
+    
+    long[][] shapes = new long[][] { a, b, result };
+    
+    for (long[] shape: shapes) {
+      for (long geocell: shape) {
+        long[] hhcodes = new long[] {
+          GeoCellIndex.lowerBound(geocell), GeoCellIndex.lowerBound(geocell) - 1,
+          GeoCellIndex.upperBound(geocell), GeoCellIndex.upperBound(geocell) + 1,
+        };
+        
+        for (long hhcode: hhcodes) {
+          boolean ina = ia.contains(hhcode);
+          boolean inb = ib.contains(hhcode);
+          boolean expected = 0 == op ? (ina || inb) : (1 == op ? (ina && inb) : (ina && !inb));
+          Assert.assertEquals(expected, ir.contains(hhcode));
+        }
+      }
+    }
+    
+    //
+    // Check that result is sorted, made of disjoint cells and that no 16 siblings remain
+    //
+    
+    for (int i = 1; i < result.length; i++) {
+      Assert.assertTrue(result[i - 1] < result[i]);
+    }
+
+    Map<Long,Integer> siblings = new HashMap<Long,Integer>();
+    
+    for (long geocell: result) {
+      long r = geocell >>> 60;
+      if (r < 2) {
+        continue;
+      }
+      long parent = ((r - 1) << 60) | (geocell & (Coverage.PREFIX_MASK[(int) r - 2] >>> 4));
+      Integer count = siblings.get(parent);
+      siblings.put(parent, null == count ? 1 : count + 1);
+    }
+    
+    Assert.assertFalse(siblings.containsValue(16));
+    
+    // Lower bounds with the resolution in the 4 LSBs, sorted as unsigned values
+    long[] bounds = new long[result.length];
+    for (int i = 0; i < result.length; i++) {
+      bounds[i] = (GeoCellIndex.lowerBound(result[i]) ^ Long.MIN_VALUE) | (result[i] >>> 60);
+    }
+    Arrays.sort(bounds);
+    for (int i = 1; i < bounds.length; i++) {
+      long upper = (bounds[i - 1] & 0xfffffffffffffff0L) | (0xffffffffffffffffL >>> (4 * (bounds[i - 1] & 0xfL)));
+      Assert.assertTrue(bounds[i] > upper);
+    }
+  }
+  
+  private static void check(long[] a, long[] b) {
+    check(a, b, GeoCellHelper.union(a, b), 0);
+    check(a, b, GeoCellHelper.intersection(a, b), 1);
+    check(a, b, GeoCellHelper.subtraction(a, b), 2);
+    check(b, a, GeoCellHelper.subtraction(b, a), 2);
+  }
+  
+  @Test
+  public void testCircles() {
+    long[] a = shape("circle:48.0:-4.5:5000", 20);
+    long[] b = shape("circle:48.02:-4.47:3000", 22);
+    long[] c = shape("circle:-0.01:179.99:3000", 18);
+    
+    check(a, b);
+    check(b, a);
+    check(a, c);
+    check(a, a);
+    check(a, new long[0]);
+    check(new long[0], a);
+  }
+  
+  @Test
+  public void testRandom() {
+    Random rand = new Random(42L);
+    
+    for (int i = 0; i < 200; i++) {
+      long root = rand.nextLong();
+      long[] a = randomShape(rand, root, 2 * (3 + rand.nextInt(13)));
+      long[] b = randomShape(rand, root, 2 * (3 + rand.nextInt(13)));
+      check(a, b);
+    }
+  }
+  
+  @Test
+  public void testUnionMerge() {
+    // The 16 children of 'a' at R=4 spread across two shapes give 'a' back
+    long[] a = new long[8];
+    long[] b = new long[8];
+    
+    for (int i = 0; i < 8; i++) {
+      a[i] = 0x2a00000000000000L | (((long) (2 * i)) << 52);
+      b[i] = 0x2a00000000000000L | (((long) (2 * i + 1)) << 52);
+    }
+    
+    Assert.assertArrayEquals(new long[] { 0x1a00000000000000L }, GeoCellHelper.union(a, b));
+    Assert.assertEquals(0, GeoCellHelper.intersection(a, b).length);
+    Assert.assertArrayEquals(a, GeoCellHelper.subtraction(a, b));
+    
+    // Subtracting a cell at R=30 splits its ancestor at R=2 into 15 cells at each resolution
+    long[] cell = new long[] { 0xf123456789abcdefL };
+    long[] diff = GeoCellHelper.subtraction(new long[] { 0x1100000000000000L }, cell);
+    Assert.assertEquals(14 * 15, diff.length);
+    Assert.assertArrayEquals(new long[] { 0x1100000000000000L }, GeoCellHelper.union(diff, cell));
+  }
+}
@@ -0,0 +1,87 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GeoCellIndexTestCase {
+  
+  @Test
+  public void testContains() {
+    Coverage c = GeoParser.parseArea("circle:48.0:-4.5:5000", 18);
+    c.optimize(0L);
+    long[] geocells = c.toGeoCells(30);
+    
+    GeoCellIndex index = new GeoCellIndex(geocells);
+    
+    Assert.assertTrue(index.size() > 0);
+    Assert.assertTrue(index.size() <= geocells.length);
+    
+    Random rand = new Random(42L);
+    
+    int inside = 0;
+    
+    for (int i = 0; i < 100000; i++) {
+      double lat = 47.9 + 0.2 * rand.nextDouble();
+      double lon = -4.6 + 0.2 * rand.nextDouble();
+      long hhcode = HHCodeHelper.getHHCodeValue(lat, lon);
+      boolean expected = Coverage.contains(geocells, hhcode);
+      Assert.assertEquals(expected, index.contains(hhcode));
+      if (expected) {
+        inside++;
+      }
+    }
+    
+    Assert.assertTrue(inside > 0);
+    
+    // Cell bounds
+    for (long geocell: geocells) {
+      Assert.assertTrue(index.contains(GeoCellIndex.lowerBound(geocell)));
+      Assert.assertTrue(index.contains(GeoCellIndex.upperBound(geocell)));
+    }
+  }
+  
+  @Test
+  public void testEdges() {
+    // Cells '0' and 'f' at resolution 2, 'e1' at resolution 4
+    GeoCellIndex index = new GeoCellIndex(new long[] { 0x1000000000000000L, 0x1f00000000000000L, 0x2e10000000000000L });
+    
+    Assert.assertEquals(3, index.size());
+    Assert.assertTrue(index.contains(0x0L));
+    Assert.assertTrue(index.contains(0x0fffffffffffffffL));
+    Assert.assertFalse(index.contains(0x1000000000000000L));
+    Assert.assertFalse(index.contains(0xe0ffffffffffffffL));
+    Assert.assertTrue(index.contains(0xe100000000000000L));
+    Assert.assertTrue(index.contains(0xe1ffffffffffffffL));
+    Assert.assertFalse(index.contains(0xe200000000000000L));
+    Assert.assertTrue(index.contains(0xf000000000000000L));
+    Assert.assertTrue(index.contains(0xffffffffffffffffL));
+    
+    // Nested and adjacent cells are merged
+    index = new GeoCellIndex(new long[] { 0x1e00000000000000L, 0x1f00000000000000L, 0x2e10000000000000L });
+    Assert.assertEquals(1, index.size());
+    
+    Assert.assertFalse(new GeoCellIndex(new long[0]).contains(0L));
+  }
+}
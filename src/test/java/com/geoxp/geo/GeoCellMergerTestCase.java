@@ -0,0 +1,250 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GeoCellMergerTestCase {
+  
+  private static final String[] CIRCLES = {
+    "48.0:-4.5:5000",
+    "48.02:-4.47:3000",
+    "47.98:-4.52:4000",
+  };
+  
+  /**
+   * Sorted binary coverages of the circles, split in several partitions each
+   */
+  private static byte[][] partitions() throws Exception {
+    byte[][] partitions = new byte[CIRCLES.length * 3][];
+    
+    for (int i = 0; i < CIRCLES.length; i++) {
+      ByteArrayOutputStream[] out = new ByteArrayOutputStream[3];
+      BinaryOutputStreamCoverage[] c = new BinaryOutputStreamCoverage[3];
+      
+      for (int j = 0; j < 3; j++) {
+        out[j] = new ByteArrayOutputStream();
+        c[j] = new BinaryOutputStreamCoverage(out[j]);
+      }
+      
+      // Single resolution coverages so the circles have cells in common
+      Coverage coverage = new Coverage();
+      GeoParser.parseCircle(CIRCLES[i], 18, coverage);
+      coverage.normalize(18);
+      
+      long[] geocells = coverage.toGeoCells(18);
+      
+      for (int k = 0; k < geocells.length; k++) {
+        c[k % 3].addCell(geocells[k]);
+      }
+      
+      for (int j = 0; j < 3; j++) {
+        c[j].close();
+        ByteArrayOutputStream sorted = new ByteArrayOutputStream();
+        BinaryOutputStreamCoverage.sort(new ByteArrayInputStream(out[j].toByteArray()), sorted);
+        partitions[3 * i + j] = sorted.toByteArray();
+      }
+    }
+    
+    return partitions;
+  }
+  
+  private static InputStream[] streams(byte[][] data) {
+    InputStream[] in = new InputStream[data.length];
+    
+    for (int i = 0; i < data.length; i++) {
+      in[i] = new ByteArrayInputStream(data[i]);
+    }
+    
+    return in;
+  }
+  
+  private static byte[] toText(byte[] binary) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TextGeoCellWriter writer = new TextGeoCellWriter(out);
+    writer.write(new GeoCellReader(new ByteArrayInputStream(binary)));
+    writer.close();
+    return out.toByteArray();
+  }
+  
+  private static String merge(String[] coverages, Long thresholds) throws Exception {
+    byte[][] data = new byte[coverages.length][];
+    
+    for (int i = 0; i < coverages.length; i++) {
+      data[i] = coverages[i].getBytes();
+    }
+    
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GeoCellMerger.merge(streams(data), false, out, false, thresholds, 0, 1024);
+    return new String(out.toByteArray());
+  }
+  
+  @Test
+  public void testMerge() throws Exception {
+    byte[][] partitions = partitions();
+    
+    ByteArrayOutputStream concat = new ByteArrayOutputStream();
+    
+    for (byte[] partition: partitions) {
+      concat.write(partition);
+    }
+    
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    BinaryOutputStreamCoverage.sort(new ByteArrayInputStream(concat.toByteArray()), expected);
+    
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    GeoCellMerger.merge(streams(partitions), true, binary, true);
+    Assert.assertArrayEquals(expected.toByteArray(), binary.toByteArray());
+    
+    byte[][] text = new byte[partitions.length][];
+    
+    for (int i = 0; i < partitions.length; i++) {
+      text[i] = toText(partitions[i]);
+    }
+    
+    ByteArrayOutputStream lines = new ByteArrayOutputStream();
+    GeoCellMerger.merge(streams(text), false, lines, false);
+    Assert.assertArrayEquals(toText(expected.toByteArray()), lines.toByteArray());
+    
+    // Single resolution coverages, optimizing while merging is the same as optimizing the merge
+    for (long thresholds: new long[] { 0L, 0x8888888888888888L }) {
+      ByteArrayOutputStream optimized = new ByteArrayOutputStream();
+      BinaryOutputStreamCoverage.optimize(new ByteArrayInputStream(expected.toByteArray()), optimized, thresholds, 0);
+      
+      binary.reset();
+      GeoCellMerger.merge(streams(partitions), true, binary, true, thresholds, 0);
+      Assert.assertArrayEquals(optimized.toByteArray(), binary.toByteArray());
+    }
+  }
+  
+  @Test
+  public void testAncestors() throws Exception {
+    Assert.assertEquals("a\nb\nc\n", merge(new String[] { "a\nab1\nb2\n", "a3\nb\nc\n", "c0f\n" }, null));
+  }
+  
+  @Test
+  public void testOptimize() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    
+    for (int i = 0; i < 8; i++) {
+      sb.append("12").append(Integer.toHexString(i)).append("\n");
+    }
+    
+    // Eight subcells of 12 with a threshold of 8, the cells inside 12 are replaced by it
+    Assert.assertEquals("0f\n12\n", merge(new String[] { sb.toString(), "0f\n128\n12f3\n" }, 0x0088000000000000L));
+    
+    // Threshold of 9, nothing is replaced
+    Assert.assertEquals(sb.toString() + "12f3\n", merge(new String[] { sb.toString(), "12f3\n" }, 0x0099000000000000L));
+    
+    // Cells held while the threshold could still be reached are released in order
+    Assert.assertEquals("1203\n121\n122\n13\n", merge(new String[] { "121\n122\n", "1203\n13\n" }, 0x0033000000000000L));
+    
+    // Unsorted input
+    try {
+      merge(new String[] { "13\n12\n" }, null);
+      Assert.fail();
+    } catch (IOException ioe) {
+    }
+  }
+  
+  private static String drain(GeoCellStream stream, boolean twice) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    
+    while (stream.hasNext() && (!twice || stream.hasNext())) {
+      sb.append(Long.toHexString(stream.next())).append("\n");
+    }
+    
+    stream.close();
+    
+    return sb.toString();
+  }
+  
+  private static GeoCellStream merged(String[] coverages, boolean optimize) throws Exception {
+    GeoCellStream[] sources = new GeoCellStream[coverages.length];
+    
+    for (int i = 0; i < coverages.length; i++) {
+      sources[i] = new TextGeoCellReader(new ByteArrayInputStream(coverages[i].getBytes()), 1024);
+    }
+    
+    GeoCellStream merged = GeoCellMerger.merge(sources);
+    
+    return optimize ? GeoCellMerger.optimize(merged, 0x0033000000000000L, 0) : merged;
+  }
+  
+  @Test
+  public void testHasNext() throws Exception {
+    String[] coverages = new String[] { "121\n122\n3\n", "1203\n13\n", "a\nab1\nb2\n" };
+    
+    // Calling 'hasNext' several times does not skip cells
+    for (boolean optimize: new boolean[] { false, true }) {
+      Assert.assertEquals(drain(merged(coverages, optimize), false), drain(merged(coverages, optimize), true));
+    }
+  }
+  
+  private static GeoCellStream keys(final String[] geocells) {
+    return new GeoCellStream() {
+      private int idx = 0;
+      
+      public boolean hasNext() {
+        return idx < geocells.length;
+      }
+      
+      public long next() {
+        String cell = geocells[idx++];
+        return GeoCellSorter.key((((long) cell.length()) << 60) | (Long.parseLong(cell, 16) << (60 - 4 * cell.length())));
+      }
+      
+      public void close() {
+      }
+    };
+  }
+  
+  @Test
+  public void testMergeStreamHasNext() throws Exception {
+    String expected = null;
+    
+    for (boolean twice: new boolean[] { false, true }) {
+      GeoCellStream[] sources = new GeoCellStream[] {
+        keys(new String[] { "121", "122", "3" }),
+        keys(new String[] { "121", "1203", "13" }),
+        keys(new String[] { "3" }),
+      };
+      
+      String merged = drain(new GeoCellSorter.MergeStream(sources, new ArrayList<File>()), twice);
+      
+      if (null == expected) {
+        expected = merged;
+        Assert.assertEquals(5, expected.split("\n").length);
+      } else {
+        Assert.assertEquals(expected, merged);
+      }
+    }
+  }
+}
@@ -52,6 +52,12 @@ public class GeoParserTestCase {
     
     Assert.assertEquals(HHCodeHelper.toLongLat(-179.98321), (long) hhcoords[0].get(0));    
     Assert.assertEquals(HHCodeHelper.toLongLat(0.0), (long) hhcoords[1].get(0));    
+    
+    VertexBuffer vertices = GeoParser.parseEncodedPolyline("_p~iF~ps|U_ulLnnqC_mqNvxq`@", new VertexBuffer());
+    
+    Assert.assertEquals(3, vertices.size());
+    Assert.assertArrayEquals(new long[] { 3066129430L, 3118623475L, 3179516567L }, vertices.toLatArray());
+    Assert.assertArrayEquals(new long[] { 713441789L, 704493941L, 638840593L }, vertices.toLonArray());
   }
   
   @Test
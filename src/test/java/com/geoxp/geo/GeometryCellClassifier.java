@@ -0,0 +1,57 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package com.geoxp.geo;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.predicate.RectangleIntersects;
+
+/**
+ * CellClassifier for a JTS Geometry relying on JTS predicates.
+ *
+ * Each cell is turned into a JTS Polygon, tested against the geometry with RectangleIntersects
+ * then Geometry.covers, as JTSHelper.coverGeometry used to do before EdgeCellClassifier.
+ *
+ * It builds JTS objects for each cell and is only used as a reference to check EdgeCellClassifier.
+ */
+public class GeometryCellClassifier implements CellClassifier {
+
+  private final Geometry geometry;
+
+  public GeometryCellClassifier(Geometry geometry) {
+    this.geometry = geometry;
+  }
+
+  public int classify(long hhcode, int resolution) {
+    Polygon cell = new Polygon(JTSHelper.hhcodeToLinearRing(hhcode, resolution), new LinearRing[0], geometry.getFactory());
+
+    if (!RectangleIntersects.intersects(cell, geometry)) {
+      return DISJOINT;
+    }
+
+    if (geometry.covers(cell)) {
+      return CONTAINED;
+    }
+
+    return INTERSECTS;
+  }
+}
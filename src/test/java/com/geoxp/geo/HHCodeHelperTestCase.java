@@ -25,6 +25,7 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -724,6 +725,318 @@ public class HHCodeHelperTestCase extends TestCase {
     }
   }
   
+  //
+  // Reference bit-by-bit implementations of buildHHCode/splitHHCode, used to check
+  // the equivalence of the interleaving engine.
+  //
+  
+  private static long loopBuildHHCode(long lat, long lon, int resolution) {
+    long hhcode = 0L;
+
+    if (0L != (lat & 0x100000000L)) {
+      lat ^= 0xffffffffL;
+      lon ^= 0x80000000L;
+    }
+
+    lat &= 0xffffffffL;    
+    lon &= 0xffffffffL;
+
+    for (int i = 32 - 1; i >= 32 - resolution; i--) {
+      hhcode <<= 1;
+      hhcode |= (lat & (1L << i)) >> i;
+      hhcode <<= 1;
+      hhcode |= (lon & (1L << i)) >> i;
+    }
+
+    if (32 != resolution) {
+      hhcode <<= 32 - resolution;
+    }
+    
+    return hhcode;
+  }
+  
+  private static long[] loopSplitHHCode(long hhcode, int resolution) {
+    long c0 = 0L;
+    long c1 = 0L;
+    
+    for (int i = 32 - 1; i >= 32 - resolution; i--) {
+      c0 <<= 1;
+      c0 |= 0x1L & (hhcode >> (1 + (i << 1)));
+      c1 <<= 1;
+      c1 |= 0x1L & (hhcode >> (i << 1));
+    }
+
+    if (32 != resolution) {
+      c0 <<= 32 - resolution;
+      c1 <<= 32 - resolution;
+    }
+    
+    return new long[] { c0, c1 };
+  }
+  
+  @Test
+  public void testBuildHHCode_Equivalence() {
+    Random rand = new Random(42L);
+    
+    long[] special = new long[] { 0L, 1L, 0x7fffffffL, 0x80000000L, 0xffffffffL, 0x100000000L, 0x1ffffffffL, -1L, Long.MIN_VALUE, Long.MAX_VALUE };
+
+    for (int resolution = 0; resolution <= 32; resolution++) {
+      for (long lat: special) {
+        for (long lon: special) {
+          Assert.assertEquals(loopBuildHHCode(lat, lon, resolution), HHCodeHelper.buildHHCode(lat, lon, resolution));
+        }
+      }
+      
+      for (int i = 0; i < 10000; i++) {
+        // Use values beyond 32 bits so wrapping is exercised
+        long lat = rand.nextLong() >> rand.nextInt(64);
+        long lon = rand.nextLong() >> rand.nextInt(64);
+        Assert.assertEquals(loopBuildHHCode(lat, lon, resolution), HHCodeHelper.buildHHCode(lat, lon, resolution));
+      }
+    }
+  }
+  
+  @Test
+  public void testSplitHHCode_Equivalence() {
+    Random rand = new Random(42L);
+    
+    long[] coords = new long[2];
+    
+    for (int resolution = 0; resolution <= 32; resolution++) {
+      for (int i = 0; i < 10000; i++) {
+        long hhcode = 0 == i ? -1L : (1 == i ? 0L : rand.nextLong());
+        long[] expected = loopSplitHHCode(hhcode, resolution);
+        
+        Assert.assertArrayEquals(expected, HHCodeHelper.splitHHCode(hhcode, resolution));
+        
+        HHCodeHelper.stableSplitHHCode(hhcode, resolution, coords);
+        Assert.assertArrayEquals(expected, coords);
+        
+        if (32 == resolution) {
+          Assert.assertEquals(expected[0], HHCodeHelper.splitLat(hhcode));
+          Assert.assertEquals(expected[1], HHCodeHelper.splitLon(hhcode));
+          // Round trip
+          Assert.assertEquals(hhcode, HHCodeHelper.buildHHCode(expected[0], expected[1], resolution));
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testNeighbours_Equivalence() {
+    Random rand = new Random(42L);
+
+    for (int i = 0; i < 10000; i++) {
+      long hhcode = rand.nextLong();
+      int resolution = 2 + 2 * rand.nextInt(16);
+      long[] coords = loopSplitHHCode(hhcode, 32);
+      long delta = 1 << (32 - resolution);
+      
+      Assert.assertEquals(loopBuildHHCode(coords[0] + delta, coords[1], 32), HHCodeHelper.northHHCode(hhcode, resolution));
+      Assert.assertEquals(loopBuildHHCode(coords[0] - delta, coords[1], 32), HHCodeHelper.southHHCode(hhcode, resolution));
+      Assert.assertEquals(loopBuildHHCode(coords[0], coords[1] + delta, 32), HHCodeHelper.eastHHCode(hhcode, resolution));
+      Assert.assertEquals(loopBuildHHCode(coords[0], coords[1] - delta, 32), HHCodeHelper.westHHCode(hhcode, resolution));
+      // deltaHHCode does its math on ints
+      Assert.assertEquals(loopBuildHHCode(coords[0] + 3 * (1 << (32 - resolution)), coords[1] - 2 * (1 << (32 - resolution)), 32), HHCodeHelper.deltaHHCode(hhcode, resolution, 3, -2));
+      
+      double[] latlon = HHCodeHelper.getLatLon(hhcode, resolution);
+      long[] c = loopSplitHHCode(hhcode, resolution);
+      Assert.assertEquals(c[0] * HHCodeHelper.DEGREES_PER_LAT_UNIT - 90.0D, latlon[0], 0.0D);
+      Assert.assertEquals(c[1] * HHCodeHelper.DEGREES_PER_LON_UNIT - 180.0D, latlon[1], 0.0D);
+    }
+  }
+  
+  @Test
+  public void testVertexBuffer_Equivalence() {
+    Random rand = new Random(42L);
+    
+    List<Long> lats = new ArrayList<Long>();
+    List<Long> lons = new ArrayList<Long>();
+    VertexBuffer vertices = new VertexBuffer(2);
+    
+    for (int i = 0; i < 20; i++) {
+      long lat = HHCodeHelper.toLongLat(45.0 + rand.nextDouble());
+      long lon = HHCodeHelper.toLongLon(2.0 + rand.nextDouble());
+      lats.add(lat);
+      lons.add(lon);
+      vertices.add(lat, lon);
+    }
+    
+    Assert.assertEquals(20, vertices.size());
+    Assert.assertArrayEquals(HHCodeHelper.getBoundingBox(lats, lons), HHCodeHelper.getBoundingBox(vertices.lats(), vertices.lons(), vertices.size()));
+
+    long[] expected = HHCodeHelper.coverPolygon(lats, lons, -2).toGeoCells(32);
+    long[] actual = HHCodeHelper.coverPolygon(vertices, -2, new Coverage(), null, false).toGeoCells(32);
+    Arrays.sort(expected);
+    Arrays.sort(actual);
+    Assert.assertArrayEquals(expected, actual);
+    
+    for (boolean bresenham: new boolean[] { false, true }) {
+      for (boolean perSegment: new boolean[] { false, true }) {
+        expected = HHCodeHelper.coverPolyline(lats, lons, 0, perSegment, bresenham).toGeoCells(32);
+        actual = HHCodeHelper.coverPolyline(vertices, 0, perSegment, bresenham, new Coverage(), null, false).toGeoCells(32);
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        Assert.assertArrayEquals(expected, actual);
+      }
+    }
+    
+    //
+    // Resampling lat/lon vertices in place is equivalent to resampling HHCodes
+    //
+    
+    List<Long> nodes = new ArrayList<Long>();
+    long[] hhcodes = new long[vertices.size()];
+    
+    for (int i = 0; i < vertices.size(); i++) {
+      hhcodes[i] = HHCodeHelper.buildHHCode(vertices.getLat(i), vertices.getLon(i), 32);
+      nodes.add(hhcodes[i]);
+    }
+    
+    List<Long> resampled = HHCodeHelper.resamplePolyline(nodes, 8);
+    int n = HHCodeHelper.resamplePolyline(hhcodes, hhcodes.length, 8, hhcodes);
+    HHCodeHelper.resamplePolyline(vertices, 8, vertices);
+    
+    Assert.assertTrue(n > 1 && n < 20);
+    Assert.assertEquals(resampled.size(), n);
+    Assert.assertEquals(resampled.size(), vertices.size());
+    
+    for (int i = 0; i < n; i++) {
+      Assert.assertEquals((long) resampled.get(i), hhcodes[i]);
+      Assert.assertEquals((long) resampled.get(i), HHCodeHelper.buildHHCode(vertices.getLat(i), vertices.getLon(i), 32));
+    }
+  }
+  
+  /**
+   * Cells of an M shaped polygon at resolution 12 and of a polyline at resolution 12 (without and
+   * with Bresenham), as computed before the introduction of VertexBuffer, as geocell prefixes
+   */
+  private static final String EXPECTED_POLYGON_CELLS =
+    "6b57061 6b57063 6b57066 6b57069 6b5706b 6b5706c 6b5706e 6b5706f 6b57075 6b57077 " +
+    "6b5707c 6b5707d 6b5707e 6b5707f 6b570c1 6b570c3 6b570c4 6b570c5 6b570c6 6b570c7 " +
+    "6b570c9 6b570cb 6b570cc 6b570cd 6b570ce 6b570cf 6b570d1 6b570d2 6b570d3 6b570d4 " +
+    "6b570d5 6b570d6 6b570d7 6b570d8 6b570d9 6b570da 6b570db 6b570dc 6b570dd 6b570de " +
+    "6b570df 6b570e1 6b570e3 6b570e4 6b570e5 6b570e6 6b570e7 6b570e9 6b570eb 6b570ec " +
+    "6b570ed 6b570ee 6b570ef 6b570f0 6b570f1 6b570f2 6b570f3 6b570f4 6b570f5 6b570f6 " +
+    "6b570f7 6b570f8 6b570f9 6b570fa 6b570fb 6b570fc 6b570fd 6b570fe 6b570ff 6b57120 " +
+    "6b57122 6b57128 6b57241 6b57243 6b57244 6b57245 6b57246 6b57251 6b57254 6b57255 " +
+    "6b57256 6b57257";
+  
+  private static final String EXPECTED_POLYLINE_CELLS =
+    "6b57061 6b57063 6b57066 6b5706c 6b5706e 6b5706f 6b5707d 6b5707f 6b570c5 6b570c7 " +
+    "6b570d2 6b570d3 6b570d4 6b570d5 6b570d6 6b570d7 6b570d8 6b570d9 6b570da 6b570dd " +
+    "6b570df 6b570f5 6b570f7 6b570fd 6b570ff 6b57128 6b5712a 6b57180 6b57255 6b57257";
+  
+  private static final String EXPECTED_BRESENHAM_CELLS =
+    "6b57061 6b57066 6b5706c 6b5706f 6b5707f 6b570c5 6b570d2 6b570d3 6b570d4 6b570d7 " +
+    "6b570d8 6b570d9 6b570da 6b570db 6b570dd 6b570df 6b570f5 6b570f7 6b570fd 6b570ff " +
+    "6b57128 6b5712a 6b57180 6b57255 6b57257";
+  
+  /**
+   * Sorted geocells from geocell prefixes
+   */
+  private static long[] geocells(String prefixes) {
+    String[] tokens = prefixes.split(" ");
+    long[] geocells = new long[tokens.length];
+    
+    for (int i = 0; i < tokens.length; i++) {
+      int r = Integer.parseInt(tokens[i].substring(0, 1), 16);
+      geocells[i] = (((long) r) << 60) | (Long.parseLong(tokens[i].substring(1), 16) << (60 - 4 * r));
+    }
+    
+    Arrays.sort(geocells);
+    
+    return geocells;
+  }
+  
+  private static long[] sorted(Coverage coverage) {
+    long[] geocells = coverage.toGeoCells(32);
+    Arrays.sort(geocells);
+    return geocells;
+  }
+  
+  @Test
+  public void testVertexBuffer_Expected() {
+    VertexBuffer polygon = new VertexBuffer();
+    polygon.add(HHCodeHelper.toLongLat(48.0), HHCodeHelper.toLongLon(-4.8));
+    polygon.add(HHCodeHelper.toLongLat(48.3), HHCodeHelper.toLongLon(-4.5));
+    polygon.add(HHCodeHelper.toLongLat(48.0), HHCodeHelper.toLongLon(-4.2));
+    polygon.add(HHCodeHelper.toLongLat(48.6), HHCodeHelper.toLongLon(-4.3));
+    polygon.add(HHCodeHelper.toLongLat(48.45), HHCodeHelper.toLongLon(-4.5));
+    polygon.add(HHCodeHelper.toLongLat(48.6), HHCodeHelper.toLongLon(-4.75));
+    
+    Coverage coverage = HHCodeHelper.coverPolygon(polygon, 12, new Coverage(), null, false);
+    coverage.normalize(12);
+    Assert.assertArrayEquals(geocells(EXPECTED_POLYGON_CELLS), sorted(coverage));
+    
+    VertexBuffer polyline = new VertexBuffer();
+    polyline.add(HHCodeHelper.toLongLat(48.0), HHCodeHelper.toLongLon(-4.8));
+    polyline.add(HHCodeHelper.toLongLat(48.3), HHCodeHelper.toLongLon(-4.5));
+    polyline.add(HHCodeHelper.toLongLat(48.1), HHCodeHelper.toLongLon(-4.2));
+    polyline.add(HHCodeHelper.toLongLat(48.6), HHCodeHelper.toLongLon(-4.3));
+    
+    Assert.assertArrayEquals(geocells(EXPECTED_POLYLINE_CELLS), sorted(HHCodeHelper.coverPolyline(polyline, 12, false, false, new Coverage(), null, false)));
+    Assert.assertArrayEquals(geocells(EXPECTED_BRESENHAM_CELLS), sorted(HHCodeHelper.coverPolyline(polyline, 12, false, true, new Coverage(), null, false)));
+  }
+  
+  @Test
+  public void testOrthodromize_VertexBuffer() {
+    long flat = HHCodeHelper.toLongLat(-45.0);
+    long flon = HHCodeHelper.toLongLon(50.0);
+    long tlat = HHCodeHelper.toLongLat(-45.0);
+    long tlon = HHCodeHelper.toLongLon(229.0);
+    
+    List<Long> orthodromy = HHCodeHelper.orthodromize(flat, flon, tlat, tlon, 1.01);
+    VertexBuffer vertices = HHCodeHelper.orthodromize(flat, flon, tlat, tlon, 1.01, new VertexBuffer());
+    
+    Assert.assertEquals(orthodromy.size(), vertices.size() * 2);
+    
+    for (int i = 0; i < vertices.size(); i++) {
+      Assert.assertEquals((long) orthodromy.get(2 * i), vertices.getLat(i));
+      Assert.assertEquals((long) orthodromy.get(2 * i + 1), vertices.getLon(i));
+    }
+    
+    //
+    // Orthodromy from Brest to New York, as computed before the introduction of VertexBuffer
+    //
+    
+    long[] expected = new long[] {
+      3292808260L, 2093796556L,
+      3330991994L, 1987742399L,
+      3351999232L, 1876175208L,
+      3354645522L, 1762253957L,
+      3338774457L, 1649660011L,
+      3305299636L, 1541775778L,
+      3255969406L, 1441013927L,
+      3192982434L, 1348579106L,
+      3118623475L, 1264629259L
+    };
+    
+    vertices.clear();
+    HHCodeHelper.orthodromize(HHCodeHelper.toLongLat(48.0), HHCodeHelper.toLongLon(-4.5), HHCodeHelper.toLongLat(40.7), HHCodeHelper.toLongLon(-74.0), 1.001, vertices);
+    
+    Assert.assertEquals(expected.length, vertices.size() * 2);
+    
+    for (int i = 0; i < vertices.size(); i++) {
+      Assert.assertEquals(expected[2 * i], vertices.getLat(i));
+      Assert.assertEquals(expected[2 * i + 1], vertices.getLon(i));
+    }
+    
+    //
+    // Segments spanning more than 180 degrees of longitude are first split
+    //
+    
+    vertices.clear();
+    HHCodeHelper.orthodromize(HHCodeHelper.toLongLat(10.0), HHCodeHelper.toLongLon(-170.0), HHCodeHelper.toLongLat(10.0), HHCodeHelper.toLongLon(170.0), 1.01, vertices);
+    
+    Assert.assertTrue(vertices.size() > 2);
+    Assert.assertEquals(HHCodeHelper.toLongLon(170.0), vertices.getLon(vertices.size() - 1));
+    
+    for (int i = 0; i < vertices.size() - 1; i++) {
+      Assert.assertTrue(Math.abs(vertices.getLon(i + 1) - vertices.getLon(i)) < (1L << 31));
+    }
+  }
+  
   public static void main(String[] args) {
     HHCodeHelperTestCase tc = new HHCodeHelperTestCase();
     tc.testCoverPolygonIDL();
@@ -0,0 +1,90 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IncrementalPolylineCovererTestCase {
+
+  @Test
+  public void testAppend() {
+    Random rand = new Random(42L);
+
+    VertexBuffer track = new VertexBuffer();
+
+    double lat = 48.0;
+    double lon = -4.5;
+
+    for (int i = 0; i < 200; i++) {
+      track.add(HHCodeHelper.toLongLat(lat), HHCodeHelper.toLongLon(lon));
+      lat += (rand.nextDouble() - 0.5) * 0.01;
+      lon += (rand.nextDouble() - 0.3) * 0.01;
+    }
+
+    for (boolean bresenham: new boolean[] { false, true }) {
+      IncrementalPolylineCoverer ipc = new IncrementalPolylineCoverer(20, bresenham);
+
+      TLongArrayList added = new TLongArrayList();
+      TLongHashSet reported = new TLongHashSet();
+      int total = 0;
+
+      for (int i = 0; i < track.size(); i++) {
+        added.resetQuick();
+        int count = ipc.append(track.getLat(i), track.getLon(i), added);
+
+        Assert.assertEquals(count, added.size());
+        total += count;
+
+        for (int j = 0; j < added.size(); j++) {
+          // Cells are only reported once
+          Assert.assertTrue(reported.add(added.get(j)));
+        }
+
+        // Appending the same fix again adds nothing
+        Assert.assertEquals(0, ipc.append(track.getLat(i), track.getLon(i)));
+      }
+
+      Assert.assertEquals(2L * track.size(), ipc.getNodeCount());
+      Assert.assertEquals(total, ipc.getCoverage().getCellCount());
+
+      //
+      // The incremental coverage is the coverage of the whole polyline
+      //
+
+      Coverage expected = HHCodeHelper.coverPolyline(track, 20, false, bresenham, new Coverage(), null, false);
+
+      long[] a = expected.getCellArray(20);
+      long[] b = ipc.getCoverage().getCellArray(20);
+      Arrays.sort(a);
+      Arrays.sort(b);
+
+      Assert.assertArrayEquals(a, b);
+    }
+  }
+}
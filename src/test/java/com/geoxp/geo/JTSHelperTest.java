@@ -20,9 +20,16 @@
 
 package com.geoxp.geo;
 
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.io.WKTReader;
 
 public class JTSHelperTest {
@@ -57,4 +64,160 @@ public class JTSHelperTest {
     System.out.println(coverage.getResolutions());
     System.out.println(coverage);
   }
+  
+  @Test
+  public void testParallelCoverGeometry() throws Exception {
+    WKTReader reader = new WKTReader();
+    Geometry geometry = reader.read("POLYGON((-4.51 48.01, -4.52 48.93, -4.03 48.02, -4.51 48.01),(-4.4 48.1, -4.3 48.1, -4.3 48.2, -4.4 48.1))");
+    
+    ForkJoinPool pool = new ForkJoinPool(4);
+    
+    for (boolean containedOnly: new boolean[] { false, true }) {
+      Coverage legacy = JTSHelper.coverGeometry(geometry, 2, 20, containedOnly);
+      Coverage sequential = JTSHelper.coverGeometry(geometry, 2, 20, containedOnly, Integer.MAX_VALUE, null);
+      Coverage parallel = JTSHelper.coverGeometry(geometry, 2, 20, containedOnly, Integer.MAX_VALUE, pool);
+      
+      Assert.assertEquals(legacy.toString(), sequential.toString());
+      Assert.assertEquals(legacy.toString(), parallel.toString());
+      
+      // Too many cells
+      Assert.assertNull(JTSHelper.coverGeometry(geometry, 2, 20, containedOnly, legacy.getCellCount() - 1, pool));
+      Assert.assertNotNull(JTSHelper.coverGeometry(geometry, 2, 20, containedOnly, legacy.getCellCount(), pool));
+    }
+    
+    // Lines and points
+    for (String wkt: new String[] { "MULTILINESTRING((-4.51 48.01, -4.52 48.93, -4.03 48.02),(2.0 45.0, 2.1 45.1))", "MULTIPOINT(2.0 45.0, -4.5 48.0)" }) {
+      geometry = reader.read(wkt);
+      Assert.assertEquals(JTSHelper.coverGeometry(geometry, 2, 22, false).toString(), JTSHelper.coverGeometry(geometry, 2, 22, false, Integer.MAX_VALUE, pool).toString());
+    }
+    
+    pool.shutdown();
+  }
+  
+  @Test
+  public void testCoverGeometryAdaptive() throws Exception {
+    WKTReader reader = new WKTReader();
+    Geometry geometry = reader.read("POLYGON((-4.51 48.01, -4.52 48.93, -4.03 48.02, -4.51 48.01),(-4.4 48.1, -4.3 48.1, -4.3 48.2, -4.4 48.1))");
+    
+    for (boolean containedOnly: new boolean[] { false, true }) {
+      Coverage exact = JTSHelper.coverGeometry(geometry, 2, 18, containedOnly);
+      exact.normalize(18);
+      Set<Long> exactCells = new HashSet<Long>(exact.getCells(18));
+      
+      // Without a budget, the coverage is the exact one with coarser cells
+      Coverage unbounded = JTSHelper.coverGeometryAdaptive(geometry, 18, containedOnly, Integer.MAX_VALUE);
+      Assert.assertTrue(unbounded.getCellCount() < exactCells.size());
+      unbounded.normalize(18);
+      Assert.assertEquals(exactCells, new HashSet<Long>(unbounded.getCells(18)));
+      
+      for (int maxcells: new int[] { 1, 4, 15, 20, 100, 500 }) {
+        Coverage c = JTSHelper.coverGeometryAdaptive(geometry, 18, containedOnly, maxcells);
+        
+        Assert.assertTrue(c.getCellCount() <= maxcells);
+        
+        if (!containedOnly || maxcells >= 20) {
+          Assert.assertTrue(c.getCellCount() > 0);
+        }
+        
+        c.normalize(18);
+        Set<Long> cells = new HashSet<Long>(c.getCells(18));
+        
+        // The coverage includes the geometry, or is included in it
+        if (containedOnly) {
+          Assert.assertTrue(exactCells.containsAll(cells));
+        } else {
+          Assert.assertTrue(cells.containsAll(exactCells));
+        }
+      }
+    }
+    
+    //
+    // Geometry containing 4 resolution 2 cells and touching the 12 others
+    //
+    
+    geometry = reader.read("POLYGON((-100 -60, 100 -60, 100 60, -100 60, -100 -60))");
+    
+    for (int maxcells: new int[] { 1, 3, 4, 15 }) {
+      Coverage c = JTSHelper.coverGeometryAdaptive(geometry, 8, true, maxcells);
+      Assert.assertEquals(Math.min(maxcells, 4), c.getCellCount(2));
+      Assert.assertTrue(c.getCellCount() <= maxcells);
+      
+      // The 16 resolution 2 cells are needed to cover it
+      Assert.assertNull(JTSHelper.coverGeometryAdaptive(geometry, 8, false, maxcells));
+    }
+    
+    Assert.assertEquals(16, JTSHelper.coverGeometryAdaptive(geometry, 8, false, 16).getCellCount());
+  }
+  
+  @Test
+  public void testEdgeCellClassifier() throws Exception {
+    String[] wkts = new String[] {
+      "POLYGON((-4.51 48.01, -4.52 48.93, -4.03 48.02, -4.51 48.01),(-4.4 48.1, -4.3 48.1, -4.3 48.2, -4.4 48.1))",
+      "MULTIPOLYGON(((-4.51 48.01, -4.52 48.93, -4.03 48.02, -4.51 48.01)),((-3.9 48.0, -3.8 48.0, -3.8 48.1, -3.9 48.1, -3.9 48.0)))",
+      "LINESTRING(-4.51 48.01, -4.52 48.93, -4.03 48.02)",
+      "MULTIPOINT(-4.5 48.0, -4.0 48.5)",
+    };
+    
+    checkEdgeCellClassifier(wkts, 47.9, -4.6, 1.2, 0.8);
+    
+    //
+    // Geometries whose edges run along cell boundaries
+    //
+    
+    wkts = new String[] {
+      "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))",
+      "POLYGON((0 0, 45 0, 45 45, 0 0))",
+      "POLYGON((0 0, 45 0, 45 22.5, 22.5 22.5, 22.5 45, 0 45, 0 0),(5.625 5.625, 11.25 5.625, 11.25 11.25, 5.625 11.25, 5.625 5.625))",
+      "LINESTRING(0 0, 22.5 0, 22.5 22.5)",
+      "MULTIPOINT(0 0, 22.5 22.5)",
+    };
+    
+    checkEdgeCellClassifier(wkts, -5.0, -5.0, 55.0, 55.0);
+  }
+  
+  private static void checkEdgeCellClassifier(String[] wkts, double lat, double lon, double dlat, double dlon) throws Exception {
+    WKTReader reader = new WKTReader();
+    Random rand = new Random(0L);
+    
+    for (String wkt: wkts) {
+      Geometry geometry = reader.read(wkt);
+      CellClassifier edges = new EdgeCellClassifier(geometry);
+      CellClassifier reference = new GeometryCellClassifier(geometry);
+      
+      for (int i = 0; i < 100000; i++) {
+        long hhcode = HHCodeHelper.getHHCodeValue(lat + rand.nextDouble() * dlat, lon + rand.nextDouble() * dlon);
+        int resolution = 2 + 2 * rand.nextInt(16);
+        Assert.assertEquals(wkt, reference.classify(hhcode, resolution), edges.classify(hhcode, resolution));
+      }
+    }
+  }
+  
+  @Test
+  public void testCoverGeometryGridAligned() throws Exception {
+    WKTReader reader = new WKTReader();
+    
+    //
+    // Cells whose boundary only touches the edges are contained, they must not be refined and dropped
+    //
+    
+    Geometry geometry = reader.read("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))");
+    Assert.assertEquals(53, JTSHelper.coverGeometry(geometry, 2, 8, true).getCellCount());
+    Assert.assertEquals(616, JTSHelper.coverGeometry(geometry, 2, 12, true).getCellCount());
+    Assert.assertEquals(99, JTSHelper.coverGeometry(geometry, 2, 8, false).getCellCount());
+    
+    geometry = reader.read("POLYGON((0 0, 45 0, 45 45, 0 0))");
+    Assert.assertEquals(122, JTSHelper.coverGeometry(geometry, 2, 8, true).getCellCount());
+    Assert.assertEquals(318, JTSHelper.coverGeometry(geometry, 2, 8, false).getCellCount());
+    
+    //
+    // The cells contained in the polygon of a cell are that very cell
+    //
+    
+    long hhcode = HHCodeHelper.getHHCodeValue(10.0, 10.0);
+    geometry = new GeometryFactory().createPolygon(JTSHelper.hhcodeToLinearRing(hhcode, 6), null);
+    
+    Coverage coverage = JTSHelper.coverGeometry(geometry, 2, 12, true);
+    Assert.assertEquals(1, coverage.getCellCount());
+    Assert.assertTrue(coverage.contains(6, hhcode));
+  }
 }
@@ -0,0 +1,175 @@
+//
+//   GeoXP Lib, library for efficient geo data manipulation
+//
+//   Copyright 2020-      SenX S.A.S.
+//   Copyright 2019-2020  iroise.net S.A.S.
+//   Copyright 1999-2019  Mathias Herberts
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package com.geoxp.geo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PolygonRasterizerTestCase {
+  
+  @Test
+  public void testAlignedSquare() {
+    // Square spanning exactly one cell at resolution 8
+    long size = 1L << 24;
+    long lat = 0x87L << 24;
+    long lon = 0x3aL << 24;
+    
+    long[] lats = { lat, lat, lat + size - 1, lat + size - 1 };
+    long[] lons = { lon, lon + size - 1, lon + size - 1, lon };
+    
+    Coverage coverage = PolygonRasterizer.cover(lats, lons, 4, 16, new Coverage(), null, false);
+    
+    Assert.assertEquals(1, coverage.getCellCount());
+    Assert.assertEquals(1, coverage.getCells(8).size());
+    Assert.assertTrue(coverage.contains(8, HHCodeHelper.buildHHCode(lat, lon, 32)));
+  }
+  
+  @Test
+  public void testCoarseCells() {
+    Random rand = new Random(42L);
+    
+    for (int t = 0; t < 10; t++) {
+      int n = 3 + rand.nextInt(10);
+      long[] lats = new long[n];
+      long[] lons = new long[n];
+      
+      for (int i = 0; i < n; i++) {
+        double angle = 2.0 * Math.PI * i / n;
+        double radius = (0.3 + rand.nextDouble()) * 3000000.0;
+        lats[i] = (1L << 31) + (long) (radius * Math.sin(angle));
+        lons[i] = (1L << 31) + (long) (radius * Math.cos(angle));
+      }
+      
+      Coverage coarse = PolygonRasterizer.cover(lats, lons, n, 20, new Coverage(), null, false);
+      
+      // Excluding no geocells forces all cells to be emitted at the requested resolution
+      Coverage fine = PolygonRasterizer.cover(lats, lons, n, 20, new Coverage(), new long[0], true);
+      
+      Assert.assertEquals(fine.getCellCount(), fine.getCellCount(20));
+      Assert.assertTrue(coarse.getCellCount() < fine.getCellCount() / 2);
+      
+      coarse.normalize(20);
+      
+      Assert.assertEquals(new HashSet<Long>(fine.getCells(20)), new HashSet<Long>(coarse.getCells(20)));
+    }
+  }
+  
+  @Test
+  public void testConcave() {
+    // U shape, the notch must stay empty
+    long unit = 1L << 20;
+    long base = 1L << 31;
+    
+    long[] lats = { base, base, base + 30 * unit, base + 30 * unit, base + 10 * unit, base + 10 * unit, base + 30 * unit, base + 30 * unit };
+    long[] lons = { base, base + 30 * unit, base + 30 * unit, base + 20 * unit, base + 20 * unit, base + 10 * unit, base + 10 * unit, base };
+    
+    Coverage coverage = PolygonRasterizer.cover(lats, lons, lats.length, 12, new Coverage(), null, false);
+    coverage.normalize(12);
+    
+    Set<Long> cells = new HashSet<Long>(coverage.getCells(12));
+    
+    long notch = HHCodeHelper.buildHHCode(base + 20 * unit, base + 15 * unit, 32) & Coverage.PREFIX_MASK[5];
+    long bottom = HHCodeHelper.buildHHCode(base + 5 * unit, base + 15 * unit, 32) & Coverage.PREFIX_MASK[5];
+    
+    Assert.assertFalse(cells.contains(notch));
+    Assert.assertTrue(cells.contains(bottom));
+  }
+  
+  /**
+   * Cells of the M shaped polygon below at resolution 14 as computed by the former
+   * implementation of HHCodeHelper.coverPolygon, optimized, as geocell prefixes
+   */
+  private static final String EXPECTED_CELLS =
+    "6b5706e 6b5707d 6b5707f 6b570c4 6b570c6 6b570c7 6b570cc 6b570cd 6b570ce 6b570cf " +
+    "6b570d4 6b570d5 6b570d6 6b570d7 6b570d9 6b570da 6b570db 6b570dc 6b570de 6b570e4 " +
+    "6b570e5 6b570e6 6b570e7 6b570ec 6b570ed 6b570ee 6b570ef 6b570f0 6b570f1 6b570f2 " +
+    "6b570f3 6b570f4 6b570f6 6b570f8 6b570f9 6b570fc 6b570fe 6b57244 7b570613 7b570616 " +
+    "7b570619 7b57061b 7b57061c 7b57061e 7b57061f 7b570631 7b570633 7b570634 7b570635 7b570636 " +
+    "7b570637 7b570639 7b57063b 7b57063c 7b57063d 7b57063e 7b57063f 7b570662 7b570668 7b57066a " +
+    "7b57066b 7b570691 7b570693 7b570694 7b570695 7b570696 7b570697 7b570699 7b57069b 7b57069c " +
+    "7b57069d 7b57069e 7b57069f 7b5706b4 7b5706b5 7b5706b6 7b5706b7 7b5706bc 7b5706bd 7b5706be " +
+    "7b5706bf 7b5706c0 7b5706c1 7b5706c2 7b5706c3 7b5706c6 7b5706c8 7b5706c9 7b5706ca 7b5706cb " +
+    "7b5706cc 7b5706ce 7b5706cf 7b5706f2 7b5706f8 7b5706fa 7b5706fb 7b57075d 7b57075f 7b570774 " +
+    "7b570775 7b570776 7b570777 7b570779 7b57077b 7b57077c 7b57077d 7b57077e 7b57077f 7b5707cd " +
+    "7b5707cf 7b5707e4 7b5707e5 7b5707e6 7b5707e7 7b5707e9 7b5707eb 7b5707ec 7b5707ed 7b5707ee " +
+    "7b5707ef 7b570c14 7b570c15 7b570c16 7b570c17 7b570c1c 7b570c1d 7b570c1e 7b570c1f 7b570c34 " +
+    "7b570c35 7b570c36 7b570c37 7b570c3c 7b570c3d 7b570c3e 7b570c3f 7b570c50 7b570c51 7b570c52 " +
+    "7b570c53 7b570c56 7b570c58 7b570c59 7b570c5a 7b570c5b 7b570c5c 7b570c5e 7b570c5f 7b570c94 " +
+    "7b570c95 7b570c96 7b570c97 7b570c9c 7b570c9d 7b570c9e 7b570c9f 7b570cb4 7b570cb5 7b570cb6 " +
+    "7b570cb7 7b570cbc 7b570cbd 7b570cbe 7b570cbf 7b570d1d 7b570d1f 7b570d22 7b570d28 7b570d2a " +
+    "7b570d2b 7b570d34 7b570d35 7b570d36 7b570d37 7b570d39 7b570d3b 7b570d3c 7b570d3d 7b570d3e " +
+    "7b570d3f 7b570d80 7b570d81 7b570d82 7b570d83 7b570d86 7b570d88 7b570d89 7b570d8a 7b570d8b " +
+    "7b570d8c 7b570d8d 7b570d8e 7b570d8f 7b570dd0 7b570dd1 7b570dd2 7b570dd3 7b570dd4 7b570dd6 " +
+    "7b570dd8 7b570dd9 7b570dda 7b570ddb 7b570ddc 7b570dde 7b570df0 7b570df1 7b570df2 7b570df3 " +
+    "7b570df4 7b570df6 7b570df8 7b570df9 7b570dfa 7b570dfb 7b570dfc 7b570dfe 7b570e14 7b570e15 " +
+    "7b570e16 7b570e17 7b570e1c 7b570e1d 7b570e1e 7b570e1f 7b570e35 7b570e37 7b570e3d 7b570e3f " +
+    "7b570e95 7b570e97 7b570e9d 7b570e9f 7b570eb5 7b570eb7 7b570ebd 7b570ebf 7b570f50 7b570f51 " +
+    "7b570f52 7b570f53 7b570f54 7b570f56 7b570f58 7b570f59 7b570f5a 7b570f5b 7b570f5c 7b570f5e " +
+    "7b570f70 7b570f71 7b570f72 7b570f73 7b570f78 7b570f79 7b570f7a 7b570f7b 7b570fa0 7b570fa1 " +
+    "7b570fa2 7b570fb0 7b570fb1 7b570fb3 7b570fb4 7b570fb5 7b570fb6 7b570fb7 7b570fb9 7b570fbc " +
+    "7b570fbd 7b570fbe 7b570fbf 7b570fd0 7b570fd1 7b570fd2 7b570fd3 7b570fd8 7b570fd9 7b570fda " +
+    "7b570fdb 7b570ff0 7b570ff1 7b570ff2 7b570ff3 7b570ff8 7b570ff9 7b570ffa 7b570ffb 7b571202 " +
+    "7b571208 7b57120a 7b571220 7b571222 7b571228 7b57122a 7b571280 7b571282 7b571288 7b57128a " +
+    "7b572415 7b572417 7b57241d 7b57241f 7b572435 7b572437 7b57243d 7b57243f 7b572450 7b572451 " +
+    "7b572452 7b572453 7b572454 7b572458 7b572460 7b572461 7b572462 7b572463 7b572464 7b572466 " +
+    "7b572468 7b572469 7b57246a 7b572515 7b572517 7b572540 7b572541 7b572542 7b572543 7b572544 " +
+    "7b572545 7b572546 7b572547 7b572548 7b572549 7b57254b 7b57254c 7b57254d 7b57254e 7b57254f " +
+    "7b572550 7b572552 7b572558 7b57255a 7b572561 7b572564 7b572565 7b572566 7b572567 7b57256d " +
+    "7b57256f 7b572570 7b572572 7b572578 7b57257a";
+  
+  @Test
+  public void testExpectedCells() {
+    double[][] vertices = { { 48.0, -4.8 }, { 48.3, -4.5 }, { 48.0, -4.2 }, { 48.6, -4.3 }, { 48.45, -4.5 }, { 48.6, -4.75 } };
+    
+    List<Long> lats = new ArrayList<Long>();
+    List<Long> lons = new ArrayList<Long>();
+    
+    for (double[] vertex: vertices) {
+      lats.add(HHCodeHelper.toLongLat(vertex[0]));
+      lons.add(HHCodeHelper.toLongLon(vertex[1]));
+    }
+    
+    String[] prefixes = EXPECTED_CELLS.split(" ");
+    long[] expected = new long[prefixes.length];
+    
+    for (int i = 0; i < prefixes.length; i++) {
+      int r = Integer.parseInt(prefixes[i].substring(0, 1), 16);
+      expected[i] = (((long) r) << 60) | (Long.parseLong(prefixes[i].substring(1), 16) << (60 - 4 * r));
+    }
+    
+    Coverage coverage = HHCodeHelper.coverPolygon(lats, lons, 14);
+    coverage.normalize(14);
+    coverage.optimize(0L);
+    
+    long[] geocells = coverage.toGeoCells(14);
+    Arrays.sort(geocells);
+    
+    Assert.assertArrayEquals(expected, geocells);
+  }
+}